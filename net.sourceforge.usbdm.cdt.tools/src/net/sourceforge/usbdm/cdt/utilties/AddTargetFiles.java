@@ -3,17 +3,24 @@ package net.sourceforge.usbdm.cdt.utilties;
  * 
  */
 
-import java.io.ByteArrayInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardCopyOption;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IFolder;
@@ -32,6 +39,7 @@ import net.sourceforge.usbdm.constants.UsbdmSharedConstants;
 import net.sourceforge.usbdm.packageParser.FileAction;
 import net.sourceforge.usbdm.packageParser.FileAction.PathType;
 import net.sourceforge.usbdm.packageParser.ISubstitutionMap;
+import net.sourceforge.usbdm.packageParser.ReplacementParser;
 
 /**
  * @author pgo
@@ -43,6 +51,40 @@ public class AddTargetFiles {
       return Files.readAllBytes(path);
    }
 
+   /**
+    * Copy file to a temporary file applying macro substitutions.<br>
+    * The file is processed as a stream so large files are never held in memory.<br>
+    * If the file contains a malformed macro it is processed in memory instead so that the result
+    * is the same as {@link ISubstitutionMap#substituteFinal(String)} (which includes the error message).
+    * 
+    * @param sourcePath    Path of source file (assumed UTF-8)
+    * @param variableMap   Macro values
+    * 
+    * @return Path of temporary file (to be deleted by caller)
+    * 
+    * @throws IOException on failure to read source or write temporary file
+    */
+   static Path substituteFile(Path sourcePath, ISubstitutionMap variableMap) throws IOException {
+      Path tempPath = Files.createTempFile("usbdm", ".tmp");
+      try {
+         // Output uses default charset to match String.getBytes()
+         try (Reader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(sourcePath), StandardCharsets.UTF_8));
+              Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(tempPath), Charset.defaultCharset()))) {
+            ReplacementParser.substituteFinal(reader, writer, variableMap);
+         } catch (IOException e) {
+            throw e;
+         } catch (Exception e) {
+            // Malformed macro - redo in memory to obtain the same result
+            String chars = StandardCharsets.UTF_8.decode(ByteBuffer.wrap(readFile(sourcePath))).toString();
+            Files.write(tempPath, variableMap.substituteFinal(chars).getBytes());
+         }
+      } catch (IOException e) {
+         Files.deleteIfExists(tempPath);
+         throw e;
+      }
+      return tempPath;
+   }
+   
    /**
     * 
     * @param sourcePath          path of source file
@@ -59,23 +101,27 @@ public class AddTargetFiles {
       SubMonitor subMonitor = SubMonitor.convert(monitor);
       subMonitor.beginTask("Copy File", 100);
       
-      byte[] fileContents;
+      // File containing contents to write (source or temporary file with substitutions)
+      Path contentsPath = sourcePath;
       try {
-         fileContents = readFile(sourcePath);
+         if (!Files.isReadable(sourcePath)) {
+            throw new IOException("Unable to read " + sourcePath);
+         }
+         if (fileAction.doMacroReplace()) {
+            contentsPath = substituteFile(sourcePath, variableMap);
+         }
       } catch (IOException e) {
          throw new Exception("\"" + sourcePath + "\" failed read", e); //$NON-NLS-1$ //$NON-NLS-2$
       }
-      if (fileAction.doMacroReplace()) {
-         // Assume UTF-8
-         String chars = StandardCharsets.UTF_8.decode(ByteBuffer.wrap(fileContents)).toString();
-         fileContents = variableMap.substituteFinal(chars).getBytes();
-      }
-      try {
+      try (InputStream fileContents = Files.newInputStream(contentsPath)) {
          if (projectHandle == null) {
             // Debug mode
             targetPath = Paths.get("Testing", targetPath.toString());
             System.err.println("targetpath = '"+targetPath.toAbsolutePath()+"'");
-            Files.write(targetPath, fileContents, StandardOpenOption.CREATE,StandardOpenOption.TRUNCATE_EXISTING);
+            if (!FileWriteAvoidance.isUnchanged(targetPath, contentsPath)) {
+               Files.copy(fileContents, targetPath, StandardCopyOption.REPLACE_EXISTING);
+               FileWriteAvoidance.recordWritten(targetPath);
+            }
          }
          else {
             IFile iFile = projectHandle.getFile(targetPath.toString());
@@ -84,23 +130,41 @@ public class AddTargetFiles {
                ProjectUtilities.createFolder(projectHandle, iFile.getParent().getProjectRelativePath().toString(), subMonitor.newChild(25));
                remainder -= 25;
             }
+            // Location of file in file system (null if not local)
+            Path location = (iFile.getLocation() == null)?null:iFile.getLocation().toFile().toPath();
             if (iFile.exists()) {
                // Replace existing, more specific, file
                if (fileAction.doFileOverwrite()) {
 //                  System.err.println("AddTargetFiles.processFile() - replacing " + iFile.toString());
-                  iFile.setContents(new ByteArrayInputStream(fileContents), true, false, subMonitor.newChild(remainder-25));;
+                  if ((location != null) && FileWriteAvoidance.isUnchanged(location, contentsPath)) {
+                     // Leave unchanged file alone to avoid unnecessary rebuild
+                     subMonitor.worked(remainder-25);
+                  }
+                  else {
+                     iFile.setContents(fileContents, true, false, subMonitor.newChild(remainder-25));
+                     if (location != null) {
+                        FileWriteAvoidance.recordWritten(location);
+                     }
+                  }
                }
                else {
                   throw new Exception("\"" + iFile.toString() + "\" already exists"); //$NON-NLS-1$ //$NON-NLS-2$
                }
             }
             else {
-               iFile.create(new ByteArrayInputStream(fileContents), true, subMonitor.newChild(remainder-25));
+               iFile.create(fileContents, true, subMonitor.newChild(remainder-25));
+               if (location != null) {
+                  FileWriteAvoidance.recordWritten(location);
+               }
             }
             iFile.setDerived(fileAction.isDerived(), subMonitor.newChild(25));
          }
       } catch (CoreException e) {
          throw new Exception("Failed" + e.getMessage(), e); //$NON-NLS-1$
+      } finally {
+         if (contentsPath != sourcePath) {
+            Files.deleteIfExists(contentsPath);
+         }
       }
    }
 
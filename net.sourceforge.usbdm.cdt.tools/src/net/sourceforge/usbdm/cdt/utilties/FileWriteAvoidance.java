@@ -0,0 +1,353 @@
+package net.sourceforge.usbdm.cdt.utilties;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Avoids re-writing generated or copied files when their contents have not changed<br>
+ *
+ * Re-writing a file with identical contents still changes its timestamp which causes
+ * a rebuild of everything that depends on it.
+ * The new contents are hashed and compared with a hash of the existing file.
+ * The hash of each file written is remembered together with its size and modification time
+ * so an unchanged file does not have to be read again on the next regeneration.
+ *
+ * A report of files written and skipped is available (see {@link #getReport()}).
+ */
+public class FileWriteAvoidance {
+
+   /** Hash of file contents recorded when the file was written or checked */
+   private static class FileHash {
+      final byte[] fDigest;
+      final long   fSize;
+      final long   fLastModified;
+
+      FileHash(byte[] digest, long size, long lastModified) {
+         fDigest       = digest;
+         fSize         = size;
+         fLastModified = lastModified;
+      }
+   }
+
+   /** Algorithm used to hash file contents */
+   private static final String HASH_ALGORITHM = "SHA-256";
+
+   /** Enables skipping of unchanged writes */
+   private static boolean fEnabled = true;
+
+   /** Hashes of files by absolute path */
+   private static final HashMap<Path, FileHash> fHashes = new HashMap<Path, FileHash>();
+
+   /** Files written since statistics were reset */
+   private static final ArrayList<Path> fWritten = new ArrayList<Path>();
+
+   /** Number of files skipped since statistics were reset */
+   private static long fSkipped = 0;
+
+   /** Number of times an existing file was read to obtain its hash */
+   private static long fFilesHashed = 0;
+
+   /**
+    * Output stream that collects contents in memory and writes the file when closed
+    * (only if the contents have changed)
+    */
+   private static class ContentsOutputStream extends ByteArrayOutputStream {
+      private final Path fPath;
+      private boolean    fClosed = false;
+
+      ContentsOutputStream(Path path) {
+         super(8192);
+         fPath = path;
+      }
+
+      @Override
+      public void close() throws IOException {
+         if (fClosed) {
+            return;
+         }
+         fClosed = true;
+         writeIfChanged(fPath, toByteArray());
+      }
+   }
+
+   /**
+    * Get new message digest
+    *
+    * @return Digest
+    */
+   private static MessageDigest getDigest() {
+      try {
+         return MessageDigest.getInstance(HASH_ALGORITHM);
+      } catch (NoSuchAlgorithmException e) {
+         // Always available
+         throw new RuntimeException(e);
+      }
+   }
+
+   /**
+    * Hash contents of stream
+    *
+    * @param stream Stream to read
+    *
+    * @return Digest of contents
+    *
+    * @throws IOException
+    */
+   private static byte[] hash(InputStream stream) throws IOException {
+      MessageDigest digest = getDigest();
+      byte[] buffer = new byte[8192];
+      int count;
+      while ((count = stream.read(buffer)) > 0) {
+         digest.update(buffer, 0, count);
+      }
+      return digest.digest();
+   }
+
+   /**
+    * Get hash of existing file
+    *
+    * @param path       Absolute path of file
+    * @param attributes Attributes of file
+    *
+    * @return Hash of file
+    *
+    * @throws IOException
+    */
+   private static byte[] getExistingHash(Path path, BasicFileAttributes attributes) throws IOException {
+      long size         = attributes.size();
+      long lastModified = attributes.lastModifiedTime().toMillis();
+      synchronized (FileWriteAvoidance.class) {
+         FileHash fileHash = fHashes.get(path);
+         if ((fileHash != null) && (fileHash.fSize == size) && (fileHash.fLastModified == lastModified)) {
+            return fileHash.fDigest;
+         }
+      }
+      byte[] digest;
+      try (InputStream stream = Files.newInputStream(path)) {
+         digest = hash(stream);
+      }
+      synchronized (FileWriteAvoidance.class) {
+         fFilesHashed++;
+         fHashes.put(path, new FileHash(digest, size, lastModified));
+      }
+      return digest;
+   }
+
+   /**
+    * Get attributes of existing file
+    *
+    * @param path Path of file
+    *
+    * @return Attributes or null if not an existing regular file
+    */
+   private static BasicFileAttributes getAttributes(Path path) {
+      try {
+         BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+         return attributes.isRegularFile()?attributes:null;
+      } catch (IOException e) {
+         return null;
+      }
+   }
+
+   /**
+    * Check if a file already has the given contents
+    *
+    * @param path    Path of file
+    * @param size    Size of new contents
+    * @param digest  Hash of new contents
+    *
+    * @return True if the file exists with the same contents
+    *
+    * @throws IOException
+    */
+   private static boolean isUnchanged(Path path, long size, byte[] digest) throws IOException {
+      if (!isEnabled()) {
+         return false;
+      }
+      BasicFileAttributes attributes = getAttributes(path);
+      if ((attributes == null) || (attributes.size() != size)) {
+         return false;
+      }
+      return Arrays.equals(getExistingHash(path, attributes), digest);
+   }
+
+   /**
+    * Record that a file was written or skipped
+    *
+    * @param path    Absolute path of file
+    * @param digest  Hash of contents
+    * @param written True if the file was written
+    */
+   private static void record(Path path, byte[] digest, boolean written) {
+      BasicFileAttributes attributes = getAttributes(path);
+      synchronized (FileWriteAvoidance.class) {
+         if (attributes != null) {
+            fHashes.put(path, new FileHash(digest, attributes.size(), attributes.lastModifiedTime().toMillis()));
+         }
+         if (written) {
+            fWritten.add(path);
+         }
+         else {
+            fSkipped++;
+         }
+      }
+   }
+
+   /**
+    * Check if a file already has the same contents as another file<br>
+    * Used before copying a file into a project.
+    * If the file is unchanged it is counted as skipped.
+    *
+    * @param path          Path of file to check
+    * @param contentsPath  Path of file holding new contents
+    *
+    * @return True if the file exists with the same contents i.e. the write may be skipped
+    *
+    * @throws IOException
+    */
+   public static boolean isUnchanged(Path path, Path contentsPath) throws IOException {
+      if (!isEnabled()) {
+         return false;
+      }
+      byte[] digest;
+      try (InputStream stream = Files.newInputStream(contentsPath)) {
+         digest = hash(stream);
+      }
+      path = path.toAbsolutePath();
+      if (isUnchanged(path, Files.size(contentsPath), digest)) {
+         record(path, digest, false);
+         return true;
+      }
+      return false;
+   }
+
+   /**
+    * Record that a file has been written by the caller<br>
+    * Used with {@link #isUnchanged(Path, Path)} so the hash of the file is remembered
+    *
+    * @param path Path of file written
+    *
+    * @throws IOException
+    */
+   public static void recordWritten(Path path) throws IOException {
+      path = path.toAbsolutePath();
+      byte[] digest;
+      try (InputStream stream = Files.newInputStream(path)) {
+         digest = hash(stream);
+      }
+      record(path, digest, true);
+   }
+
+   /**
+    * Write contents to file unless the file already has those contents
+    *
+    * @param path      Path of file
+    * @param contents  Contents to write
+    *
+    * @return True if the file was written, false if unchanged
+    *
+    * @throws IOException
+    */
+   public static boolean writeIfChanged(Path path, byte[] contents) throws IOException {
+      path = path.toAbsolutePath();
+      byte[] digest = getDigest().digest(contents);
+      if (isUnchanged(path, contents.length, digest)) {
+         record(path, digest, false);
+         return false;
+      }
+      Files.write(path, contents);
+      record(path, digest, true);
+      return true;
+   }
+
+   /**
+    * Create output stream for a file<br>
+    * The contents are collected in memory and only written to the file when the stream is closed and
+    * the contents differ from the existing file.
+    *
+    * @param path Path of file
+    *
+    * @return Output stream
+    */
+   public static ByteArrayOutputStream newOutputStream(Path path) {
+      return new ContentsOutputStream(path);
+   }
+
+   /**
+    * Enable or disable skipping of unchanged writes
+    *
+    * @param enable True to enable
+    */
+   public static synchronized void setEnabled(boolean enable) {
+      fEnabled = enable;
+   }
+
+   /**
+    * Indicates if unchanged writes are skipped
+    *
+    * @return True if enabled
+    */
+   public static synchronized boolean isEnabled() {
+      return fEnabled;
+   }
+
+   /**
+    * Discard remembered hashes
+    */
+   public static synchronized void clearHashes() {
+      fHashes.clear();
+   }
+
+   /**
+    * Reset statistics i.e. files written and skipped
+    */
+   public static synchronized void resetStatistics() {
+      fWritten.clear();
+      fSkipped     = 0;
+      fFilesHashed = 0;
+   }
+
+   /**
+    * Get number of files written since statistics were reset
+    *
+    * @return Count
+    */
+   public static synchronized int getWrittenCount() {
+      return fWritten.size();
+   }
+
+   /**
+    * Get number of files skipped since statistics were reset
+    *
+    * @return Count
+    */
+   public static synchronized long getSkippedCount() {
+      return fSkipped;
+   }
+
+   /**
+    * Get report of files written and skipped since statistics were reset
+    *
+    * @return Report listing files written
+    */
+   public static synchronized String getReport() {
+      StringBuilder sb = new StringBuilder();
+      sb.append(String.format("Files written = %d, unchanged files skipped = %d, existing files hashed = %d\n",
+            fWritten.size(), fSkipped, fFilesHashed));
+      for (Path path:fWritten) {
+         sb.append("   Written: ");
+         sb.append(path.toString());
+         sb.append("\n");
+      }
+      return sb.toString();
+   }
+}
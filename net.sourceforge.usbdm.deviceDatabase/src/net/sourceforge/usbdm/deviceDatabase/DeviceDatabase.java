@@ -44,6 +44,7 @@ import net.sourceforge.usbdm.packageParser.ProjectActionList;
 public class DeviceDatabase {
 
    private ArrayList<Device> deviceList;       // List of all devices (including aliases)
+   private DeviceNameIndex<Device> fDeviceIndex = new DeviceNameIndex<Device>(); // Index of deviceList by name
    private Device            defaultDevice;    // Default device
 
    private Document          dom;
@@ -495,6 +496,7 @@ public class DeviceDatabase {
          }
          else {
             deviceList.add(device);
+            fDeviceIndex.addName(device.getName(), device);
          }
       }
    }
@@ -767,18 +769,12 @@ final Pattern namePattern = Pattern.compile("^(.*)xxx([0-9]*)$");
 /**
 * Returns the device with the given name (or alias)
 * 
-* @param name e.g. MK20DN32M5
+* @param name e.g. MK20DN32M5 (case is ignored)
 * 
 * @return
 */
 public Device getExactDevice(String name) {
-  for (int index = 0; index<deviceList.size(); index++) {
-     Device device = deviceList.get(index);
-     if (device.getName().toUpperCase().equals(name.toUpperCase())) {
-        return device;
-     }
-  }
-  return null;
+  return fDeviceIndex.findExact(name);
 }
 
    public Device getDefaultDevice() {
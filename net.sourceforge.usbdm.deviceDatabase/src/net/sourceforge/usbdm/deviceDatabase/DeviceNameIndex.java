@@ -0,0 +1,176 @@
+package net.sourceforge.usbdm.deviceDatabase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Index used to resolve device names to items e.g. devices or SVD file names.<br>
+ *
+ * Entries may be:
+ * <ul>
+ * <li>Names - these are matched exactly but ignoring case
+ * <li>Patterns - regular expressions that must match the entire name (as for {@link String#matches(String)})
+ * </ul>
+ * Patterns are compiled once and grouped by their leading literal characters so that only
+ * patterns that could possibly match a name are tried.<br>
+ * When several entries match a name the entry added first is returned i.e. the same result
+ * as a linear search of the entries in the order they were added.
+ *
+ * @param <T> Type of item being indexed
+ */
+public class DeviceNameIndex<T> {
+
+   /** Characters that end the literal prefix of a regular expression */
+   private static final String REGEX_META_CHARACTERS = "\\.[]{}()*+?^$|";
+
+   /**
+    * Entry in index
+    */
+   private static class Entry<T> {
+      /** Order in which entry was added - used to choose between several matches */
+      final int     fOrder;
+
+      /** Item returned on match */
+      final T       fItem;
+
+      /** Compiled pattern (null for exact names) */
+      final Pattern fPattern;
+
+      Entry(int order, T item, Pattern pattern) {
+         fOrder   = order;
+         fItem    = item;
+         fPattern = pattern;
+      }
+   }
+
+   /** Exact names (upper-case) to first matching entry */
+   private final HashMap<String, Entry<T>> fNames = new HashMap<String, Entry<T>>();
+
+   /** Patterns grouped by literal prefix. Each group is in order of addition. */
+   private final HashMap<String, ArrayList<Entry<T>>> fPatternGroups = new HashMap<String, ArrayList<Entry<T>>>();
+
+   /** Length of longest literal prefix in fPatternGroups */
+   private int fLongestPrefix = 0;
+
+   /** Number of entries added */
+   private int fOrder = 0;
+
+   /**
+    * Get the literal characters at the start of a regular expression<br>
+    * Any name matched by the expression must start with these characters.
+    *
+    * @param regex Regular expression
+    *
+    * @return Literal prefix (may be empty)
+    */
+   static String getLiteralPrefix(String regex) {
+      if (regex.indexOf('|') >= 0) {
+         // Alternatives may start with anything
+         return "";
+      }
+      StringBuilder sb = new StringBuilder();
+      for (int index = regex.startsWith("^")?1:0; index<regex.length(); index++) {
+         char ch = regex.charAt(index);
+         if (REGEX_META_CHARACTERS.indexOf(ch) >= 0) {
+            if (((ch == '?') || (ch == '*') || (ch == '{')) && (sb.length() > 0)) {
+               // Preceding character is optional
+               sb.setLength(sb.length()-1);
+            }
+            break;
+         }
+         sb.append(ch);
+      }
+      return sb.toString();
+   }
+
+   /**
+    * Add name to index.<br>
+    * Names are matched ignoring case.
+    *
+    * @param name Name e.g. MK20DX128M5
+    * @param item Item to return when name matches
+    */
+   public void addName(String name, T item) {
+      String key = name.toUpperCase();
+      Entry<T> entry = new Entry<T>(fOrder++, item, null);
+      if (!fNames.containsKey(key)) {
+         fNames.put(key, entry);
+      }
+   }
+
+   /**
+    * Add pattern to index
+    *
+    * @param regex Regular expression that must match the entire name e.g. "MK20DX(32|64|128)"
+    * @param item  Item to return when pattern matches
+    */
+   public void addPattern(String regex, T item) {
+      Entry<T> entry = new Entry<T>(fOrder++, item, Pattern.compile(regex));
+      String prefix = getLiteralPrefix(regex);
+      ArrayList<Entry<T>> group = fPatternGroups.get(prefix);
+      if (group == null) {
+         group = new ArrayList<Entry<T>>();
+         fPatternGroups.put(prefix, group);
+      }
+      group.add(entry);
+      fLongestPrefix = Math.max(fLongestPrefix, prefix.length());
+   }
+
+   /**
+    * Find item for name using only exact names
+    *
+    * @param name Name to look up
+    *
+    * @return Item or null if not found
+    */
+   public T findExact(String name) {
+      Entry<T> entry = fNames.get(name.toUpperCase());
+      if (entry == null) {
+         return null;
+      }
+      return entry.fItem;
+   }
+
+   /**
+    * Find item for name using names and patterns
+    *
+    * @param name Name to look up
+    *
+    * @return Item from earliest added matching entry or null if not found
+    */
+   public T find(String name) {
+      Entry<T> best = fNames.get(name.toUpperCase());
+      int limit = Math.min(name.length(), fLongestPrefix);
+      for (int length=0; length<=limit; length++) {
+         ArrayList<Entry<T>> group = fPatternGroups.get(name.substring(0, length));
+         if (group == null) {
+            continue;
+         }
+         for (Entry<T> entry:group) {
+            if ((best != null) && (entry.fOrder > best.fOrder)) {
+               // Group is in order so no better entries
+               break;
+            }
+            if (entry.fPattern.matcher(name).matches()) {
+               best = entry;
+               break;
+            }
+         }
+      }
+      if (best == null) {
+         return null;
+      }
+      return best.fItem;
+   }
+
+   /**
+    * Remove all entries
+    */
+   public void clear() {
+      fNames.clear();
+      fPatternGroups.clear();
+      fLongestPrefix = 0;
+      fOrder         = 0;
+   }
+}
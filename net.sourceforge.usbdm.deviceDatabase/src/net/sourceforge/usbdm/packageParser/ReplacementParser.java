@@ -1,5 +1,8 @@
 package net.sourceforge.usbdm.packageParser;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
 import java.util.HashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -37,6 +40,138 @@ public class ReplacementParser {
 
    private final boolean fExpandEscapes;
    
+   /** Memo of symbol look-ups for this run (values may be null) */
+   private final HashMap<String, String> fLookupMemo = new HashMap<String, String>();
+   
+   /** Memo of expanded symbol values for this run */
+   private final HashMap<String, String> fExpansionMemo = new HashMap<String, String>();
+   
+   /** Size of buffer used when reading from a Reader */
+   private static final int READER_BUFFER_SIZE = 8192;
+   
+   /**
+    * Source of characters being parsed<br>
+    * Only the current character is examined so a stream may be processed with a bounded buffer
+    */
+   private static abstract class CharSource {
+      
+      /**
+       * Check if there is a current character (not at end of input)
+       * 
+       * @return True if character available
+       * 
+       * @throws IOException
+       */
+      abstract boolean hasChar() throws IOException;
+      
+      /**
+       * Get current character
+       * 
+       * @return Character
+       * 
+       * @throws IOException
+       * @throws StringIndexOutOfBoundsException if at end of input
+       */
+      abstract char peek() throws IOException;
+      
+      /**
+       * Move to next character
+       */
+      abstract void advance();
+      
+      /**
+       * Get description of input for messages
+       * 
+       * @return Description
+       */
+      abstract String describe();
+   }
+   
+   /**
+    * Characters from a string
+    */
+   private static class StringSource extends CharSource {
+      
+      private final String fText;
+      private int          fIndex = 0;
+      
+      StringSource(String text) {
+         fText = text;
+      }
+      
+      @Override
+      boolean hasChar() {
+         return fIndex<fText.length();
+      }
+
+      @Override
+      char peek() {
+         return fText.charAt(fIndex);
+      }
+
+      @Override
+      void advance() {
+         fIndex++;
+      }
+
+      @Override
+      String describe() {
+         return fText;
+      }
+   }
+   
+   /**
+    * Characters from a Reader using a bounded buffer
+    */
+   private static class ReaderSource extends CharSource {
+      
+      private final Reader fReader;
+      private final char[] fBuffer = new char[READER_BUFFER_SIZE];
+      private int          fCount    = 0;
+      private int          fPosition = 0;
+      private long         fOffset   = 0;
+      
+      ReaderSource(Reader reader) {
+         fReader = reader;
+      }
+      
+      @Override
+      boolean hasChar() throws IOException {
+         while (fPosition >= fCount) {
+            int count = fReader.read(fBuffer);
+            if (count < 0) {
+               return false;
+            }
+            fOffset   += fCount;
+            fCount    = count;
+            fPosition = 0;
+         }
+         return true;
+      }
+
+      @Override
+      char peek() throws IOException {
+         if (fPosition < fCount) {
+            return fBuffer[fPosition];
+         }
+         if (!hasChar()) {
+            throw new StringIndexOutOfBoundsException("End of input at offset " + (fOffset+fPosition));
+         }
+         return fBuffer[fPosition];
+      }
+
+      @Override
+      void advance() {
+         fPosition++;
+      }
+
+      @Override
+      String describe() {
+         int start = Math.max(0, Math.min(fPosition, fCount)-40);
+         return "..." + new String(fBuffer, start, Math.min(fPosition, fCount)-start) + " (at offset " + (fOffset+fPosition) + ")";
+      }
+   }
+   
    /**
     * Key maker that just returns the unmodified key
     */
@@ -104,22 +239,19 @@ public class ReplacementParser {
     * </pre>
     * Key may contain a replacement pattern!
     * 
-    * @param inputText String containing entire input String
-    * @param index     Position of current character (just past open parenthesis)
+    * @param input     Input positioned just past open parenthesis. On return positioned at colon or closing parenthesis
     * @param sb        Builder to accumulate key in
     * 
-    * @return  Updated position (at colon or closing parenthesis)
-    * 
     * @throws Exception
     */
-   private int parseKey(String inputText, int index, StringBuilder sb) throws Exception {
+   private void parseKey(CharSource input, StringBuilder sb) throws Exception {
       
       KeyState state    = KeyState.KEY;
       boolean  complete = false;
       Character pendingChar = null;
 
-      while((index<inputText.length()) && (!complete)) {
-         char c = inputText.charAt(index);
+      while(input.hasChar() && (!complete)) {
+         char c = input.peek();
          pendingChar = null;
          if (!Character.isLetterOrDigit(c) && ("$:()[]_/.".indexOf(c)<0)) {
             throw new Exception("Illegal character in key '"+ sb.toString()+c + "'");
@@ -127,12 +259,12 @@ public class ReplacementParser {
          switch(state) {
             case KEY:
                if (c == '$') {
-                  index++;
+                  input.advance();
                   state = KeyState.DOLLAR;
                   pendingChar = c;
                }
                else if (c == '\\') {
-                  index++;
+                  input.advance();
                   state = KeyState.ESCAPE;
                   pendingChar = c;
                }
@@ -140,18 +272,18 @@ public class ReplacementParser {
                   complete = true;
                }
                else {
-                  index++;
+                  input.advance();
                   sb.append(c);
                }
                break;
                
             case DOLLAR:
                if (c == '(') {
-                  index++;
-                  index = parseSubstitution(inputText, index, sb);
+                  input.advance();
+                  parseSubstitution(input, sb);
                }
                else {
-                  index++;
+                  input.advance();
                   sb.append('$');
                   sb.append(c);
                }
@@ -159,7 +291,7 @@ public class ReplacementParser {
                break;
                
             case ESCAPE:
-               index++;
+               input.advance();
                if (!fExpandEscapes) {
                   sb.append('\\');
                }
@@ -174,9 +306,8 @@ public class ReplacementParser {
          sb.append(pendingChar);
       }
       if (state != KeyState.KEY) {
-         throw new Exception("Error in replacement key = '" + inputText + "'");
+         throw new Exception("Error in replacement key = '" + input.describe() + "'");
       }
-      return index;
    }
    
    enum ReplaceState {CODE, STRING, CHAR, ESCAPE, DOLLAR, QUOTED_ESCAPE, SLASH, LINE_COMMENT, BLOCK_COMMENT, BLOCK_COM_STAR};
@@ -191,22 +322,19 @@ public class ReplacementParser {
     * This is designed to process C code so it also watches levels of parenthesis, strings
     * and character constants, and does not terminate the replacement pattern prematurely.
     * 
-    * @param inputText     String containing entire input String
-    * @param index         Position of current character (just past second colon)
+    * @param input         Input positioned just past second colon. On return positioned at colon or closing parenthesis
     * @param defaultValue  Builder to accumulate default value in
     * 
-    * @return  Updated position (at colon or closing parenthesis)
-    * 
     * @throws Exception
     */
-   private int parseDefault(String inputText, int index, StringBuilder defaultValue) throws Exception {
+   private void parseDefault(CharSource input, StringBuilder defaultValue) throws Exception {
       boolean  complete = false;
       ReplaceState state     = ReplaceState.CODE;
       ReplaceState pushState = ReplaceState.CODE;
       int bracketLevel = 0;
       Character pendingChar = null;
-      while((index<inputText.length()) && (!complete)) {
-         char c = inputText.charAt(index);
+      while(input.hasChar() && (!complete)) {
+         char c = input.peek();
          pendingChar = null;
          switch (state) {
             case CODE:
@@ -215,7 +343,7 @@ public class ReplacementParser {
                }
                else {
                   pushState = state;
-                  index++;
+                  input.advance();
                   if (c == '$') {
                      state = ReplaceState.DOLLAR;
                      pendingChar = c;
@@ -244,11 +372,11 @@ public class ReplacementParser {
                
             case DOLLAR:
                if (c == '(') {
-                  index++;
-                  index = parseSubstitution(inputText, index, defaultValue);
+                  input.advance();
+                  parseSubstitution(input, defaultValue);
                }
                else {
-                  index++;
+                  input.advance();
                   defaultValue.append('$');
                   defaultValue.append(c);
                }
@@ -256,7 +384,7 @@ public class ReplacementParser {
                break;
                
             case CHAR:
-               index++;
+               input.advance();
                pushState = state;
                if (c == '$') {
                   state = ReplaceState.DOLLAR;
@@ -274,7 +402,7 @@ public class ReplacementParser {
                break;
                
             case STRING:
-               index++;
+               input.advance();
                pushState = state;
                if (c == '$') {
                   state = ReplaceState.DOLLAR;
@@ -294,7 +422,7 @@ public class ReplacementParser {
             case QUOTED_ESCAPE:
                // Quotes a single char unchanged e.g. inside string or char
                defaultValue.append(c);
-               index++;
+               input.advance();
                state = pushState;
                break;
                
@@ -320,7 +448,7 @@ public class ReplacementParser {
                   defaultValue.append('\\');
                }
                defaultValue.append(c);
-               index++;
+               input.advance();
                state = pushState;
                break;
                
@@ -329,12 +457,11 @@ public class ReplacementParser {
          }
       }
       if (!complete) {
-         throw new Exception("Missing ':' or ')' in '" + inputText + "'");
+         throw new Exception("Missing ':' or ')' in '" + input.describe() + "'");
       }
       if (pendingChar != null) {
          defaultValue.append(pendingChar);
       }
-      return index;
    }
 
 /**
@@ -344,66 +471,63 @@ public class ReplacementParser {
     *     ^...................^
     * </pre>
     * 
-    * @param inputText String containing entire input String
-    * @param index     Position of current character (just past open parenthesis)
-    * @param sb        Builder to accumulate key in
-    * 
-    * @return  Updated position (just past closing parenthesis)
+    * @param input     Input positioned just past open parenthesis. On return positioned just past closing parenthesis
+    * @param sb        Where to write replacement text
     * 
     * @throws Exception
     */
-   private int parseSubstitution(String inputText, int index, StringBuilder sb) throws Exception {
+   private void parseSubstitution(CharSource input, Appendable sb) throws Exception {
 
-      boolean conditional = (inputText.charAt(index) == '?');
+      boolean conditional = (input.peek() == '?');
 
       if (conditional) {
-         index++;
+         input.advance();
       }
       String key = null;
       {
          StringBuilder keyBuffer = new StringBuilder(20);
-         index = parseKey(inputText, index, keyBuffer);
+         parseKey(input, keyBuffer);
          key = keyBuffer.toString();
       }
 //      if (key.contains("usbphy_anactrl_pfd_frac")) {
 //         System.err.println("Found "+key);
 //      }
       String arg1 = null;
-      char c = inputText.charAt(index);
+      char c = input.peek();
       if (c == ':') {
-         index++;
+         input.advance();
          StringBuilder defaultValueBuffer = new StringBuilder(20);
-         index = parseDefault(inputText, index, defaultValueBuffer);
+         parseDefault(input, defaultValueBuffer);
          if (defaultValueBuffer.length() != 0) {
             arg1 = defaultValueBuffer.toString().trim();
          }
-         c = inputText.charAt(index);
+         c = input.peek();
       }
 
       String arg2 = null;
       if (c == ':') {
-         index++;
+         input.advance();
          StringBuilder modifierBuffer = new StringBuilder(20);
-         index = parseDefault(inputText, index, modifierBuffer);
+         parseDefault(input, modifierBuffer);
          if (modifierBuffer.length() != 0) {
             arg2 = modifierBuffer.toString().trim();
          }
       }
-      c = inputText.charAt(index);
+      c = input.peek();
       if (c != ')') {
-         throw new Exception("Missing ')' in '" + inputText + "'");
+         throw new Exception("Missing ')' in '" + input.describe() + "'");
       }
-      index++;
+      input.advance();
       
       String  replaceWith = null;
       if (fSymbols==null) {
          replaceWith = fKeyMaker.makeKey(key);
       }
       else {
-         replaceWith = fSymbols.getSubstitutionValue(key);
+         replaceWith = lookup(key);
          key = fKeyMaker.makeKey(key);
          if (replaceWith == null) {
-            replaceWith = fSymbols.getSubstitutionValue(key);
+            replaceWith = lookup(key);
          }
       }
       if (conditional) {
@@ -433,7 +557,7 @@ public class ReplacementParser {
       }
       else {
          if (replaceWith != null) {
-            replaceWith = replaceAll(replaceWith);
+            replaceWith = expand(replaceWith);
          }
          if ((replaceWith == null) && fIgnoreUnknowns) {
             // Don't expand unknown symbol (yet)
@@ -476,7 +600,6 @@ public class ReplacementParser {
                "---";
       }
       sb.append(replaceWith);
-      return index;
    }
 
   Pair<ReplaceState, Character> replaceCodeNextState(char c) {
@@ -505,29 +628,78 @@ public class ReplacementParser {
       return new Pair<ReplaceState, Character>(state, pendingChar);
 }
    
+   /**
+    * Look up symbol value<br>
+    * Results are remembered for the rest of this run
+    * 
+    * @param key  Key for symbol
+    * 
+    * @return Value or null if not found
+    */
+   private String lookup(String key) {
+      if (fLookupMemo.containsKey(key)) {
+         return fLookupMemo.get(key);
+      }
+      String value = fSymbols.getSubstitutionValue(key);
+      fLookupMemo.put(key, value);
+      return value;
+   }
+   
+   /**
+    * Replaces all macros in a symbol value<br>
+    * Results are remembered for the rest of this run
+    * 
+    * @param value  Value to process
+    * 
+    * @return Replaced text
+    * 
+    * @throws Exception
+    */
+   private String expand(String value) throws Exception {
+      String expansion = fExpansionMemo.get(value);
+      if (expansion == null) {
+         expansion = replaceAll(value);
+         fExpansionMemo.put(value, expansion);
+      }
+      return expansion;
+   }
+   
    /**
     * Replaces all macros in text
     * 
     * @param inputText  Text to process
     * 
-    * @return Replaced text or original if unchanged
+    * @return Replaced text
+    * 
     * @throws Exception
     */
    private String replaceAll(String inputText) throws Exception {
+      StringBuilder sb = new StringBuilder();
+      replaceAll(new StringSource(inputText), sb);
+      return sb.toString();
+   }
+   
+   /**
+    * Replaces all macros in input
+    * 
+    * @param input  Input to process
+    * @param sb     Where to write processed text
+    * 
+    * @throws Exception
+    */
+   private void replaceAll(CharSource input, Appendable sb) throws Exception {
       ReplaceState state     = ReplaceState.CODE;
       ReplaceState pushState = ReplaceState.CODE;
-      int index = 0;
-      StringBuilder sb = new StringBuilder();
       Character pendingChar = null;
       Pair<ReplaceState, Character> t = null;
       
-      while((index<inputText.length())) {
-         char c = inputText.charAt(index);
+      while(input.hasChar()) {
+         char c = input.peek();
          pendingChar = null;
          switch (state) {
          case CODE:
             pushState = state;
-            index++;
+            input.advance();
             t = replaceCodeNextState(c);
             state       = t.first;
             pendingChar = t.second;
@@ -538,11 +710,11 @@ public class ReplacementParser {
             
          case DOLLAR:
             if (c == '(') {
-               index++;
-               index = parseSubstitution(inputText, index, sb);
+               input.advance();
+               parseSubstitution(input, sb);
             }
             else {
-               index++;
+               input.advance();
                sb.append('$');
                sb.append(c);
             }
@@ -550,7 +722,7 @@ public class ReplacementParser {
             break;
             
          case CHAR:
-            index++;
+            input.advance();
             pushState = state;
             if (c == '$') {
                state = ReplaceState.DOLLAR;
@@ -568,7 +740,7 @@ public class ReplacementParser {
             break;
             
          case STRING:
-            index++;
+            input.advance();
             pushState = state;
             if (c == '$') {
                state = ReplaceState.DOLLAR;
@@ -588,13 +760,13 @@ public class ReplacementParser {
          case QUOTED_ESCAPE:
             // Quotes a single char unchanged e.g. inside string or char
             sb.append(c);
-            index++;
+            input.advance();
             state = pushState;
             break;
             
          case SLASH:
             // Possible start of comment
-            index++;
+            input.advance();
             if (c == '/') {
                state = ReplaceState.LINE_COMMENT;
             }
@@ -624,7 +796,7 @@ public class ReplacementParser {
                   state = ReplaceState.CODE;
                }
             }
-            index++;
+            input.advance();
             break;
             
          case BLOCK_COMMENT:
@@ -640,7 +812,7 @@ public class ReplacementParser {
                   state = ReplaceState.BLOCK_COM_STAR;
                }
             }
-            index++;
+            input.advance();
             break;
             
          case BLOCK_COM_STAR:
@@ -652,7 +824,7 @@ public class ReplacementParser {
                state = ReplaceState.BLOCK_COMMENT;
             }
             sb.append(c);
-            index++;
+            input.advance();
             break;
             
          case ESCAPE:
@@ -678,7 +850,7 @@ public class ReplacementParser {
                sb.append('\\');
             }
             sb.append(c);
-            index++;
+            input.advance();
             state = pushState;
             break;
             
@@ -689,7 +861,6 @@ public class ReplacementParser {
       if (pendingChar != null) {
          sb.append(pendingChar);
       }
-      return sb.toString();
    }
    
   /**
@@ -764,6 +935,30 @@ public class ReplacementParser {
       return substitute(inputText, symbolMap, NullKeyMaker, false, true);
    }
    
+   /**
+    * Replaces macros e.g. $(key:defaultValue) with values from a map while copying from a reader to a writer<br>
+    * The output is the same as {@link #substituteFinal(String, ISubstitutionMap)} but the input is processed
+    * as it is read so the entire text is never held in memory.
+    * <li>Default values are used if present and key not found, otherwise
+    * <li>Unknown macros without a default generate an error
+    * <li>Escape sequences e.g. '\n' are expanded
+    * <li>NULL keymaker is used
+    * 
+    * @param reader      Source of text to replace macros in
+    * @param writer      Where to write text with substitutions
+    * @param symbolMap   Map of key->value pairs for substitution (if null text is copied unchanged)
+    * 
+    * @throws Exception on I/O error or malformed macro (unlike the String version, the error is not written as the output)
+    */
+   public static void substituteFinal(Reader reader, Writer writer, ISubstitutionMap symbolMap) throws Exception {
+      if (symbolMap == null) {
+         reader.transferTo(writer);
+         return;
+      }
+      ReplacementParser replacementParser = new ReplacementParser(symbolMap, NullKeyMaker, false, true);
+      replacementParser.replaceAll(new ReaderSource(reader), writer);
+   }
+   
    /**
     * Replaces macros e.g. $(key:defaultValue) with values from a map
     * <li>Default values are used if present and key not found, otherwise
@@ -0,0 +1,184 @@
+package tests.internal;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import net.sourceforge.usbdm.packageParser.ReplacementParser;
+import net.sourceforge.usbdm.packageParser.SubstitutionMap;
+
+/**
+ * Tests of ReplacementParser
+ * <ul>
+ * <li>Fixed cases with expected results
+ * <li>Random text processed as a String and as a stream read in small pieces must give identical results
+ * <li>Optional: Files in directories given as arguments (e.g. stationery, KSDK sources) are processed
+ *     as a String and as a stream, compared, and timed
+ * </ul>
+ */
+public class TestReplacementParser {
+
+   /** Input and expected output of substituteFinal() */
+   static final String[][] CASES = {
+         { "plain text", "plain text" },
+         { "$(a) and $(a)", "AA and AA" },
+         { "$(bb)", "bAAb" },
+         { "$(b$(a)b)", "x\ny" },
+         { "$(key::toupper) $(key::tolower)", "KV kv" },
+         { "$(missing:default value)", "default value" },
+         { "$(?c:yes:no) $(?a:yes:no)", "no yes" },
+         { "/* $(a) */ // $(key)\n\"$(a)\" '$(a)'", "/* AA */ // Kv\n\"AA\" 'AA'" },
+         { "line\\nnext\\ttab", "line\nnext\ttab" },
+         { "$(missing)", "---Symbol not found or format incorrect for substitution  => key=missing, default=null, modifier=null---" },
+         { "$(a:b:badmodifier)", "---Symbol not found or format incorrect for substitution  => key=a, default=b, modifier=badmodifier---" },
+         { "$(missing:func(int x) { return \"$(a)\"; })", "func(int x) { return \"AA\"; }" },
+         { "cost $5 and $x", "cost $5 and $x" },
+         { "\\$(a)", "$(a)" },
+   };
+
+   /** Fragments used to generate random text */
+   static final String[] FRAGMENTS = {
+         "$(", "$", "(", ")", ":", "::", "\\", "\\n", "\"", "'", "/", "//", "/*", "*/", "*", "\n", "a", "bb", "key", "x y",
+         "$(a)", "$(bb:def)", "$(?a:yes:no)", "$(key::toupper)", "$(a$(bb))", "$(nokey:d$(a)d)", " ", "_", "[1]", "$(c)",
+   };
+
+   /**
+    * Reader that returns only a few characters on each read to exercise buffer boundaries
+    */
+   static class TrickleReader extends Reader {
+      final Reader fReader;
+      final Random fRandom;
+
+      TrickleReader(Reader reader, Random random) {
+         fReader = reader;
+         fRandom = random;
+      }
+
+      @Override
+      public int read(char[] buffer, int offset, int length) throws IOException {
+         return fReader.read(buffer, offset, Math.min(length, 1+fRandom.nextInt(3)));
+      }
+
+      @Override
+      public void close() throws IOException {
+         fReader.close();
+      }
+   }
+
+   /**
+    * Process text as a stream
+    *
+    * @param reader     Source of text
+    * @param symbolMap  Symbols
+    *
+    * @return Result or null if the text contains an error
+    */
+   static String stream(Reader reader, SubstitutionMap symbolMap) {
+      StringWriter writer = new StringWriter();
+      try {
+         ReplacementParser.substituteFinal(reader, writer, symbolMap);
+      } catch (Exception e) {
+         return null;
+      }
+      return writer.toString();
+   }
+
+   /**
+    * Compare String and stream processing of files in a directory
+    *
+    * @param directory  Directory to process
+    * @param symbolMap  Symbols
+    *
+    * @return Number of differences
+    *
+    * @throws IOException
+    */
+   static int compareFiles(Path directory, SubstitutionMap symbolMap) throws IOException {
+      int  failures   = 0;
+      long stringTime = 0;
+      long streamTime = 0;
+      long bytes      = 0;
+      try (Stream<Path> files = Files.walk(directory)) {
+         for (Object obj:files.toArray()) {
+            Path path = (Path) obj;
+            if (!Files.isRegularFile(path)) {
+               continue;
+            }
+            String text = StandardCharsets.UTF_8.decode(ByteBuffer.wrap(Files.readAllBytes(path))).toString();
+            bytes += text.length();
+            long startTime = System.nanoTime();
+            String expected = ReplacementParser.substituteFinal(text, symbolMap);
+            stringTime += System.nanoTime()-startTime;
+
+            startTime = System.nanoTime();
+            String actual = stream(new StringReader(text), symbolMap);
+            streamTime += System.nanoTime()-startTime;
+            if ((actual != null) && !actual.equals(expected)) {
+               System.err.println("Different: "+path);
+               failures++;
+            }
+         }
+      }
+      System.err.println(String.format("%s: %d chars, String = %.1f ms, stream = %.1f ms",
+            directory, bytes, stringTime/1000000.0, streamTime/1000000.0));
+      return failures;
+   }
+
+   public static void main(String[] args) throws Exception {
+      SubstitutionMap symbolMap = new SubstitutionMap();
+      symbolMap.addValue("a",    "AA");
+      symbolMap.addValue("bb",   "b$(a)b");
+      symbolMap.addValue("key",  "Kv");
+      symbolMap.addValue("AAb",  "nested");
+      symbolMap.addValue("c",    "0");
+      symbolMap.addValue("bAAb", "x\\ny");
+
+      int failures = 0;
+      for (String[] testCase:CASES) {
+         String result   = ReplacementParser.substituteFinal(testCase[0], symbolMap);
+         String streamed = stream(new StringReader(testCase[0]), symbolMap);
+         if (!testCase[1].equals(result) || !testCase[1].equals(streamed)) {
+            System.err.println("Failed: '"+testCase[0]+"' => '"+result+"', '"+streamed+"', expected '"+testCase[1]+"'");
+            failures++;
+         }
+      }
+      Random random = new Random(1);
+      int errors = 0;
+      for (int iteration=0; iteration<100000; iteration++) {
+         StringBuilder sb = new StringBuilder();
+         int count = random.nextInt(12);
+         for (int index=0; index<count; index++) {
+            sb.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+         }
+         String text     = sb.toString();
+         String streamed = stream(new TrickleReader(new StringReader(text), random), symbolMap);
+         if (streamed == null) {
+            // Malformed - String version returns error message
+            errors++;
+            continue;
+         }
+         if (!streamed.equals(ReplacementParser.substituteFinal(text, symbolMap))) {
+            System.err.println("Failed: '"+text+"'");
+            failures++;
+         }
+      }
+      System.err.println("Random test: "+errors+" malformed inputs skipped");
+
+      for (String directory:args) {
+         failures += compareFiles(Paths.get(directory), symbolMap);
+      }
+      if (failures != 0) {
+         System.err.println("FAILED, "+failures+" failures");
+         System.exit(1);
+      }
+      System.err.println("PASSED");
+   }
+}
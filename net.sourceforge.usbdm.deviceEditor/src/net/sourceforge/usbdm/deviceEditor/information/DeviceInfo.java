@@ -12,6 +12,10 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.BiConsumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -25,6 +29,7 @@ import org.eclipse.core.runtime.SubMonitor;
 import org.w3c.dom.Element;
 
 import net.sourceforge.usbdm.cdt.tools.UsbdmConstants;
+import net.sourceforge.usbdm.cdt.utilties.FileWriteAvoidance;
 import net.sourceforge.usbdm.deviceDatabase.Device;
 import net.sourceforge.usbdm.deviceEditor.Activator;
 import net.sourceforge.usbdm.deviceEditor.model.BaseModel;
@@ -37,11 +42,14 @@ import net.sourceforge.usbdm.deviceEditor.model.IModelEntryProvider;
 import net.sourceforge.usbdm.deviceEditor.model.ModelFactory;
 import net.sourceforge.usbdm.deviceEditor.model.ObservableModel;
 import net.sourceforge.usbdm.deviceEditor.model.ObservableModelInterface;
+import net.sourceforge.usbdm.deviceEditor.model.PropagationScheduler;
 import net.sourceforge.usbdm.deviceEditor.model.SignalPinMapping;
+import net.sourceforge.usbdm.deviceEditor.parsers.HardwareSnapshot;
 import net.sourceforge.usbdm.deviceEditor.parsers.ParseFamilyCSV;
 import net.sourceforge.usbdm.deviceEditor.parsers.ParseFamilyXML;
 import net.sourceforge.usbdm.deviceEditor.parsers.ParseMenuXML;
 import net.sourceforge.usbdm.deviceEditor.parsers.ParseMenuXML.MenuData;
+import net.sourceforge.usbdm.deviceEditor.parsers.ParseMenuXML.PeripheralDocument;
 import net.sourceforge.usbdm.deviceEditor.peripherals.Customiser;
 import net.sourceforge.usbdm.deviceEditor.peripherals.DocumentUtilities;
 import net.sourceforge.usbdm.deviceEditor.peripherals.Peripheral;
@@ -171,6 +179,9 @@ public class DeviceInfo extends ObservableModel implements IModelEntryProvider,
    /** Cached device peripherals from SVD */
    private DevicePeripherals fDevicePeripherals = null;
 
+   /** Schedules propagation of changes through expressions */
+   private final PropagationScheduler fPropagationScheduler = new PropagationScheduler();
+
    /** Variable provider for project variable (does not include peripherals) */
    private final VariableProvider fVariableProvider = new VariableProvider("Common_Settings", this) {
       
@@ -300,8 +311,15 @@ public class DeviceInfo extends ObservableModel implements IModelEntryProvider,
       if (resolvedPath == null) {
          throw new Exception("Cannot locate file "+ filePath);
       }
-      DeviceInfo deviceInfo = new DeviceInfo();
-      ParseFamilyXML parser = deviceInfo.getHardwareParser(resolvedPath);
+      DeviceInfo     deviceInfo = new DeviceInfo();
+      ParseFamilyXML parser;
+      try {
+         parser = deviceInfo.getHardwareParser(resolvedPath);
+      } catch (HardwareSnapshot.ReplayException e) {
+         // Snapshot has been discarded - start again from XML
+         deviceInfo = new DeviceInfo();
+         parser     = deviceInfo.getHardwareParser(resolvedPath);
+      }
       deviceInfo.loadDeviceDescription(parser);
       deviceInfo.loadPeripheralDescriptions(parser);
       return deviceInfo;
@@ -357,7 +375,15 @@ public class DeviceInfo extends ObservableModel implements IModelEntryProvider,
       if (!Files.isReadable(hardwarePath)) {
          throw new Exception("Cannot locate file "+ hardwarePath);
       }
-      ParseFamilyXML parser = deviceInfo.getHardwareParser(hardwarePath);
+      ParseFamilyXML parser;
+      try {
+         parser = deviceInfo.getHardwareParser(hardwarePath);
+      } catch (HardwareSnapshot.ReplayException e) {
+         // Snapshot has been discarded - start again from XML
+         deviceInfo      = new DeviceInfo();
+         projectSettings = deviceInfo.getSettings(filePath);
+         parser          = deviceInfo.getHardwareParser(hardwarePath);
+      }
       deviceInfo.loadDeviceDescription(parser);
       deviceInfo.loadPeripheralDescriptions(parser);
       deviceInfo.loadInitialSettings(device, projectSettings);
@@ -410,6 +436,9 @@ public class DeviceInfo extends ObservableModel implements IModelEntryProvider,
       fMenuData = ParseMenuXML.parseMenuFile("common_settings", fVariableProvider);
    }
 
+   /** Maximum number of threads used to parse peripheral files */
+   private static final int MAX_PERIPHERAL_LOADER_THREADS = 4;
+   
    /**
     * Load hardware description of peripherals from peripheral XML e.g. <i>lptmr0.xml</i>
     * 
@@ -438,10 +467,40 @@ public class DeviceInfo extends ObservableModel implements IModelEntryProvider,
             return o2.getPriority()-o1.getPriority();
          }
       });
-      // Construct peripherals
-      for (PeripheralWithState p:peripheralWithStateList) {
-         p.loadModels();
+      long startTime = System.nanoTime();
+      
+      // Phase 1 - Locate and parse peripheral files concurrently
+      // This doesn't access variables so order is unimportant
+      int threads = Math.max(1, Math.min(MAX_PERIPHERAL_LOADER_THREADS, Runtime.getRuntime().availableProcessors()));
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      ArrayList<Future<PeripheralDocument>> documents = new ArrayList<Future<PeripheralDocument>>();
+      try {
+         for (PeripheralWithState p:peripheralWithStateList) {
+            final String peripheralVersionName = p.getPeripheralVersionName();
+            documents.add(executor.submit(new Callable<PeripheralDocument>() {
+               @Override
+               public PeripheralDocument call() {
+                  return ParseMenuXML.loadPeripheralDocument(peripheralVersionName);
+               }
+            }));
+         }
+      } finally {
+         executor.shutdown();
       }
+      
+      // Phase 2 - Construct peripherals in priority order
+      // Variables, models and validators are created in the same order as loading serially
+      for (int index=0; index<peripheralWithStateList.size(); index++) {
+         PeripheralWithState p = peripheralWithStateList.get(index);
+         PeripheralDocument document = documents.get(index).get();
+         long buildStartTime = System.nanoTime();
+         p.loadModels(document);
+         Activator.log(String.format("Loaded peripheral %-12s from %-30s parse = %6.1f ms, build = %6.1f ms",
+               p.getName(), document.getPeripheralName(), document.getLoadTime()/1000000.0, (System.nanoTime()-buildStartTime)/1000000.0));
+      }
+      Activator.log(String.format("Loaded %d peripherals in %.1f ms (%d loader threads)",
+            peripheralWithStateList.size(), (System.nanoTime()-startTime)/1000000.0, threads));
+      
       repeatedItemSet.clear();
       for (PeripheralWithState p:peripheralWithStateList) {
          p.instantiateAliases();
@@ -1913,46 +1972,51 @@ public class DeviceInfo extends ObservableModel implements IModelEntryProvider,
                c.modifyPeripheral();
             }
          }
-         for (String key:settings.getKeys()) {
-            try {
-               Variable var   = fVariables.safeGet(key);
-               String   value = settings.get(key);
-               if (key.startsWith("/MCG/clock_mode")) {
-                  // Old clock names
-                  key = key.replace("/MCG/clock_mode","/MCG/mcgClockMode");
-               }
-               if (var != null) {
-                  if (!var.isDerived()) {
-                     // Load persistent value associated with variable
-                     try {
-                        var.setPersistentValue(value);
-                     } catch (Exception e) {
-                        System.err.println("Exception: "+e.getMessage());
-                        e.printStackTrace();
+         fPropagationScheduler.beginChange();
+         try {
+            for (String key:settings.getKeys()) {
+               try {
+                  Variable var   = fVariables.safeGet(key);
+                  String   value = settings.get(key);
+                  if (key.startsWith("/MCG/clock_mode")) {
+                     // Old clock names
+                     key = key.replace("/MCG/clock_mode","/MCG/mcgClockMode");
+                  }
+                  if (var != null) {
+                     if (!var.isDerived()) {
+                        // Load persistent value associated with variable
+                        try {
+                           var.setPersistentValue(value);
+                        } catch (Exception e) {
+                           System.err.println("Exception: "+e.getMessage());
+                           e.printStackTrace();
+                        }
                      }
                   }
+                  else if (key.startsWith("$")) {
+                     // Ignore these as loaded earlier
+                     //               System.err.println("WARNING: Discarding system setting "+key+" to "+value);
+                  }
+                  else if (key.startsWith("/")) {
+                     // Shouldn't be any unmatched peripheral settings
+                     System.err.println("WARNING: Discarding unmatched peripheral settings "+key+"("+value+")");
+                     // Indicate state will change on save
+                     setDirty();
+                  }
+                  else {
+                     // Load persistent value (parameter)
+   //               System.err.println("Creating Variable "+key+"("+value+")");
+                     var = new StringVariable(fVariableProvider, key, key);
+                     var.setPersistentValue(value);
+                     var.setDerived(true);
+                     addVariable(var);
+                  }
+               } catch (Exception e) {
+                  Activator.logError(e.getMessage(),e);
                }
-               else if (key.startsWith("$")) {
-                  // Ignore these as loaded earlier
-                  //               System.err.println("WARNING: Discarding system setting "+key+" to "+value);
-               }
-               else if (key.startsWith("/")) {
-                  // Shouldn't be any unmatched peripheral settings
-                  System.err.println("WARNING: Discarding unmatched peripheral settings "+key+"("+value+")");
-                  // Indicate state will change on save
-                  setDirty();
-               }
-               else {
-                  // Load persistent value (parameter)
-//               System.err.println("Creating Variable "+key+"("+value+")");
-                  var = new StringVariable(fVariableProvider, key, key);
-                  var.setPersistentValue(value);
-                  var.setDerived(true);
-                  addVariable(var);
-               }
-            } catch (Exception e) {
-               Activator.logError(e.getMessage(),e);
             }
+         } finally {
+            fPropagationScheduler.commit();
          }
          
          //         System.err.println("Make sure peripherals have been updated");
@@ -1997,73 +2061,82 @@ public class DeviceInfo extends ObservableModel implements IModelEntryProvider,
       // Allow variable change notifications only (not GUI input only variables)
       fInitPhase = InitPhase.VariablePropagationAllowed;
       
-      /*
-       * Make sure critical peripherals have been updated in order first
-       */
-      String criticalPeripherals[] = {
-            "RTC",
-            "OSC",
-            "OSC0",
-            "OSC_RF0",
-            "MCG",
-            "ICS",
-            "SIM",
-      };
-      for (String name:criticalPeripherals) {
-         Peripheral peripheral =  fPeripheralsMap.get(name);
-         if (peripheral instanceof PeripheralWithState) {
-            PeripheralWithState p = (PeripheralWithState) peripheral;
-            p.variableChanged(null, IModelChangeListener.PROPERTY_VALUE);
+      // Batch expression updates until connections are complete
+      // Validators flush pending updates before running so each peripheral is validated
+      // against values propagated from the peripherals validated before it
+      fPropagationScheduler.beginChange();
+      try {
+         /*
+          * Make sure critical peripherals have been updated in order first
+          */
+         String criticalPeripherals[] = {
+               "RTC",
+               "OSC",
+               "OSC0",
+               "OSC_RF0",
+               "MCG",
+               "ICS",
+               "SIM",
+         };
+         for (String name:criticalPeripherals) {
+            Peripheral peripheral =  fPeripheralsMap.get(name);
+            if (peripheral instanceof PeripheralWithState) {
+               PeripheralWithState p = (PeripheralWithState) peripheral;
+               p.variableChanged(null, IModelChangeListener.PROPERTY_VALUE);
+            }
          }
-      }
-      for (Entry<String, Peripheral> entry:fPeripheralsMap.entrySet()) {
-         Peripheral peripheral =  entry.getValue();
-         if (peripheral instanceof PeripheralWithState) {
-            PeripheralWithState p = (PeripheralWithState) peripheral;
-            p.variableChanged(null, IModelChangeListener.PROPERTY_VALUE);
+         for (Entry<String, Peripheral> entry:fPeripheralsMap.entrySet()) {
+            Peripheral peripheral =  entry.getValue();
+            if (peripheral instanceof PeripheralWithState) {
+               PeripheralWithState p = (PeripheralWithState) peripheral;
+               p.variableChanged(null, IModelChangeListener.PROPERTY_VALUE);
+            }
          }
-      }
       
-      /**
-       * Add Variable internal listeners (expressions)
-       */
-      for (Entry<String, Variable> entry:fVariables.entrySet()) {
-         Variable var = fVariables.get(entry.getKey());
-         try {
-            var.addInternalListeners();
-         } catch (Exception e) {
-            e.printStackTrace();
-         }
-      }
-      for (Entry<String, Variable> entry:fVariables.entrySet()) {
-         Variable var = fVariables.get(entry.getKey());
-         if (var.isLogging()) {
-            System.err.println("Calling expressionChanged " + var);
+         /**
+          * Add Variable internal listeners (expressions)
+          */
+         for (Entry<String, Variable> entry:fVariables.entrySet()) {
+            Variable var = fVariables.get(entry.getKey());
+            try {
+               var.addInternalListeners();
+            } catch (Exception e) {
+               e.printStackTrace();
+            }
          }
-         var.expressionChanged(null);
-         if (var.isLogging()) {
-            System.err.println("After Calling expressionChanged " + var);
+         for (Entry<String, Variable> entry:fVariables.entrySet()) {
+            Variable var = fVariables.get(entry.getKey());
+            if (var.isLogging()) {
+               System.err.println("Calling expressionChanged " + var);
+            }
+            var.expressionChanged(null);
+            if (var.isLogging()) {
+               System.err.println("After Calling expressionChanged " + var);
+            }
          }
-      }
-      //       System.err.println("Notify changes of persistent variables");
+         //       System.err.println("Notify changes of persistent variables");
       
-      /*
-       * Notify changes of persistent variables,
-       * even on variables that were not loaded
-       * Shouldn't be necessary
-       */
-      for (Entry<String, Variable> entry:fVariables.entrySet()) {
-         Variable var = entry.getValue();
-         if (!var.isDerived()) {
-            var.notifyListeners();
+         /*
+          * Notify changes of persistent variables,
+          * even on variables that were not loaded
+          * Shouldn't be necessary
+          */
+         for (Entry<String, Variable> entry:fVariables.entrySet()) {
+            Variable var = entry.getValue();
+            if (!var.isDerived()) {
+               var.notifyListeners();
+            }
          }
-      }
-      // Activate the dynamic signal mappings
-      if (dynamicSignalPinMappings != null) {
-         for (SignalPinMapping signalPinMapping: dynamicSignalPinMappings) {
-            signalPinMapping.activate();
+         // Activate the dynamic signal mappings
+         if (dynamicSignalPinMappings != null) {
+            for (SignalPinMapping signalPinMapping: dynamicSignalPinMappings) {
+               signalPinMapping.activate();
+            }
          }
+      } finally {
+         fPropagationScheduler.commit();
       }
+      Activator.log("refreshConnections(): " + fPropagationScheduler.getStatistics());
       // Allow all variable change notifications
       fInitPhase = InitPhase.VariableAndGuiPropagationAllowed;
 
@@ -2237,6 +2310,8 @@ public class DeviceInfo extends ObservableModel implements IModelEntryProvider,
     */
    public void generateCppFiles() throws Exception {
       
+      FileWriteAvoidance.resetStatistics();
+
       // Output directory for test files
       Path folder = Paths.get("Testing");
 
@@ -2262,6 +2337,7 @@ public class DeviceInfo extends ObservableModel implements IModelEntryProvider,
             ((PeripheralWithState) p).regenerateProjectFiles(actionRecord, processProjectActions, null, new NullProgressMonitor());
          }
       }
+      actionRecord.append(FileWriteAvoidance.getReport());
       Activator.log(actionRecord.toString());
    }
    
@@ -2276,6 +2352,9 @@ public class DeviceInfo extends ObservableModel implements IModelEntryProvider,
    public synchronized void generateCppFiles(IProject project, boolean isNewProject, IProgressMonitor monitor) throws Exception {
       SubMonitor subMonitor = SubMonitor.convert(monitor, (fPeripheralsMap.size()+5)*100);
 
+      // Unchanged files are not re-written - count files written and skipped
+      FileWriteAvoidance.resetStatistics();
+
       // Generate device header file
       Path projectDirectory = Paths.get(project.getLocation().toPortableString());
 //      Path headerfilePath   = projectDirectory.resolve(UsbdmConstants.PROJECT_INCLUDE_FOLDER).resolve(getDeviceSubFamily()+".h");
@@ -2307,6 +2386,8 @@ public class DeviceInfo extends ObservableModel implements IModelEntryProvider,
             periph.regenerateProjectFiles(actionRecord, processProjectActions, project, subMonitor.newChild(10));
          }
       }
+      actionRecord.append("\n");
+      actionRecord.append(FileWriteAvoidance.getReport());
       Activator.log(actionRecord.toString());
    }
 
@@ -2684,6 +2765,15 @@ public class DeviceInfo extends ObservableModel implements IModelEntryProvider,
       fModelFactory = modelFactory;
    }
 
+   /**
+    * Get scheduler used to batch propagation of variable changes through expressions
+    * 
+    * @return Scheduler
+    */
+   public PropagationScheduler getPropagationScheduler() {
+      return fPropagationScheduler;
+   }
+
    /**
     * Indicates variable update propagation is suspended
     * 
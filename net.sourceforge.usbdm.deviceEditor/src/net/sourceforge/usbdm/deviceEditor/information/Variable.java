@@ -1,6 +1,7 @@
 package net.sourceforge.usbdm.deviceEditor.information;
 
 import java.lang.reflect.Constructor;
+import java.util.ArrayList;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -1415,6 +1416,27 @@ public abstract class Variable extends ObservableModel implements Cloneable, IEx
       return fEnabledBy;
    }
 
+   /**
+    * Get expressions that control the state of this variable
+    * <li>fReference
+    * <li>fEnabledBy
+    * <li>fErrorIf
+    * <li>fUnlockedBy
+    * <li>fpinMapEnable
+    * <li>fHiddenBy
+    * 
+    * @return List of expressions (may be empty)
+    */
+   public ArrayList<Expression> getControllingExpressions() {
+      ArrayList<Expression> expressions = new ArrayList<Expression>();
+      for (Expression expression:new Expression[] {fReference, fEnabledBy, fErrorIf, fUnlockedBy, fpinMapEnable, fHiddenBy}) {
+         if (expression != null) {
+            expressions.add(expression);
+         }
+      }
+      return expressions;
+   }
+
    /**
     * Set provider associated with this variable
     * 
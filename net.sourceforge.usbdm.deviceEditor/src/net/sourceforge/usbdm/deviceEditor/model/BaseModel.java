@@ -5,7 +5,6 @@ import java.util.List;
 import java.util.Map;
 
 import org.eclipse.jface.viewers.StructuredViewer;
-import org.eclipse.swt.widgets.Display;
 
 import net.sourceforge.usbdm.deviceEditor.information.MappingInfo;
 import net.sourceforge.usbdm.deviceEditor.peripherals.VariableProvider;
@@ -76,67 +75,31 @@ public abstract class BaseModel implements Cloneable {
    }
    
    /**
-    * Refresh the viewer for this model
+    * Refresh the viewer for this model<br>
+    * The refresh is done on the display thread and is merged with other pending changes
     */
    protected void refresh() {
-      final StructuredViewer viewer = getViewer();
-      Display.getDefault().asyncExec(new Runnable() {
-         @Override
-         public void run() {
-            if ((viewer != null) && (!viewer.getControl().isDisposed())) {
-               viewer.refresh();
-            }
-         }
-     });
+      ViewerUpdateCoalescer.refresh(getViewer());
    }
 
-   static class UpdateRunnable implements Runnable {
-      private StructuredViewer viewer;
-      private BaseModel        model;
-      private String[]         property;
-      
-      public UpdateRunnable(StructuredViewer viewer, BaseModel model, String[] property) {
-         this.viewer   = viewer;
-         this.model    = model;
-         this.property = property;
-      }
-      
-      @Override
-      public void run() {
-         
-         // Do the refresh
-         if (!viewer.getControl().isDisposed()) {
-            viewer.update(model, property);
-         }
-      }
-   }
-   
    /**
-    * Updates the model's presentation when one or more of its properties change
+    * Updates the model's presentation when one or more of its properties change<br>
+    * The update is done on the display thread and is merged with other pending changes
     */
    public synchronized void update(String[] properties) {
-      Display.getDefault().asyncExec(new UpdateRunnable(getViewer(), this, properties));
+      ViewerUpdateCoalescer.update(getViewer(), this, properties);
    }
    
    /**
     * Updates the given element's and all ancestor's presentation when one or more of its properties change
     */
    protected void updateAncestors() {
-      final StructuredViewer viewer         = getViewer();
-      final BaseModel        currentElement = this;
-      
-      Display.getDefault().asyncExec(new Runnable() {
-         @Override
-         public void run() {
-            if ((viewer != null) && (!viewer.getControl().isDisposed())) {
-               BaseModel element = currentElement;
-               while (element != null) {
-                  viewer.update(element, null);
-                  element = element.getParent();
-               }
-            }
-         }
-     });
+      final StructuredViewer viewer  = getViewer();
+      BaseModel              element = this;
+      while (element != null) {
+         ViewerUpdateCoalescer.update(viewer, element, null);
+         element = element.getParent();
+      }
    }
    
    /**
@@ -0,0 +1,332 @@
+package net.sourceforge.usbdm.deviceEditor.model;
+
+import java.util.ArrayList;
+
+import net.sourceforge.usbdm.deviceEditor.information.Variable;
+import net.sourceforge.usbdm.deviceEditor.peripherals.VariableProvider;
+
+/**
+ * Placeholder model representing a category in a tree view<br>
+ * The children of the category are only created when first requested e.g. when the
+ * category is expanded in the viewer.<br>
+ * The objects represented by the children (pins, signals, variables etc.) are not affected
+ * and remain live while the child models do not exist.<br>
+ * Status and presence of children are obtained from these objects until the children are created.
+ */
+public class LazyCategoryModel extends CategoryModel {
+
+   /**
+    * Interface used to create the children of a lazy category
+    */
+   public interface ChildModelBuilder {
+      /**
+       * Create child models
+       *
+       * @param parent Model to add children to
+       */
+      void createChildModels(BaseModel parent);
+
+      /**
+       * Indicates if createChildModels() will create any models
+       *
+       * @return True if models will be created
+       */
+      boolean hasChildModels();
+
+      /**
+       * Get status that would be propagated from the child models (if created)
+       *
+       * @return Error status of first child in error or null if none
+       */
+      Status getChildStatus();
+   }
+
+   /**
+    * Information needed to re-create a variable model
+    */
+   private static class VariableModelRecipe {
+      final Variable fVariable;
+      final String   fName;
+      final String   fToolTip;
+      final Status   fMessage;
+      final boolean  fHidden;
+      final boolean  fLocked;
+
+      /**
+       * Record information needed to re-create model
+       *
+       * @param model Model to record
+       */
+      VariableModelRecipe(VariableModel model) {
+         fVariable = model.getVariable();
+         fName     = model.fName;
+         fToolTip  = model.fToolTip;
+         fMessage  = model.fMessage;
+         fHidden   = model.fHidden;
+         fLocked   = model.fIsLocked;
+      }
+
+      /**
+       * Re-create model
+       *
+       * @param parent Model to add model to
+       */
+      void createModel(BaseModel parent) {
+         VariableModel model = fVariable.createModel(null);
+         model.fName     = fName;
+         model.fToolTip  = fToolTip;
+         model.fMessage  = fMessage;
+         model.fHidden   = fHidden;
+         model.fIsLocked = fLocked;
+         model.setParentOnly(parent);
+         parent.addChild(model);
+      }
+
+      /**
+       * Get status that would be propagated from the model (if created)<br>
+       * Equivalent to VariableModel.getPropagatedStatus()
+       *
+       * @return Status or null if none
+       */
+      Status getPropagatedStatus() {
+         Status status = fMessage;
+         if ((status == null) || status.lessThan(Status.Severity.INFO)) {
+            status = fVariable.getStatus();
+         }
+         if ((status == null) || !status.getSeverity().greaterThan(fVariable.getErrorPropagate())) {
+            return null;
+         }
+         return status;
+      }
+   }
+
+   /**
+    * Builder for a category of variable models<br>
+    * Watches the variables until the models are created so that the status of the category is updated
+    */
+   private static class VariableCategoryBuilder implements ChildModelBuilder, IModelChangeListener {
+      final ArrayList<VariableModelRecipe> fRecipes;
+      LazyCategoryModel                    fCategory = null;
+
+      /**
+       * Create builder
+       *
+       * @param recipes Recipes for the child models
+       */
+      VariableCategoryBuilder(ArrayList<VariableModelRecipe> recipes) {
+         fRecipes = recipes;
+      }
+
+      /**
+       * Watch variables on behalf of category
+       *
+       * @param category Category to update on changes
+       */
+      void watchVariables(LazyCategoryModel category) {
+         fCategory = category;
+         for (VariableModelRecipe recipe:fRecipes) {
+            recipe.fVariable.addListener(this);
+         }
+      }
+
+      /**
+       * Stop watching variables
+       */
+      void unwatchVariables() {
+         for (VariableModelRecipe recipe:fRecipes) {
+            recipe.fVariable.removeListener(this);
+         }
+      }
+
+      @Override
+      public void createChildModels(BaseModel parent) {
+         // Models now watch variables
+         unwatchVariables();
+         for (VariableModelRecipe recipe:fRecipes) {
+            recipe.createModel(parent);
+         }
+      }
+
+      @Override
+      public boolean hasChildModels() {
+         return !fRecipes.isEmpty();
+      }
+
+      @Override
+      public Status getChildStatus() {
+         for (VariableModelRecipe recipe:fRecipes) {
+            Status status = recipe.getPropagatedStatus();
+            if ((status != null) && status.greaterThan(Status.Severity.WARNING)) {
+               return status;
+            }
+         }
+         return null;
+      }
+
+      @Override
+      public void modelElementChanged(ObservableModelInterface observableModel, int properties) {
+         if ((properties & (PROPERTY_VALUE|PROPERTY_STATUS)) != 0) {
+            fCategory.updateAncestors();
+         }
+      }
+   }
+
+   /** Used to create children - null once children have been created */
+   private ChildModelBuilder fBuilder;
+
+   /** Indicates prune() was requested before children were created */
+   private boolean fPrunePending = false;
+
+   /**
+    * Construct placeholder model representing a category in a tree view
+    *
+    * @param parent     Owning model
+    * @param name       Name of category
+    * @param builder    Used to create children on first request
+    */
+   public LazyCategoryModel(BaseModel parent, String name, ChildModelBuilder builder) {
+      super(parent, name);
+      fBuilder = builder;
+   }
+
+   /**
+    * Replace categories in a model tree that only contain simple variable models by lazy categories<br>
+    * The variable models are discarded and re-created from their variables when the category is expanded.
+    * Categories containing other models are left unchanged but are searched.
+    *
+    * @param parent Root of model tree to process
+    */
+   public static void deferCategories(BaseModel parent) {
+      if (parent.fChildren == null) {
+         return;
+      }
+      for (int index=0; index<parent.fChildren.size(); index++) {
+         BaseModel child = parent.fChildren.get(index);
+         if (child instanceof LazyCategoryModel) {
+            continue;
+         }
+         if (child.getClass() == CategoryModel.class) {
+            LazyCategoryModel lazyModel = defer((CategoryModel) child);
+            if (lazyModel != null) {
+               parent.fChildren.set(index, lazyModel);
+               continue;
+            }
+         }
+         deferCategories(child);
+      }
+   }
+
+   /**
+    * Create lazy equivalent of category
+    *
+    * @param category Category to replace
+    *
+    * @return Replacement or null if the category contains models other than simple variable models
+    */
+   private static LazyCategoryModel defer(CategoryModel category) {
+      if ((category.fChildren == null) || category.fChildren.isEmpty()) {
+         return null;
+      }
+      ArrayList<VariableModelRecipe> recipes = new ArrayList<VariableModelRecipe>();
+      for (BaseModel child:category.fChildren) {
+         if ((child.fChildren != null) || !(child instanceof VariableModel) || (child instanceof PeripheralSignalsModel)) {
+            return null;
+         }
+         recipes.add(new VariableModelRecipe((VariableModel) child));
+      }
+      VariableCategoryBuilder builder   = new VariableCategoryBuilder(recipes);
+      LazyCategoryModel       lazyModel = new LazyCategoryModel(null, category.fName, builder);
+      builder.watchVariables(lazyModel);
+      lazyModel.setParentOnly(category.fParent);
+      lazyModel.fHidden  = category.fHidden;
+      lazyModel.fToolTip = category.fToolTip;
+      lazyModel.fMessage = category.fMessage;
+      lazyModel.setSimpleDescription(category.getSimpleDescription());
+
+      // Discarded models no longer listen to their variables
+      for (BaseModel child:category.fChildren) {
+         VariableModel model = (VariableModel) child;
+         model.getVariable().removeListener(model);
+      }
+      return lazyModel;
+   }
+
+   /**
+    * Create children if not already done
+    */
+   public void materialise() {
+      if (fBuilder == null) {
+         return;
+      }
+      ChildModelBuilder builder = fBuilder;
+      fBuilder = null;
+      builder.createChildModels(this);
+      if (fPrunePending) {
+         fPrunePending = false;
+         super.prune();
+      }
+   }
+
+   /**
+    * Indicates if the children of this category have been created
+    *
+    * @return True if created
+    */
+   public boolean isMaterialised() {
+      return fBuilder == null;
+   }
+
+   @Override
+   public boolean hasChildren() {
+      if (fBuilder != null) {
+         return fBuilder.hasChildModels();
+      }
+      return super.hasChildren();
+   }
+
+   @Override
+   public ArrayList<BaseModel> getChildren() {
+      materialise();
+      return super.getChildren();
+   }
+
+   @Override
+   Status getStatus() {
+      if (fBuilder == null) {
+         return super.getStatus();
+      }
+      // Status from objects represented by children
+      Status returnStatus = fMessage;
+      if ((returnStatus == null) || returnStatus.lessThan(Status.Severity.ERROR)) {
+         Status status = fBuilder.getChildStatus();
+         if (status != null) {
+            returnStatus = status;
+         }
+      }
+      return returnStatus;
+   }
+
+   @Override
+   protected void removeMyListeners() {
+      if (fBuilder instanceof VariableCategoryBuilder) {
+         ((VariableCategoryBuilder) fBuilder).unwatchVariables();
+      }
+   }
+
+   @Override
+   public void prune() {
+      if (fBuilder == null) {
+         super.prune();
+      }
+      else {
+         // Prune when created
+         fPrunePending = true;
+      }
+   }
+
+   @Override
+   public BaseModel clone(BaseModel parentModel, VariableProvider provider, int index) throws CloneNotSupportedException {
+      materialise();
+      return super.clone(parentModel, provider, index);
+   }
+}
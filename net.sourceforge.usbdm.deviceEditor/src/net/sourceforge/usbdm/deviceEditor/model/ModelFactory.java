@@ -21,6 +21,29 @@ public class ModelFactory extends ObservableModel implements IModelChangeListene
    PeripheralParametersEditor fParameterModels = null;
    boolean  underConstruction;
    
+   /** Controls creation of models on first use rather than when the editor is opened */
+   private static boolean fLazyModels = true;
+   
+   /**
+    * Controls whether category and signal models are created when first needed by a viewer
+    * rather than when the editor is opened.<br>
+    * Only affects models created after this call.
+    * 
+    * @param lazy True to create models lazily
+    */
+   public static void setLazyModels(boolean lazy) {
+      fLazyModels = lazy;
+   }
+   
+   /**
+    * Indicates whether category and signal models are created when first needed by a viewer
+    * 
+    * @return True if models are created lazily
+    */
+   public static boolean isLazyModels() {
+      return fLazyModels;
+   }
+   
    /**
     * Used to sort the pins into categories for display
     */
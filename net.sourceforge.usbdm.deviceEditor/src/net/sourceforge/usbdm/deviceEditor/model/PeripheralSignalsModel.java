@@ -1,9 +1,12 @@
 package net.sourceforge.usbdm.deviceEditor.model;
 
+import java.util.ArrayList;
+
 import org.eclipse.jface.viewers.CellEditor;
 import org.eclipse.swt.widgets.Tree;
 
 import net.sourceforge.usbdm.deviceEditor.information.PeripheralSignalsVariable;
+import net.sourceforge.usbdm.deviceEditor.information.Signal;
 import net.sourceforge.usbdm.deviceEditor.peripherals.Peripheral;
 
 /**
@@ -19,6 +22,9 @@ public final class PeripheralSignalsModel extends VariableModel implements IMode
 
    private Peripheral fPeripheral;
    
+   /** Indicates signal models have not yet been created (lazy models) */
+   private boolean fSignalModelsPending;
+   
    /**
     * Constructs model for peripheral and associated signals
     * 
@@ -34,10 +40,52 @@ public final class PeripheralSignalsModel extends VariableModel implements IMode
    public PeripheralSignalsModel(BaseModel parent, PeripheralSignalsVariable var) {
       super(parent, var);
       fPeripheral = (Peripheral) var.getProvider();
+      fSignalModelsPending = true;
+      if (!ModelFactory.isLazyModels()) {
+         createSignalModels();
+      }
+   }
+   
+   /**
+    * Create signal models if not already done
+    */
+   private void createSignalModels() {
+      if (!fSignalModelsPending) {
+         return;
+      }
+      fSignalModelsPending = false;
       fPeripheral.createSignalModels(this);
       watchChildren();
    }
    
+   @Override
+   public boolean hasChildren() {
+      if (fSignalModelsPending) {
+         return !fPeripheral.getSignalsForModels().isEmpty();
+      }
+      return super.hasChildren();
+   }
+
+   @Override
+   Status getStatus() {
+      if (fSignalModelsPending && ((fMessage == null) || fMessage.lessThan(Status.Severity.ERROR))) {
+         // Status as propagated from signal models (if created)
+         for (Signal signal:fPeripheral.getSignalsForModels()) {
+            Status status = signal.getStatus();
+            if ((status != null) && status.greaterThan(Status.Severity.WARNING)) {
+               return status;
+            }
+         }
+      }
+      return super.getStatus();
+   }
+
+   @Override
+   public ArrayList<BaseModel> getChildren() {
+      createSignalModels();
+      return super.getChildren();
+   }
+   
    /**
     * Add listeners to watch changes in children(signals)
     */
@@ -170,12 +170,8 @@ public final class PinViewPageModel extends TreeViewModel implements IPage {
          if (pinCategory.getPins().isEmpty()) {
             continue;
          }
-         // Construct category
-         CategoryModel categoryModel = new CategoryModel(this, pinCategory.getName());
-         
-         // Populate category with pin models
+         // Collect mappings (these are needed even if pin models are not yet created)
          for(Pin pinInformation:pinCategory.getPins()) {
-            new PinModel(categoryModel, pinInformation);
             for (MappingInfo mappingInfo:pinInformation.getMappableSignals().values()) {
                if (mappingInfo.getMux() == MuxSelection.fixed) {
                   continue;
@@ -189,6 +185,48 @@ public final class PinViewPageModel extends TreeViewModel implements IPage {
                fMappingInfos.add(mappingInfo);
             }
          }
+         final ArrayList<Pin> pins = pinCategory.getPins();
+         if (ModelFactory.isLazyModels()) {
+            // Pin models are created when category is expanded
+            new LazyCategoryModel(this, pinCategory.getName(), new LazyCategoryModel.ChildModelBuilder() {
+               @Override
+               public void createChildModels(BaseModel parent) {
+                  createPinModels(parent, pins);
+               }
+
+               @Override
+               public boolean hasChildModels() {
+                  return !pins.isEmpty();
+               }
+
+               @Override
+               public Status getChildStatus() {
+                  // As propagated from PinModel
+                  for(Pin pinInformation:pins) {
+                     Status status = pinInformation.getStatus();
+                     if ((status != null) && status.greaterThan(Status.Severity.WARNING)) {
+                        return status;
+                     }
+                  }
+                  return null;
+               }
+            });
+         }
+         else {
+            createPinModels(new CategoryModel(this, pinCategory.getName()), pins);
+         }
+      }
+   }
+
+   /**
+    * Populate category with pin models
+    * 
+    * @param categoryModel Category to add models to
+    * @param pins          Pins to create models for
+    */
+   private static void createPinModels(BaseModel categoryModel, ArrayList<Pin> pins) {
+      for(Pin pinInformation:pins) {
+         new PinModel(categoryModel, pinInformation);
       }
    }
 
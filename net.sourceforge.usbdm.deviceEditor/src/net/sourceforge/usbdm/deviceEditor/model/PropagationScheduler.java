@@ -0,0 +1,275 @@
+package net.sourceforge.usbdm.deviceEditor.model;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+
+import net.sourceforge.usbdm.deviceEditor.information.Variable;
+import net.sourceforge.usbdm.deviceEditor.parsers.Expression;
+
+/**
+ * Schedules propagation of variable changes through dependent expressions<br>
+ *
+ * Outside a change transaction expressions are evaluated immediately when a variable they use changes.<br>
+ * Within a transaction (beginChange() ... commit()) changed expressions are only marked dirty.
+ * On commit() the dirty expressions are evaluated in dependency (topological) order so that each
+ * is evaluated once even if many of the variables it uses have changed.<br>
+ *
+ * The dependency graph is derived from the variables collected by each expression and the
+ * expressions that control each of those variables (reference, enabledBy etc).<br>
+ *
+ * Validators read derived variables directly so {@link #flush()} is used before each validation
+ * to bring derived variables up to date without ending the transaction.
+ */
+public class PropagationScheduler {
+
+   /** Limit on evaluations in a single commit - protects against cycles */
+   private static final int MAX_EVALUATIONS = 100000;
+
+   /** Indicates changes are deferred within transactions (false => always evaluate immediately) */
+   private static volatile boolean fBatchingEnabled = true;
+
+   /** Nesting depth of beginChange() */
+   private int fDepth = 0;
+
+   /** Indicates commit() is processing the queue */
+   private boolean fCommitting = false;
+
+   /** Expressions marked dirty and not yet evaluated */
+   private final HashSet<Expression> fDirty = new HashSet<Expression>();
+
+   /** Rank (depth in dependency graph) of expressions - cached for a single commit */
+   private final HashMap<Expression, Integer> fRanks = new HashMap<Expression, Integer>();
+
+   /** Dirty expressions ordered by rank */
+   private final PriorityQueue<Expression> fQueue = new PriorityQueue<Expression>(new Comparator<Expression>() {
+      @Override
+      public int compare(Expression e1, Expression e2) {
+         return Integer.compare(getRank(e1), getRank(e2));
+      }
+   });
+
+   /** Change notifications received in current transaction */
+   private int fRequests    = 0;
+
+   /** Expression evaluations done in current transaction */
+   private int fEvaluations = 0;
+
+   /** Change notifications received in last completed transaction */
+   private int fLastRequests    = 0;
+
+   /** Expression evaluations done in last completed transaction */
+   private int fLastEvaluations = 0;
+
+   /** Number of transactions completed */
+   private long fTransactionCount = 0;
+
+   /** Total change notifications received in all transactions */
+   private long fTotalRequests    = 0;
+
+   /** Total expression evaluations done in all transactions */
+   private long fTotalEvaluations = 0;
+
+   /**
+    * Start a change transaction<br>
+    * Transactions may be nested. Propagation happens when the outermost transaction is committed.
+    */
+   public void beginChange() {
+      fDepth++;
+   }
+
+   /**
+    * Complete a change transaction<br>
+    * If this is the outermost transaction then all dirty expressions are evaluated
+    * in dependency order and changes propagated.
+    */
+   public void commit() {
+      if (fDepth <= 0) {
+         System.err.println("PropagationScheduler.commit() without beginChange()");
+         return;
+      }
+      if ((fDepth > 1) || fCommitting) {
+         fDepth--;
+         return;
+      }
+      fCommitting = true;
+      try {
+         // Remain inside transaction so changes caused by evaluation are queued
+         processQueue();
+      } finally {
+         fCommitting = false;
+         fDepth--;
+         fRanks.clear();
+         fLastRequests     = fRequests;
+         fLastEvaluations  = fEvaluations;
+         fTotalRequests    += fRequests;
+         fTotalEvaluations += fEvaluations;
+         fTransactionCount++;
+         fRequests    = 0;
+         fEvaluations = 0;
+      }
+   }
+
+   /**
+    * Evaluate dirty expressions now without ending the transaction<br>
+    * This is used before validation so that validators see current values of derived variables.
+    * It may be called while the queue is being processed (e.g. by a validator triggered by a propagated change).
+    */
+   public void flush() {
+      if (fDepth == 0) {
+         return;
+      }
+      processQueue();
+   }
+
+   /**
+    * Evaluate dirty expressions in dependency order until none remain
+    */
+   private void processQueue() {
+      while (!fQueue.isEmpty()) {
+         Expression expression = fQueue.poll();
+         fDirty.remove(expression);
+         if (fEvaluations++ > MAX_EVALUATIONS) {
+            System.err.println("PropagationScheduler evaluation limit reached, abandoning propagation");
+            fQueue.clear();
+            fDirty.clear();
+            break;
+         }
+         expression.propagateChange();
+      }
+   }
+
+   /**
+    * Indicates a transaction is active
+    *
+    * @return true if within beginChange() ... commit()
+    */
+   public boolean isActive() {
+      return fDepth > 0;
+   }
+
+   /**
+    * Defer evaluation of an expression affected by a change
+    *
+    * @param expression Expression to mark dirty
+    *
+    * @return true if deferred (transaction active), false if the caller should evaluate immediately
+    */
+   public boolean defer(Expression expression) {
+      if ((fDepth == 0) || !fBatchingEnabled) {
+         return false;
+      }
+      fRequests++;
+      if (fDirty.add(expression)) {
+         fQueue.add(expression);
+      }
+      return true;
+   }
+
+   /**
+    * Check if an expression has a pending evaluation
+    *
+    * @param expression Expression to check
+    *
+    * @return true if marked dirty and not yet evaluated
+    */
+   public boolean isPending(Expression expression) {
+      return (fDepth > 0) && fDirty.contains(expression);
+   }
+
+   /**
+    * Get rank of expression in dependency graph.<br>
+    * An expression has a rank greater than any expression controlling a variable it uses.
+    *
+    * @param expression Expression to rank
+    *
+    * @return Rank (0 => depends only on independent variables)
+    */
+   private int getRank(Expression expression) {
+      return getRank(expression, new HashSet<Expression>());
+   }
+
+   private int getRank(Expression expression, HashSet<Expression> visiting) {
+      Integer rank = fRanks.get(expression);
+      if (rank != null) {
+         return rank;
+      }
+      if (!visiting.add(expression)) {
+         // Cycle - break it here
+         return 0;
+      }
+      int maxRank = -1;
+      ArrayList<Variable> dependencies = expression.getDependencies();
+      if (dependencies != null) {
+         for (Variable var:dependencies) {
+            for (Expression controllingExpression:var.getControllingExpressions()) {
+               maxRank = Math.max(maxRank, getRank(controllingExpression, visiting));
+            }
+         }
+      }
+      visiting.remove(expression);
+      rank = maxRank+1;
+      fRanks.put(expression, rank);
+      return rank;
+   }
+
+   /**
+    * Enable deferral of changes within transactions<br>
+    * When disabled expressions are evaluated as soon as a variable they use changes (as without a transaction).
+    * 
+    * @param enable  Enable batching
+    */
+   public static void setBatchingEnabled(boolean enable) {
+      fBatchingEnabled = enable;
+   }
+
+   /**
+    * Indicates if changes are deferred within transactions
+    * 
+    * @return true if enabled
+    */
+   public static boolean isBatchingEnabled() {
+      return fBatchingEnabled;
+   }
+
+   /**
+    * Get number of change notifications in the last completed transaction
+    *
+    * @return Count
+    */
+   public int getLastRequestCount() {
+      return fLastRequests;
+   }
+
+   /**
+    * Get number of expression evaluations in the last completed transaction
+    *
+    * @return Count
+    */
+   public int getLastEvaluationCount() {
+      return fLastEvaluations;
+   }
+
+   /**
+    * Get number of evaluations avoided in the last completed transaction
+    * compared to evaluating on every change notification
+    *
+    * @return Count
+    */
+   public int getLastEvaluationsSaved() {
+      return Math.max(0, fLastRequests-fLastEvaluations);
+   }
+
+   /**
+    * Get statistics for all transactions
+    *
+    * @return Description of statistics
+    */
+   public String getStatistics() {
+      return String.format("Transactions = %d, notifications = %d, evaluations = %d, saved = %d (last: notifications = %d, evaluations = %d)",
+            fTransactionCount, fTotalRequests, fTotalEvaluations, Math.max(0, fTotalRequests-fTotalEvaluations),
+            fLastRequests, fLastEvaluations);
+   }
+}
@@ -69,7 +69,14 @@ public abstract class VariableModel extends EditableModel implements IModelChang
 
    @Override
    public void setValueAsString(String value) {
-      fVariable.setValue(value);
+      // Propagate consequences of edit as a single transaction
+      PropagationScheduler scheduler = fVariable.getDeviceInfo().getPropagationScheduler();
+      scheduler.beginChange();
+      try {
+         fVariable.setValue(value);
+      } finally {
+         scheduler.commit();
+      }
    }
 
    @Override
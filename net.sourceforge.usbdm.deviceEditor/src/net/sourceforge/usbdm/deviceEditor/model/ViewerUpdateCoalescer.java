@@ -0,0 +1,291 @@
+package net.sourceforge.usbdm.deviceEditor.model;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
+
+import org.eclipse.jface.viewers.StructuredViewer;
+import org.eclipse.swt.events.DisposeEvent;
+import org.eclipse.swt.events.DisposeListener;
+import org.eclipse.swt.widgets.Control;
+import org.eclipse.swt.widgets.Display;
+
+/**
+ * Collects viewer updates and refreshes so they are applied once per display cycle<br>
+ *
+ * A change to a single variable may cause a large number of models to be updated.
+ * Rather than posting a runnable for each model the models and properties are recorded
+ * and a single runnable applies them using batched <b>viewer.update(Object[], String[])</b>.
+ * If a refresh is requested or the number of models exceeds a threshold the viewer is
+ * simply refreshed.<br>
+ * A coalescer only holds a weak reference to its viewer and is discarded when the viewer's control is disposed.
+ */
+public class ViewerUpdateCoalescer {
+
+   /** Default number of models above which the viewer is refreshed instead of updated */
+   public static final int DEFAULT_REFRESH_THRESHOLD = 200;
+
+   /** Coalescer for each viewer (the coalescer must not strongly reference the viewer) */
+   private static final WeakHashMap<StructuredViewer, ViewerUpdateCoalescer> fCoalescers =
+         new WeakHashMap<StructuredViewer, ViewerUpdateCoalescer>();
+
+   /** Number of models above which the viewer is refreshed instead of updated */
+   private static volatile int fRefreshThreshold = DEFAULT_REFRESH_THRESHOLD;
+
+   /** Number of update/refresh requests */
+   private static long fRequests = 0;
+
+   /** Number of requests merged with an earlier request */
+   private static long fMerged = 0;
+
+   /** Number of times pending changes were applied to a viewer */
+   private static long fFlushes = 0;
+
+   /** Number of calls to viewer.update() */
+   private static long fViewerUpdates = 0;
+
+   /** Number of calls to viewer.refresh() */
+   private static long fViewerRefreshes = 0;
+
+   /** Viewer being updated (weak so that the entry in fCoalescers may be discarded) */
+   private final WeakReference<StructuredViewer> fViewer;
+
+   /** Models to update with properties (null properties indicates all properties) */
+   private LinkedHashMap<BaseModel, TreeSet<String>> fPendingModels = new LinkedHashMap<BaseModel, TreeSet<String>>();
+
+   /** Indicates a refresh of the entire viewer is needed */
+   private boolean fRefreshPending = false;
+
+   /** Indicates a flush has been scheduled on the display thread */
+   private boolean fFlushScheduled = false;
+
+   /**
+    * Create coalescer for viewer
+    *
+    * @param viewer Viewer to update
+    */
+   private ViewerUpdateCoalescer(StructuredViewer viewer) {
+      fViewer = new WeakReference<StructuredViewer>(viewer);
+   }
+
+   /**
+    * Get coalescer for viewer
+    *
+    * @param viewer Viewer to update
+    *
+    * @return Coalescer
+    */
+   private static ViewerUpdateCoalescer getCoalescer(final StructuredViewer viewer) {
+      synchronized (fCoalescers) {
+         ViewerUpdateCoalescer coalescer = fCoalescers.get(viewer);
+         if (coalescer == null) {
+            coalescer = new ViewerUpdateCoalescer(viewer);
+            fCoalescers.put(viewer, coalescer);
+            Control control = viewer.getControl();
+            if ((control != null) && !control.isDisposed()) {
+               control.addDisposeListener(new DisposeListener() {
+                  @Override
+                  public void widgetDisposed(DisposeEvent e) {
+                     synchronized (fCoalescers) {
+                        fCoalescers.remove(viewer);
+                     }
+                  }
+               });
+            }
+         }
+         return coalescer;
+      }
+   }
+
+   /**
+    * Schedule update of a model's presentation
+    *
+    * @param viewer     Viewer to update (may be null)
+    * @param model      Model that has changed
+    * @param properties Properties that have changed (null indicates all properties)
+    */
+   public static void update(StructuredViewer viewer, BaseModel model, String[] properties) {
+      if (viewer == null) {
+         return;
+      }
+      getCoalescer(viewer).addUpdate(model, properties);
+   }
+
+   /**
+    * Schedule refresh of viewer
+    *
+    * @param viewer Viewer to refresh (may be null)
+    */
+   public static void refresh(StructuredViewer viewer) {
+      if (viewer == null) {
+         return;
+      }
+      getCoalescer(viewer).addRefresh();
+   }
+
+   /**
+    * Record update of a model
+    *
+    * @param model      Model that has changed
+    * @param properties Properties that have changed (null indicates all properties)
+    */
+   private synchronized void addUpdate(BaseModel model, String[] properties) {
+      countRequest(fRefreshPending || fPendingModels.containsKey(model));
+      if (fRefreshPending) {
+         return;
+      }
+      if (!fPendingModels.containsKey(model)) {
+         fPendingModels.put(model, (properties == null)?null:new TreeSet<String>(Arrays.asList(properties)));
+      }
+      else {
+         TreeSet<String> pendingProperties = fPendingModels.get(model);
+         if (pendingProperties != null) {
+            if (properties == null) {
+               fPendingModels.put(model, null);
+            }
+            else {
+               pendingProperties.addAll(Arrays.asList(properties));
+            }
+         }
+      }
+      scheduleFlush();
+   }
+
+   /**
+    * Record refresh of viewer
+    */
+   private synchronized void addRefresh() {
+      countRequest(fRefreshPending || !fPendingModels.isEmpty());
+      fRefreshPending = true;
+      fPendingModels.clear();
+      scheduleFlush();
+   }
+
+   /**
+    * Update statistics
+    *
+    * @param merged Whether the request was merged with an earlier one
+    */
+   private static synchronized void countRequest(boolean merged) {
+      fRequests++;
+      if (merged) {
+         fMerged++;
+      }
+   }
+
+   /**
+    * Schedule flush on display thread if not already done
+    */
+   private void scheduleFlush() {
+      if (fFlushScheduled) {
+         return;
+      }
+      fFlushScheduled = true;
+      Display.getDefault().asyncExec(new Runnable() {
+         @Override
+         public void run() {
+            flush();
+         }
+      });
+   }
+
+   /**
+    * Apply pending changes to viewer (on display thread)
+    */
+   private void flush() {
+      boolean refresh;
+      LinkedHashMap<BaseModel, TreeSet<String>> pendingModels;
+      synchronized (this) {
+         fFlushScheduled = false;
+         refresh         = fRefreshPending || (fPendingModels.size() > fRefreshThreshold);
+         pendingModels   = fPendingModels;
+         fRefreshPending = false;
+         fPendingModels  = new LinkedHashMap<BaseModel, TreeSet<String>>();
+      }
+      StructuredViewer viewer = fViewer.get();
+      if ((viewer == null) || (viewer.getControl() == null) || viewer.getControl().isDisposed()) {
+         return;
+      }
+      if (refresh) {
+         viewer.refresh();
+         synchronized (ViewerUpdateCoalescer.class) {
+            fFlushes++;
+            fViewerRefreshes++;
+         }
+         return;
+      }
+      // Group models with the same set of properties
+      LinkedHashMap<String, ArrayList<BaseModel>> groups     = new LinkedHashMap<String, ArrayList<BaseModel>>();
+      LinkedHashMap<String, String[]>             groupProps = new LinkedHashMap<String, String[]>();
+      for (Map.Entry<BaseModel, TreeSet<String>> entry:pendingModels.entrySet()) {
+         TreeSet<String> properties = entry.getValue();
+         String key = (properties == null)?"*":properties.toString();
+         ArrayList<BaseModel> group = groups.get(key);
+         if (group == null) {
+            group = new ArrayList<BaseModel>();
+            groups.put(key, group);
+            groupProps.put(key, (properties == null)?null:properties.toArray(new String[properties.size()]));
+         }
+         group.add(entry.getKey());
+      }
+      for (String key:groups.keySet()) {
+         viewer.update(groups.get(key).toArray(), groupProps.get(key));
+      }
+      synchronized (ViewerUpdateCoalescer.class) {
+         fFlushes++;
+         fViewerUpdates += groups.size();
+      }
+   }
+
+   /**
+    * Set number of models above which the viewer is refreshed instead of updated
+    *
+    * @param threshold Number of models
+    */
+   public static synchronized void setRefreshThreshold(int threshold) {
+      fRefreshThreshold = threshold;
+   }
+
+   /**
+    * Get number of models above which the viewer is refreshed instead of updated
+    *
+    * @return Number of models
+    */
+   public static synchronized int getRefreshThreshold() {
+      return fRefreshThreshold;
+   }
+
+   /**
+    * Get number of update/refresh requests merged with an earlier request
+    *
+    * @return Count
+    */
+   public static synchronized long getMergedCount() {
+      return fMerged;
+   }
+
+   /**
+    * Reset statistics
+    */
+   public static synchronized void resetStatistics() {
+      fRequests        = 0;
+      fMerged          = 0;
+      fFlushes         = 0;
+      fViewerUpdates   = 0;
+      fViewerRefreshes = 0;
+   }
+
+   /**
+    * Get statistics
+    *
+    * @return Description of statistics
+    */
+   public static synchronized String getStatistics() {
+      return String.format("Viewer requests = %d, merged = %d, flushes = %d, viewer updates = %d, viewer refreshes = %d",
+            fRequests, fMerged, fFlushes, fViewerUpdates, fViewerRefreshes);
+   }
+}
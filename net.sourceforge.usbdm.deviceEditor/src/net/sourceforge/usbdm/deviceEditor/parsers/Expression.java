@@ -8,6 +8,7 @@ import java.util.regex.Pattern;
 import net.sourceforge.usbdm.deviceEditor.information.BooleanVariable;
 import net.sourceforge.usbdm.deviceEditor.information.ChoiceData;
 import net.sourceforge.usbdm.deviceEditor.information.ChoiceVariable;
+import net.sourceforge.usbdm.deviceEditor.information.DeviceInfo;
 import net.sourceforge.usbdm.deviceEditor.information.DeviceInfo.InitPhase;
 import net.sourceforge.usbdm.deviceEditor.information.DoubleVariable;
 import net.sourceforge.usbdm.deviceEditor.information.LongVariable;
@@ -19,6 +20,7 @@ import net.sourceforge.usbdm.deviceEditor.information.Variable;
 import net.sourceforge.usbdm.deviceEditor.information.VariableWithChoices;
 import net.sourceforge.usbdm.deviceEditor.model.IModelChangeListener;
 import net.sourceforge.usbdm.deviceEditor.model.ObservableModelInterface;
+import net.sourceforge.usbdm.deviceEditor.model.PropagationScheduler;
 import net.sourceforge.usbdm.deviceEditor.model.Status;
 import net.sourceforge.usbdm.deviceEditor.parsers.Expression.CommaListNode.Visitor;
 import net.sourceforge.usbdm.deviceEditor.parsers.ExpressionParser.Mode;
@@ -73,7 +75,7 @@ public class Expression implements IModelChangeListener {
       return result;
    }
 
-   static abstract class ExpressionNode {
+   static abstract class ExpressionNode implements Cloneable {
       abstract Object eval() throws Exception;
 
       public final Type fType;
@@ -106,6 +108,37 @@ public class Expression implements IModelChangeListener {
       public void collectVars(ArrayList<Variable> variablesFound) throws Exception {
       }
 
+      /**
+       * Create a copy of this node (and sub-tree) bound to a new owning expression.<br>
+       * This is used to instantiate cached expression templates.<br>
+       * Nodes that depend on the provider used when parsing may not be instantiated.
+       * 
+       * @param owner  Expression that will own the copy.
+       *               If null then an unbound copy suitable for use as a template is created.
+       * 
+       * @return Copy of node (immutable nodes may return 'this')
+       * 
+       * @throws Exception if the node cannot be bound to the owner e.g. variable type differs from template
+       */
+      ExpressionNode instantiate(Expression owner) throws Exception {
+         throw new Exception("Node can't be instantiated from a template " + this);
+      }
+
+      /**
+       * Create shallow copy of this node
+       * 
+       * @return Copy of node
+       * 
+       * @throws Exception
+       */
+      ExpressionNode copyNode() throws Exception {
+         try {
+            return (ExpressionNode) clone();
+         } catch (CloneNotSupportedException e) {
+            throw new Exception("Failed to copy node " + this, e);
+         }
+      }
+
       @Override
       public String toString() {
          return this.getClass().getSimpleName()+"("+fType+")";
@@ -145,6 +178,14 @@ public class Expression implements IModelChangeListener {
          return fLeft.isConstant() && fRight.isConstant();
       }
 
+      @Override
+      ExpressionNode instantiate(Expression owner) throws Exception {
+         BinaryExpressionNode node = (BinaryExpressionNode) copyNode();
+         node.fLeft  = fLeft.instantiate(owner);
+         node.fRight = fRight.instantiate(owner);
+         return node;
+      }
+
       @Override
       public String toString() {
          return this.getClass().getSimpleName()+"("+fLeft.toString()+","+fRight.toString()+","+fType+")";
@@ -179,6 +220,13 @@ public class Expression implements IModelChangeListener {
       boolean isConstant() {
          return fArg.isConstant();
       }
+
+      @Override
+      ExpressionNode instantiate(Expression owner) throws Exception {
+         UnaryExpressionNode node = (UnaryExpressionNode) copyNode();
+         node.fArg = fArg.instantiate(owner);
+         return node;
+      }
    }
 
    static abstract class FunctionNode extends ExpressionNode {
@@ -203,6 +251,13 @@ public class Expression implements IModelChangeListener {
          }
          return this;
       }
+
+      @Override
+      ExpressionNode instantiate(Expression owner) throws Exception {
+         FunctionNode node = (FunctionNode) copyNode();
+         node.fArg = fArg.instantiate(owner);
+         return node;
+      }
    }
 
    static class VariableNode extends ExpressionNode implements IExpressionChangeListener {
@@ -227,6 +282,9 @@ public class Expression implements IModelChangeListener {
       /** Expression for index */
       private Expression fIndex;
 
+      /** Identifier as written in expression - used to re-bind templates */
+      private IdentifierReference fReference = null;
+
       //    private final Variable[]       fVars = new Variable[MAX_DIMENSION];
 
       //      private       Object           fValue = null;
@@ -489,6 +547,27 @@ public class Expression implements IModelChangeListener {
          return var.getValueAsString();
       }
 
+      /**
+       * Indicates this node always refers to the same variable and value
+       * i.e. there is no modifier and the index (if any) is constant
+       * 
+       * @return true if reference is fixed
+       */
+      boolean isFixedReference() {
+         return (fModifier == null) && ((fIndex == null) || fIndex.isConstant());
+      }
+
+      /**
+       * Get variable referenced by this node
+       * 
+       * @return Variable (cached if fixed)
+       * 
+       * @throws Exception if variable doesn't exist
+       */
+      Variable getResolvedVariable() throws Exception {
+         return getVar();
+      }
+
       public Boolean exists() {
          String name = fVarName;
          if (fIndex != null) {
@@ -497,6 +576,255 @@ public class Expression implements IModelChangeListener {
          return fOwner.fVarProvider.safeGetVariable(name) != null;
       }
 
+      /**
+       * Set identifier used to create this node.<br>
+       * This allows the node to be re-bound when used as a template.
+       * 
+       * @param reference Identifier as written in expression
+       */
+      void setReference(IdentifierReference reference) {
+         fReference = reference;
+      }
+
+      @Override
+      ExpressionNode instantiate(Expression owner) throws Exception {
+         if (fReference == null) {
+            throw new Exception("Variable node can't be instantiated without identifier " + this);
+         }
+         if (owner == null) {
+            // Unbound copy for template
+            VariableNode node = new VariableNode(null, fVarName, fType, fModifier, null);
+            node.fReference = fReference;
+            return node;
+         }
+         VariableProvider provider = owner.fVarProvider;
+         ExpressionNode node = create(owner, fReference.getKey(provider), fReference.fModifier, fReference.createIndex(provider));
+         if (node.fType != fType) {
+            throw new Exception("Type of '" + fReference.fName + "' differs from template, " + node.fType + " != " + fType);
+         }
+         ((VariableNode)node).fReference = fReference;
+         return node;
+      }
+   }
+
+   /**
+    * Describes an identifier as written in an expression.<br>
+    * Used to re-bind cached expression templates to a variable provider.
+    */
+   static class IdentifierReference {
+
+      /** Name as written i.e. before conversion to a key */
+      final String  fName;
+
+      /** Indicates the name is converted to a key by the provider */
+      final boolean fMakeKey;
+
+      /** Modifier e.g. name, code etc (may be null) */
+      final String  fModifier;
+
+      /** Text of index expression (null if not indexed, empty for []) */
+      final String  fIndexText;
+
+      /** Mode used for index expression */
+      final Mode    fIndexMode;
+
+      /**
+       * 
+       * @param name       Name as written i.e. before conversion to a key
+       * @param makeKey    Indicates the name is converted to a key by the provider
+       * @param modifier   Modifier e.g. name, code etc (may be null)
+       * @param indexText  Text of index expression (null if not indexed, empty for [])
+       * @param indexMode  Mode used for index expression
+       */
+      IdentifierReference(String name, boolean makeKey, String modifier, String indexText, Mode indexMode) {
+         fName       = name;
+         fMakeKey    = makeKey;
+         fModifier   = modifier;
+         fIndexText  = indexText;
+         fIndexMode  = indexMode;
+      }
+
+      /**
+       * Get key for variable
+       * 
+       * @param provider Provider used to create key
+       * 
+       * @return Key
+       * 
+       * @throws Exception if provider is null
+       */
+      String getKey(VariableProvider provider) throws Exception {
+         if (provider == null) {
+            throw new Exception("Provider used but not provided");
+         }
+         if (fMakeKey) {
+            return provider.makeKey(fName);
+         }
+         return fName;
+      }
+
+      /**
+       * Create index expression
+       * 
+       * @param provider Provider for variables used in index
+       * 
+       * @return Index expression or null if not indexed
+       * 
+       * @throws Exception if index is not an integer
+       */
+      Expression createIndex(VariableProvider provider) throws Exception {
+         if (fIndexText == null) {
+            return null;
+         }
+         if (fIndexText.isEmpty()) {
+            return new Expression("0", provider, Mode.EvaluateImmediate);
+         }
+         Expression index = new Expression(fIndexText, provider, fIndexMode);
+         // Check type is correct for index
+         Object ind = index.getValue();
+         if (!(ind instanceof Long)) {
+            throw new Exception("Invalid index type");
+         }
+         return index;
+      }
+   }
+
+   /**
+    * Result of an existence check on an identifier.<br>
+    * This is evaluated when created (during parsing) and is constant.
+    */
+   static class IdentifierExistsNode extends ExpressionNode {
+
+      /** Identifier being checked */
+      final IdentifierReference fReference;
+
+      /** Result of check */
+      final Boolean fExists;
+
+      private IdentifierExistsNode(IdentifierReference reference, Boolean exists) {
+         super(Type.Boolean);
+         fReference = reference;
+         fExists    = exists;
+      }
+
+      /**
+       * Check existence of identifier
+       * 
+       * @param provider   Provider for variables
+       * @param reference  Identifier being checked
+       * @param index      Index for identifier (may be null)
+       * 
+       * @throws Exception
+       */
+      IdentifierExistsNode(VariableProvider provider, IdentifierReference reference, Expression index) throws Exception {
+         super(Type.Boolean);
+         fReference = reference;
+         String varKey = reference.getKey(provider);
+         if (index != null) {
+            if (!index.isConstant()) {
+               // Use [0] index for existence check if non-constant index value
+               varKey = varKey + "[0]";
+            }
+            else {
+               // Index is a constant so evaluate and use for existence check of variable
+               varKey = varKey + "["+index.getValueAsLong()+"]";
+            }
+         }
+         fExists = provider.safeGetVariable(varKey) != null;
+      }
+
+      @Override
+      Object eval() {
+         return fExists;
+      }
+
+      @Override
+      boolean isConstant() {
+         return true;
+      }
+
+      @Override
+      public ExpressionNode prune() {
+         return new BooleanConstantNode(fExists);
+      }
+
+      @Override
+      ExpressionNode instantiate(Expression owner) throws Exception {
+         if (owner == null) {
+            return new IdentifierExistsNode(fReference, fExists);
+         }
+         return new IdentifierExistsNode(owner.fVarProvider, fReference, fReference.createIndex(owner.fVarProvider));
+      }
+
+      @Override
+      public String toString() {
+         return this.getClass().getSimpleName()+"("+fReference.fName+", "+fExists+")";
+      }
+   }
+
+   /**
+    * Value of a variable obtained when created (during parsing).<br>
+    * This is constant.
+    */
+   static class ImmediateValueNode extends ExpressionNode {
+
+      /** Variable providing value */
+      final ExpressionNode fVariable;
+
+      /** Value of variable when created */
+      final Object fValue;
+
+      private ImmediateValueNode(ExpressionNode variable, Type type, Object value) {
+         super(type);
+         fVariable = variable;
+         fValue    = value;
+      }
+
+      /**
+       * Create from current value of variable
+       * 
+       * @param variable Variable to evaluate
+       * 
+       * @return Node wrapping current value
+       * 
+       * @throws Exception
+       */
+      static ImmediateValueNode create(ExpressionNode variable) throws Exception {
+         ExpressionNode value = createConstantNode(variable.eval());
+         return new ImmediateValueNode(variable, value.fType, value.eval());
+      }
+
+      @Override
+      Object eval() {
+         return fValue;
+      }
+
+      @Override
+      boolean isConstant() {
+         return true;
+      }
+
+      @Override
+      public ExpressionNode prune() throws Exception {
+         return createConstantNode(fValue);
+      }
+
+      @Override
+      ExpressionNode instantiate(Expression owner) throws Exception {
+         if (owner == null) {
+            return new ImmediateValueNode(fVariable.instantiate(null), fType, fValue);
+         }
+         ImmediateValueNode node = create(fVariable.instantiate(owner));
+         if (node.fType != fType) {
+            throw new Exception("Type of value differs from template, " + node.fType + " != " + fType);
+         }
+         return node;
+      }
+
+      @Override
+      public String toString() {
+         return this.getClass().getSimpleName()+"("+fValue+", "+fType+")";
+      }
    }
 
    static class DisabledValueNode extends ExpressionNode {
@@ -514,6 +842,12 @@ public class Expression implements IModelChangeListener {
       boolean isConstant() {
          return true;
       }
+
+      @Override
+      ExpressionNode instantiate(Expression owner) {
+         // Immutable
+         return this;
+      }
    }
 
    static class BooleanConstantNode extends ExpressionNode {
@@ -535,6 +869,12 @@ public class Expression implements IModelChangeListener {
          return true;
       }
 
+      @Override
+      ExpressionNode instantiate(Expression owner) {
+         // Immutable
+         return this;
+      }
+
       @Override
       public String toString() {
          return "\""+fValue+"\"";
@@ -560,6 +900,12 @@ public class Expression implements IModelChangeListener {
          return true;
       }
 
+      @Override
+      ExpressionNode instantiate(Expression owner) {
+         // Immutable
+         return this;
+      }
+
       @Override
       public String toString() {
          return fValue.toString();
@@ -585,6 +931,12 @@ public class Expression implements IModelChangeListener {
          return true;
       }
 
+      @Override
+      ExpressionNode instantiate(Expression owner) {
+         // Immutable
+         return this;
+      }
+
       @Override
       public String toString() {
          return fValue.toString();
@@ -610,6 +962,12 @@ public class Expression implements IModelChangeListener {
          return true;
       }
 
+      @Override
+      ExpressionNode instantiate(Expression owner) {
+         // Immutable
+         return this;
+      }
+
       @Override
       public String toString() {
          return "\""+fValue+"\"";
@@ -2034,6 +2392,13 @@ public class Expression implements IModelChangeListener {
          return fCondition.isConstant() && super.isConstant();
       }
 
+      @Override
+      ExpressionNode instantiate(Expression owner) throws Exception {
+         TernaryNode node = (TernaryNode) super.instantiate(owner);
+         node.fCondition = fCondition.instantiate(owner);
+         return node;
+      }
+
       @Override
       public String toString() {
          return this.getClass().getSimpleName()+"("+fCondition.toString()+"?"+fLeft.toString()+":"+fRight.toString()+","+fType+")";
@@ -2156,6 +2521,15 @@ public class Expression implements IModelChangeListener {
          return isConstant;
       }
 
+      @Override
+      ExpressionNode instantiate(Expression owner) throws Exception {
+         ExpressionNode[] list = new ExpressionNode[fList.length];
+         for (int index=0; index<fList.length; index++) {
+            list[index] = fList[index].instantiate(owner);
+         }
+         return new CommaListNode(list);
+      }
+
       public static abstract class Visitor {
          abstract void visit(ExpressionNode node) throws Exception ;
 
@@ -2221,9 +2595,39 @@ public class Expression implements IModelChangeListener {
    /** Variable used by expression */
    private ArrayList<Variable> fVariables;
 
+   /** All variables used by expression (including primary variable) */
+   private ArrayList<Variable> fDependencies;
+
    /** Controls operation of parser */
    private Mode fMode;
 
+   /** Compiled form of fExpression (if compilation is enabled) */
+   private ExpressionCompiler.CompiledNode fCompiledExpression = null;
+
+   /** Enables compilation of expressions after pruning */
+   private static boolean fCompilationEnabled = false;
+
+   /** Enables checking of compiled expressions against the interpreter */
+   private static boolean fCompilationChecked = false;
+
+   /** Expressions created while checking is enabled */
+   private static ArrayList<Expression> fCheckedExpressions = new ArrayList<Expression>();
+
+   /** Number of expressions compiled */
+   private static long fCompiledCount = 0;
+
+   /** Number of compiled nodes that were given a specialised form */
+   private static long fSpecialisedNodeCount = 0;
+
+   /** Number of compiled nodes that are delegated to the interpreter */
+   private static long fInterpretedNodeCount = 0;
+
+   /** Number of compiled evaluations that disagreed with the interpreter */
+   private static long fMismatchCount = 0;
+
+   /** Cache of parsed expressions shared by all expressions */
+   private static final ExpressionTemplateCache fTemplateCache = new ExpressionTemplateCache(ExpressionTemplateCache.DEFAULT_CAPACITY);
+
    /**
     * Wraps a constant value in a Expression node
     * 
@@ -2264,6 +2668,9 @@ public class Expression implements IModelChangeListener {
       fExpressionStr = expression;
       fVarProvider   = provider;
       fMode          = mode;
+      if (fCompilationChecked) {
+         fCheckedExpressions.add(this);
+      }
    }
 
    /**
@@ -2295,13 +2702,16 @@ public class Expression implements IModelChangeListener {
          }
       }
 
-      // Parse expression
-      ExpressionParser ep = new ExpressionParser(this, fVarProvider, fMode);
-      fExpression = ep.parseExpression(parts[0].trim());
+      // Parse expression (using cached template if available)
+      fExpression = fTemplateCache.parse(this, fVarProvider, parts[0].trim(), fMode);
 
       // Prune constant nodes
       fExpression = fExpression.prune();
 
+      if (fCompilationEnabled) {
+         compile();
+      }
+
       if (fMode == Mode.Dynamic) {
 
          // Collect variables
@@ -2312,6 +2722,7 @@ public class Expression implements IModelChangeListener {
          for (Variable var:fVariables) {
             var.addListener(this);
          }
+         fDependencies = new ArrayList<Variable>(fVariables);
          // Update primary variable
          if ((fPrimaryVar == null) && (fVariables.size() == 1)) {
             fPrimaryVar = fVariables.get(0);
@@ -2333,12 +2744,210 @@ public class Expression implements IModelChangeListener {
             // Parse expression
             prelim();
          }
+         if (fCompiledExpression != null) {
+            if (fCompilationChecked) {
+               return evaluateAndCheck();
+            }
+            return fCompiledExpression.evalObject();
+         }
          return fExpression.eval();
       } catch (Exception e) {
          throw new Exception("Failed to evaluate expression '" + fExpressionStr + "'", e);
       }
    }
 
+   /**
+    * Compile the parsed expression to a type-specialised form.<br>
+    * The compiled form is used in preference to the expression tree by evaluate().
+    * Failure to compile leaves the expression being interpreted.
+    */
+   private void compile() {
+      try {
+         ExpressionCompiler compiler = new ExpressionCompiler();
+         fCompiledExpression = compiler.compile(fExpression);
+         synchronized (Expression.class) {
+            fCompiledCount++;
+            fSpecialisedNodeCount += compiler.getSpecialisedNodeCount();
+            fInterpretedNodeCount += compiler.getInterpretedNodeCount();
+         }
+      } catch (Exception e) {
+         System.err.println("Failed to compile expression '" + fExpressionStr + "', " + e.getMessage());
+         fCompiledExpression = null;
+      }
+   }
+
+   /**
+    * Evaluate both compiled and interpreted forms and report any differences
+    * 
+    * @return Interpreted result
+    * 
+    * @throws Exception Interpreted failure
+    */
+   private Object evaluateAndCheck() throws Exception {
+      Object    compiledResult    = null;
+      Exception compiledFailure   = null;
+      Object    interpretedResult = null;
+      Exception interpretedFailure = null;
+      try {
+         compiledResult = fCompiledExpression.evalObject();
+      } catch (Exception e) {
+         compiledFailure = e;
+      }
+      try {
+         interpretedResult = fExpression.eval();
+      } catch (Exception e) {
+         interpretedFailure = e;
+      }
+      boolean agree;
+      if ((compiledFailure != null) || (interpretedFailure != null)) {
+         agree = (compiledFailure != null) && (interpretedFailure != null);
+      }
+      else {
+         agree = Objects.equals(compiledResult, interpretedResult);
+      }
+      if (!agree) {
+         synchronized (Expression.class) {
+            fMismatchCount++;
+         }
+         System.err.println("Compiled expression mismatch '" + fExpressionStr + "'" +
+               "\n   Compiled    => " + ((compiledFailure != null)?compiledFailure:compiledResult) +
+               "\n   Interpreted => " + ((interpretedFailure != null)?interpretedFailure:interpretedResult));
+      }
+      if (interpretedFailure != null) {
+         throw interpretedFailure;
+      }
+      return interpretedResult;
+   }
+
+   /**
+    * Enable compilation of expressions<br>
+    * Only affects expressions parsed after this call.
+    * 
+    * @param enable  Enable compilation
+    * @param check   Also evaluate the interpreted form and report disagreements (for testing)
+    */
+   public static synchronized void setCompilationEnabled(boolean enable, boolean check) {
+      fCompilationEnabled = enable;
+      fCompilationChecked = enable && check;
+   }
+
+   /**
+    * Indicates if expressions are being compiled
+    * 
+    * @return true if enabled
+    */
+   public static boolean isCompilationEnabled() {
+      return fCompilationEnabled;
+   }
+
+   /**
+    * Check all expressions created since checking was enabled (or last call)<br>
+    * Each expression is evaluated in both compiled and interpreted form.
+    * The list of expressions is cleared.
+    * 
+    * @return Number of expressions checked
+    */
+   public static int checkCompiledExpressions() {
+      ArrayList<Expression> expressions;
+      synchronized (Expression.class) {
+         expressions = fCheckedExpressions;
+         fCheckedExpressions = new ArrayList<Expression>();
+      }
+      int checked = 0;
+      for (Expression expression:expressions) {
+         try {
+            if (expression.fExpression == null) {
+               expression.prelim();
+            }
+         } catch (Exception e) {
+            // Expression can't be parsed in this context so can't be compared
+            continue;
+         }
+         if (expression.fCompiledExpression == null) {
+            continue;
+         }
+         try {
+            expression.evaluateAndCheck();
+         } catch (Exception e) {
+            // Failure agreed by both forms
+         }
+         checked++;
+      }
+      return checked;
+   }
+
+   /**
+    * Get number of compiled expressions that disagreed with the interpreter
+    * 
+    * @return Count of mismatches
+    */
+   public static synchronized long getCompilationMismatchCount() {
+      return fMismatchCount;
+   }
+
+   /**
+    * Get statistics on expression compilation
+    * 
+    * @return Description of statistics
+    */
+   public static synchronized String getCompilationStatistics() {
+      return String.format("Compiled expressions = %d, specialised nodes = %d, interpreted nodes = %d, mismatches = %d",
+            fCompiledCount, fSpecialisedNodeCount, fInterpretedNodeCount, fMismatchCount);
+   }
+
+   /**
+    * Enable use of cached parse trees (templates) when creating expressions<br>
+    * Disabling the cache discards any templates.
+    * 
+    * @param enable  Enable cache
+    */
+   public static void setTemplateCacheEnabled(boolean enable) {
+      fTemplateCache.setEnabled(enable);
+   }
+
+   /**
+    * Indicates if cached parse trees are used when creating expressions
+    * 
+    * @return true if enabled
+    */
+   public static boolean isTemplateCacheEnabled() {
+      return fTemplateCache.isEnabled();
+   }
+
+   /**
+    * Discard cached parse trees and reset statistics
+    */
+   public static void clearTemplateCache() {
+      fTemplateCache.clear();
+   }
+
+   /**
+    * Get number of expressions created from a cached parse tree
+    * 
+    * @return Count
+    */
+   public static long getTemplateCacheHitCount() {
+      return fTemplateCache.getHitCount();
+   }
+
+   /**
+    * Get number of expressions that were parsed
+    * 
+    * @return Count
+    */
+   public static long getTemplateCacheMissCount() {
+      return fTemplateCache.getMissCount();
+   }
+
+   /**
+    * Get statistics on use of cached parse trees
+    * 
+    * @return Description of statistics
+    */
+   public static String getTemplateCacheStatistics() {
+      return fTemplateCache.getStatistics();
+   }
+
    /**
     * Get primary variable associated with string (for origin etc)
     * 
@@ -2462,6 +3071,12 @@ public class Expression implements IModelChangeListener {
     * @throws Exception
     */
    public Object getValue() throws Exception {
+      PropagationScheduler scheduler = getPropagationScheduler();
+      if ((scheduler != null) && scheduler.isPending(this)) {
+         // Value is stale but change has not been propagated yet.
+         // Don't update fCurrentValue so the change is detected when propagated
+         return evaluate();
+      }
       InitPhase initPhase = fVarProvider.getDeviceInfo().getInitialisationPhase();
       if ((fCurrentValue == null) || neverCacheValue || (initPhase.isEarlierThan( InitPhase.VariableAndGuiPropagationAllowed))) {
          // Always evaluate if needed or when loading settings
@@ -2770,9 +3385,47 @@ public class Expression implements IModelChangeListener {
       return "Expression(\""+fExpressionStr+"\", "+fMode+", "+fVarProvider+")";
    }
 
+   /**
+    * Get variables this expression depends upon
+    * 
+    * @return List of variables or null if the expression is not dynamic or not yet parsed
+    */
+   public ArrayList<Variable> getDependencies() {
+      return fDependencies;
+   }
+
+   /**
+    * Get scheduler used to propagate changes
+    * 
+    * @return Scheduler or null if not available
+    */
+   private PropagationScheduler getPropagationScheduler() {
+      if (fVarProvider == null) {
+         return null;
+      }
+      DeviceInfo deviceInfo = fVarProvider.getDeviceInfo();
+      if (deviceInfo == null) {
+         return null;
+      }
+      return deviceInfo.getPropagationScheduler();
+   }
+
    @Override
    public void modelElementChanged(ObservableModelInterface observableModel, int properties) {
       
+      PropagationScheduler scheduler = getPropagationScheduler();
+      if ((scheduler != null) && scheduler.defer(this)) {
+         // Evaluated when transaction is committed
+         return;
+      }
+      propagateChange();
+   }
+
+   /**
+    * Re-evaluate expression and notify listeners if the value has changed
+    */
+   public void propagateChange() {
+      
       try {
          Object newValue = evaluate();
          if (Objects.equals(newValue, fCurrentValue)) {
@@ -0,0 +1,743 @@
+package net.sourceforge.usbdm.deviceEditor.parsers;
+
+import java.util.Objects;
+
+import net.sourceforge.usbdm.deviceEditor.information.BooleanVariable;
+import net.sourceforge.usbdm.deviceEditor.information.ChoiceVariable;
+import net.sourceforge.usbdm.deviceEditor.information.DoubleVariable;
+import net.sourceforge.usbdm.deviceEditor.information.LongVariable;
+import net.sourceforge.usbdm.deviceEditor.information.Variable;
+import net.sourceforge.usbdm.deviceEditor.parsers.Expression.AddNode;
+import net.sourceforge.usbdm.deviceEditor.parsers.Expression.BinaryExpressionNode;
+import net.sourceforge.usbdm.deviceEditor.parsers.Expression.BitAndNode;
+import net.sourceforge.usbdm.deviceEditor.parsers.Expression.BitOrNode;
+import net.sourceforge.usbdm.deviceEditor.parsers.Expression.BitXorNode;
+import net.sourceforge.usbdm.deviceEditor.parsers.Expression.BooleanConstantNode;
+import net.sourceforge.usbdm.deviceEditor.parsers.Expression.CastToDoubleNode;
+import net.sourceforge.usbdm.deviceEditor.parsers.Expression.CommaListNode;
+import net.sourceforge.usbdm.deviceEditor.parsers.Expression.ComplementNode;
+import net.sourceforge.usbdm.deviceEditor.parsers.Expression.DivideNode;
+import net.sourceforge.usbdm.deviceEditor.parsers.Expression.DoubleConstantNode;
+import net.sourceforge.usbdm.deviceEditor.parsers.Expression.EqualNode;
+import net.sourceforge.usbdm.deviceEditor.parsers.Expression.ExpressionNode;
+import net.sourceforge.usbdm.deviceEditor.parsers.Expression.GreaterThanNode;
+import net.sourceforge.usbdm.deviceEditor.parsers.Expression.GreaterThanOrEqualNode;
+import net.sourceforge.usbdm.deviceEditor.parsers.Expression.LeftShiftNode;
+import net.sourceforge.usbdm.deviceEditor.parsers.Expression.LessThanNode;
+import net.sourceforge.usbdm.deviceEditor.parsers.Expression.LessThanOrEqualNode;
+import net.sourceforge.usbdm.deviceEditor.parsers.Expression.LogicalAndNode;
+import net.sourceforge.usbdm.deviceEditor.parsers.Expression.LogicalOrNode;
+import net.sourceforge.usbdm.deviceEditor.parsers.Expression.LongConstantNode;
+import net.sourceforge.usbdm.deviceEditor.parsers.Expression.ModuloNode;
+import net.sourceforge.usbdm.deviceEditor.parsers.Expression.MultiplyNode;
+import net.sourceforge.usbdm.deviceEditor.parsers.Expression.NotEqualNode;
+import net.sourceforge.usbdm.deviceEditor.parsers.Expression.NotNode;
+import net.sourceforge.usbdm.deviceEditor.parsers.Expression.RightShiftNode;
+import net.sourceforge.usbdm.deviceEditor.parsers.Expression.StringConstantNode;
+import net.sourceforge.usbdm.deviceEditor.parsers.Expression.SubtractNode;
+import net.sourceforge.usbdm.deviceEditor.parsers.Expression.TernaryNode;
+import net.sourceforge.usbdm.deviceEditor.parsers.Expression.Type;
+import net.sourceforge.usbdm.deviceEditor.parsers.Expression.UnaryMinusNode;
+import net.sourceforge.usbdm.deviceEditor.parsers.Expression.UnaryPlusNode;
+import net.sourceforge.usbdm.deviceEditor.parsers.Expression.VariableNode;
+
+/**
+ * Compiles a pruned expression tree into a tree of type-specialised evaluators.<br>
+ *
+ * <li>Long, Double and Boolean sub-expressions are evaluated on primitive values without boxing
+ * <li>Constant sub-trees are folded to a single value
+ * <li>Simple variable references are resolved once when compiled
+ * <li>Nodes without a specialised form are delegated to the interpreter (ExpressionNode.eval())
+ * <br><br>
+ * The results are intended to be identical to the interpreter including failures e.g.
+ * a Long/Long division by zero still produces Double.POSITIVE_INFINITY.
+ */
+class ExpressionCompiler {
+
+   /**
+    * Compiled node
+    *
+    * Sub-classes override the evaluation method matching their type.<br>
+    * The remaining methods convert in the same way as the casts used by the interpreter.
+    */
+   static abstract class CompiledNode {
+
+      /** Type of the node (from the original ExpressionNode) */
+      final Type fType;
+
+      /** Indicates the runtime result is always of class fType so the primitive methods may be used */
+      final boolean fExact;
+
+      CompiledNode(Type type, boolean exact) {
+         fType  = type;
+         fExact = exact;
+      }
+
+      abstract Object evalObject() throws Exception;
+
+      long evalLong() throws Exception {
+         return (Long) evalObject();
+      }
+
+      double evalDouble() throws Exception {
+         return (Double) evalObject();
+      }
+
+      boolean evalBoolean() throws Exception {
+         return (Boolean) evalObject();
+      }
+
+      boolean isConstant() {
+         return false;
+      }
+   }
+
+   static abstract class LongCompiledNode extends CompiledNode {
+      LongCompiledNode() {
+         super(Type.Long, true);
+      }
+      @Override
+      abstract long evalLong() throws Exception;
+
+      @Override
+      Object evalObject() throws Exception {
+         return evalLong();
+      }
+   }
+
+   static abstract class DoubleCompiledNode extends CompiledNode {
+      DoubleCompiledNode() {
+         super(Type.Double, true);
+      }
+      @Override
+      abstract double evalDouble() throws Exception;
+
+      @Override
+      Object evalObject() throws Exception {
+         return evalDouble();
+      }
+   }
+
+   static abstract class BooleanCompiledNode extends CompiledNode {
+      BooleanCompiledNode() {
+         super(Type.Boolean, true);
+      }
+      @Override
+      abstract boolean evalBoolean() throws Exception;
+
+      @Override
+      Object evalObject() throws Exception {
+         return evalBoolean();
+      }
+   }
+
+   /**
+    * Folded constant
+    */
+   static class ConstantCompiledNode extends CompiledNode {
+      final Object  fValue;
+      final long    fLong;
+      final double  fDouble;
+      final boolean fBoolean;
+
+      ConstantCompiledNode(Type type, Object value) {
+         super(type, isExactValue(type, value));
+         fValue   = value;
+         fLong    = (value instanceof Long)?(Long)value:0;
+         fDouble  = (value instanceof Double)?(Double)value:0.0;
+         fBoolean = (value instanceof Boolean)?(Boolean)value:false;
+      }
+      @Override
+      Object evalObject() {
+         return fValue;
+      }
+      @Override
+      long evalLong() throws Exception {
+         return (fValue instanceof Long)?fLong:super.evalLong();
+      }
+      @Override
+      double evalDouble() throws Exception {
+         return (fValue instanceof Double)?fDouble:super.evalDouble();
+      }
+      @Override
+      boolean evalBoolean() throws Exception {
+         return (fValue instanceof Boolean)?fBoolean:super.evalBoolean();
+      }
+      @Override
+      boolean isConstant() {
+         return true;
+      }
+   }
+
+   /**
+    * Delegates to the interpreter for nodes without a specialised form
+    */
+   static class InterpretedCompiledNode extends CompiledNode {
+      final ExpressionNode fNode;
+
+      InterpretedCompiledNode(ExpressionNode node) {
+         super(node.fType, false);
+         fNode = node;
+      }
+      @Override
+      Object evalObject() throws Exception {
+         return fNode.eval();
+      }
+   }
+
+   /** Count of nodes given a specialised form */
+   private int fSpecialisedNodes = 0;
+
+   /** Count of nodes delegated to the interpreter */
+   private int fInterpretedNodes = 0;
+
+   /**
+    * Check if a value is of the class indicated by type
+    */
+   private static boolean isExactValue(Type type, Object value) {
+      switch (type) {
+      case Long:    return value instanceof Long;
+      case Double:  return value instanceof Double;
+      case Boolean: return value instanceof Boolean;
+      case String:  return value instanceof String;
+      default:      return false;
+      }
+   }
+
+   /**
+    * Compile a pruned expression tree
+    *
+    * @param node Root of tree to compile
+    *
+    * @return Compiled tree
+    *
+    * @throws Exception
+    */
+   CompiledNode compile(ExpressionNode node) throws Exception {
+      CompiledNode compiled = compileNode(node);
+      if (compiled instanceof InterpretedCompiledNode) {
+         fInterpretedNodes++;
+      }
+      else {
+         fSpecialisedNodes++;
+      }
+      return compiled;
+   }
+
+   /**
+    * Get number of nodes given a specialised form by this compiler
+    */
+   int getSpecialisedNodeCount() {
+      return fSpecialisedNodes;
+   }
+
+   /**
+    * Get number of nodes delegated to the interpreter by this compiler
+    */
+   int getInterpretedNodeCount() {
+      return fInterpretedNodes;
+   }
+
+   private CompiledNode compileNode(ExpressionNode node) throws Exception {
+
+      if ((node instanceof LongConstantNode)||
+          (node instanceof DoubleConstantNode)||
+          (node instanceof BooleanConstantNode)||
+          (node instanceof StringConstantNode)) {
+         return new ConstantCompiledNode(node.fType, node.eval());
+      }
+      if (!(node instanceof CommaListNode) && node.isConstant()) {
+         // Fold anything prune() left behind e.g. variables that became constant
+         try {
+            Object value = node.eval();
+            if (isExactValue(node.fType, value)) {
+               return new ConstantCompiledNode(node.fType, value);
+            }
+         } catch (Exception e) {
+            // Leave failure to be reported when evaluated
+         }
+      }
+      if (node instanceof VariableNode) {
+         return compileVariable((VariableNode) node);
+      }
+      if (node instanceof CommaListNode) {
+         // Lists are only used as arguments to interpreted nodes
+         return new InterpretedCompiledNode(node);
+      }
+      if (node instanceof NotNode) {
+         return compileNot((NotNode) node);
+      }
+      if (node instanceof UnaryMinusNode) {
+         return compileUnaryMinus((UnaryMinusNode) node);
+      }
+      if (node instanceof UnaryPlusNode) {
+         return compile(((UnaryPlusNode) node).fArg);
+      }
+      if (node instanceof ComplementNode) {
+         final CompiledNode arg = compile(((ComplementNode) node).fArg);
+         return new LongCompiledNode() {
+            @Override
+            long evalLong() throws Exception {
+               return ~arg.evalLong();
+            }
+         };
+      }
+      if (node instanceof CastToDoubleNode) {
+         return compileCastToDouble((CastToDoubleNode) node);
+      }
+      if (node instanceof TernaryNode) {
+         return compileTernary((TernaryNode) node);
+      }
+      if (node instanceof BinaryExpressionNode) {
+         BinaryExpressionNode bNode = (BinaryExpressionNode) node;
+         if (bNode.fRight instanceof CommaListNode) {
+            // Set membership etc.
+            return new InterpretedCompiledNode(node);
+         }
+         CompiledNode compiled = compileBinary(bNode, compile(bNode.fLeft), compile(bNode.fRight));
+         if (compiled != null) {
+            return compiled;
+         }
+      }
+      return new InterpretedCompiledNode(node);
+   }
+
+   /**
+    * Compile a variable reference<br>
+    * Only simple references (no modifier, fixed index) are resolved once.
+    * Others are left to the interpreter as the variable being accessed may change.
+    */
+   private CompiledNode compileVariable(VariableNode node) throws Exception {
+      if (!node.isFixedReference()) {
+         return new InterpretedCompiledNode(node);
+      }
+      final Variable var;
+      try {
+         var = node.getResolvedVariable();
+      } catch (Exception e) {
+         // Variable may not exist yet - let the interpreter report it when used
+         return new InterpretedCompiledNode(node);
+      }
+      // These match the dispatch in VariableNode.eval()
+      if (var instanceof ChoiceVariable) {
+         return wrapLongVariable(node, var);
+      }
+      if (var instanceof BooleanVariable) {
+         if (node.fType != Type.Boolean) {
+            return new InterpretedCompiledNode(node);
+         }
+         // getValueAsBoolean() returns a Boolean so no boxing is saved
+         return new CompiledNode(Type.Boolean, true) {
+            @Override
+            Object evalObject() throws Exception {
+               return var.getValueAsBoolean();
+            }
+         };
+      }
+      if (var instanceof LongVariable) {
+         return wrapLongVariable(node, var);
+      }
+      if (var instanceof DoubleVariable) {
+         if (node.fType != Type.Double) {
+            return new InterpretedCompiledNode(node);
+         }
+         return new DoubleCompiledNode() {
+            @Override
+            double evalDouble() throws Exception {
+               return var.getValueAsDouble();
+            }
+         };
+      }
+      return new CompiledNode(node.fType, node.fType == Type.String) {
+         @Override
+         Object evalObject() throws Exception {
+            return var.getValueAsString();
+         }
+      };
+   }
+
+   private CompiledNode wrapLongVariable(VariableNode node, final Variable var) {
+      if (node.fType != Type.Long) {
+         return new InterpretedCompiledNode(node);
+      }
+      return new LongCompiledNode() {
+         @Override
+         long evalLong() throws Exception {
+            return var.getValueAsLong();
+         }
+      };
+   }
+
+   private CompiledNode compileNot(NotNode node) throws Exception {
+      final CompiledNode arg = compile(node.fArg);
+      return new BooleanCompiledNode() {
+         @Override
+         boolean evalBoolean() throws Exception {
+            return !arg.evalBoolean();
+         }
+      };
+   }
+
+   private CompiledNode compileUnaryMinus(UnaryMinusNode node) throws Exception {
+      final CompiledNode arg = compile(node.fArg);
+      if (!arg.fExact) {
+         return new InterpretedCompiledNode(node);
+      }
+      switch(arg.fType) {
+      case Long:
+         return new LongCompiledNode() {
+            @Override
+            long evalLong() throws Exception {
+               return -arg.evalLong();
+            }
+         };
+      case Double:
+         return new DoubleCompiledNode() {
+            @Override
+            double evalDouble() throws Exception {
+               return -arg.evalDouble();
+            }
+         };
+      default:
+         return new InterpretedCompiledNode(node);
+      }
+   }
+
+   private CompiledNode compileCastToDouble(CastToDoubleNode node) throws Exception {
+      final CompiledNode arg = compile(node.fArg);
+      if (!arg.fExact) {
+         return new InterpretedCompiledNode(node);
+      }
+      if (arg.fType == Type.Double) {
+         return arg;
+      }
+      if (arg.fType == Type.Long) {
+         return new DoubleCompiledNode() {
+            @Override
+            double evalDouble() throws Exception {
+               return arg.evalLong();
+            }
+         };
+      }
+      return new InterpretedCompiledNode(node);
+   }
+
+   private CompiledNode compileTernary(TernaryNode node) throws Exception {
+      final CompiledNode condition = compile(node.fCondition);
+      final CompiledNode left      = compile(node.fLeft);
+      final CompiledNode right     = compile(node.fRight);
+
+      if (left.fExact && right.fExact && (left.fType == node.fType) && (right.fType == node.fType)) {
+         switch(node.fType) {
+         case Long:
+            return new LongCompiledNode() {
+               @Override
+               long evalLong() throws Exception {
+                  return condition.evalBoolean()?left.evalLong():right.evalLong();
+               }
+            };
+         case Double:
+            return new DoubleCompiledNode() {
+               @Override
+               double evalDouble() throws Exception {
+                  return condition.evalBoolean()?left.evalDouble():right.evalDouble();
+               }
+            };
+         case Boolean:
+            return new BooleanCompiledNode() {
+               @Override
+               boolean evalBoolean() throws Exception {
+                  return condition.evalBoolean()?left.evalBoolean():right.evalBoolean();
+               }
+            };
+         default:
+            break;
+         }
+      }
+      // Branches may differ in type so keep results boxed
+      return new CompiledNode(node.fType, false) {
+         @Override
+         Object evalObject() throws Exception {
+            return condition.evalBoolean()?left.evalObject():right.evalObject();
+         }
+      };
+   }
+
+   /**
+    * Compile binary node
+    *
+    * @return Compiled node or null if no specialised form is available
+    */
+   private CompiledNode compileBinary(BinaryExpressionNode node, final CompiledNode left, final CompiledNode right) throws Exception {
+
+      boolean exact       = left.fExact && right.fExact;
+      boolean bothLong    = exact && (left.fType == Type.Long)   && (right.fType == Type.Long);
+      boolean bothDouble  = exact && (left.fType == Type.Double) && (right.fType == Type.Double);
+
+      if (node instanceof LogicalAndNode) {
+         return new BooleanCompiledNode() {
+            @Override
+            boolean evalBoolean() throws Exception {
+               return left.evalBoolean() && right.evalBoolean();
+            }
+         };
+      }
+      if (node instanceof LogicalOrNode) {
+         return new BooleanCompiledNode() {
+            @Override
+            boolean evalBoolean() throws Exception {
+               return left.evalBoolean() || right.evalBoolean();
+            }
+         };
+      }
+      // The following treat operands as Long regardless of node type
+      if (node instanceof ModuloNode) {
+         return new LongCompiledNode() {
+            @Override
+            long evalLong() throws Exception {
+               return left.evalLong() % right.evalLong();
+            }
+         };
+      }
+      if (node instanceof LeftShiftNode) {
+         return new LongCompiledNode() {
+            @Override
+            long evalLong() throws Exception {
+               return left.evalLong() << right.evalLong();
+            }
+         };
+      }
+      if (node instanceof RightShiftNode) {
+         return new LongCompiledNode() {
+            @Override
+            long evalLong() throws Exception {
+               return left.evalLong() >> right.evalLong();
+            }
+         };
+      }
+      if (node instanceof BitAndNode) {
+         return new LongCompiledNode() {
+            @Override
+            long evalLong() throws Exception {
+               return left.evalLong() & right.evalLong();
+            }
+         };
+      }
+      if (node instanceof BitOrNode) {
+         return new LongCompiledNode() {
+            @Override
+            long evalLong() throws Exception {
+               return left.evalLong() | right.evalLong();
+            }
+         };
+      }
+      if (node instanceof BitXorNode) {
+         return new LongCompiledNode() {
+            @Override
+            long evalLong() throws Exception {
+               return left.evalLong() ^ right.evalLong();
+            }
+         };
+      }
+      if (node instanceof EqualNode) {
+         return compileEquality(left, right, exact, false);
+      }
+      if (node instanceof NotEqualNode) {
+         return compileEquality(left, right, exact, true);
+      }
+      // Remaining nodes dispatch on operand type so need exact operands
+      if (bothLong) {
+         return compileLongBinary(node, left, right);
+      }
+      if (bothDouble) {
+         return compileDoubleBinary(node, left, right);
+      }
+      return null;
+   }
+
+   private CompiledNode compileEquality(final CompiledNode left, final CompiledNode right, boolean exact, final boolean invert) {
+      if (exact && (left.fType == right.fType)) {
+         switch(left.fType) {
+         case Long:
+            return new BooleanCompiledNode() {
+               @Override
+               boolean evalBoolean() throws Exception {
+                  return (left.evalLong() == right.evalLong()) != invert;
+               }
+            };
+         case Double:
+            // Matches Double.equals() i.e. NaN==NaN and 0.0!=-0.0
+            return new BooleanCompiledNode() {
+               @Override
+               boolean evalBoolean() throws Exception {
+                  return (Double.doubleToLongBits(left.evalDouble()) == Double.doubleToLongBits(right.evalDouble())) != invert;
+               }
+            };
+         case Boolean:
+            return new BooleanCompiledNode() {
+               @Override
+               boolean evalBoolean() throws Exception {
+                  return (left.evalBoolean() == right.evalBoolean()) != invert;
+               }
+            };
+         default:
+            break;
+         }
+      }
+      return new BooleanCompiledNode() {
+         @Override
+         boolean evalBoolean() throws Exception {
+            Object leftOperand = left.evalObject();
+            return Objects.equals(leftOperand, right.evalObject()) != invert;
+         }
+      };
+   }
+
+   private CompiledNode compileLongBinary(BinaryExpressionNode node, final CompiledNode left, final CompiledNode right) {
+      if (node instanceof AddNode) {
+         return new LongCompiledNode() {
+            @Override
+            long evalLong() throws Exception {
+               return left.evalLong() + right.evalLong();
+            }
+         };
+      }
+      if (node instanceof SubtractNode) {
+         return new LongCompiledNode() {
+            @Override
+            long evalLong() throws Exception {
+               return left.evalLong() - right.evalLong();
+            }
+         };
+      }
+      if (node instanceof MultiplyNode) {
+         return new LongCompiledNode() {
+            @Override
+            long evalLong() throws Exception {
+               return left.evalLong() * right.evalLong();
+            }
+         };
+      }
+      if (node instanceof DivideNode) {
+         // Division by zero produces a Double so result is not exact
+         return new CompiledNode(Type.Long, false) {
+            @Override
+            Object evalObject() throws Exception {
+               long leftOperand  = left.evalLong();
+               long rightOperand = right.evalLong();
+               if (rightOperand == 0) {
+                  return Double.POSITIVE_INFINITY;
+               }
+               return leftOperand / rightOperand;
+            }
+         };
+      }
+      if (node instanceof LessThanNode) {
+         return new BooleanCompiledNode() {
+            @Override
+            boolean evalBoolean() throws Exception {
+               return left.evalLong() < right.evalLong();
+            }
+         };
+      }
+      if (node instanceof LessThanOrEqualNode) {
+         return new BooleanCompiledNode() {
+            @Override
+            boolean evalBoolean() throws Exception {
+               return left.evalLong() <= right.evalLong();
+            }
+         };
+      }
+      if (node instanceof GreaterThanNode) {
+         return new BooleanCompiledNode() {
+            @Override
+            boolean evalBoolean() throws Exception {
+               return left.evalLong() > right.evalLong();
+            }
+         };
+      }
+      if (node instanceof GreaterThanOrEqualNode) {
+         return new BooleanCompiledNode() {
+            @Override
+            boolean evalBoolean() throws Exception {
+               return left.evalLong() >= right.evalLong();
+            }
+         };
+      }
+      return null;
+   }
+
+   private CompiledNode compileDoubleBinary(BinaryExpressionNode node, final CompiledNode left, final CompiledNode right) {
+      if (node instanceof AddNode) {
+         return new DoubleCompiledNode() {
+            @Override
+            double evalDouble() throws Exception {
+               return left.evalDouble() + right.evalDouble();
+            }
+         };
+      }
+      if (node instanceof SubtractNode) {
+         return new DoubleCompiledNode() {
+            @Override
+            double evalDouble() throws Exception {
+               return left.evalDouble() - right.evalDouble();
+            }
+         };
+      }
+      if (node instanceof MultiplyNode) {
+         return new DoubleCompiledNode() {
+            @Override
+            double evalDouble() throws Exception {
+               return left.evalDouble() * right.evalDouble();
+            }
+         };
+      }
+      if (node instanceof DivideNode) {
+         return new DoubleCompiledNode() {
+            @Override
+            double evalDouble() throws Exception {
+               double leftOperand  = left.evalDouble();
+               double rightOperand = right.evalDouble();
+               // Matches Objects.equals(right, 0.0) i.e. -0.0 is not treated as zero
+               if (Double.doubleToLongBits(rightOperand) == 0L) {
+                  return Double.POSITIVE_INFINITY;
+               }
+               return leftOperand / rightOperand;
+            }
+         };
+      }
+      if (node instanceof LessThanNode) {
+         return new BooleanCompiledNode() {
+            @Override
+            boolean evalBoolean() throws Exception {
+               return left.evalDouble() < right.evalDouble();
+            }
+         };
+      }
+      if (node instanceof LessThanOrEqualNode) {
+         return new BooleanCompiledNode() {
+            @Override
+            boolean evalBoolean() throws Exception {
+               return left.evalDouble() <= right.evalDouble();
+            }
+         };
+      }
+      if (node instanceof GreaterThanNode) {
+         return new BooleanCompiledNode() {
+            @Override
+            boolean evalBoolean() throws Exception {
+               return left.evalDouble() > right.evalDouble();
+            }
+         };
+      }
+      if (node instanceof GreaterThanOrEqualNode) {
+         return new BooleanCompiledNode() {
+            @Override
+            boolean evalBoolean() throws Exception {
+               return left.evalDouble() >= right.evalDouble();
+            }
+         };
+      }
+      return null;
+   }
+}
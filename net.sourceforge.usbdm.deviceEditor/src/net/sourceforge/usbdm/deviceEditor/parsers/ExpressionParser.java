@@ -1,6 +1,8 @@
 package net.sourceforge.usbdm.deviceEditor.parsers;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Map.Entry;
 
 import net.sourceforge.usbdm.deviceEditor.information.Pin;
@@ -13,6 +15,9 @@ import net.sourceforge.usbdm.deviceEditor.parsers.Expression.CommaListNode;
 import net.sourceforge.usbdm.deviceEditor.parsers.Expression.CommaListNode.Visitor;
 import net.sourceforge.usbdm.deviceEditor.parsers.Expression.ExpressionNode;
 import net.sourceforge.usbdm.deviceEditor.parsers.Expression.FormatNode;
+import net.sourceforge.usbdm.deviceEditor.parsers.Expression.IdentifierExistsNode;
+import net.sourceforge.usbdm.deviceEditor.parsers.Expression.IdentifierReference;
+import net.sourceforge.usbdm.deviceEditor.parsers.Expression.ImmediateValueNode;
 import net.sourceforge.usbdm.deviceEditor.parsers.Expression.IsBlankNode;
 import net.sourceforge.usbdm.deviceEditor.parsers.Expression.LongConstantNode;
 import net.sourceforge.usbdm.deviceEditor.parsers.Expression.LowercaseNode;
@@ -84,6 +89,18 @@ public class ExpressionParser {
    */
    private Expression fExpression;
 
+   /**
+    * Indicates the parsed expression depends on the provider in a way that can't be re-bound
+    * e.g. early evaluation of functions or signal listeners.<br>
+    * Such expressions can't be used as templates.
+    */
+   private boolean fProviderDependent = false;
+
+   /** Functions that only build nodes from their arguments i.e. no early evaluation using the provider */
+   private static final HashSet<String> fTemplateSafeFunctions = new HashSet<String>(Arrays.asList(
+         "ordinal", "tostring", "character", "isblank", "prettify",
+         "touppercase", "tolowercase", "replaceall", "format"));
+
    /**
     * Generate error message about operands
     * 
@@ -287,6 +304,10 @@ public class ExpressionParser {
       // Discard ')'
       getNextCh();
       
+      if (!fTemplateSafeFunctions.contains(functionName.toLowerCase())) {
+         fProviderDependent = true;
+      }
+      
 //      if ("Variable".equalsIgnoreCase(functionName)) {
 //         if (!arg.isConstant()) {
 //            Object currentValue = arg.eval();
@@ -429,6 +450,9 @@ public class ExpressionParser {
          // Dynamic description of mapped pin from info table index
          // The index must be a constant
          // This is an expression as mapping may change
+         if (arg instanceof ImmediateValueNode) {
+            arg = arg.prune();
+         }
          if (!(arg instanceof LongConstantNode)) {
             throw new Exception("Expected index for signal (an integer)");
          }
@@ -612,7 +636,7 @@ public class ExpressionParser {
       if ((ch != null) && (ch == '(')) {
          return getFunction(key);
       }
-      Expression index = null;
+      String indexText = null;
       if ((ch != null) && (ch == '[')) {
          ch = getNextNonWhitespaceCh();
          if (ch ==']') {
@@ -620,19 +644,12 @@ public class ExpressionParser {
                // [] should only be used in existence checks
                System.err.println("Empty index used in evaluated variable, exp= '"+fExpressionString+"'");
             }
-            index = new Expression("0", fProvider, Mode.EvaluateImmediate);
+            indexText = "";
          }
          else {
             int startOfIndex = fIndex;
             int endOfIndex   = findEndOfIndex();
-            
-            // Parse sub-expression
-            index = new Expression(fExpressionString.substring(startOfIndex, endOfIndex), fProvider, fMode);
-            // Check type is correct for index
-            Object ind = index.getValue();
-            if (!(ind instanceof Long)) {
-               throw new Exception("Invalid index type");
-            }
+            indexText = fExpressionString.substring(startOfIndex, endOfIndex);
          }
          ch = getNextNonWhitespaceCh();
       }
@@ -650,30 +667,21 @@ public class ExpressionParser {
          }
          modifier = modifierSb.toString();
       }
-      if (fProvider == null) {
-         throw new Exception("Provider used but not provided");
-      }
-      key = fProvider.makeKey(key);
+      IdentifierReference reference = new IdentifierReference(key, true, modifier, indexText, fMode);
+
+      // Parse index sub-expression
+      Expression index = reference.createIndex(fProvider);
+      
+      key = reference.getKey(fProvider);
       
       if (!forceUseVariableValues) {
          // Only existence check
-         String varKey = key;
-         if (index != null) {
-            if (!index.isConstant()) {
-               // Use [0] index for existence check if non-constant index value
-               varKey = varKey + "[0]";
-            }
-            else {
-               // Index is a constant so evaluate and use for existence check of variable
-               varKey = varKey + "["+index.getValueAsLong()+"]";
-            }
-         }
-         Variable var = fProvider.safeGetVariable(varKey);
-         return new BooleanConstantNode(var != null);
+         return new IdentifierExistsNode(fProvider, reference, index);
       }
       ExpressionNode expNode = Expression.VariableNode.create(fExpression, key, modifier, index);
+      ((VariableNode)expNode).setReference(reference);
       if (forceImmediateVariableEvaluation) {
-         return Expression.createConstantNode(expNode.eval());
+         return ImmediateValueNode.create(expNode);
       }
       return expNode;
    }
@@ -835,6 +843,7 @@ public class ExpressionParser {
       else if ((ch == '@') && (peek()=='(')) {
          getNextCh();
          getNextCh();
+         fProviderDependent = true;
          result = Expression.createConstantNode(parseSubExpression(Mode.EvaluateImmediate));
          ch = skipSpace();
          if ((ch == null) || (ch != ')')) {
@@ -1402,6 +1411,16 @@ public class ExpressionParser {
       fExpression          = expression;
    }
 
+   /**
+    * Indicates the parsed expression depends on the provider in a way that prevents
+    * it being used as a template for other providers
+    * 
+    * @return true if dependent on provider
+    */
+   boolean isProviderDependent() {
+      return fProviderDependent;
+   }
+
    /**
     * Parse expression supplied
     * 
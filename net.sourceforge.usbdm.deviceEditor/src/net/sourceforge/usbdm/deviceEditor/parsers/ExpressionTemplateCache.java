@@ -0,0 +1,240 @@
+package net.sourceforge.usbdm.deviceEditor.parsers;
+
+import java.lang.ref.SoftReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.sourceforge.usbdm.deviceEditor.parsers.Expression.ExpressionNode;
+import net.sourceforge.usbdm.deviceEditor.parsers.ExpressionParser.Mode;
+import net.sourceforge.usbdm.deviceEditor.peripherals.VariableProvider;
+
+/**
+ * Cache of parsed expression trees (templates) keyed by expression text and parser mode<br>
+ *
+ * A template is an unbound copy of the tree produced by the parser before pruning.
+ * Variables are bound when the template is instantiated for an expression so the same template
+ * may be shared by expressions using different providers e.g. peripherals or loop iterations.<br>
+ *
+ * Expressions that depend on the provider in other ways (e.g. early evaluation of functions)
+ * are not cached. If binding a template fails (e.g. a variable has a different type for the provider)
+ * the expression is parsed as usual.<br>
+ *
+ * The cache is bounded (least recently used entries are discarded) and
+ * templates are softly referenced so may be discarded when memory is short.
+ */
+class ExpressionTemplateCache {
+
+   /** Default maximum number of templates retained */
+   static final int DEFAULT_CAPACITY = 4000;
+
+   /** Templates in least recently used order */
+   private final LinkedHashMap<String, SoftReference<ExpressionNode>> fTemplates;
+
+   /** Maximum number of templates retained */
+   private final int fCapacity;
+
+   /** Enables use of cache */
+   private boolean fEnabled = true;
+
+   /** Number of expressions created from a template */
+   private long fHits = 0;
+
+   /** Number of expressions parsed */
+   private long fMisses = 0;
+
+   /** Number of parsed expressions that could not be used as templates */
+   private long fUncacheable = 0;
+
+   /** Number of templates that could not be bound to a provider */
+   private long fBindFailures = 0;
+
+   /** Number of templates discarded by the garbage collector */
+   private long fCleared = 0;
+
+   /** Number of templates discarded due to capacity */
+   private long fEvictions = 0;
+
+   /**
+    * Create cache
+    *
+    * @param capacity Maximum number of templates retained
+    */
+   ExpressionTemplateCache(int capacity) {
+      fCapacity  = capacity;
+      fTemplates = new LinkedHashMap<String, SoftReference<ExpressionNode>>(256, 0.75f, true) {
+         private static final long serialVersionUID = 1L;
+
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<String, SoftReference<ExpressionNode>> eldest) {
+            if (size() > fCapacity) {
+               fEvictions++;
+               return true;
+            }
+            return false;
+         }
+      };
+   }
+
+   /**
+    * Create key for template
+    *
+    * @param expression Expression text
+    * @param mode       Parser mode
+    *
+    * @return Key
+    */
+   private static String makeKey(String expression, Mode mode) {
+      return mode.ordinal()+":"+expression;
+   }
+
+   /**
+    * Get template
+    *
+    * @param expression Expression text
+    * @param mode       Parser mode
+    *
+    * @return Template or null if not available
+    */
+   private synchronized ExpressionNode getTemplate(String expression, Mode mode) {
+      String key = makeKey(expression, mode);
+      SoftReference<ExpressionNode> reference = fTemplates.get(key);
+      if (reference == null) {
+         return null;
+      }
+      ExpressionNode template = reference.get();
+      if (template == null) {
+         fTemplates.remove(key);
+         fCleared++;
+      }
+      return template;
+   }
+
+   /**
+    * Add template
+    *
+    * @param expression Expression text
+    * @param mode       Parser mode
+    * @param template   Unbound expression tree
+    */
+   private synchronized void addTemplate(String expression, Mode mode, ExpressionNode template) {
+      fTemplates.put(makeKey(expression, mode), new SoftReference<ExpressionNode>(template));
+   }
+
+   /**
+    * Parse an expression using a template if available
+    *
+    * @param owner      Expression that will own the tree
+    * @param provider   Provider for variables
+    * @param expression Expression text
+    * @param mode       Parser mode
+    *
+    * @return Expression tree (not pruned)
+    *
+    * @throws Exception on parse errors
+    */
+   ExpressionNode parse(Expression owner, VariableProvider provider, String expression, Mode mode) throws Exception {
+
+      if (!fEnabled) {
+         return new ExpressionParser(owner, provider, mode).parseExpression(expression);
+      }
+      ExpressionNode template = getTemplate(expression, mode);
+      if (template != null) {
+         try {
+            ExpressionNode node = template.instantiate(owner);
+            synchronized (this) {
+               fHits++;
+            }
+            return node;
+         } catch (Exception e) {
+            // Parse as usual
+            synchronized (this) {
+               fBindFailures++;
+            }
+         }
+      }
+      ExpressionParser parser = new ExpressionParser(owner, provider, mode);
+      ExpressionNode node = parser.parseExpression(expression);
+      synchronized (this) {
+         fMisses++;
+      }
+      if (parser.isProviderDependent()) {
+         synchronized (this) {
+            fUncacheable++;
+         }
+         return node;
+      }
+      try {
+         addTemplate(expression, mode, node.instantiate(null));
+      } catch (Exception e) {
+         // Contains nodes that can't be re-bound
+         synchronized (this) {
+            fUncacheable++;
+         }
+      }
+      return node;
+   }
+
+   /**
+    * Enable or disable use of cache
+    *
+    * @param enable True to enable
+    */
+   synchronized void setEnabled(boolean enable) {
+      fEnabled = enable;
+      if (!enable) {
+         fTemplates.clear();
+      }
+   }
+
+   /**
+    * Indicates if cache is enabled
+    *
+    * @return True if enabled
+    */
+   synchronized boolean isEnabled() {
+      return fEnabled;
+   }
+
+   /**
+    * Discard all templates and reset statistics
+    */
+   synchronized void clear() {
+      fTemplates.clear();
+      fHits         = 0;
+      fMisses       = 0;
+      fUncacheable  = 0;
+      fBindFailures = 0;
+      fCleared      = 0;
+      fEvictions    = 0;
+   }
+
+   /**
+    * Get number of expressions created from a template
+    *
+    * @return Count
+    */
+   synchronized long getHitCount() {
+      return fHits;
+   }
+
+   /**
+    * Get number of expressions parsed
+    *
+    * @return Count
+    */
+   synchronized long getMissCount() {
+      return fMisses;
+   }
+
+   /**
+    * Get statistics for cache
+    *
+    * @return Description of statistics
+    */
+   synchronized String getStatistics() {
+      long lookups = fHits+fMisses;
+      return String.format("Expression templates = %d/%d, hits = %d, misses = %d (%.1f%% hit), uncacheable = %d, bind failures = %d, evicted = %d, cleared = %d",
+            fTemplates.size(), fCapacity, fHits, fMisses, (lookups==0)?0.0:(100.0*fHits)/lookups,
+            fUncacheable, fBindFailures, fEvictions, fCleared);
+   }
+}
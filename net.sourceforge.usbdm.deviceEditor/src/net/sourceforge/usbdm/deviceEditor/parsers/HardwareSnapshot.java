@@ -0,0 +1,709 @@
+package net.sourceforge.usbdm.deviceEditor.parsers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.zip.CRC32;
+
+import net.sourceforge.usbdm.deviceEditor.Activator;
+import net.sourceforge.usbdm.deviceEditor.information.DeviceInfo;
+import net.sourceforge.usbdm.deviceEditor.information.DeviceInfo.Mode;
+import net.sourceforge.usbdm.deviceEditor.information.DevicePackage;
+import net.sourceforge.usbdm.deviceEditor.information.MuxSelection;
+import net.sourceforge.usbdm.deviceEditor.information.Pin;
+import net.sourceforge.usbdm.deviceEditor.information.Signal;
+import net.sourceforge.usbdm.deviceEditor.information.Variable;
+import net.sourceforge.usbdm.deviceEditor.peripherals.Peripheral;
+import net.sourceforge.usbdm.jni.Usbdm;
+
+/**
+ * Builds the hardware description of a device (pins, signals, mappings, packages, variants and peripherals)
+ * and maintains a binary snapshot of it.<br>
+ *
+ * When loading from a <b>.usbdmHardware</b> file each operation done on the DeviceInfo is
+ * recorded as a compact operation stream. This is saved under the USBDM data path.
+ * Later loads of the same file replay the stream which avoids parsing the XML.
+ * The device objects are still constructed by the replay.<br>
+ *
+ * The snapshot is keyed by a hash of the contents of the hardware file and the plug-in version.
+ * This key is used in the name of the snapshot file and is also checked against the key saved in the snapshot.
+ * A stale, corrupt or missing snapshot causes the XML to be parsed (and a new snapshot saved).
+ * If replaying a snapshot fails the snapshot is discarded and {@link ReplayException} is thrown so the
+ * caller can load the hardware file again (from XML) into a new device.
+ */
+public class HardwareSnapshot {
+
+   /** Identifies snapshot file */
+   private static final String MAGIC = "USBDM Hardware Snapshot";
+
+   /** Version of snapshot format - change if operations change */
+   private static final int FORMAT_VERSION = 1;
+
+   /** File extension of snapshot files */
+   private static final String SNAPSHOT_FILE_EXTENSION = ".snapshot";
+
+   /** Sub-directory of USBDM data path used for snapshots */
+   private static final String SNAPSHOT_DIRECTORY = "DeviceEditorCache";
+
+   /*
+    * Operations in snapshot
+    */
+   private static final byte OP_END                 = 0;
+   private static final byte OP_FAMILY              = 1;
+   private static final byte OP_DEVICE              = 2;
+   private static final byte OP_PERIPHERAL          = 3;
+   private static final byte OP_PERIPHERAL_HANDLER  = 4;
+   private static final byte OP_CLOCK               = 5;
+   private static final byte OP_IRQ                 = 6;
+   private static final byte OP_DMA                 = 7;
+   private static final byte OP_PARAM               = 8;
+   private static final byte OP_PERIPHERAL_VERSION  = 9;
+   private static final byte OP_SIGNAL              = 10;
+   private static final byte OP_PIN                 = 11;
+   private static final byte OP_MUX                 = 12;
+   private static final byte OP_PIN_RESET           = 13;
+   private static final byte OP_PLACEMENT           = 14;
+
+   /** Enables use of snapshots */
+   private static boolean fEnabled = true;
+
+   /** Keys of snapshots that failed to replay - these are not used again even if they could not be deleted */
+   private static final HashSet<String> fFailedKeys = new HashSet<String>();
+
+   /** Directory for snapshots (null to use default location under USBDM data path) */
+   private static Path fSnapshotDirectory = null;
+
+   /** Device being built */
+   private final DeviceInfo fDeviceInfo;
+
+   /** Hardware file being loaded */
+   private final Path fHardwarePath;
+
+   /** Key for snapshot i.e. hash of hardware file contents and versions */
+   private String fKey = null;
+
+   /** Current pin */
+   private Pin fPin = null;
+
+   /** Current peripheral */
+   private Peripheral fPeripheral = null;
+
+   /** Buffer for recording operations (null if not recording) */
+   private ByteArrayOutputStream fBuffer = null;
+
+   /** Stream for recording operations (null if not recording) */
+   private DataOutputStream fRecorder = null;
+
+   /** Strings already written to recording (string table) */
+   private HashMap<String, Integer> fWrittenStrings = null;
+
+   /** Strings already read from snapshot (string table) */
+   private ArrayList<String> fReadStrings = null;
+
+   /**
+    * Indicates that replaying a snapshot failed after the device had been partially built<br>
+    * The snapshot has been discarded so loading the hardware file again will parse the XML.
+    */
+   public static class ReplayException extends Exception {
+      private static final long serialVersionUID = 4632891758823341532L;
+
+      /**
+       * Create exception
+       *
+       * @param message Description of failure
+       * @param cause   Cause of failure
+       */
+      public ReplayException(String message, Throwable cause) {
+         super(message, cause);
+      }
+   }
+
+   /**
+    * Create builder for device hardware
+    *
+    * @param deviceInfo    Device being built
+    * @param hardwarePath  Hardware file being loaded
+    */
+   public HardwareSnapshot(DeviceInfo deviceInfo, Path hardwarePath) {
+      fDeviceInfo   = deviceInfo;
+      fHardwarePath = hardwarePath;
+   }
+
+   /**
+    * Enable use of snapshots
+    *
+    * @param enable True to enable
+    */
+   public static void setEnabled(boolean enable) {
+      fEnabled = enable;
+   }
+
+   /**
+    * Indicates if snapshots are used
+    *
+    * @return True if enabled
+    */
+   public static boolean isEnabled() {
+      return fEnabled;
+   }
+
+   /**
+    * Set directory used for snapshots
+    *
+    * @param directory Directory to use (null to use default location under USBDM data path)
+    */
+   public static void setSnapshotDirectory(Path directory) {
+      fSnapshotDirectory = directory;
+   }
+
+   /**
+    * Get directory used for snapshots
+    *
+    * @return Directory or null if not available
+    */
+   public static Path getSnapshotDirectory() {
+      if (fSnapshotDirectory != null) {
+         return fSnapshotDirectory;
+      }
+      try {
+         String dataPath = Usbdm.getUsbdmDataPath();
+         if ((dataPath == null) || dataPath.isBlank()) {
+            return null;
+         }
+         return Paths.get(dataPath).resolve(SNAPSHOT_DIRECTORY);
+      } catch (Throwable e) {
+         // USBDM library not available
+         return null;
+      }
+   }
+
+   /**
+    * Get version of plug-in
+    *
+    * @return Version string
+    */
+   private static String getPluginVersion() {
+      if (Activator.getDefault() != null) {
+         return Activator.getDefault().getBundle().getVersion().toString()+"/"+DeviceInfo.VERSION;
+      }
+      return DeviceInfo.VERSION;
+   }
+
+   /**
+    * Get path of snapshot file for hardware file<br>
+    * The name includes the key so a changed hardware file or plug-in never uses an old snapshot.
+    *
+    * @return Path or null if not available
+    *
+    * @throws Exception
+    */
+   private Path getSnapshotPath() throws Exception {
+      Path directory = getSnapshotDirectory();
+      if (directory == null) {
+         return null;
+      }
+      return directory.resolve(fHardwarePath.getFileName().toString()+"-"+getKey().substring(0, 16)+SNAPSHOT_FILE_EXTENSION);
+   }
+
+   /**
+    * Get key identifying the contents of the hardware file and version of plug-in
+    *
+    * @return Key (hexadecimal hash)
+    *
+    * @throws Exception
+    */
+   private String getKey() throws Exception {
+      if (fKey == null) {
+         MessageDigest digest = MessageDigest.getInstance("SHA-256");
+         digest.update(Files.readAllBytes(fHardwarePath));
+         digest.update(getPluginVersion().getBytes(StandardCharsets.UTF_8));
+         StringBuilder sb = new StringBuilder();
+         for (byte b:digest.digest()) {
+            sb.append(String.format("%02x", b));
+         }
+         fKey = sb.toString();
+      }
+      return fKey;
+   }
+
+   /**
+    * Delete snapshots of this hardware file other than the given one (i.e. stale snapshots)
+    *
+    * @param current Snapshot to keep
+    */
+   private void deleteOtherSnapshots(Path current) {
+      String prefix = fHardwarePath.getFileName().toString()+"-";
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(current.getParent(), prefix+"*"+SNAPSHOT_FILE_EXTENSION)) {
+         for (Path path:stream) {
+            String name = path.getFileName().toString();
+            // Name is prefix + 16 character key + extension
+            if (!path.equals(current) && (name.length() == prefix.length()+16+SNAPSHOT_FILE_EXTENSION.length())) {
+               Files.deleteIfExists(path);
+            }
+         }
+      } catch (IOException e) {
+         System.err.println("Failed to delete stale snapshots, reason = " + e.getMessage());
+      }
+   }
+
+   /**
+    * Restore device hardware from snapshot if available and up-to-date.<br>
+    * The snapshot is fully validated before any change is made to the device.
+    *
+    * @return True if restored, false if the hardware file should be parsed
+    *
+    * @throws ReplayException if the replay failed after changing the device.
+    *         The snapshot is discarded and the device should be discarded and loaded again.
+    */
+   public boolean restore() throws ReplayException {
+      if (!fEnabled) {
+         return false;
+      }
+      Path   snapshotPath;
+      String key;
+      try {
+         snapshotPath = getSnapshotPath();
+         key          = getKey();
+      } catch (Exception e) {
+         System.err.println("Failed to locate snapshot for '" + fHardwarePath + "', reason = " + e.getMessage());
+         return false;
+      }
+      if ((snapshotPath == null) || !Files.isReadable(snapshotPath)) {
+         return false;
+      }
+      synchronized (fFailedKeys) {
+         if (fFailedKeys.contains(key)) {
+            return false;
+         }
+      }
+      byte[] operations;
+      try {
+         DataInputStream is = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(snapshotPath)));
+         if (!MAGIC.equals(is.readUTF()) || (is.readInt() != FORMAT_VERSION) || !getKey().equals(is.readUTF())) {
+            System.err.println("Snapshot is stale '" + snapshotPath + "'");
+            return false;
+         }
+         long checksum = is.readLong();
+         operations = new byte[is.readInt()];
+         is.readFully(operations);
+         CRC32 crc = new CRC32();
+         crc.update(operations);
+         if (crc.getValue() != checksum) {
+            System.err.println("Snapshot is corrupt '" + snapshotPath + "'");
+            return false;
+         }
+      } catch (Exception e) {
+         System.err.println("Failed to read snapshot '" + snapshotPath + "', reason = " + e.getMessage());
+         return false;
+      }
+      try {
+         replay(new DataInputStream(new ByteArrayInputStream(operations)));
+      } catch (Exception e) {
+         // Device is partially built so the caller must start again - discard snapshot
+         System.err.println("Failed to replay snapshot '" + snapshotPath + "', reason = " + e.getMessage());
+         synchronized (fFailedKeys) {
+            fFailedKeys.add(key);
+         }
+         try {
+            Files.deleteIfExists(snapshotPath);
+         } catch (IOException e1) {
+         }
+         throw new ReplayException("Failed to restore hardware snapshot for " + fHardwarePath.getFileName(), e);
+      }
+      return true;
+   }
+
+   /**
+    * Start recording operations for saving as a snapshot
+    */
+   public void startRecording() {
+      if (!fEnabled) {
+         return;
+      }
+      fBuffer         = new ByteArrayOutputStream(64*1024);
+      fRecorder       = new DataOutputStream(fBuffer);
+      fWrittenStrings = new HashMap<String, Integer>();
+   }
+
+   /**
+    * Save recorded operations as snapshot.<br>
+    * Failure to save is not an error.
+    */
+   public void save() {
+      if (fRecorder == null) {
+         return;
+      }
+      Path snapshotPath = null;
+      try {
+         snapshotPath = getSnapshotPath();
+         if (snapshotPath == null) {
+            return;
+         }
+         fRecorder.writeByte(OP_END);
+         fRecorder.flush();
+         byte[] operations = fBuffer.toByteArray();
+         CRC32 crc = new CRC32();
+         crc.update(operations);
+
+         ByteArrayOutputStream contents = new ByteArrayOutputStream(operations.length+200);
+         DataOutputStream os = new DataOutputStream(contents);
+         os.writeUTF(MAGIC);
+         os.writeInt(FORMAT_VERSION);
+         os.writeUTF(getKey());
+         os.writeLong(crc.getValue());
+         os.writeInt(operations.length);
+         os.write(operations);
+         os.flush();
+
+         // Write to temporary file and move so snapshot is never partially written
+         Files.createDirectories(snapshotPath.getParent());
+         Path tempPath = Files.createTempFile(snapshotPath.getParent(), fHardwarePath.getFileName().toString(), ".tmp");
+         Files.write(tempPath, contents.toByteArray());
+         Files.move(tempPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+         deleteOtherSnapshots(snapshotPath);
+      } catch (Exception e) {
+         System.err.println("Failed to save snapshot '" + snapshotPath + "', reason = " + e.getMessage());
+      } finally {
+         fRecorder       = null;
+         fBuffer         = null;
+         fWrittenStrings = null;
+      }
+   }
+
+   /**
+    * Record operation (if recording)
+    *
+    * @param op   Operation
+    * @param args Arguments for operation
+    *
+    * @throws IOException
+    */
+   private void record(byte op, String... args) throws IOException {
+      if (fRecorder == null) {
+         return;
+      }
+      fRecorder.writeByte(op);
+      for (String arg:args) {
+         // Strings are written once and then referred to by index
+         Integer index = fWrittenStrings.get(arg);
+         if (index != null) {
+            fRecorder.writeInt(index);
+         }
+         else {
+            fRecorder.writeInt(fWrittenStrings.size());
+            fRecorder.writeUTF(arg);
+            fWrittenStrings.put(arg, fWrittenStrings.size());
+         }
+      }
+   }
+
+   /**
+    * Read string argument from snapshot
+    *
+    * @param is Stream to read from
+    *
+    * @return String
+    *
+    * @throws IOException
+    */
+   private String readString(DataInputStream is) throws IOException {
+      int index = is.readInt();
+      if (index == fReadStrings.size()) {
+         String s = is.readUTF();
+         fReadStrings.add(s);
+         return s;
+      }
+      return fReadStrings.get(index);
+   }
+
+   /**
+    * Replay operations from snapshot
+    *
+    * @param is Stream to read operations from
+    *
+    * @throws Exception
+    */
+   private void replay(DataInputStream is) throws Exception {
+      fReadStrings = new ArrayList<String>();
+      try {
+         do {
+            byte op = is.readByte();
+            switch(op) {
+            case OP_END:
+               return;
+            case OP_FAMILY:
+               setFamily(readString(is));
+               break;
+            case OP_DEVICE:
+               createDeviceInformation(readString(is), readString(is), readString(is), readString(is));
+               break;
+            case OP_PERIPHERAL:
+               createPeripheral(readString(is), readString(is));
+               break;
+            case OP_PERIPHERAL_HANDLER:
+               createPeripheral(readString(is), readString(is), readString(is), readString(is));
+               break;
+            case OP_CLOCK:
+               setClockControlInfo(readString(is), readString(is));
+               break;
+            case OP_IRQ:
+               addIrqNum(readString(is));
+               break;
+            case OP_DMA:
+               addDmaChannel(Integer.parseInt(readString(is)), readString(is));
+               break;
+            case OP_PARAM:
+               addParam(readString(is), readString(is), readString(is), readString(is));
+               break;
+            case OP_PERIPHERAL_VERSION:
+               setPeripheralVersion(readString(is));
+               break;
+            case OP_SIGNAL:
+               addSignal(readString(is), readString(is));
+               break;
+            case OP_PIN:
+               createPin(readString(is));
+               break;
+            case OP_MUX:
+               addMapping(readString(is), readString(is));
+               break;
+            case OP_PIN_RESET:
+               setPinResetValue(readString(is));
+               break;
+            case OP_PLACEMENT:
+               addPlacement(readString(is), readString(is), readString(is));
+               break;
+            default:
+               throw new Exception("Unexpected operation in snapshot, op = " + op);
+            }
+         } while (true);
+      } finally {
+         fReadStrings = null;
+      }
+   }
+
+   /*
+    * Operations on device
+    */
+
+   /**
+    * Set device sub-family and initialise templates
+    *
+    * @param familyName Name of sub-family
+    *
+    * @throws Exception
+    */
+   public void setFamily(String familyName) throws Exception {
+      record(OP_FAMILY, familyName);
+      fDeviceInfo.initialiseTemplates();
+      fDeviceInfo.setDeviceSubFamily(familyName);
+   }
+
+   /**
+    * Add device variant
+    *
+    * @param variantName   Name of variant e.g. MK20DN32VLH5
+    * @param manual        Reference manual
+    * @param packageName   Name of package
+    * @param deviceName    Name of device
+    *
+    * @throws Exception
+    */
+   public void createDeviceInformation(String variantName, String manual, String packageName, String deviceName) throws Exception {
+      record(OP_DEVICE, variantName, manual, packageName, deviceName);
+      fDeviceInfo.createDeviceInformation(variantName, manual, packageName, deviceName);
+   }
+
+   /**
+    * Create peripheral with handler and make it current
+    *
+    * @param baseName     Base name of peripheral e.g. FTM
+    * @param instance     Instance of peripheral e.g. 2
+    * @param className    Class of handler
+    * @param parameters   Parameters for handler
+    *
+    * @return Peripheral created
+    *
+    * @throws Exception
+    */
+   public Peripheral createPeripheral(String baseName, String instance, String className, String parameters) throws Exception {
+      record(OP_PERIPHERAL_HANDLER, baseName, instance, className, parameters);
+      fPeripheral = fDeviceInfo.createPeripheral(baseName, instance, className, parameters);
+      return fPeripheral;
+   }
+
+   /**
+    * Create peripheral and make it current
+    *
+    * @param baseName     Base name of peripheral e.g. FTM
+    * @param instance     Instance of peripheral e.g. 2
+    *
+    * @return Peripheral created
+    *
+    * @throws Exception
+    */
+   public Peripheral createPeripheral(String baseName, String instance) throws Exception {
+      record(OP_PERIPHERAL, baseName, instance);
+      fPeripheral = fDeviceInfo.createPeripheral(baseName, instance);
+      return fPeripheral;
+   }
+
+   /**
+    * Set clock control information for current peripheral
+    *
+    * @param clockEnable   Code to enable clock
+    * @param clockDisable  Code to disable clock
+    *
+    * @throws Exception
+    */
+   public void setClockControlInfo(String clockEnable, String clockDisable) throws Exception {
+      record(OP_CLOCK, clockEnable, clockDisable);
+      fPeripheral.setClockControlInfo(clockEnable, clockDisable);
+   }
+
+   /**
+    * Add IRQ to current peripheral
+    *
+    * @param irqNum IRQ number
+    *
+    * @throws Exception
+    */
+   public void addIrqNum(String irqNum) throws Exception {
+      record(OP_IRQ, irqNum);
+      fPeripheral.addIrqNum(irqNum);
+   }
+
+   /**
+    * Add DMA channel to current peripheral
+    *
+    * @param dmaChannelNumber DMA channel number
+    * @param dmaSource        DMA source
+    *
+    * @throws Exception
+    */
+   public void addDmaChannel(int dmaChannelNumber, String dmaSource) throws Exception {
+      record(OP_DMA, Integer.toString(dmaChannelNumber), dmaSource);
+      fPeripheral.addDmaChannel(dmaChannelNumber, dmaSource);
+   }
+
+   /**
+    * Add constant parameter variable to current peripheral
+    *
+    * @param name    Name of variable
+    * @param key     Key for variable
+    * @param type    Type of variable
+    * @param value   Value of variable
+    *
+    * @throws Exception
+    */
+   public void addParam(String name, String key, String type, String value) throws Exception {
+      record(OP_PARAM, name, key, type, value);
+      Variable var = Variable.createVariableWithNamedType(fDeviceInfo.getProvider(), name, key, type, value);
+      fPeripheral.addVariable(var);
+      var.setDerived(true);
+      var.setConstant();
+   }
+
+   /**
+    * Set version of current peripheral
+    *
+    * @param version Version
+    *
+    * @throws Exception
+    */
+   public void setPeripheralVersion(String version) throws Exception {
+      record(OP_PERIPHERAL_VERSION, version);
+      fPeripheral.setPeripheralVersion(version);
+   }
+
+   /**
+    * Add signal belonging to an existing peripheral
+    *
+    * @param signalName       Name of signal
+    * @param peripheralName   Name of peripheral
+    *
+    * @throws Exception
+    */
+   public void addSignal(String signalName, String peripheralName) throws Exception {
+      record(OP_SIGNAL, signalName, peripheralName);
+      fDeviceInfo.findPeripheral(peripheralName, Mode.fail);
+      fDeviceInfo.findOrCreateSignal(signalName);
+   }
+
+   /**
+    * Create pin and make it current
+    *
+    * @param name Name of pin
+    *
+    * @return Pin created
+    *
+    * @throws Exception
+    */
+   public Pin createPin(String name) throws Exception {
+      record(OP_PIN, name);
+      fPin = fDeviceInfo.createPin(name);
+      return fPin;
+   }
+
+   /**
+    * Add mapping of signal to current pin
+    *
+    * @param signalName   Name of signal
+    * @param muxValue     Multiplexor setting for mapping
+    *
+    * @throws Exception
+    */
+   public void addMapping(String signalName, String muxValue) throws Exception {
+      record(OP_MUX, signalName, muxValue);
+      Signal       signal       = fDeviceInfo.findOrCreateSignal(signalName);
+      MuxSelection muxSelection = MuxSelection.valueOf(muxValue);
+      fDeviceInfo.createMapping(signal, fPin, muxSelection);
+      if (signal.getName().startsWith("GPIO")) {
+         fPin.setPort(signal);
+      }
+   }
+
+   /**
+    * Set reset multiplexor setting of current pin
+    *
+    * @param muxValue Multiplexor setting
+    *
+    * @throws Exception
+    */
+   public void setPinResetValue(String muxValue) throws Exception {
+      record(OP_PIN_RESET, muxValue);
+      MuxSelection muxSelection = MuxSelection.valueOf(muxValue);
+      fPin.setResetValue(muxSelection);
+   }
+
+   /**
+    * Add placement of pin in package
+    *
+    * @param packageName  Name of package
+    * @param pinName      Name of pin
+    * @param location     Location of pin in package
+    *
+    * @throws Exception
+    */
+   public void addPlacement(String packageName, String pinName, String location) throws Exception {
+      record(OP_PLACEMENT, packageName, pinName, location);
+      Pin    pin      = fDeviceInfo.findPin(pinName);
+      DevicePackage  devicePackage = fDeviceInfo.findDevicePackage(packageName);
+      if (devicePackage == null) {
+         throw new Exception("Failed to find device package for packageName = \'"+packageName+"\'");
+      }
+      devicePackage.addPin(pin, location);
+   }
+}
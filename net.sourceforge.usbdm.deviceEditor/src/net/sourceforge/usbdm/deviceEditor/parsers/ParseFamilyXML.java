@@ -7,12 +7,6 @@ import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
 import net.sourceforge.usbdm.deviceEditor.information.DeviceInfo;
-import net.sourceforge.usbdm.deviceEditor.information.DeviceInfo.Mode;
-import net.sourceforge.usbdm.deviceEditor.information.DevicePackage;
-import net.sourceforge.usbdm.deviceEditor.information.MuxSelection;
-import net.sourceforge.usbdm.deviceEditor.information.Pin;
-import net.sourceforge.usbdm.deviceEditor.information.Signal;
-import net.sourceforge.usbdm.deviceEditor.information.Variable;
 import net.sourceforge.usbdm.deviceEditor.peripherals.Peripheral;
 
 public class ParseFamilyXML extends XML_BaseParser {
@@ -20,6 +14,9 @@ public class ParseFamilyXML extends XML_BaseParser {
    /** Device Information */
    private DeviceInfo fDeviceInfo = null;
 
+   /** Builds device hardware and records snapshot */
+   private HardwareSnapshot fBuilder = null;
+
    /**
     * Parse &lt;pin&gt;
     * 
@@ -28,7 +25,7 @@ public class ParseFamilyXML extends XML_BaseParser {
     */
    private void parsePin(Element pinElement) throws Exception {
 
-      Pin pin = fDeviceInfo.createPin(pinElement.getAttribute("name"));
+      fBuilder.createPin(pinElement.getAttribute("name"));
       for (Node node = pinElement.getFirstChild();
             node != null;
             node = node.getNextSibling()) {
@@ -38,16 +35,10 @@ public class ParseFamilyXML extends XML_BaseParser {
          Element element = (Element) node;
          if (element.getTagName() == "mux") {
 //            factory.createMapping(factory.findSignal(element.getAttribute("signal")), pin, MuxSelection.valueOf(element.getAttribute("sel")));
-            Signal       signal       = fDeviceInfo.findOrCreateSignal(element.getAttribute("signal"));
-            MuxSelection muxSelection = MuxSelection.valueOf(element.getAttribute("sel"));
-            fDeviceInfo.createMapping(signal, pin, muxSelection);
-            if (signal.getName().startsWith("GPIO")) {
-               pin.setPort(signal);
-            }
+            fBuilder.addMapping(element.getAttribute("signal"), element.getAttribute("sel"));
          }
          else if (element.getTagName() == "reset") {
-            MuxSelection muxSelection = MuxSelection.valueOf(element.getAttribute("sel"));
-            pin.setResetValue(muxSelection);
+            fBuilder.setPinResetValue(element.getAttribute("sel"));
          }
          else {
             throw new Exception("Unexpected field in PIN, value = \'"+element.getTagName()+"\'");
@@ -88,10 +79,8 @@ public class ParseFamilyXML extends XML_BaseParser {
     */
    private void parseFamily(Element familyElement) throws Exception {
 
-      fDeviceInfo.initialiseTemplates();
-
       String familyName = familyElement.getAttribute("name");
-      fDeviceInfo.setDeviceSubFamily(familyName);
+      fBuilder.setFamily(familyName);
       
       for (Node node = familyElement.getFirstChild();
             node != null;
@@ -101,7 +90,11 @@ public class ParseFamilyXML extends XML_BaseParser {
          }
          Element element = (Element) node;
          if (element.getTagName() == "device") {
-            fDeviceInfo.parseDeviceInformationXML(element);
+            fBuilder.createDeviceInformation(
+                  element.getAttribute("variant"),
+                  element.getAttribute("manual"),
+                  element.getAttribute("package"),
+                  element.getAttribute("deviceName"));
          }
          else {
             throw new Exception("Unexpected field in FAMILY, value = \'"+element.getTagName()+"\'");
@@ -128,13 +121,8 @@ public class ParseFamilyXML extends XML_BaseParser {
          Element element = (Element) node;
          if (element.getTagName()  == "placement") {
             String pinName  = element.getAttribute("pin");
-            Pin    pin      = fDeviceInfo.findPin(pinName);
             String location = element.getAttribute("location");
-            DevicePackage  devicePackage = fDeviceInfo.findDevicePackage(packageName);
-            if (devicePackage == null) {
-               throw new Exception("Failed to find device package for packageName = \'"+packageName+"\'");
-            }
-            devicePackage.addPin(pin, location);
+            fBuilder.addPlacement(packageName, pinName, location);
          }
          else {
             throw new Exception("Unexpected field in PACKAGE, value = \'"+element.getTagName()+"\'");
@@ -204,8 +192,7 @@ public class ParseFamilyXML extends XML_BaseParser {
       String signalName     = peripheralElement.getAttribute("name");
       String peripheralName = peripheralElement.getAttribute("peripheral");
 
-      fDeviceInfo.findPeripheral(peripheralName, Mode.fail);
-      fDeviceInfo.findOrCreateSignal(signalName);
+      fBuilder.addSignal(signalName, peripheralName);
    }
 
    private void parsePeripheral(Element peripheralElement) throws Exception {
@@ -227,36 +214,33 @@ public class ParseFamilyXML extends XML_BaseParser {
             if (peripheral!=null) {
                throw new Exception("Peripheral already created");
             }
-            peripheral = fDeviceInfo.createPeripheral(baseName, instance, element.getAttribute("class"), element.getAttribute("parameters"));
+            peripheral = fBuilder.createPeripheral(baseName, instance, element.getAttribute("class"), element.getAttribute("parameters"));
          }
          else if (element.getTagName() == "clock") {
             if (peripheral==null) {
-               peripheral = fDeviceInfo.createPeripheral(baseName, instance);
+               peripheral = fBuilder.createPeripheral(baseName, instance);
             }
-            peripheral.setClockControlInfo(element.getAttribute("clockEnable"), element.getAttribute("clockDisable"));
+            fBuilder.setClockControlInfo(element.getAttribute("clockEnable"), element.getAttribute("clockDisable"));
          }
          else if (element.getTagName() == "irq") {
-            peripheral.addIrqNum(element.getAttribute("num"));
+            fBuilder.addIrqNum(element.getAttribute("num"));
          }
          else if (element.getTagName() == "dma") {
-            peripheral.addDmaChannel(getIntAttribute(element,"num"), element.getAttribute("source"));
+            fBuilder.addDmaChannel(getIntAttribute(element,"num"), element.getAttribute("source"));
          }
          else if (element.getTagName() == "param") {
             String name  = element.getAttribute("name");
             String key   = element.getAttribute("key");
             String type  = element.getAttribute("type");
             String value = element.getAttribute("value");
-            Variable var = Variable.createVariableWithNamedType(fDeviceInfo.getProvider(), name, key, type, value);
-            peripheral.addVariable(var);
-            var.setDerived(true);
-            var.setConstant();
+            fBuilder.addParam(name, key, type, value);
          }
          else {
             throw new Exception("Unexpected field in PERIPHERAL, value = \'"+element.getTagName()+"\'");
          }
       }
       if (!version.isBlank()) {
-         peripheral.setPeripheralVersion(version);
+         fBuilder.setPeripheralVersion(version);
       }
 //      if (!structName.isBlank()) {
 //         System.err.println("Unexpected use of setStructName()");
@@ -265,16 +249,24 @@ public class ParseFamilyXML extends XML_BaseParser {
    }
 
    /**
-    * Parses Device <b>xxx.usbdmHardware</b> document from top element
+    * Parses Device <b>xxx.usbdmHardware</b> document from top element<br>
+    * A snapshot of the hardware is used instead if available (see {@link HardwareSnapshot}).
     * 
     * @param deviceInfo
     * 
     * @return
     * 
+    * @throws HardwareSnapshot.ReplayException if a snapshot failed to replay - deviceInfo must be discarded and loaded again
     * @throws Exception
     */
    public void parseHardwareFile(DeviceInfo deviceInfo, Path path) throws Exception {
       fDeviceInfo = deviceInfo;
+      fBuilder    = new HardwareSnapshot(deviceInfo, path);
+      if (fBuilder.restore()) {
+         completeHardware();
+         return;
+      }
+      fBuilder.startRecording();
       Document document = parseXmlFile(path);
 
       Element documentElement = document.getDocumentElement();
@@ -308,6 +300,14 @@ public class ParseFamilyXML extends XML_BaseParser {
             throw new Exception("Unexpected field in ROOT, value = \'"+element.getTagName()+"\'");
          }
       }
+      completeHardware();
+      fBuilder.save();
+   }
+
+   /**
+    * Complete hardware description after loading
+    */
+   private void completeHardware() {
       for (String key:fDeviceInfo.getPeripherals().keySet()) {
          Peripheral peripheral = fDeviceInfo.getPeripherals().get(key);
          peripheral.addLinkedSignals();
@@ -53,7 +53,9 @@ import net.sourceforge.usbdm.deviceEditor.model.BaseModel;
 import net.sourceforge.usbdm.deviceEditor.model.CategoryModel;
 import net.sourceforge.usbdm.deviceEditor.model.CategoryVariableModel;
 import net.sourceforge.usbdm.deviceEditor.model.ErrorModel;
+import net.sourceforge.usbdm.deviceEditor.model.LazyCategoryModel;
 import net.sourceforge.usbdm.deviceEditor.model.ListVariableModel;
+import net.sourceforge.usbdm.deviceEditor.model.ModelFactory;
 import net.sourceforge.usbdm.deviceEditor.model.OpenGraphicModel;
 import net.sourceforge.usbdm.deviceEditor.model.ParametersModel;
 import net.sourceforge.usbdm.deviceEditor.model.SignalPinMapping;
@@ -214,7 +216,9 @@ public class ParseMenuXML extends XML_BaseParser {
       }
 
       /**
-       * Instantiates any aliases in the model
+       * Instantiates any aliases in the model<br>
+       * If lazy models are in use, categories only containing variable models are then
+       * replaced by categories that create these models when expanded
        * 
        * @param provider   Provider for variables (usually peripheral)
        * 
@@ -222,6 +226,9 @@ public class ParseMenuXML extends XML_BaseParser {
        */
       public void instantiateAliases(VariableProvider provider) throws Exception {
          ParseMenuXML.instantiateAliases(provider, fRootModel);
+         if ((fRootModel != null) && ModelFactory.isLazyModels()) {
+            LazyCategoryModel.deferCategories(fRootModel);
+         }
       }
 
       /**
@@ -5400,6 +5407,76 @@ private void parseGrahicElement(BaseModel parentModel, Element graphic, ClockSel
       return path;
    }
 
+   /**
+    * Peripheral file located and parsed to a DOM document but not yet processed
+    */
+   public static class PeripheralDocument {
+      
+      /** Name of peripheral file (without .xml) */
+      private final String    fPeripheralName;
+      
+      /** Parsed document (null on failure) */
+      private final Document  fDocument;
+      
+      /** Reason for failure to load (null on success) */
+      private final Exception fException;
+      
+      /** Time taken to locate and parse document (ns) */
+      private final long      fLoadTime;
+
+      private PeripheralDocument(String peripheralName, Document document, Exception exception, long loadTime) {
+         fPeripheralName = peripheralName;
+         fDocument       = document;
+         fException      = exception;
+         fLoadTime       = loadTime;
+      }
+
+      /**
+       * Get name of peripheral file
+       * 
+       * @return Name e.g. adc0_diff_a
+       */
+      public String getPeripheralName() {
+         return fPeripheralName;
+      }
+
+      /**
+       * Get time taken to locate and parse document
+       * 
+       * @return Time in ns
+       */
+      public long getLoadTime() {
+         return fLoadTime;
+      }
+   }
+
+   /**
+    * Locate and parse peripheral file to a DOM document.<br>
+    * This does not use any variables so may be done concurrently for different peripherals.<br>
+    * Failures are recorded in the result and reported by {@link #parsePeripheralFile(PeripheralDocument, PeripheralWithState)}
+    * 
+    * @param peripheralName   Name of peripheral (used for peripheral file name e.g. adc0_diff_a => adc0_diff_a.xml
+    * 
+    * @return Loaded document
+    * 
+    * Looks for the file in the following locations in order:
+    * <li>Relative path : Stationery/Packages/180.ARM_Peripherals/Hardware/peripherals
+    * <li>Relative path : "USBDM Resource Path"/Stationery/Packages/180.ARM_Peripherals/Hardware/peripherals
+    */
+   public static PeripheralDocument loadPeripheralDocument(String peripheralName) {
+      long startTime = System.nanoTime();
+      Document  document  = null;
+      Exception exception = null;
+      try {
+         // For debug try local directory
+         Path path = locateFile(peripheralName+".xml");
+         document = XML_BaseParser.parseXmlFile(path);
+      } catch (Exception e) {
+         exception = e;
+      }
+      return new PeripheralDocument(peripheralName, document, exception, System.nanoTime()-startTime);
+   }
+
    /**
     * Parses document from top element
     * 
@@ -5414,12 +5491,27 @@ private void parseGrahicElement(BaseModel parentModel, Element graphic, ClockSel
     * <li>Relative path : "USBDM Resource Path"/Stationery/Packages/180.ARM_Peripherals/Hardware/peripherals
     */
    public static MenuData parsePeripheralFile(String peripheralName, PeripheralWithState peripheral) throws Exception {
+      return parsePeripheralFile(loadPeripheralDocument(peripheralName), peripheral);
+   }
+
+   /**
+    * Parses previously loaded peripheral document from top element
+    * 
+    * @param peripheralDocument  Document obtained from {@link #loadPeripheralDocument(String)}
+    * @param peripheral          Provides the variables. New variables will be added to this peripheral
+    * 
+    * @return Data from model
+    * @throws Exception
+    */
+   public static MenuData parsePeripheralFile(PeripheralDocument peripheralDocument, PeripheralWithState peripheral) throws Exception {
       MenuData fData;
 
+      String peripheralName = peripheralDocument.fPeripheralName;
       try {
-         // For debug try local directory
-         Path path = locateFile(peripheralName+".xml");
-         fData = parse(XML_BaseParser.parseXmlFile(path), peripheral, peripheral);
+         if (peripheralDocument.fException != null) {
+            throw peripheralDocument.fException;
+         }
+         fData = parse(peripheralDocument.fDocument, peripheral, peripheral);
          fData.fRootModel.setToolTip(peripheralName);
       } catch (FileNotFoundException e) {
          // Some peripherals don't have templates yet - just warn
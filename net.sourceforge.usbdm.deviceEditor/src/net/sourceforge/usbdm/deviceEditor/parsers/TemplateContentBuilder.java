@@ -678,28 +678,7 @@ abstract class TemplateContentBuilder {
       if (substitutions == null) {
          return text;
       }
-      for (StringPair p:substitutions) {
-         if (p.key==null) {
-            System.err.println("key is null, value = "+p.value);
-         }
-         if (p.value==null) {
-            System.err.println("value is null, res = "+p.key);
-         }
-         String pattern     = Pattern.quote(p.key)+"(\\W|_)";
-         String replacement = Matcher.quoteReplacement(p.value)+"$1";
-         Matcher m = Pattern.compile(pattern).matcher(text);
-         boolean doneReplacement = false;
-         StringBuffer sb = new StringBuffer();
-         while (m.find()) {
-             m.appendReplacement(sb, replacement);
-             doneReplacement = true;
-         }
-         if (doneReplacement) {
-            m.appendTail(sb);
-            text = sb.toString();
-         }
-      }
-      return text;
+      return new TemplateSubstitutions(substitutions).apply(text);
    }
 
    private static String getTemplateCaseStatement(Variable var) throws Exception {
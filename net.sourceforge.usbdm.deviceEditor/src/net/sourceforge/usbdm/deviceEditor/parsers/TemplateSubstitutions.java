@@ -0,0 +1,380 @@
+package net.sourceforge.usbdm.deviceEditor.parsers;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import net.sourceforge.usbdm.deviceEditor.parsers.ParseMenuXML.StringPair;
+
+/**
+ * A set of template substitutions of form <b>key</b> -> <b>value</b><br>
+ *
+ * A key is only replaced when followed by a non-word character or '_' i.e. matching <b>key(\W|_)</b>.
+ * Substitutions are applied in order so the value of a substitution may contain
+ * keys that are replaced by later substitutions.<br>
+ *
+ * The keys are placed in a trie when the set is created. A single scan of the text using
+ * the trie finds which keys are present so only the substitutions that can change the text
+ * are applied. Applying a substitution uses a simple search for the key rather than a regular expression.
+ * The keys introduced by each replacement are tracked so the result is identical to applying
+ * every substitution in turn using a regular expression.
+ */
+public class TemplateSubstitutions {
+
+   /** Node in trie of keys */
+   private static class Node {
+      /** Following nodes indexed by character */
+      HashMap<Character, Node> fNext = null;
+
+      /** Key ending at this node (if any) */
+      String fKey = null;
+   }
+
+   /** Enables use of trie rather than regular expressions */
+   private static boolean fEnabled = true;
+
+   /** Number of sets of substitutions applied */
+   private static long fApplyCount = 0;
+
+   /** Number of individual substitutions applied to text */
+   private static long fPassCount = 0;
+
+   /** Number of individual substitutions skipped as key is not present */
+   private static long fSkipCount = 0;
+
+   /** Time spent applying substitutions (ns) */
+   private static long fApplyTime = 0;
+
+   /** Keys in order of application */
+   private final String[] fKeys;
+
+   /** Values in order of application */
+   private final String[] fValues;
+
+   /** Root of trie of keys (null if trie can't be used) */
+   private final Node fRoot;
+
+   /** Length of longest key */
+   private int fMaxKeyLength = 0;
+
+   /** Indicates which (ASCII) characters may start a key */
+   private final boolean[] fStartChars = new boolean[128];
+
+   /** Indicates a key starts with a non-ASCII character */
+   private boolean fNonAsciiStart = false;
+
+   /** Keys that may be present in each value (created when needed) */
+   private HashSet<String>[] fKeysInValue;
+
+   /**
+    * Create set of substitutions
+    *
+    * @param keys    Keys to replace in order of application
+    * @param values  Corresponding values
+    */
+   public TemplateSubstitutions(String[] keys, String[] values) {
+      if (keys.length != values.length) {
+         throw new IllegalArgumentException("Number of keys and values differ");
+      }
+      fKeys   = keys;
+      fValues = values;
+      fRoot   = buildTrie();
+   }
+
+   /**
+    * Create set of substitutions
+    *
+    * @param substitutions Substitutions in order of application
+    */
+   TemplateSubstitutions(List<StringPair> substitutions) {
+      fKeys   = new String[substitutions.size()];
+      fValues = new String[substitutions.size()];
+      int index = 0;
+      for (StringPair p:substitutions) {
+         fKeys[index]   = p.key;
+         fValues[index] = p.value;
+         index++;
+      }
+      fRoot = buildTrie();
+   }
+
+   /**
+    * Build trie of keys
+    *
+    * @return Root of trie or null if the trie can't be used (null or empty keys or values)
+    */
+   private Node buildTrie() {
+      Node root = new Node();
+      for (int index=0; index<fKeys.length; index++) {
+         String key = fKeys[index];
+         if ((key == null) || key.isEmpty() || (fValues[index] == null)) {
+            return null;
+         }
+         fMaxKeyLength = Math.max(fMaxKeyLength, key.length());
+         char first = key.charAt(0);
+         if (first < fStartChars.length) {
+            fStartChars[first] = true;
+         }
+         else {
+            fNonAsciiStart = true;
+         }
+         Node node = root;
+         for (int charIndex=0; charIndex<key.length(); charIndex++) {
+            if (node.fNext == null) {
+               node.fNext = new HashMap<Character, Node>();
+            }
+            Character ch = key.charAt(charIndex);
+            Node next = node.fNext.get(ch);
+            if (next == null) {
+               next = new Node();
+               node.fNext.put(ch, next);
+            }
+            node = next;
+         }
+         node.fKey = key;
+      }
+      return root;
+   }
+
+   /**
+    * Check if character may follow a key i.e. matches <b>(\W|_)</b>
+    *
+    * @param ch Character to check
+    *
+    * @return True if suitable
+    */
+   private static boolean isBoundary(char ch) {
+      return !(((ch >= 'a') && (ch <= 'z')) || ((ch >= 'A') && (ch <= 'Z')) || ((ch >= '0') && (ch <= '9')));
+   }
+
+   /**
+    * Find keys present in text
+    *
+    * @param text          Text to search
+    * @param start         Start of range for key occurrences
+    * @param end           End of range for key occurrences (exclusive)
+    * @param atEndIsFound  Whether to count a key at the end of the text as present
+    * @param found         Set to add keys to
+    */
+   private void findKeys(String text, int start, int end, boolean atEndIsFound, HashSet<String> found) {
+      for (int position=start; position<end; position++) {
+         char first = text.charAt(position);
+         if ((first < fStartChars.length)?!fStartChars[first]:!fNonAsciiStart) {
+            continue;
+         }
+         Node node = fRoot;
+         int  index = position;
+         while ((node.fNext != null) && (index < text.length())) {
+            node = node.fNext.get(text.charAt(index++));
+            if (node == null) {
+               break;
+            }
+            if (node.fKey != null) {
+               if ((index < text.length())?isBoundary(text.charAt(index)):atEndIsFound) {
+                  found.add(node.fKey);
+               }
+            }
+         }
+      }
+   }
+
+   /**
+    * Get keys that may be present in a value (including at the end of the value)
+    *
+    * @param valueIndex Index of value
+    *
+    * @return Keys found
+    */
+   @SuppressWarnings("unchecked")
+   private HashSet<String> getKeysInValue(int valueIndex) {
+      if (fKeysInValue == null) {
+         fKeysInValue = new HashSet[fValues.length];
+      }
+      HashSet<String> keys = fKeysInValue[valueIndex];
+      if (keys == null) {
+         keys = new HashSet<String>();
+         String value = fValues[valueIndex];
+         findKeys(value, 0, value.length(), true, keys);
+         fKeysInValue[valueIndex] = keys;
+      }
+      return keys;
+   }
+
+   /**
+    * Apply one substitution to text
+    *
+    * @param text       Text to modify
+    * @param index      Index of substitution to apply
+    * @param present    Keys that may be present in text - updated with keys that may be introduced
+    *
+    * @return Modified text
+    */
+   private String applySubstitution(String text, int index, HashSet<String> present) {
+      String key   = fKeys[index];
+      String value = fValues[index];
+      StringBuilder sb = null;
+      // Start and end of each replacement in the new text
+      int[] replacements = null;
+      int   replacementCount = 0;
+      int   copied   = 0;
+      int   position = 0;
+      int   found;
+      while ((found = text.indexOf(key, position)) >= 0) {
+         int boundary = found+key.length();
+         if (boundary >= text.length()) {
+            break;
+         }
+         char ch = text.charAt(boundary);
+         if (!isBoundary(ch)) {
+            position = found+1;
+            continue;
+         }
+         if (sb == null) {
+            sb = new StringBuilder(text.length()+value.length());
+            replacements = new int[8];
+         }
+         sb.append(text, copied, found);
+         if (replacementCount+2 > replacements.length) {
+            int[] t = new int[2*replacements.length];
+            System.arraycopy(replacements, 0, t, 0, replacementCount);
+            replacements = t;
+         }
+         replacements[replacementCount++] = sb.length();
+         sb.append(value);
+         replacements[replacementCount++] = sb.length();
+         sb.append(ch);
+         // Boundary character is consumed by the match
+         copied   = boundary+1;
+         position = boundary+1;
+      }
+      if (sb == null) {
+         return text;
+      }
+      sb.append(text, copied, text.length());
+      String newText = sb.toString();
+
+      // Record keys that may now be present - within value or straddling either end of value
+      present.addAll(getKeysInValue(index));
+      for (int replacement=0; replacement<replacementCount; replacement+=2) {
+         int start = replacements[replacement];
+         int end   = replacements[replacement+1];
+         findKeys(newText, Math.max(0, start-fMaxKeyLength), start, false, present);
+         findKeys(newText, Math.max(start, end-fMaxKeyLength), end, false, present);
+      }
+      return newText;
+   }
+
+   /**
+    * Apply substitutions to text using a regular expression for each substitution
+    *
+    * @param text Text to modify
+    *
+    * @return Modified text
+    */
+   public String applyByPattern(String text) {
+      for (int index=0; index<fKeys.length; index++) {
+         String key   = fKeys[index];
+         String value = fValues[index];
+         if (key==null) {
+            System.err.println("key is null, value = "+value);
+         }
+         if (value==null) {
+            System.err.println("value is null, res = "+key);
+         }
+         String pattern     = Pattern.quote(key)+"(\\W|_)";
+         String replacement = Matcher.quoteReplacement(value)+"$1";
+         Matcher m = Pattern.compile(pattern).matcher(text);
+         boolean doneReplacement = false;
+         StringBuffer sb = new StringBuffer();
+         while (m.find()) {
+             m.appendReplacement(sb, replacement);
+             doneReplacement = true;
+         }
+         if (doneReplacement) {
+            m.appendTail(sb);
+            text = sb.toString();
+         }
+      }
+      return text;
+   }
+
+   /**
+    * Apply substitutions to text
+    *
+    * @param text Text to modify
+    *
+    * @return Modified text
+    */
+   public String apply(String text) {
+      long startTime = System.nanoTime();
+      String result;
+      long passes  = 0;
+      long skipped = 0;
+      if (!isEnabled() || (fRoot == null)) {
+         result = applyByPattern(text);
+         passes = fKeys.length;
+      }
+      else {
+         HashSet<String> present = new HashSet<String>();
+         findKeys(text, 0, text.length(), false, present);
+         result = text;
+         for (int index=0; index<fKeys.length; index++) {
+            if (present.contains(fKeys[index])) {
+               result = applySubstitution(result, index, present);
+               passes++;
+            }
+            else {
+               skipped++;
+            }
+         }
+      }
+      synchronized (TemplateSubstitutions.class) {
+         fApplyCount++;
+         fPassCount += passes;
+         fSkipCount += skipped;
+         fApplyTime += System.nanoTime()-startTime;
+      }
+      return result;
+   }
+
+   /**
+    * Enable or disable use of trie when applying substitutions.<br>
+    * If disabled a regular expression is used for each substitution.
+    *
+    * @param enable True to enable
+    */
+   public static synchronized void setEnabled(boolean enable) {
+      fEnabled = enable;
+   }
+
+   /**
+    * Indicates if trie is used when applying substitutions
+    *
+    * @return True if enabled
+    */
+   public static synchronized boolean isEnabled() {
+      return fEnabled;
+   }
+
+   /**
+    * Reset statistics
+    */
+   public static synchronized void resetStatistics() {
+      fApplyCount = 0;
+      fPassCount  = 0;
+      fSkipCount  = 0;
+      fApplyTime  = 0;
+   }
+
+   /**
+    * Get statistics
+    *
+    * @return Description of statistics
+    */
+   public static synchronized String getStatistics() {
+      return String.format("Template substitutions: sets = %d, applied = %d, skipped = %d, time = %.1f ms",
+            fApplyCount, fPassCount, fSkipCount, fApplyTime/1000000.0);
+   }
+}
@@ -1526,12 +1526,13 @@ public abstract class Peripheral extends VariableProvider implements ObservableM
    ArrayList<PeripheralSignals> fSignalPeripherals;
 
    /**
-    * Create models representing the signals directly associated with this
+    * Collect the signals directly associated with this
     * peripheral filtered by a regex filter.
     * 
-    * @param parent   Created signal models are added to this model.
+    * @param signalList Signals are added to this list
+    * @param filter     Regex filter for signal names (may be null)
     */
-   private void createMySignalModels(BaseModel parent, String filter) {
+   private void collectMySignals(ArrayList<Signal> signalList, String filter) {
       Pattern pattern = null;
       if (filter != null) {
          pattern = Pattern.compile(filter);
@@ -1550,29 +1551,44 @@ public abstract class Peripheral extends VariableProvider implements ObservableM
          if ((pattern != null) && !pattern.matcher(signal.getName()).matches()) {
             continue;
          }
-         new SignalModel(parent, signal);
+         signalList.add(signal);
       }
    }
 
    /**
-    * Create models representing the signals for this peripheral
+    * Get the signals represented by the models created by {@link #createSignalModels(BaseModel)}
     * 
-    * @param parent Parent model to contain pins created
+    * @return List of signals in model order (may be empty)
     * 
-    * @note May add related pins e.g. RTC may contains OSC pins
+    * @note May include related signals e.g. RTC may contains OSC signals
     */
-   public void createSignalModels(BaseModel parent) {
+   public ArrayList<Signal> getSignalsForModels() {
+      ArrayList<Signal> signalList = new ArrayList<Signal>();
 
       // Add all signals from this peripheral
-      createMySignalModels(parent, null);
+      collectMySignals(signalList, null);
 
       if (fSignalPeripherals != null) {
          
          // Add signals from referenced peripherals with filer
          for (PeripheralSignals signalPeripheral:fSignalPeripherals) {
-            signalPeripheral.getPeripheral().createMySignalModels(parent, signalPeripheral.getSignalFilter());
+            signalPeripheral.getPeripheral().collectMySignals(signalList, signalPeripheral.getSignalFilter());
          }
       }
+      return signalList;
+   }
+
+   /**
+    * Create models representing the signals for this peripheral
+    * 
+    * @param parent Parent model to contain pins created
+    * 
+    * @note May add related pins e.g. RTC may contains OSC pins
+    */
+   public void createSignalModels(BaseModel parent) {
+      for (Signal signal:getSignalsForModels()) {
+         new SignalModel(parent, signal);
+      }
    }
 
    /**
@@ -31,6 +31,7 @@ import net.sourceforge.usbdm.deviceEditor.model.Status;
 import net.sourceforge.usbdm.deviceEditor.model.Status.Severity;
 import net.sourceforge.usbdm.deviceEditor.parsers.ParseMenuXML;
 import net.sourceforge.usbdm.deviceEditor.parsers.ParseMenuXML.MenuData;
+import net.sourceforge.usbdm.deviceEditor.parsers.ParseMenuXML.PeripheralDocument;
 import net.sourceforge.usbdm.deviceEditor.parsers.TemplateInformation;
 import net.sourceforge.usbdm.deviceEditor.parsers.XmlDocumentUtilities;
 import net.sourceforge.usbdm.jni.UsbdmException;
@@ -73,8 +74,20 @@ public abstract class PeripheralWithState extends Peripheral implements IModelEn
     * @throws Exception
     */
    public MenuData loadModels() throws Exception {
+      return loadModels(ParseMenuXML.loadPeripheralDocument(getPeripheralVersionName()));
+   }
+
+   /**
+    * Load the models and validators for this class of peripheral from a previously loaded document
+    * 
+    * @param peripheralDocument Document obtained from ParseMenuXML.loadPeripheralDocument(getPeripheralVersionName())
+    * 
+    * @return
+    * @throws Exception
+    */
+   public MenuData loadModels(PeripheralDocument peripheralDocument) throws Exception {
       try {
-         fMenuData = ParseMenuXML.parsePeripheralFile(getPeripheralVersionName(), this);
+         fMenuData = ParseMenuXML.parsePeripheralFile(peripheralDocument, this);
       } catch (Exception e) {
          System.err.println("Warning: Failed to load model "+getPeripheralVersionName()+" for peripheral " + getName() + ", Reason: " + e.getMessage());
       }
@@ -2,8 +2,8 @@ package net.sourceforge.usbdm.deviceEditor.peripherals;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
@@ -23,6 +23,7 @@ import org.eclipse.core.resources.IProject;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.SubMonitor;
 
+import net.sourceforge.usbdm.cdt.utilties.FileWriteAvoidance;
 import net.sourceforge.usbdm.deviceEditor.information.DeviceInfo;
 import net.sourceforge.usbdm.deviceEditor.information.MappingInfo;
 import net.sourceforge.usbdm.deviceEditor.information.MuxSelection;
@@ -616,7 +617,8 @@ public class WriteFamilyCpp {
    }
 
    /**
-    * Writes pin mapping header file
+    * Writes pin mapping header file<br>
+    * The file is left untouched if the contents are unchanged
     * 
     * @param filePath Header file to write to
     * 
@@ -624,7 +626,8 @@ public class WriteFamilyCpp {
     */
    private void writePinMappingHeaderFile(Path filePath) throws IOException {
 
-      BufferedWriter headerFile = Files.newBufferedWriter(filePath, StandardCharsets.UTF_8);
+      BufferedWriter headerFile = new BufferedWriter(
+            new OutputStreamWriter(FileWriteAvoidance.newOutputStream(filePath), StandardCharsets.UTF_8));
       DocumentUtilities writer = new DocumentUtilities(headerFile);
 
       writer.writeHeaderFilePreamble(
@@ -15,6 +15,7 @@ import net.sourceforge.usbdm.deviceEditor.information.StringVariable;
 import net.sourceforge.usbdm.deviceEditor.information.Variable;
 import net.sourceforge.usbdm.deviceEditor.model.IModelChangeListener;
 import net.sourceforge.usbdm.deviceEditor.model.ObservableModelInterface;
+import net.sourceforge.usbdm.deviceEditor.model.PropagationScheduler;
 import net.sourceforge.usbdm.deviceEditor.peripherals.Peripheral;
 
 public abstract class Validator implements IModelChangeListener {
@@ -99,6 +100,7 @@ public abstract class Validator implements IModelChangeListener {
       do {
          recursedVariable = null;
          try {
+            settlePropagation();
             validate(variable, properties);
          } catch (Exception e) {
             e.printStackTrace();
@@ -117,6 +119,17 @@ public abstract class Validator implements IModelChangeListener {
       return false;
    }
 
+   /**
+    * Propagate any deferred changes so that validation sees current values of derived variables<br>
+    * Within a change transaction expressions are only evaluated on commit which would otherwise leave
+    * derived variables stale while validators run.
+    */
+   private void settlePropagation() {
+      if (fDeviceInfo != null) {
+         fDeviceInfo.getPropagationScheduler().flush();
+      }
+   }
+
    /**
     * Add a variable to associated peripheral
     * 
@@ -500,20 +513,28 @@ public abstract class Validator implements IModelChangeListener {
             return;
          }
          // First validator in queue - execute validators in order until empty
-         ValidateInfo item;
-//         int count=0;
-         do {
-            item = null;
-            synchronized (validationQueue) {
-               if (!queue.isEmpty()) {
-                  item = queue.get(0);
-                  queue.remove(0);
-//                  System.err.println("Executing validator("+getSimpleClassName()+":"+count+") this="+fPeripheral.getName()+", p=" + item.validator.fPeripheral.getName() +", v="+item.variable.getName());
-                  item.validator.validate(item.variable, item.properties);
+         // Changes made by validators are propagated as a single transaction
+         PropagationScheduler scheduler = fDeviceInfo.getPropagationScheduler();
+         scheduler.beginChange();
+         try {
+            ValidateInfo item;
+//            int count=0;
+            do {
+               item = null;
+               synchronized (validationQueue) {
+                  if (!queue.isEmpty()) {
+                     item = queue.get(0);
+                     queue.remove(0);
+//                     System.err.println("Executing validator("+getSimpleClassName()+":"+count+") this="+fPeripheral.getName()+", p=" + item.validator.fPeripheral.getName() +", v="+item.variable.getName());
+                     item.validator.settlePropagation();
+                     item.validator.validate(item.variable, item.properties);
+                  }
                }
-            }
-//            count++;
-         } while (item != null);
+//               count++;
+            } while (item != null);
+         } finally {
+            scheduler.commit();
+         }
       } catch (Exception e) {
          e.printStackTrace();
       }
@@ -0,0 +1,59 @@
+package tests.internal;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.regex.Pattern;
+
+import net.sourceforge.usbdm.deviceEditor.information.DeviceInfo;
+import net.sourceforge.usbdm.deviceEditor.parsers.Expression;
+
+/**
+ * Differential test of compiled expressions against the expression interpreter.<br>
+ * Loads every hardware file with compilation and checking enabled.
+ * Every expression created while loading (i.e. by ParseMenuXML) is then
+ * evaluated in both forms and any disagreement is reported.
+ */
+public class TestCompiledExpression {
+
+   private static final DirectoryStream.Filter<Path> sourceFilter = new DirectoryStream.Filter<Path>() {
+      @Override
+      public boolean accept(Path path) throws IOException {
+         return path.getFileName().toString().matches(".*"+Pattern.quote(DeviceInfo.HARDWARE_FILE_EXTENSION)+"$");
+      }
+   };
+
+   public static void main(String[] args) throws Exception {
+
+      Path directory = Paths.get("");
+
+      Expression.setCompilationEnabled(true, true);
+
+      int totalChecked = 0;
+      DirectoryStream<Path> folderStream = Files.newDirectoryStream(directory.resolve("hardware").toAbsolutePath(), sourceFilter);
+      for (Path filePath : folderStream) {
+         if (!Files.isRegularFile(filePath)) {
+            continue;
+         }
+         System.err.println("Processing " + filePath.getFileName() + " ======================== ");
+
+         long mismatchesBefore = Expression.getCompilationMismatchCount();
+         DeviceInfo.createFromHardwareFile(filePath);
+         int checked = Expression.checkCompiledExpressions();
+         totalChecked += checked;
+
+         System.err.println(String.format("%s: checked %d expressions, %d mismatches",
+               filePath.getFileName(), checked, Expression.getCompilationMismatchCount()-mismatchesBefore));
+      }
+      folderStream.close();
+
+      System.err.println("Total expressions checked = " + totalChecked);
+      System.err.println(Expression.getCompilationStatistics());
+      if (Expression.getCompilationMismatchCount() != 0) {
+         System.err.println("FAILED");
+         System.exit(1);
+      }
+      System.err.println("PASSED");
+   }
+}
@@ -0,0 +1,106 @@
+package tests.internal;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.regex.Pattern;
+
+import net.sourceforge.usbdm.deviceEditor.information.DeviceInfo;
+import net.sourceforge.usbdm.deviceEditor.parsers.Expression;
+
+/**
+ * Differential test of the expression template cache.<br>
+ * Loads every hardware file with and without the cache and checks
+ * that the resulting variables have the same values.
+ * Load times and cache statistics are reported.
+ */
+public class TestExpressionTemplateCache {
+
+   private static final DirectoryStream.Filter<Path> sourceFilter = new DirectoryStream.Filter<Path>() {
+      @Override
+      public boolean accept(Path path) throws IOException {
+         return path.getFileName().toString().matches(".*"+Pattern.quote(DeviceInfo.HARDWARE_FILE_EXTENSION)+"$");
+      }
+   };
+
+   /**
+    * Load hardware file and collect variable values
+    *
+    * @param filePath      Hardware file to load
+    * @param useCache      Whether to use template cache
+    * @param values        Map to add key->value pairs to
+    *
+    * @return Time taken to load (ms)
+    *
+    * @throws Exception
+    */
+   private static long load(Path filePath, boolean useCache, final TreeMap<String, String> values) throws Exception {
+      Expression.setTemplateCacheEnabled(useCache);
+      long startTime = System.nanoTime();
+      DeviceInfo deviceInfo = DeviceInfo.createFromHardwareFile(filePath);
+      long elapsed = (System.nanoTime()-startTime)/1000000;
+      deviceInfo.getVariablesSymbolMap().forEach(new BiConsumer<String, String>() {
+         @Override
+         public void accept(String key, String value) {
+            values.put(key, value);
+         }
+      });
+      return elapsed;
+   }
+
+   public static void main(String[] args) throws Exception {
+
+      Path directory = Paths.get("");
+
+      int failures = 0;
+      long totalUncached = 0;
+      long totalCached   = 0;
+      DirectoryStream<Path> folderStream = Files.newDirectoryStream(directory.resolve("hardware").toAbsolutePath(), sourceFilter);
+      for (Path filePath : folderStream) {
+         if (!Files.isRegularFile(filePath)) {
+            continue;
+         }
+         System.err.println("Processing " + filePath.getFileName() + " ======================== ");
+
+         TreeMap<String, String> uncachedValues = new TreeMap<String, String>();
+         TreeMap<String, String> cachedValues   = new TreeMap<String, String>();
+
+         long uncachedTime = load(filePath, false, uncachedValues);
+         Expression.clearTemplateCache();
+         long cachedTime   = load(filePath, true, cachedValues);
+         totalUncached += uncachedTime;
+         totalCached   += cachedTime;
+
+         int differences = 0;
+         for (String key:uncachedValues.keySet()) {
+            String uncachedValue = uncachedValues.get(key);
+            String cachedValue   = cachedValues.get(key);
+            if (!uncachedValue.equals(cachedValue)) {
+               System.err.println("Difference '" + key + "' : '" + uncachedValue + "' != '" + cachedValue + "'");
+               differences++;
+            }
+         }
+         if (cachedValues.size() != uncachedValues.size()) {
+            System.err.println("Different number of variables " + uncachedValues.size() + " != " + cachedValues.size());
+            differences++;
+         }
+         if (differences != 0) {
+            failures++;
+         }
+         System.err.println(String.format("%s: %d variables, %d differences, uncached = %d ms, cached = %d ms",
+               filePath.getFileName(), uncachedValues.size(), differences, uncachedTime, cachedTime));
+         System.err.println(Expression.getTemplateCacheStatistics());
+      }
+      folderStream.close();
+
+      System.err.println(String.format("Total uncached = %d ms, cached = %d ms", totalUncached, totalCached));
+      if (failures != 0) {
+         System.err.println("FAILED");
+         System.exit(1);
+      }
+      System.err.println("PASSED");
+   }
+}
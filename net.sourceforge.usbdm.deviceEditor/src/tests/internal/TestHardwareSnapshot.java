@@ -0,0 +1,89 @@
+package tests.internal;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+import net.sourceforge.usbdm.deviceEditor.information.DeviceInfo;
+import net.sourceforge.usbdm.deviceEditor.parsers.HardwareSnapshot;
+import net.sourceforge.usbdm.deviceEditor.peripherals.FamilyXmlWriter;
+
+/**
+ * Benchmark and differential test of hardware snapshots.<br>
+ * Each hardware file is loaded from XML (cold) and then from the snapshot saved by that load.
+ * The hardware description of both is written as XML and compared.
+ */
+public class TestHardwareSnapshot {
+
+   private static final DirectoryStream.Filter<Path> sourceFilter = new DirectoryStream.Filter<Path>() {
+      @Override
+      public boolean accept(Path path) throws IOException {
+         return path.getFileName().toString().matches(".*"+Pattern.quote(DeviceInfo.HARDWARE_FILE_EXTENSION)+"$");
+      }
+   };
+
+   /**
+    * Load hardware file and write hardware description
+    *
+    * @param filePath   Hardware file to load
+    * @param xmlPath    Where to write description
+    *
+    * @return Time taken to load (ms)
+    *
+    * @throws Exception
+    */
+   private static double load(Path filePath, Path xmlPath) throws Exception {
+      long startTime = System.nanoTime();
+      DeviceInfo deviceInfo = DeviceInfo.createFromHardwareFile(filePath);
+      double elapsed = (System.nanoTime()-startTime)/1000000.0;
+      FamilyXmlWriter writer = new FamilyXmlWriter(deviceInfo);
+      writer.writeXmlFile(xmlPath);
+      return elapsed;
+   }
+
+   public static void main(String[] args) throws Exception {
+
+      Path directory = Paths.get("");
+      Path outputDirectory = Files.createTempDirectory("snapshot");
+      HardwareSnapshot.setSnapshotDirectory(outputDirectory.resolve("cache"));
+
+      int failures = 0;
+      double totalXml      = 0;
+      double totalSnapshot = 0;
+      DirectoryStream<Path> folderStream = Files.newDirectoryStream(directory.resolve("hardware").toAbsolutePath(), sourceFilter);
+      for (Path filePath : folderStream) {
+         if (!Files.isRegularFile(filePath)) {
+            continue;
+         }
+         System.err.println("Processing " + filePath.getFileName() + " ======================== ");
+
+         Path xmlFromXml      = outputDirectory.resolve("xml_"+filePath.getFileName());
+         Path xmlFromSnapshot = outputDirectory.resolve("snapshot_"+filePath.getFileName());
+
+         // Cold load from XML - saves snapshot
+         double xmlTime      = load(filePath, xmlFromXml);
+         // Load from snapshot
+         double snapshotTime = load(filePath, xmlFromSnapshot);
+         totalXml      += xmlTime;
+         totalSnapshot += snapshotTime;
+
+         boolean same = Arrays.equals(Files.readAllBytes(xmlFromXml), Files.readAllBytes(xmlFromSnapshot));
+         if (!same) {
+            failures++;
+         }
+         System.err.println(String.format("%-30s XML = %8.1f ms, snapshot = %8.1f ms, %s",
+               filePath.getFileName(), xmlTime, snapshotTime, same?"identical":"DIFFERENT"));
+      }
+      folderStream.close();
+
+      System.err.println(String.format("Total XML = %.1f ms, snapshot = %.1f ms", totalXml, totalSnapshot));
+      if (failures != 0) {
+         System.err.println("FAILED, " + failures + " files differ");
+         System.exit(1);
+      }
+      System.err.println("PASSED");
+   }
+}
@@ -0,0 +1,144 @@
+package tests.internal;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.regex.Pattern;
+
+import net.sourceforge.usbdm.deviceEditor.information.DeviceInfo;
+import net.sourceforge.usbdm.deviceEditor.model.BaseModel;
+import net.sourceforge.usbdm.deviceEditor.model.ModelFactory;
+import net.sourceforge.usbdm.deviceEditor.model.PeripheralViewPageModel;
+import net.sourceforge.usbdm.deviceEditor.model.PinViewPageModel;
+import net.sourceforge.usbdm.deviceEditor.peripherals.Peripheral;
+import net.sourceforge.usbdm.deviceEditor.peripherals.PeripheralWithState;
+
+/**
+ * Test of lazy model creation.<br>
+ * The pin and peripheral view models and the peripheral menu models are created eagerly and lazily for each hardware file.
+ * The time and heap used to create the view models are reported.
+ * The lazy models are then fully expanded and checked against the eager models.
+ * The status and presence of children of each model are checked before the model is expanded.
+ */
+public class TestLazyModels {
+
+   private static final DirectoryStream.Filter<Path> sourceFilter = new DirectoryStream.Filter<Path>() {
+      @Override
+      public boolean accept(Path path) throws IOException {
+         return path.getFileName().toString().matches(".*"+Pattern.quote(DeviceInfo.HARDWARE_FILE_EXTENSION)+"$");
+      }
+   };
+
+   /**
+    * Get heap in use after garbage collection
+    *
+    * @return Bytes used
+    */
+   private static long usedHeap() {
+      Runtime runtime = Runtime.getRuntime();
+      for (int i=0; i<3; i++) {
+         System.gc();
+      }
+      return runtime.totalMemory()-runtime.freeMemory();
+   }
+
+   /**
+    * Describe model tree as text (fully expands lazy models)<br>
+    * The status and presence of children are described before the model is expanded
+    *
+    * @param sb      Where to write description
+    * @param model   Model to describe
+    * @param indent  Indent for this level
+    */
+   private static void describe(StringBuilder sb, BaseModel model, String indent) {
+      sb.append(indent+model.getName());
+      if (model.hasChildren()) {
+         sb.append(" +");
+      }
+      if (model.isError()) {
+         sb.append(" [error]");
+      }
+      sb.append("\n");
+      ArrayList<BaseModel> children = model.getChildren();
+      if (children == null) {
+         return;
+      }
+      for (BaseModel child:children) {
+         describe(sb, child, indent+"   ");
+      }
+   }
+
+   /**
+    * Load device and create pin, peripheral view and peripheral menu models
+    *
+    * @param filePath   Hardware file to load
+    * @param lazy       Whether to create models lazily
+    * @param models     Where to add models
+    *
+    * @return Description of time and heap used to create view models
+    *
+    * @throws Exception
+    */
+   private static String createModels(Path filePath, boolean lazy, ArrayList<BaseModel> models) throws Exception {
+      ModelFactory.setLazyModels(lazy);
+      // Menu models are created when loaded
+      DeviceInfo deviceInfo = DeviceInfo.createFromHardwareFile(filePath);
+      long startHeap = usedHeap();
+      long startTime = System.nanoTime();
+      models.add(new PinViewPageModel(null, deviceInfo));
+      models.add(new PeripheralViewPageModel(null, deviceInfo));
+      double elapsed = (System.nanoTime()-startTime)/1000000.0;
+      long heap = usedHeap()-startHeap;
+      for (Peripheral peripheral:deviceInfo.getPeripherals().values()) {
+         if (peripheral instanceof PeripheralWithState) {
+            BaseModel menuModel = ((PeripheralWithState) peripheral).getModels(null);
+            if (menuModel != null) {
+               models.add(menuModel);
+            }
+         }
+      }
+      return String.format("%s = %6.1f ms, %6d kB", lazy?"lazy":"eager", elapsed, heap/1024);
+   }
+
+   public static void main(String[] args) throws Exception {
+
+      Path directory = Paths.get("");
+
+      int failures = 0;
+      DirectoryStream<Path> folderStream = Files.newDirectoryStream(directory.resolve("hardware").toAbsolutePath(), sourceFilter);
+      for (Path filePath : folderStream) {
+         if (!Files.isRegularFile(filePath)) {
+            continue;
+         }
+         ArrayList<BaseModel> eagerModels = new ArrayList<BaseModel>();
+         ArrayList<BaseModel> lazyModels  = new ArrayList<BaseModel>();
+         String eagerReport = createModels(filePath, false, eagerModels);
+         String lazyReport  = createModels(filePath, true,  lazyModels);
+
+         StringBuilder eager = new StringBuilder();
+         StringBuilder lazy  = new StringBuilder();
+         for (BaseModel model:eagerModels) {
+            describe(eager, model, "");
+         }
+         for (BaseModel model:lazyModels) {
+            describe(lazy, model, "");
+         }
+         boolean same = eager.toString().equals(lazy.toString());
+         if (!same) {
+            failures++;
+         }
+         System.err.println(String.format("%-30s %s, %s, %s",
+               filePath.getFileName(), eagerReport, lazyReport, same?"identical":"DIFFERENT"));
+      }
+      folderStream.close();
+      ModelFactory.setLazyModels(true);
+
+      if (failures != 0) {
+         System.err.println("FAILED, " + failures + " files differ");
+         System.exit(1);
+      }
+      System.err.println("PASSED");
+   }
+}
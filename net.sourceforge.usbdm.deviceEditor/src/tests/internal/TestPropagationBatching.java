@@ -0,0 +1,144 @@
+package tests.internal;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.regex.Pattern;
+
+import net.sourceforge.usbdm.deviceEditor.information.BooleanVariable;
+import net.sourceforge.usbdm.deviceEditor.information.DeviceInfo;
+import net.sourceforge.usbdm.deviceEditor.information.Variable;
+import net.sourceforge.usbdm.deviceEditor.model.PropagationScheduler;
+import net.sourceforge.usbdm.deviceEditor.model.Status;
+
+/**
+ * Differential test of batched propagation.<br>
+ * Each hardware file is loaded, connections refreshed and a number of boolean variables edited
+ * with batching of expression propagation enabled and disabled.
+ * The final value and status of every variable must be the same in both cases.
+ */
+public class TestPropagationBatching {
+
+   /** Number of boolean variables edited after loading */
+   private static final int EDITS = 20;
+
+   private static final DirectoryStream.Filter<Path> sourceFilter = new DirectoryStream.Filter<Path>() {
+      @Override
+      public boolean accept(Path path) throws IOException {
+         return path.getFileName().toString().matches(".*"+Pattern.quote(DeviceInfo.HARDWARE_FILE_EXTENSION)+"$");
+      }
+   };
+
+   /**
+    * Load hardware file, refresh connections, edit variables and collect variable values and status
+    *
+    * @param filePath   Hardware file to load
+    * @param batching   Whether to batch propagation
+    * @param state      Map to add key->"value [status]" to
+    *
+    * @return Time taken (ms)
+    *
+    * @throws Exception
+    */
+   private static long run(Path filePath, boolean batching, final TreeMap<String, String> state) throws Exception {
+      PropagationScheduler.setBatchingEnabled(batching);
+      long startTime = System.nanoTime();
+      final DeviceInfo deviceInfo = DeviceInfo.createFromHardwareFile(filePath);
+      deviceInfo.refreshConnections();
+
+      // Edit variables as done through the editor (VariableModel.setValueAsString())
+      final TreeMap<String, String> values = new TreeMap<String, String>();
+      deviceInfo.getVariablesSymbolMap().forEach(new BiConsumer<String, String>() {
+         @Override
+         public void accept(String key, String value) {
+            values.put(key, value);
+         }
+      });
+      ArrayList<BooleanVariable> editable = new ArrayList<BooleanVariable>();
+      for (String key:values.keySet()) {
+         Variable var = deviceInfo.safeGetVariable(key);
+         if ((var instanceof BooleanVariable) && !var.isDerived() && !var.isLocked() && var.isEnabled()) {
+            editable.add((BooleanVariable) var);
+         }
+         if (editable.size() >= EDITS) {
+            break;
+         }
+      }
+      PropagationScheduler scheduler = deviceInfo.getPropagationScheduler();
+      for (BooleanVariable var:editable) {
+         scheduler.beginChange();
+         try {
+            var.setValue(!var.getValueAsBoolean());
+         } finally {
+            scheduler.commit();
+         }
+      }
+      long elapsed = (System.nanoTime()-startTime)/1000000;
+
+      deviceInfo.getVariablesSymbolMap().forEach(new BiConsumer<String, String>() {
+         @Override
+         public void accept(String key, String value) {
+            Variable var    = deviceInfo.safeGetVariable(key);
+            Status   status = (var == null)?null:var.getStatus();
+            state.put(key, value + " [" + ((status == null)?"":status.getText()) + "]");
+         }
+      });
+      return elapsed;
+   }
+
+   public static void main(String[] args) throws Exception {
+
+      Path directory = Paths.get("");
+
+      int failures = 0;
+      long totalBatched   = 0;
+      long totalImmediate = 0;
+      DirectoryStream<Path> folderStream = Files.newDirectoryStream(directory.resolve("hardware").toAbsolutePath(), sourceFilter);
+      for (Path filePath : folderStream) {
+         if (!Files.isRegularFile(filePath)) {
+            continue;
+         }
+         System.err.println("Processing " + filePath.getFileName() + " ======================== ");
+
+         TreeMap<String, String> immediateState = new TreeMap<String, String>();
+         TreeMap<String, String> batchedState   = new TreeMap<String, String>();
+
+         long immediateTime = run(filePath, false, immediateState);
+         long batchedTime   = run(filePath, true,  batchedState);
+         totalImmediate += immediateTime;
+         totalBatched   += batchedTime;
+
+         int differences = 0;
+         for (String key:immediateState.keySet()) {
+            String immediate = immediateState.get(key);
+            String batched   = batchedState.get(key);
+            if (!immediate.equals(batched)) {
+               System.err.println("Difference '" + key + "' : '" + immediate + "' != '" + batched + "'");
+               differences++;
+            }
+         }
+         if (batchedState.size() != immediateState.size()) {
+            System.err.println("Different number of variables " + immediateState.size() + " != " + batchedState.size());
+            differences++;
+         }
+         if (differences != 0) {
+            failures++;
+         }
+         System.err.println(String.format("%s: %d variables, %d differences, immediate = %d ms, batched = %d ms",
+               filePath.getFileName(), immediateState.size(), differences, immediateTime, batchedTime));
+      }
+      folderStream.close();
+      PropagationScheduler.setBatchingEnabled(true);
+
+      System.err.println(String.format("Total immediate = %d ms, batched = %d ms", totalImmediate, totalBatched));
+      if (failures != 0) {
+         System.err.println("FAILED");
+         System.exit(1);
+      }
+      System.err.println("PASSED");
+   }
+}
@@ -0,0 +1,226 @@
+package tests.internal;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import net.sourceforge.usbdm.deviceEditor.information.DeviceInfo;
+import net.sourceforge.usbdm.deviceEditor.parsers.TemplateSubstitutions;
+import net.sourceforge.usbdm.deviceEditor.peripherals.WriteFamilyCpp;
+
+/**
+ * Tests of template substitution.<br>
+ * <ul>
+ * <li>Randomly generated templates are checked against substitution using regular expressions
+ * <li>Benchmark using a large template
+ * <li>Code generated for each hardware file is compared with code generated using regular expressions
+ * </ul>
+ */
+public class TestTemplateSubstitutions {
+
+   private static final DirectoryStream.Filter<Path> sourceFilter = new DirectoryStream.Filter<Path>() {
+      @Override
+      public boolean accept(Path path) throws IOException {
+         return path.getFileName().toString().matches(".*"+Pattern.quote(DeviceInfo.HARDWARE_FILE_EXTENSION)+"$");
+      }
+   };
+
+   /** Keys used by templates */
+   private static final String[] TEMPLATE_KEYS = {
+         "%baseType", "%configFieldAssignment", "%configRegAssignment", "%constructorBitSet",
+         "%constructorFieldAssignment", "%constructorRegAssignment", "%defaultValue", "%description",
+         "%fieldAssignment", "%fieldExtract", "%initExpression", "%initNonZeroValues", "%macro",
+         "%mask", "%maskingExpression", "%multilineDescription", "%paramDescription", "%paramExpression",
+         "%paramName", "%paramType", "%params", "%param", "%regAssignment", "%registerName", "%registerNAME",
+         "%register", "%returnType", "%shortDescription", "%symbolicExpression", "%tooltip",
+         "%valueExpression", "%variables", "%variable",
+   };
+
+   /** Fragments used to generate random text */
+   private static final String[] FRAGMENTS = {
+         "%", "_", " ", "\n", "(", ")", "|", "&", "~", "x", "Name", "0", "%a", "%a_b", "%ab", "$(a)", "%reg", "%register",
+   };
+
+   /**
+    * Compare substitution using trie against regular expressions with random keys, values and text
+    *
+    * @param iterations Number of tests
+    *
+    * @return Number of failures
+    */
+   private static int randomTest(int iterations) {
+      Random random = new Random(1);
+      int failures = 0;
+      for (int iteration=0; iteration<iterations; iteration++) {
+         int count = 1+random.nextInt(6);
+         String[] keys   = new String[count];
+         String[] values = new String[count];
+         for (int index=0; index<count; index++) {
+            keys[index]   = FRAGMENTS[12+random.nextInt(FRAGMENTS.length-12)];
+            values[index] = randomText(random, random.nextInt(4));
+         }
+         String text = randomText(random, random.nextInt(30));
+         String expected = new TemplateSubstitutions(keys, values).applyByPattern(text);
+         String actual   = new TemplateSubstitutions(keys, values).apply(text);
+         if (!expected.equals(actual)) {
+            if (failures++ < 10) {
+               System.err.println("Mismatch: keys = "+Arrays.toString(keys)+", values = "+Arrays.toString(values));
+               System.err.println("   text     = '"+text+"'");
+               System.err.println("   expected = '"+expected+"'");
+               System.err.println("   actual   = '"+actual+"'");
+            }
+         }
+      }
+      System.err.println("Random test: "+iterations+" iterations, "+failures+" failures");
+      return failures;
+   }
+
+   /**
+    * Create random text from fragments
+    *
+    * @param random     Random number generator
+    * @param fragments  Number of fragments to use
+    *
+    * @return Text
+    */
+   private static String randomText(Random random, int fragments) {
+      StringBuilder sb = new StringBuilder();
+      for (int index=0; index<fragments; index++) {
+         sb.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+      }
+      return sb.toString();
+   }
+
+   /**
+    * Benchmark substitution of a large template
+    *
+    * @param repetitions Number of times to apply substitutions
+    */
+   private static void benchmark(int repetitions) {
+      String[] values = new String[TEMPLATE_KEYS.length];
+      for (int index=0; index<TEMPLATE_KEYS.length; index++) {
+         values[index] = "value_"+index;
+      }
+      // Cascaded values
+      values[1] = "%register = (%register & ~%mask)|%registerName";
+      values[8] = "%register = (%register & ~%mask)|%paramExpression";
+
+      StringBuilder sb = new StringBuilder();
+      for (int line=0; line<400; line++) {
+         sb.append("   /**\n    * %description\n    *\n    * %paramDescription\n    */\n");
+         sb.append("   static void configure_"+line+"(%params) {\n      %fieldAssignment;\n   }\n");
+      }
+      String text = sb.toString();
+      TemplateSubstitutions substitutions = new TemplateSubstitutions(TEMPLATE_KEYS, values);
+      String expected = substitutions.applyByPattern(text);
+      if (!expected.equals(substitutions.apply(text))) {
+         throw new RuntimeException("Benchmark results differ");
+      }
+      long startTime = System.nanoTime();
+      for (int count=0; count<repetitions; count++) {
+         substitutions.applyByPattern(text);
+      }
+      double patternTime = (System.nanoTime()-startTime)/(1000000.0*repetitions);
+      startTime = System.nanoTime();
+      for (int count=0; count<repetitions; count++) {
+         new TemplateSubstitutions(TEMPLATE_KEYS, values).apply(text);
+      }
+      double trieTime = (System.nanoTime()-startTime)/(1000000.0*repetitions);
+      System.err.println(String.format("Benchmark: template = %d chars, pattern = %.3f ms, trie = %.3f ms",
+            text.length(), patternTime, trieTime));
+   }
+
+   /**
+    * Load hardware file and write C++ files
+    *
+    * @param filePath   Hardware file to load
+    * @param directory  Where to write files
+    * @param useTrie    Whether to use trie for substitutions
+    *
+    * @throws Exception
+    */
+   private static void generate(Path filePath, Path directory, boolean useTrie) throws Exception {
+      TemplateSubstitutions.setEnabled(useTrie);
+      Files.createDirectories(directory.resolve("Project_Headers"));
+      Files.createDirectories(directory.resolve("Sources"));
+      DeviceInfo deviceInfo = DeviceInfo.createFromHardwareFile(filePath);
+      new WriteFamilyCpp().writeCppFiles(directory, deviceInfo);
+   }
+
+   /**
+    * Compare all files in two directories
+    *
+    * @param expected  Directory containing expected files
+    * @param actual    Directory containing files to check
+    *
+    * @return Number of differences
+    *
+    * @throws IOException
+    */
+   private static int compare(final Path expected, final Path actual) throws IOException {
+      int differences = 0;
+      try (Stream<Path> files = Files.walk(expected)) {
+         for (Object obj:files.toArray()) {
+            Path expectedFile = (Path) obj;
+            if (!Files.isRegularFile(expectedFile)) {
+               continue;
+            }
+            Path actualFile = actual.resolve(expected.relativize(expectedFile));
+            if (!Files.isRegularFile(actualFile) ||
+                  !Arrays.equals(Files.readAllBytes(expectedFile), Files.readAllBytes(actualFile))) {
+               System.err.println("Files differ: "+expected.relativize(expectedFile));
+               differences++;
+            }
+         }
+      }
+      return differences;
+   }
+
+   public static void main(String[] args) throws Exception {
+
+      int failures = randomTest(200000);
+
+      benchmark(20);
+
+      Path directory       = Paths.get("");
+      Path outputDirectory = Files.createTempDirectory("substitutions");
+      DirectoryStream<Path> folderStream = Files.newDirectoryStream(directory.resolve("hardware").toAbsolutePath(), sourceFilter);
+      for (Path filePath : folderStream) {
+         if (!Files.isRegularFile(filePath)) {
+            continue;
+         }
+         String name = filePath.getFileName().toString();
+         Path golden = outputDirectory.resolve("pattern").resolve(name);
+         Path actual = outputDirectory.resolve("trie").resolve(name);
+
+         TemplateSubstitutions.resetStatistics();
+         generate(filePath, golden, false);
+         String patternStatistics = TemplateSubstitutions.getStatistics();
+
+         TemplateSubstitutions.resetStatistics();
+         generate(filePath, actual, true);
+         String trieStatistics = TemplateSubstitutions.getStatistics();
+
+         int differences = compare(golden, actual);
+         if (differences != 0) {
+            failures++;
+         }
+         System.err.println(String.format("%-30s %s", name, (differences==0)?"identical":"DIFFERENT"));
+         System.err.println("   Pattern: "+patternStatistics);
+         System.err.println("   Trie:    "+trieStatistics);
+      }
+      folderStream.close();
+      TemplateSubstitutions.setEnabled(true);
+
+      if (failures != 0) {
+         System.err.println("FAILED");
+         System.exit(1);
+      }
+      System.err.println("PASSED");
+   }
+}
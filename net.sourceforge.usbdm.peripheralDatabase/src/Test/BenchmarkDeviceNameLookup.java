@@ -0,0 +1,256 @@
+package Test;
+
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+
+import net.sourceforge.usbdm.peripheralDatabase.DeviceFileList;
+import net.sourceforge.usbdm.peripheralDatabase.DeviceFileList.DeviceSvdInfo;
+
+/**
+ * Benchmark of device name resolution using DeviceFileList
+ * <ul>
+ * <li>Every device name, SVD file name and a lower-case and unknown variant of each is resolved
+ * <li>The device list is also extended with a pattern for each SVD file to exercise pattern lookup
+ * <li>Results are checked against a linear search of the list (as previously used) and the time for both reported
+ * </ul>
+ * Argument is a DeviceList.xml file (defaults to the device list in this plugin)
+ */
+public class BenchmarkDeviceNameLookup {
+
+   static final String DEFAULT_DEVICE_LIST = "DeviceList.xml";
+
+   static final int WARMUP_ITERATIONS  = 20;
+   static final int MEASURE_ITERATIONS = 200;
+
+   /**
+    * Linear search as used before indexing
+    *
+    * @param deviceList List to search
+    * @param deviceName Name to look up
+    *
+    * @return filename if found e.g. MK11D5, or null if not found
+    */
+   static String linearBaseFilename(ArrayList<DeviceSvdInfo> deviceList, String deviceName) {
+      for (DeviceSvdInfo entry:deviceList) {
+         if (!entry.deviceNamePattern.isEmpty() && deviceName.matches(entry.deviceNamePattern)) {
+            return entry.svdName;
+         }
+         if (deviceName.equalsIgnoreCase(entry.svdName)) {
+            return entry.svdName;
+         }
+         if (deviceName.equalsIgnoreCase(entry.deviceName)) {
+            return entry.svdName;
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Linear search as used before indexing
+    *
+    * @param deviceList List to search
+    * @param deviceName Name to look up
+    *
+    * @return Device name if found e.g. MK10DxxxM5, or null if device is not found
+    */
+   static String linearMappedDeviceName(ArrayList<DeviceSvdInfo> deviceList, String deviceName) {
+      for (DeviceSvdInfo entry:deviceList) {
+         if (!entry.deviceNamePattern.isEmpty() && deviceName.matches(entry.deviceNamePattern)) {
+            return entry.deviceName;
+         }
+         if (deviceName.equalsIgnoreCase(entry.deviceName)) {
+            return entry.deviceName;
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Get longest common prefix of names
+    *
+    * @param names Names to examine
+    *
+    * @return Common prefix
+    */
+   static String commonPrefix(ArrayList<String> names) {
+      String prefix = names.get(0);
+      for (String name:names) {
+         int length = 0;
+         while ((length<prefix.length()) && (length<name.length()) && (prefix.charAt(length) == name.charAt(length))) {
+            length++;
+         }
+         prefix = prefix.substring(0, length);
+      }
+      return prefix;
+   }
+
+   /**
+    * Creates a device list with an additional pattern entry for each SVD file e.g. MK10DX\d+
+    *
+    * @param original   Original device list file
+    * @param extended   Where to write extended device list
+    *
+    * @throws Exception
+    */
+   static void writeExtendedDeviceList(DeviceFileList original, Path extended) throws Exception {
+      LinkedHashMap<String, ArrayList<String>> namesBySvd = new LinkedHashMap<String, ArrayList<String>>();
+      for (DeviceSvdInfo entry:original.getArrayList()) {
+         ArrayList<String> names = namesBySvd.get(entry.svdName);
+         if (names == null) {
+            names = new ArrayList<String>();
+            namesBySvd.put(entry.svdName, names);
+         }
+         names.add(entry.deviceName);
+      }
+      PrintWriter writer = new PrintWriter(Files.newBufferedWriter(extended));
+      writer.println("<root version=\"4.10.6\">");
+      writer.println("   <deviceList>");
+      for (Entry<String, ArrayList<String>> group:namesBySvd.entrySet()) {
+         String prefix = commonPrefix(group.getValue());
+         String pattern = prefix+"X\\d+";
+         writer.println(String.format("      <device name=\"%sxxx\" svdFileName=\"%s\" pattern=\"%s\" />",
+               prefix, group.getKey(), pattern));
+      }
+      for (DeviceSvdInfo entry:original.getArrayList()) {
+         writer.println(String.format("      <device name=\"%s\" svdFileName=\"%s\" />", entry.deviceName, entry.svdName));
+      }
+      writer.println("   </deviceList>");
+      writer.println("</root>");
+      writer.close();
+   }
+
+   /**
+    * Get names to look up
+    *
+    * @param deviceFileList Device list
+    *
+    * @return List of names
+    */
+   static ArrayList<String> getLookupNames(DeviceFileList deviceFileList) {
+      ArrayList<String> names = new ArrayList<String>();
+      for (DeviceSvdInfo entry:deviceFileList.getArrayList()) {
+         if (entry.deviceNamePattern.isEmpty()) {
+            names.add(entry.deviceName);
+            names.add(entry.deviceName.toLowerCase());
+            names.add(entry.deviceName+"X"+entry.deviceName.substring(entry.deviceName.length()-1));
+            names.add(entry.svdName);
+         }
+         else {
+            // Name matching pattern e.g. MK10DX99
+            names.add(entry.deviceName.replace("xxx", "X99"));
+         }
+      }
+      names.add("UNKNOWN_DEVICE");
+      return names;
+   }
+
+   /**
+    * Time lookups of names
+    *
+    * @param deviceFileList   Device list
+    * @param names            Names to look up
+    * @param indexed          Use index (true) or linear search (false)
+    *
+    * @return Time in nanoseconds for one lookup of each name
+    */
+   static long timeLookups(DeviceFileList deviceFileList, ArrayList<String> names, boolean indexed) {
+      ArrayList<DeviceSvdInfo> deviceList = deviceFileList.getArrayList();
+      int found = 0;
+      long startTime = System.nanoTime();
+      for (String name:names) {
+         String result;
+         if (indexed) {
+            result = deviceFileList.getBaseFilename(name);
+         }
+         else {
+            result = linearBaseFilename(deviceList, name);
+         }
+         if (result != null) {
+            found++;
+         }
+      }
+      long time = System.nanoTime()-startTime;
+      if (found == 0) {
+         System.err.println("No names found");
+      }
+      return time;
+   }
+
+   /**
+    * Check indexed lookup against linear search
+    *
+    * @param deviceFileList   Device list
+    * @param names            Names to look up
+    *
+    * @return Number of differences
+    */
+   static int check(DeviceFileList deviceFileList, ArrayList<String> names) {
+      ArrayList<DeviceSvdInfo> deviceList = deviceFileList.getArrayList();
+      int differences = 0;
+      for (String name:names) {
+         String expected = linearBaseFilename(deviceList, name);
+         String actual   = deviceFileList.getBaseFilename(name);
+         if ((expected == null)?(actual != null):!expected.equals(actual)) {
+            System.err.println("getBaseFilename("+name+") = "+actual+", expected "+expected);
+            differences++;
+         }
+         expected = linearMappedDeviceName(deviceList, name);
+         actual   = deviceFileList.getMappedDeviceName(name);
+         if ((expected == null)?(actual != null):!expected.equals(actual)) {
+            System.err.println("getMappedDeviceName("+name+") = "+actual+", expected "+expected);
+            differences++;
+         }
+      }
+      return differences;
+   }
+
+   /**
+    * Benchmark lookups in device list
+    *
+    * @param title            Title for report
+    * @param deviceFileList   Device list
+    *
+    * @return Number of differences found
+    */
+   static int benchmark(String title, DeviceFileList deviceFileList) {
+      ArrayList<String> names = getLookupNames(deviceFileList);
+      int differences = check(deviceFileList, names);
+      for (int iteration=0; iteration<WARMUP_ITERATIONS; iteration++) {
+         timeLookups(deviceFileList, names, true);
+         timeLookups(deviceFileList, names, false);
+      }
+      long indexedTime = Long.MAX_VALUE;
+      long linearTime  = Long.MAX_VALUE;
+      for (int iteration=0; iteration<MEASURE_ITERATIONS; iteration++) {
+         indexedTime = Math.min(indexedTime, timeLookups(deviceFileList, names, true));
+         linearTime  = Math.min(linearTime,  timeLookups(deviceFileList, names, false));
+      }
+      System.err.println(String.format("%-20s %4d entries, %5d names : indexed = %8.3f us/name, linear = %8.3f us/name, %d differences",
+            title, deviceFileList.getArrayList().size(), names.size(),
+            indexedTime/(names.size()*1000.0), linearTime/(names.size()*1000.0), differences));
+      return differences;
+   }
+
+   public static void main(String[] args) throws Exception {
+      Path deviceListPath = Paths.get((args.length>0)?args[0]:DEFAULT_DEVICE_LIST);
+
+      DeviceFileList deviceFileList = new DeviceFileList(deviceListPath);
+      int differences = benchmark("Names", deviceFileList);
+
+      Path extendedPath = Files.createTempFile("DeviceList", ".xml");
+      writeExtendedDeviceList(deviceFileList, extendedPath);
+      differences += benchmark("Names and patterns", new DeviceFileList(extendedPath));
+      Files.delete(extendedPath);
+
+      if (differences > 0) {
+         System.err.println("FAILED");
+         System.exit(1);
+      }
+      System.err.println("PASSED");
+   }
+}
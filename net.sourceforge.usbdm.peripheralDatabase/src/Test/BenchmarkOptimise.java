@@ -0,0 +1,125 @@
+package Test;
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+import net.sourceforge.usbdm.peripheralDatabase.DevicePeripherals;
+import net.sourceforge.usbdm.peripheralDatabase.ModeControl;
+
+/**
+ * Benchmark of DevicePeripherals.optimise()
+ * <ul>
+ * <li>Devices are loaded with arrays and derived registers/peripherals expanded (similar to a vendor SVD file)
+ *     so the optimiser has to rediscover register arrays, complex structures and derived registers
+ * <li>Each device is optimised a number of times after warm-up and the average and best times are reported
+ * </ul>
+ * Arguments are SVD files (defaults to the largest S32K and Kinetis devices in the workspace)
+ */
+public class BenchmarkOptimise {
+
+   static final String DEFAULT_DIRECTORY = "../net.sourceforge.usbdm.peripherals.freescale/data";
+
+   static final int WARMUP_ITERATIONS  = 5;
+   static final int MEASURE_ITERATIONS = 20;
+
+   /**
+    * Get largest S32K and Kinetis device files
+    *
+    * @return List of paths
+    *
+    * @throws Exception
+    */
+   static ArrayList<Path> getDefaultFiles() throws Exception {
+      ArrayList<Path> s32kPaths    = new ArrayList<Path>();
+      ArrayList<Path> kinetisPaths = new ArrayList<Path>();
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(DEFAULT_DIRECTORY), "*.svd.xml")) {
+         for (Path path:stream) {
+            String name = path.getFileName().toString();
+            if (name.startsWith("S32K")) {
+               s32kPaths.add(path);
+            }
+            else if (name.startsWith("MK")) {
+               kinetisPaths.add(path);
+            }
+         }
+      }
+      Comparator<Path> bySize = new Comparator<Path>() {
+         @Override
+         public int compare(Path path1, Path path2) {
+            try {
+               return Long.compare(Files.size(path2), Files.size(path1));
+            } catch (Exception e) {
+               return 0;
+            }
+         }
+      };
+      Collections.sort(s32kPaths, bySize);
+      Collections.sort(kinetisPaths, bySize);
+      ArrayList<Path> paths = new ArrayList<Path>();
+      paths.addAll(s32kPaths.subList(0, Math.min(2, s32kPaths.size())));
+      paths.addAll(kinetisPaths.subList(0, Math.min(3, kinetisPaths.size())));
+      return paths;
+   }
+
+   /**
+    * Time optimisation of a device
+    *
+    * @param path Path to SVD file
+    *
+    * @return Time in nanoseconds
+    *
+    * @throws Exception
+    */
+   static long timeOptimise(Path path) throws Exception {
+      // Each iteration needs a fresh copy as optimise() modifies the device
+      DevicePeripherals devicePeripherals = new DevicePeripherals(path);
+      long startTime = System.nanoTime();
+      devicePeripherals.optimise();
+      return System.nanoTime()-startTime;
+   }
+
+   public static void main(String[] args) throws Exception {
+      ArrayList<Path> paths = new ArrayList<Path>();
+      if (args.length == 0) {
+         paths = getDefaultFiles();
+      }
+      else {
+         for (String arg:args) {
+            paths.add(Paths.get(arg));
+         }
+      }
+      // Load devices expanded
+      ModeControl.setFlattenArrays(true);
+      ModeControl.setExpandDerivedRegisters(true);
+      ModeControl.setExpandDerivedPeripherals(true);
+
+      // Optimisations as used when creating the peripheral database
+      ModeControl.setRegenerateAddressBlocks(true);
+      ModeControl.setExtractSimilarFields(true);
+      ModeControl.setExtractComplexStructures(true);
+      ModeControl.setExtractDerivedPeripherals(true);
+      ModeControl.setExtractSimpleRegisterArrays(true);
+      ModeControl.setMapFreescalePeriperalCommonNames(true);
+      ModeControl.setFoldRegisters(true);
+
+      for (Path path:paths) {
+         for (int iteration=0; iteration<WARMUP_ITERATIONS; iteration++) {
+            timeOptimise(path);
+         }
+         long total = 0;
+         long best  = Long.MAX_VALUE;
+         for (int iteration=0; iteration<MEASURE_ITERATIONS; iteration++) {
+            long time = timeOptimise(path);
+            total += time;
+            best   = Math.min(best, time);
+         }
+         System.err.println(String.format("%-20s optimise() average = %8.3f ms, best = %8.3f ms",
+               path.getFileName(), total/(MEASURE_ITERATIONS*1000000.0), best/1000000.0));
+      }
+   }
+}
@@ -1,7 +1,9 @@
 package Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.nio.file.DirectoryStream;
 import java.nio.file.FileVisitResult;
@@ -12,16 +14,24 @@ import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.eclipse.core.runtime.IPath;
 
+import net.sourceforge.usbdm.cdt.utilties.FileWriteAvoidance;
 import net.sourceforge.usbdm.peripheralDatabase.DeviceFileList;
 import net.sourceforge.usbdm.peripheralDatabase.DeviceFileList.DeviceSvdInfo;
 import net.sourceforge.usbdm.peripheralDatabase.DevicePeripherals;
@@ -30,20 +40,20 @@ import net.sourceforge.usbdm.peripheralDatabase.PeripheralDatabaseMerger;
 
 public class CreatePeripheralDatabase {
    private static final  Path PACKAGE_FOLDER    = Paths.get("../../usbdm-eclipse-makefiles-build/PackageFiles");
-   private static final  Path MAIN_FOLDER       = PACKAGE_FOLDER.resolve("Stationery/Device.SVD");
+   private static        Path mainFolder        = PACKAGE_FOLDER.resolve("Stationery/Device.SVD");
    //   @SuppressWarnings("unused")
    //   private static final  Path headerReducedMergedOptimisedManualFolder     = PACKAGE_FOLDER.resolve("Stationery/Project_Headers");
    //
-   //   private static final  Path usbdmFolder            = MAIN_FOLDER.resolve("Internal");
+   //   private static final  Path usbdmFolder            = mainFolder.resolve("Internal");
    //   //   @SuppressWarnings("unused")
-   //   private static final  Path usbdmFolder_Check      = MAIN_FOLDER.resolve("Internal.Check");
+   //   private static final  Path usbdmFolder_Check      = mainFolder.resolve("Internal.Check");
    //
-   //   private static final  Path usbdmHeaderFolder_Check   = MAIN_FOLDER.resolve("Internal_header.Check");
+   //   private static final  Path usbdmHeaderFolder_Check   = mainFolder.resolve("Internal_header.Check");
    //
    //   @SuppressWarnings("unused")
-   //   private static final  Path freescaleFolder        = MAIN_FOLDER.resolve("Freescale");
+   //   private static final  Path freescaleFolder        = mainFolder.resolve("Freescale");
    //   @SuppressWarnings("unused")
-   //   private static final  Path freescaleFolder_Check   = MAIN_FOLDER.resolve("Freescale.Check");
+   //   private static final  Path freescaleFolder_Check   = mainFolder.resolve("Freescale.Check");
 
    private static final  String DEVICE_LIST_FILENAME        = "DeviceList.xml";
    private static final  String CMSIS_SCHEMA_FILENAME       = "CMSIS-SVD_Schema_1_1.xsd";
@@ -53,6 +63,12 @@ public class CreatePeripheralDatabase {
    private static String firstFileToReject  = null;
    private static String filesToReject      = null;
 
+   /** Number of threads used to load, optimise and write devices (1 =&gt; process serially) */
+   private static int    threads            = Runtime.getRuntime().availableProcessors();
+
+   /** Thread pool shared by all stages (created when first needed) */
+   private static ExecutorService executor  = null;
+
    static void copyFile(IPath source, IPath destination) throws IOException {
       System.err.println("Copying "+source.toOSString()+" -> \n        "+destination.toOSString());
       Files.copy(new java.io.File(source.toPortableString()).toPath(),
@@ -118,6 +134,121 @@ public class CreatePeripheralDatabase {
       }
    }
    
+   /**
+    * Set number of threads used to load, optimise and write devices
+    * 
+    * @param numberOfThreads Number of threads (1 =&gt; process serially)
+    */
+   static synchronized void setThreads(int numberOfThreads) {
+      if (executor != null) {
+         executor.shutdown();
+         executor = null;
+      }
+      threads = numberOfThreads;
+   }
+
+   /**
+    * Get thread pool used to process devices
+    * 
+    * @return Executor
+    */
+   private static synchronized ExecutorService getExecutor() {
+      if (executor == null) {
+         executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+               Thread thread = new Thread(runnable, "CreatePeripheralDatabase");
+               thread.setDaemon(true);
+               return thread;
+            }
+         });
+      }
+      return executor;
+   }
+
+   /**
+    * Runs a sequence of tasks in parallel while results are obtained in the original order.<br>
+    * This allows the expensive per-device work (parsing, optimising, generating files) to be done in parallel
+    * while anything that depends on order (merging, console output, writing files that may clash)
+    * is done by the caller exactly as for a serial run.
+    * <ul>
+    * <li>Only a limited number of tasks are started ahead of the caller so results don't accumulate
+    * <li>When only one thread is used each task is executed by {@link #next()} in the calling thread
+    * <li>{@link #cancel()} must be called (usually in a finally clause) so no task is still running
+    *     when processing options are changed for the next stage
+    * </ul>
+    *
+    * @param <T> Type of result
+    */
+   static class OrderedTasks<T> {
+      private final ArrayList<Callable<T>> tasks;
+      private final ArrayDeque<Future<T>>  started = new ArrayDeque<Future<T>>();
+      private int nextTask = 0;
+
+      /**
+       * Create tasks
+       * 
+       * @param tasks Tasks to run. Results are returned in this order.
+       */
+      OrderedTasks(ArrayList<Callable<T>> tasks) {
+         this.tasks = tasks;
+      }
+
+      /**
+       * Indicates if there are more results
+       * 
+       * @return true if {@link #next()} may be called
+       */
+      boolean hasNext() {
+         return !started.isEmpty() || (nextTask < tasks.size());
+      }
+
+      /**
+       * Get the result of the next task (in order)
+       * 
+       * @return Result
+       * 
+       * @throws Exception Exception thrown by the task
+       */
+      T next() throws Exception {
+         if (threads <= 1) {
+            return tasks.get(nextTask++).call();
+         }
+         while ((nextTask < tasks.size()) && (started.size() < 2*threads)) {
+            started.add(getExecutor().submit(tasks.get(nextTask++)));
+         }
+         try {
+            return started.remove().get();
+         } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+               throw (Exception) e.getCause();
+            }
+            throw e;
+         }
+      }
+
+      /**
+       * Discard remaining tasks.<br>
+       * Tasks that are not started are cancelled and waits for any running tasks to complete.
+       */
+      void cancel() {
+         nextTask = tasks.size();
+         for (Future<T> future : started) {
+            future.cancel(false);
+         }
+         for (Future<T> future : started) {
+            try {
+               if (!future.isCancelled()) {
+                  future.get();
+               }
+            } catch (Exception e) {
+               // Ignore - result is being discarded
+            }
+         }
+         started.clear();
+      }
+   }
+
    static Path[] sortedFileList(Path folderPath, final DirectoryStream.Filter<Path> filter) throws IOException {
       
       DirectoryStream<Path> folderStream = null;
@@ -137,11 +268,12 @@ public class CreatePeripheralDatabase {
       
       Arrays.sort(sortedPaths, new Comparator<Path>() {
 
+         final Pattern deviceNamePattern = Pattern.compile("([a-z|A-Z]*)(.*)");
+
          @Override
          public int compare(Path arg0, Path arg1) {
             String f0 = arg0.getFileName().toString();
             String f1 = arg1.getFileName().toString();
-            Pattern deviceNamePattern = Pattern.compile("([a-z|A-Z]*)(.*)");
             Matcher m0 = deviceNamePattern.matcher(f0);
             Matcher m1 = deviceNamePattern.matcher(f1);
             int res = 0;
@@ -173,6 +305,9 @@ public class CreatePeripheralDatabase {
       
       Path[] files = sortedFileList(svdSourceFolderPath, directoryFilter);
       
+      // Devices are read and optimised in parallel
+      final ArrayList<Path>                         filesToMerge = new ArrayList<Path>();
+      final ArrayList<Callable<DevicePeripherals>>  tasks        = new ArrayList<Callable<DevicePeripherals>>();
       for (Path filePath : files) {
          if (deviceCount-- == 0) {
             break;
@@ -186,16 +321,32 @@ public class CreatePeripheralDatabase {
                continue;
             }
             if (fileName.endsWith(".svd.xml") || (fileName.endsWith(".svd"))) {
-               System.out.println("Merging SVD file : "+filePath.getFileName());
-
-               // Read device peripheral database
-               DevicePeripherals devicePeripherals = new DevicePeripherals(filePath);
-               devicePeripherals.optimise();
-               // Create merged SVD file
-               merger.writeDeviceToSVD(devicePeripherals);
+               final Path svdFilePath = filePath;
+               filesToMerge.add(svdFilePath);
+               tasks.add(new Callable<DevicePeripherals>() {
+                  @Override
+                  public DevicePeripherals call() throws Exception {
+                     // Read device peripheral database
+                     DevicePeripherals devicePeripherals = new DevicePeripherals(svdFilePath);
+                     devicePeripherals.optimise();
+                     return devicePeripherals;
+                  }
+               });
             }
          }
       }
+      // Devices are merged in order by this thread so the shared peripherals are the same as a serial run
+      OrderedTasks<DevicePeripherals> orderedTasks = new OrderedTasks<DevicePeripherals>(tasks);
+      try {
+         for (Path filePath : filesToMerge) {
+            System.out.println("Merging SVD file : "+filePath.getFileName());
+            DevicePeripherals devicePeripherals = orderedTasks.next();
+            // Create merged SVD file
+            merger.writeDeviceToSVD(devicePeripherals);
+         }
+      } finally {
+         orderedTasks.cancel();
+      }
    }
    /**
     *    Merges multiple SVD files and produces SVD files with common peripherals extracted
@@ -304,6 +455,9 @@ public class CreatePeripheralDatabase {
 
       Path[] files = sortedFileList(sourceFolderPath, null);
       
+      // Header files are generated in parallel
+      final ArrayList<Path>                 svdFiles = new ArrayList<Path>();
+      final ArrayList<Callable<HeaderFile>> tasks    = new ArrayList<Callable<HeaderFile>>();
       for (Path svdSourceFile : files) {
          if (Files.isRegularFile(svdSourceFile)) {
             String fileName = svdSourceFile.getFileName().toString();
@@ -311,21 +465,66 @@ public class CreatePeripheralDatabase {
                continue;
             }
             if (fileName.endsWith(".svd.xml")) {
-               // Read device description
-               DevicePeripherals devicePeripherals = new DevicePeripherals(svdSourceFile);
+               final Path svdFilePath = svdSourceFile;
+               svdFiles.add(svdFilePath);
+               tasks.add(new Callable<HeaderFile>() {
+                  @Override
+                  public HeaderFile call() throws Exception {
+                     // Read device description
+                     DevicePeripherals devicePeripherals = new DevicePeripherals(svdFilePath);
+
+                     // Optimise peripheral database
+                     devicePeripherals.optimise();
+                     devicePeripherals.sortPeripherals();
+
+                     return new HeaderFile(devicePeripherals);
+                  }
+               });
+            }
+         }
+      }
+      // Header files are written in order as different SVD files may describe the same device
+      OrderedTasks<HeaderFile> orderedTasks = new OrderedTasks<HeaderFile>(tasks);
+      try {
+         for (Path svdSourceFile : svdFiles) {
+            HeaderFile headerFile = orderedTasks.next();
 
-               // Optimise peripheral database
-               devicePeripherals.optimise();
-               devicePeripherals.sortPeripherals();
+            // Create header file
+            Path headerFilePath = destinationFolderPath.resolve(headerFile.deviceName+".h");
+            
+            System.out.print(String.format("Processing File : %-20s => %-20s\n", svdSourceFile.getFileName(), headerFilePath.getFileName()));
+            
+            FileWriteAvoidance.writeIfChanged(headerFilePath, headerFile.contents);
+         }
+      } finally {
+         orderedTasks.cancel();
+      }
+   }
 
-               // Create header file
-               Path headerFilePath = destinationFolderPath.resolve(devicePeripherals.getName().toString()+".h");
-               
-               System.out.print(String.format("Processing File : %-20s => %-20s\n", fileName, headerFilePath.getFileName()));
-               
-               devicePeripherals.writeHeaderFile(headerFilePath);
-            }
+   /**
+    * Header file generated from a device description but not yet written
+    */
+   static class HeaderFile {
+      final String deviceName;
+      final byte[] contents;
+
+      /**
+       * Generate header file contents
+       * 
+       * @param devicePeripherals Device to generate header file for
+       * 
+       * @throws Exception
+       */
+      HeaderFile(DevicePeripherals devicePeripherals) throws Exception {
+         ByteArrayOutputStream stream = new ByteArrayOutputStream();
+         PrintWriter writer = new PrintWriter(new OutputStreamWriter(stream));
+         devicePeripherals.writeHeaderFile(writer);
+         writer.close();
+         if (writer.checkError()) {
+            throw new IOException("Failed to generate header file for " + devicePeripherals.getName());
          }
+         deviceName = devicePeripherals.getName();
+         contents   = stream.toByteArray();
       }
    }
 
@@ -434,6 +633,8 @@ public class CreatePeripheralDatabase {
 
       Path[] files = sortedFileList(sourceFolderPath, null);
 
+      // Devices are read in parallel
+      final ArrayList<Callable<DevicePeripherals>> tasks = new ArrayList<Callable<DevicePeripherals>>();
       for (Path svdSourceFile : files) {
          // Create database of all devices
          if (Files.isRegularFile(svdSourceFile)) {
@@ -442,35 +643,48 @@ public class CreatePeripheralDatabase {
                continue;
             }
             if (fileName.endsWith(".svd.xml")) {
-               //               System.err.println("Processing File : \""+svdSourceFile.getName()+"\"");
-               try {
-                  // Read device description
-                  DevicePeripherals device = new DevicePeripherals(svdSourceFile);
-                  // Don't optimise as we want flat files for editing/checking
-                  //                  device.optimise();
-                  boolean foundEquivalent = false;
-                  for (DevicePeripherals searchPeripheral : deviceList) {
-                     if (searchPeripheral.equivalentStructure(device)) {
-                        searchPeripheral.addEquivalentDevice(device.getName());
-                        foundEquivalent = true;
-                     }
+               final Path svdFilePath = svdSourceFile;
+               tasks.add(new Callable<DevicePeripherals>() {
+                  @Override
+                  public DevicePeripherals call() throws Exception {
+                     // Read device description
+                     // Don't optimise as we want flat files for editing/checking
+                     return new DevicePeripherals(svdFilePath);
                   }
-                  if (!foundEquivalent) {
-                     deviceList.add(device);
-                     System.err.println("New       "+device.getName());
-                  }
-                  else {
-                     System.err.println("Equivalent "+device.getName());
-                  }
-               } catch (Exception e) {
-                  e.printStackTrace();
-               }
+               });
             }
             if (maxDevices--<0) {
                break;
             }
          }
       }
+      // Devices are compared in order
+      OrderedTasks<DevicePeripherals> orderedTasks = new OrderedTasks<DevicePeripherals>(tasks);
+      try {
+         while (orderedTasks.hasNext()) {
+            try {
+               DevicePeripherals device = orderedTasks.next();
+               boolean foundEquivalent = false;
+               for (DevicePeripherals searchPeripheral : deviceList) {
+                  if (searchPeripheral.equivalentStructure(device)) {
+                     searchPeripheral.addEquivalentDevice(device.getName());
+                     foundEquivalent = true;
+                  }
+               }
+               if (!foundEquivalent) {
+                  deviceList.add(device);
+                  System.err.println("New       "+device.getName());
+               }
+               else {
+                  System.err.println("Equivalent "+device.getName());
+               }
+            } catch (Exception e) {
+               e.printStackTrace();
+            }
+         }
+      } finally {
+         orderedTasks.cancel();
+      }
       System.err.println();
 
       // Copy devices to target directory (expanded!)
@@ -510,8 +724,8 @@ public class CreatePeripheralDatabase {
             writer.close();
          }
       }
-      Files.copy(MAIN_FOLDER.resolve(CMSIS_SCHEMA_FILENAME),       destinationFolderPath.resolve(CMSIS_SCHEMA_FILENAME),       StandardCopyOption.REPLACE_EXISTING);
-      Files.copy(MAIN_FOLDER.resolve(DEVICE_LIST_SCHEMA_FILENAME), destinationFolderPath.resolve(DEVICE_LIST_SCHEMA_FILENAME), StandardCopyOption.REPLACE_EXISTING);
+      Files.copy(mainFolder.resolve(CMSIS_SCHEMA_FILENAME),       destinationFolderPath.resolve(CMSIS_SCHEMA_FILENAME),       StandardCopyOption.REPLACE_EXISTING);
+      Files.copy(mainFolder.resolve(DEVICE_LIST_SCHEMA_FILENAME), destinationFolderPath.resolve(DEVICE_LIST_SCHEMA_FILENAME), StandardCopyOption.REPLACE_EXISTING);
    }
 
    /**
@@ -545,7 +759,7 @@ public class CreatePeripheralDatabase {
     * 
     * @throws Exception
     */
-   static void createHeaderFilesFromList(Path sourceFolderPath, Path destinationFolderPath, boolean removeFolder) throws Exception {
+   static void createHeaderFilesFromList(final Path sourceFolderPath, Path destinationFolderPath, boolean removeFolder) throws Exception {
       FileFilter fileFilter = new FileFilter(firstFileToProcess, firstFileToReject);
 
       if (Files.exists(destinationFolderPath)) {
@@ -579,40 +793,68 @@ public class CreatePeripheralDatabase {
       // Map of already copied files to prevent multiple copying
       HashSet<String> copiedFiles = new HashSet<String>();
 
+      // Header files are generated in parallel
+      final ArrayList<DeviceSvdInfo>        pairs = new ArrayList<DeviceSvdInfo>();
+      final ArrayList<Callable<HeaderFile>> tasks = new ArrayList<Callable<HeaderFile>>();
       for (int index = 0; index < list.size(); index++) {
-         DeviceSvdInfo pair = list.get(index);
+         final DeviceSvdInfo pair = list.get(index);
          if (fileFilter.skipFile(pair.deviceName)) {
             continue;
          }
-         System.err.println("Processing File : \""+pair.deviceName+"\"");
-         try {
-            // Don't produce the same file!
-            if (copiedFiles.contains(pair.svdName)) {
-               continue;
-            }
-            copiedFiles.add(pair.svdName);
+         pairs.add(pair);
+         // Don't produce the same file!
+         if (copiedFiles.contains(pair.svdName)) {
+            continue;
+         }
+         copiedFiles.add(pair.svdName);
 
-            // Read device description
-            DevicePeripherals devicePeripherals = new DevicePeripherals(sourceFolderPath.resolve(pair.svdName+".svd.xml"));
+         final ArrayList<String> equivalentDevices = new ArrayList<String>();
+         equivalentDevices.add(pair.deviceName);
+         for (int index2 = index+1; index2 < list.size(); index2++) {
+            if (pair.svdName.equalsIgnoreCase(list.get(index2).svdName)) {
+               equivalentDevices.add(list.get(index2).deviceName);
+            }
+         }
+         tasks.add(new Callable<HeaderFile>() {
+            @Override
+            public HeaderFile call() throws Exception {
+               // Read device description
+               DevicePeripherals devicePeripherals = new DevicePeripherals(sourceFolderPath.resolve(pair.svdName+".svd.xml"));
 
-            devicePeripherals.sortPeripherals();
+               devicePeripherals.sortPeripherals();
 
-            devicePeripherals.setName(pair.svdName);
+               devicePeripherals.setName(pair.svdName);
 
-            devicePeripherals.addEquivalentDevice(pair.deviceName);
-            for (int index2 = index+1; index2 < list.size(); index2++) {
-               if (pair.svdName.equalsIgnoreCase(list.get(index2).svdName)) {
-                  devicePeripherals.addEquivalentDevice(list.get(index2).deviceName);
+               for (String equivalentDevice : equivalentDevices) {
+                  devicePeripherals.addEquivalentDevice(equivalentDevice);
                }
+               return new HeaderFile(devicePeripherals);
             }
-            // Create header file
-            Path headerFilePath = destinationFolderPath.resolve(devicePeripherals.getName()+".h");
-            System.err.println("Creating : \""+headerFilePath+"\"");
-            devicePeripherals.writeHeaderFile(headerFilePath);
+         });
+      }
+      // Header files are written in order
+      OrderedTasks<HeaderFile> orderedTasks = new OrderedTasks<HeaderFile>(tasks);
+      try {
+         for (DeviceSvdInfo pair : pairs) {
+            System.err.println("Processing File : \""+pair.deviceName+"\"");
+            if (!copiedFiles.remove(pair.svdName)) {
+               // Header file for this SVD file already produced
+               continue;
+            }
+            try {
+               HeaderFile headerFile = orderedTasks.next();
+
+               // Create header file
+               Path headerFilePath = destinationFolderPath.resolve(headerFile.deviceName+".h");
+               System.err.println("Creating : \""+headerFilePath+"\"");
+               FileWriteAvoidance.writeIfChanged(headerFilePath, headerFile.contents);
 
-         } catch (Exception e) {
-            e.printStackTrace();
+            } catch (Exception e) {
+               e.printStackTrace();
+            }
          }
+      } finally {
+         orderedTasks.cancel();
       }
    }
 
@@ -624,7 +866,7 @@ public class CreatePeripheralDatabase {
     * 
     * @throws Exception
     */
-   static void createExpandedSvdFilesFromList(Path sourceFolderPath, Path destinationFolderPath, boolean optimise) throws Exception {
+   static void createExpandedSvdFilesFromList(final Path sourceFolderPath, Path destinationFolderPath, boolean optimise) throws Exception {
       FileFilter fileFilter = new FileFilter(firstFileToProcess, firstFileToReject);
 
       if (Files.exists(destinationFolderPath)) {
@@ -645,28 +887,47 @@ public class CreatePeripheralDatabase {
       DeviceFileList deviceFileList = new DeviceFileList(sourceFolderPath.resolve(DEVICE_LIST_FILENAME));
       ArrayList<DeviceSvdInfo> list = deviceFileList.getArrayList();
 
-      for (DeviceSvdInfo pair : list) {
+      // Devices are read and optimised in parallel
+      final ArrayList<DeviceSvdInfo>               pairs = new ArrayList<DeviceSvdInfo>();
+      final ArrayList<Callable<DevicePeripherals>> tasks = new ArrayList<Callable<DevicePeripherals>>();
+      for (final DeviceSvdInfo pair : list) {
          if (fileFilter.skipFile(pair.deviceName)) {
             continue;
          }
-         System.err.println("Processing File : \""+pair.svdName+"\"");
-         try {
-            // Read device description
-            DevicePeripherals devicePeripherals = new DevicePeripherals(sourceFolderPath.resolve(pair.svdName+".svd.xml"));
+         pairs.add(pair);
+         tasks.add(new Callable<DevicePeripherals>() {
+            @Override
+            public DevicePeripherals call() throws Exception {
+               // Read device description
+               DevicePeripherals devicePeripherals = new DevicePeripherals(sourceFolderPath.resolve(pair.svdName+".svd.xml"));
 
-            // Optimise peripheral database
-            devicePeripherals.optimise();
+               // Optimise peripheral database
+               devicePeripherals.optimise();
 
-            devicePeripherals.setName(pair.deviceName);
+               devicePeripherals.setName(pair.deviceName);
+               return devicePeripherals;
+            }
+         });
+      }
+      // Files are written in order as the device list may name a device more than once
+      OrderedTasks<DevicePeripherals> orderedTasks = new OrderedTasks<DevicePeripherals>(tasks);
+      try {
+         for (DeviceSvdInfo pair : pairs) {
+            System.err.println("Processing File : \""+pair.svdName+"\"");
+            try {
+               DevicePeripherals devicePeripherals = orderedTasks.next();
 
-            // Create SVD file
-            Path svdFilePath = destinationFolderPath.resolve(devicePeripherals.getName()+".svd.xml");
-            System.err.println("Creating : \""+svdFilePath+"\"");
-            devicePeripherals.writeSVD(svdFilePath);
+               // Create SVD file
+               Path svdFilePath = destinationFolderPath.resolve(devicePeripherals.getName()+".svd.xml");
+               System.err.println("Creating : \""+svdFilePath+"\"");
+               devicePeripherals.writeSVD(svdFilePath);
 
-         } catch (Exception e) {
-            e.printStackTrace();
+            } catch (Exception e) {
+               e.printStackTrace();
+            }
          }
+      } finally {
+         orderedTasks.cancel();
       }
    }
 
@@ -683,9 +944,9 @@ public class CreatePeripheralDatabase {
     * Destinations "Internal.Check", "Internal_header.Check"
     */
    static void doUsualRegeneration() {
-      final  Path usbdmFolder               = MAIN_FOLDER.resolve("Internal");
-      final  Path usbdmFolder_Check         = MAIN_FOLDER.resolve("Internal.Check");
-      final  Path usbdmHeaderFolder_Check   = MAIN_FOLDER.resolve("InternalHeader.Check");
+      final  Path usbdmFolder               = mainFolder.resolve("Internal");
+      final  Path usbdmFolder_Check         = mainFolder.resolve("Internal.Check");
+      final  Path usbdmHeaderFolder_Check   = mainFolder.resolve("InternalHeader.Check");
 
       try {
          // Generate merged version of SVD files for testing (should be unchanging)
@@ -733,11 +994,11 @@ public class CreatePeripheralDatabase {
     * Destinations "Raw.Check", "Raw_header.Check"
     */
    static void doInitialRegeneration() {
-      final  Path sourceFolder                 = MAIN_FOLDER.resolve("Raw");
-      final  Path usbdmFolder_1st_Stage        = MAIN_FOLDER.resolve("Raw.1st_Stage_Commoned");
-      final  Path usbdmFolder_2nd_Stage        = MAIN_FOLDER.resolve("Raw.2nd_Stage_Folded");
-      final  Path usbdmHeaderFolder_2nd_Stage  = MAIN_FOLDER.resolve("Raw_header.2nd_Stage");
-      final  Path usbdmFolder_3rd_Stage        = MAIN_FOLDER.resolve("Raw.3rd_Stage_Flattened");
+      final  Path sourceFolder                 = mainFolder.resolve("Raw");
+      final  Path usbdmFolder_1st_Stage        = mainFolder.resolve("Raw.1st_Stage_Commoned");
+      final  Path usbdmFolder_2nd_Stage        = mainFolder.resolve("Raw.2nd_Stage_Folded");
+      final  Path usbdmHeaderFolder_2nd_Stage  = mainFolder.resolve("Raw_header.2nd_Stage");
+      final  Path usbdmFolder_3rd_Stage        = mainFolder.resolve("Raw.3rd_Stage_Flattened");
 
       try {
          // Generate merged version of SVD files for testing (should be unchanging)
@@ -791,12 +1052,12 @@ public class CreatePeripheralDatabase {
       //    @SuppressWarnings("unused")
       //    private static final  Path headerReducedMergedOptimisedManualFolder     = PACKAGE_FOLDER.resolve("Stationery/Project_Headers");
       //
-      final  Path usbdmFolder          = MAIN_FOLDER.resolve("Internal");
-      final  Path stage1Folder         = MAIN_FOLDER.resolve("1.stage1Folder");
-      final  Path stage2Folder         = MAIN_FOLDER.resolve("2.stage2Folder");
-      final  Path stage3Folder         = MAIN_FOLDER.resolve("3.stage3Folder");
-      final  Path resultFolder         = MAIN_FOLDER.resolve("9.resultFolder");
-      final  Path resultHeaderFolder   = MAIN_FOLDER.resolve("9.resultHeaderFolder");
+      final  Path usbdmFolder          = mainFolder.resolve("Internal");
+      final  Path stage1Folder         = mainFolder.resolve("1.stage1Folder");
+      final  Path stage2Folder         = mainFolder.resolve("2.stage2Folder");
+      final  Path stage3Folder         = mainFolder.resolve("3.stage3Folder");
+      final  Path resultFolder         = mainFolder.resolve("9.resultFolder");
+      final  Path resultHeaderFolder   = mainFolder.resolve("9.resultHeaderFolder");
 
       try {
          // Generate merged version of SVD files for testing (should be unchanging eventually)
@@ -870,8 +1131,8 @@ public class CreatePeripheralDatabase {
     * Destinations "Internal.Check", "Internal_header.Check"
     */
    static void doHeaderFiles() {
-      final  Path usbdmFolder               = MAIN_FOLDER.resolve("Internal");
-      final  Path usbdmHeaderFolder_Check   = MAIN_FOLDER.resolve("InternalHeader.Check");
+      final  Path usbdmFolder               = mainFolder.resolve("Internal");
+      final  Path usbdmHeaderFolder_Check   = mainFolder.resolve("InternalHeader.Check");
 
       try {
          // Turn of optimisation when generating header files
@@ -897,8 +1158,25 @@ public class CreatePeripheralDatabase {
       System.err.println("Done");
    }
 
+   static void usage() {
+      System.err.println(
+            "Usage: CreatePeripheralDatabase [options] [usual|initial|factoring|headers]\n"+
+            "   usual      Merge \"Internal\" and generate header files (default)\n"+
+            "   initial    Merge, fold and reduce \"Raw\"\n"+
+            "   factoring  Staged re-factoring of \"Internal\"\n"+
+            "   headers    Generate header files from \"Internal\"\n"+
+            "Options:\n"+
+            "   -threads n     Number of threads used to process devices (1 = serial, default = number of processors)\n"+
+            "   -main path     Main folder (default \""+mainFolder+"\")\n"+
+            "   -first regex   First file to process\n"+
+            "   -stop regex    First file not to process\n"+
+            "   -reject regex  Files to skip when merging\n"+
+            "The files produced do not depend on the number of threads used.");
+   }
+
    /**
-    * @param args
+    * @param args See {@link #usage()}
+    * 
     * @throws IOException
     */
    public static void main(String[] args) throws IOException {
@@ -909,15 +1187,73 @@ public class CreatePeripheralDatabase {
 //    firstFileToReject  = ("^MK22FA.*");
 
 //    firstFileToProcess = ("^MKL82Z7.*");
-    System.err.println("Main Folder : \""+MAIN_FOLDER.toRealPath()+"\"\n");
+      String operation = "usual";
+      try {
+         for (int index = 0; index < args.length; index++) {
+            String arg = args[index];
+            if (arg.startsWith("-") && (index+1 >= args.length)) {
+               throw new IllegalArgumentException("Missing value for " + arg);
+            }
+            if (arg.equals("-threads")) {
+               int numberOfThreads = Integer.parseInt(args[++index]);
+               if (numberOfThreads < 1) {
+                  throw new IllegalArgumentException("Illegal number of threads " + numberOfThreads);
+               }
+               setThreads(numberOfThreads);
+            }
+            else if (arg.equals("-main")) {
+               mainFolder = Paths.get(args[++index]);
+            }
+            else if (arg.equals("-first")) {
+               firstFileToProcess = args[++index];
+            }
+            else if (arg.equals("-stop")) {
+               firstFileToReject = args[++index];
+            }
+            else if (arg.equals("-reject")) {
+               filesToReject = args[++index];
+            }
+            else if (arg.startsWith("-")) {
+               throw new IllegalArgumentException("Unknown option " + arg);
+            }
+            else {
+               operation = arg;
+            }
+         }
+      } catch (IllegalArgumentException e) {
+         System.err.println(e.getMessage());
+         usage();
+         System.exit(1);
+      }
+      System.err.println("Main Folder : \""+mainFolder.toRealPath()+"\"\n");
+      System.err.println("Threads     : "+threads+"\n");
 
-//      doHeaderFiles();
-//      doInitialRegeneration();
-      doUsualRegeneration();
+      long startTime = System.currentTimeMillis();
+      if (operation.equals("usual")) {
+         doUsualRegeneration();
+      }
+      else if (operation.equals("initial")) {
+         doInitialRegeneration();
+      }
+      else if (operation.equals("factoring")) {
+         doFactoring();
+      }
+      else if (operation.equals("headers")) {
+         doHeaderFiles();
+      }
+      else {
+         System.err.println("Unknown operation " + operation);
+         usage();
+         System.exit(1);
+      }
 //      try {
-//         createReducedDeviceList(MAIN_FOLDER.resolve("Raw"), MAIN_FOLDER.resolve("Raw.expanded"));
+//         createReducedDeviceList(mainFolder.resolve("Raw"), mainFolder.resolve("Raw.expanded"));
 //      } catch (Exception e) {
 //         e.printStackTrace();
 //      }
+      if (executor != null) {
+         executor.shutdown();
+      }
+      System.err.println(String.format("Time : %d ms", System.currentTimeMillis()-startTime));
    }
 }
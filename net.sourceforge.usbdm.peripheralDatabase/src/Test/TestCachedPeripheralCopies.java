@@ -0,0 +1,81 @@
+package Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import net.sourceforge.usbdm.peripheralDatabase.DevicePeripherals;
+import net.sourceforge.usbdm.peripheralDatabase.ModeControl;
+import net.sourceforge.usbdm.peripheralDatabase.PeripheralCache;
+
+/**
+ * Tests that optimising a device does not modify the peripherals held in the PeripheralCache
+ * <ul>
+ * <li>The device is loaded to fill the cache
+ * <li>The device is loaded again (peripherals copied from the cache) and the copy is optimised
+ * <li>The device is loaded a third time and must be the same as a fresh parse that does not use the cache
+ * </ul>
+ * Optimisation uses extractSimilarFields so that fields of the copies are made derived (which clears their enumerations).<br>
+ * Arguments are SVD files (defaults to some devices in the workspace)
+ */
+public class TestCachedPeripheralCopies {
+
+   static final String[] DEFAULT_FILES = {
+         "../net.sourceforge.usbdm.peripherals.freescale/data/MK20D5.svd.xml",
+         "../net.sourceforge.usbdm.peripherals.freescale/data/MK64F12.svd.xml",
+         "../net.sourceforge.usbdm.peripherals.freescale/data/MKL25Z4.svd.xml",
+   };
+
+   /**
+    * Get description of device as SVD
+    *
+    * @param devicePeripherals Device
+    *
+    * @return SVD text
+    *
+    * @throws Exception
+    */
+   static String getSvd(DevicePeripherals devicePeripherals) throws Exception {
+      StringWriter stringWriter = new StringWriter();
+      PrintWriter  printWriter  = new PrintWriter(stringWriter);
+      devicePeripherals.writeSVD(printWriter, true);
+      printWriter.close();
+      return stringWriter.toString();
+   }
+
+   public static void main(String[] args) throws Exception {
+      if (args.length == 0) {
+         args = DEFAULT_FILES;
+      }
+      ModeControl.setExtractSimilarFields(true);
+
+      int failures = 0;
+      for (String arg:args) {
+         Path path = Paths.get(arg);
+
+         // Reference without cache
+         PeripheralCache.setEnabled(false);
+         String expected = getSvd(new DevicePeripherals(path, true));
+         PeripheralCache.setEnabled(true);
+         PeripheralCache.resetStatistics();
+
+         // Fill cache
+         new DevicePeripherals(path, true);
+
+         // Optimise a copy
+         DevicePeripherals copy = new DevicePeripherals(path, true);
+         copy.optimise();
+
+         // Next copy must not be affected
+         String actual = getSvd(new DevicePeripherals(path, true));
+         boolean ok = expected.equals(actual);
+         if (!ok) {
+            failures++;
+         }
+         System.err.println(String.format("%-24s %s, %s", path.getFileName(), ok?"OK":"FAILED", PeripheralCache.getReport()));
+         PeripheralCache.clear();
+      }
+      System.err.println((failures == 0)?"PASSED":("FAILED "+failures+" devices"));
+   }
+}
@@ -0,0 +1,83 @@
+package Test;
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import net.sourceforge.usbdm.peripheralDatabase.DevicePeripherals;
+import net.sourceforge.usbdm.peripheralDatabase.PeripheralDatabaseMerger;
+
+/**
+ * Tests merging of device descriptions using PeripheralDatabaseMerger
+ * <ul>
+ * <li>Each SVD file is loaded and merged (shared peripherals and vector tables are extracted)
+ * <li>Time spent merging and the number of full equivalence checks are reported as devices are added.<br>
+ *     Peripherals are located by structural fingerprint so each peripheral should be checked against at most one other
+ * </ul>
+ * Arguments are directories containing SVD files (defaults to the peripheral data in the workspace)
+ */
+public class TestMergerFingerprint {
+
+   static final String[] DEFAULT_DIRECTORIES = {
+         "../net.sourceforge.usbdm.peripherals.freescale/data",
+         "../net.sourceforge.usbdm.peripherals.stmicro/data",
+         "../net.sourceforge.usbdm.peripherals.atmel/data",
+   };
+
+   public static void main(String[] args) throws Exception {
+      if (args.length == 0) {
+         args = DEFAULT_DIRECTORIES;
+      }
+      Path outputDirectory = Files.createTempDirectory("svd");
+
+      PeripheralDatabaseMerger merger = new PeripheralDatabaseMerger();
+      merger.setXmlRootPath(outputDirectory.toFile());
+
+      int  devices     = 0;
+      int  peripherals = 0;
+      long mergeTime   = 0;
+      for (String directory:args) {
+         ArrayList<Path> paths = new ArrayList<Path>();
+         try (DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(directory), "*.svd.xml")) {
+            for (Path path:stream) {
+               paths.add(path);
+            }
+         }
+         Collections.sort(paths);
+         for (Path path:paths) {
+            DevicePeripherals devicePeripherals;
+            try {
+               devicePeripherals = new DevicePeripherals(path);
+               devicePeripherals.optimise();
+            } catch (Exception e) {
+               // Not a device file
+               continue;
+            }
+            long startTime = System.nanoTime();
+            merger.writeDeviceToSVD(devicePeripherals);
+            mergeTime += System.nanoTime()-startTime;
+            devices++;
+            peripherals += devicePeripherals.getPeripherals().size();
+            if ((devices%20) == 0) {
+               System.err.println(String.format("%4d devices, merge = %8.1f ms, equivalence checks = %d",
+                     devices, mergeTime/1000000.0, merger.getEquivalenceCheckCount()));
+            }
+         }
+      }
+      merger.writePeripheralsToSVD();
+      merger.writeVectorTablesToSVD();
+      CreatePeripheralDatabase.removeDirectoryTree(outputDirectory);
+
+      System.err.println(String.format("%4d devices, merge = %8.1f ms, equivalence checks = %d",
+            devices, mergeTime/1000000.0, merger.getEquivalenceCheckCount()));
+      // Without fingerprint collisions each peripheral and vector table is checked at most once
+      if (merger.getEquivalenceCheckCount() > (peripherals+devices)) {
+         System.err.println("FAILED, fingerprint collisions");
+         System.exit(1);
+      }
+      System.err.println("PASSED");
+   }
+}
@@ -0,0 +1,248 @@
+package Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+
+import net.sourceforge.usbdm.peripheralDatabase.ModeControl;
+
+/**
+ * Tests that merging devices using several threads (CreatePeripheralDatabase -threads n)
+ * produces exactly the same files as merging them serially
+ * <ul>
+ * <li>Each directory of SVD files is merged serially and then in parallel
+ * <li>The resulting trees are compared byte for byte
+ * <li>Where a baseline is available, both trees are also checked against it. The baseline is a list of
+ *     the SHA-256 digest of each file produced by the serial merge before devices were merged in parallel.
+ * </ul>
+ * Arguments are directories containing SVD files (defaults to the peripheral data in the workspace).<br>
+ * With the argument -update the baselines are re-written from the serial output of the default directories.
+ * This should only be done when a change to the output is intended.
+ */
+public class TestParallelRegeneration {
+
+   /** Directories of SVD files and baseline for each (null if none) */
+   static final String[][] DEFAULT_DIRECTORIES = {
+         {"../net.sourceforge.usbdm.peripherals.freescale/data", "testFiles/regeneration/freescale.sha256"},
+         {"../net.sourceforge.usbdm.peripherals.stmicro/data",   null},
+         {"../net.sourceforge.usbdm.peripherals.atmel/data",     null},
+   };
+
+   static final int THREADS = 8;
+
+   /**
+    * Get files in directory tree
+    * 
+    * @param root Root of tree
+    * 
+    * @return Sorted list of paths relative to root
+    * 
+    * @throws Exception
+    */
+   static ArrayList<Path> listFiles(final Path root) throws Exception {
+      final ArrayList<Path> files = new ArrayList<Path>();
+      Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+         @Override
+         public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+            files.add(root.relativize(file));
+            return FileVisitResult.CONTINUE;
+         }
+      });
+      files.sort(null);
+      return files;
+   }
+
+   /**
+    * Compare directory trees
+    * 
+    * @param expected  Expected tree
+    * @param actual    Tree to check
+    * 
+    * @return Number of differences
+    * 
+    * @throws Exception
+    */
+   static int compareTrees(Path expected, Path actual) throws Exception {
+      ArrayList<Path> expectedFiles = listFiles(expected);
+      ArrayList<Path> actualFiles   = listFiles(actual);
+      if (!expectedFiles.equals(actualFiles)) {
+         System.err.println("Different files produced");
+         return 1;
+      }
+      int differences = 0;
+      for (Path file:expectedFiles) {
+         if (!Arrays.equals(Files.readAllBytes(expected.resolve(file)), Files.readAllBytes(actual.resolve(file)))) {
+            System.err.println("Differs: " + file);
+            differences++;
+         }
+      }
+      return differences;
+   }
+
+   /**
+    * Get SHA-256 digest of each file in directory tree
+    * 
+    * @param root Root of tree
+    * 
+    * @return Map of path relative to root (using '/' separator) to digest as hex
+    * 
+    * @throws Exception
+    */
+   static TreeMap<String, String> digestTree(Path root) throws Exception {
+      TreeMap<String, String> digests = new TreeMap<String, String>();
+      MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+      for (Path file:listFiles(root)) {
+         StringBuilder sb = new StringBuilder();
+         for (byte b:messageDigest.digest(Files.readAllBytes(root.resolve(file)))) {
+            sb.append(String.format("%02x", b));
+         }
+         digests.put(file.toString().replace('\\', '/'), sb.toString());
+      }
+      return digests;
+   }
+
+   /**
+    * Read baseline
+    * 
+    * @param baseline Baseline file (lines of "digest  path" as produced by sha256sum)
+    * 
+    * @return Map of path to digest
+    * 
+    * @throws Exception
+    */
+   static TreeMap<String, String> readBaseline(Path baseline) throws Exception {
+      TreeMap<String, String> digests = new TreeMap<String, String>();
+      for (String line:Files.readAllLines(baseline, StandardCharsets.UTF_8)) {
+         line = line.trim();
+         if (line.isEmpty()) {
+            continue;
+         }
+         String[] parts = line.split("\\s+", 2);
+         digests.put(parts[1], parts[0]);
+      }
+      return digests;
+   }
+
+   /**
+    * Write baseline
+    * 
+    * @param baseline Baseline file to write
+    * @param digests  Map of path to digest
+    * 
+    * @throws Exception
+    */
+   static void writeBaseline(Path baseline, TreeMap<String, String> digests) throws Exception {
+      List<String> lines = new ArrayList<String>();
+      for (String file:digests.keySet()) {
+         lines.add(digests.get(file) + "  " + file);
+      }
+      Files.createDirectories(baseline.getParent());
+      Files.write(baseline, lines, StandardCharsets.UTF_8);
+   }
+
+   /**
+    * Compare directory tree with baseline
+    * 
+    * @param expected  Digests of expected files
+    * @param actual    Tree to check
+    * 
+    * @return Number of differences
+    * 
+    * @throws Exception
+    */
+   static int compareBaseline(TreeMap<String, String> expected, Path actual) throws Exception {
+      TreeMap<String, String> actualDigests = digestTree(actual);
+      int differences = 0;
+      for (String file:expected.keySet()) {
+         String digest = actualDigests.get(file);
+         if (digest == null) {
+            System.err.println("Missing: " + file);
+            differences++;
+         }
+         else if (!digest.equals(expected.get(file))) {
+            System.err.println("Differs from baseline: " + file);
+            differences++;
+         }
+      }
+      for (String file:actualDigests.keySet()) {
+         if (!expected.containsKey(file)) {
+            System.err.println("Not in baseline: " + file);
+            differences++;
+         }
+      }
+      return differences;
+   }
+
+   public static void main(String[] args) throws Exception {
+      boolean update = (args.length == 1) && args[0].equals("-update");
+      String[][] directories = DEFAULT_DIRECTORIES;
+      if ((args.length > 0) && !update) {
+         directories = new String[args.length][];
+         for (int index=0; index<args.length; index++) {
+            directories[index] = new String[] {args[index], null};
+         }
+      }
+      // Options used by CreatePeripheralDatabase.doUsualRegeneration()
+      ModeControl.setRegenerateAddressBlocks(true);
+      ModeControl.setExtractSimilarFields(true);
+      ModeControl.setExtractComplexStructures(true);
+      ModeControl.setExtractDerivedPeripherals(true);
+      ModeControl.setExtractSimpleRegisterArrays(true);
+      ModeControl.setMapFreescalePeriperalCommonNames(true);
+      ModeControl.setFoldRegisters(true);
+      ModeControl.setCollectVectors(true);
+
+      int differences = 0;
+      for (String[] entry:directories) {
+         String directory = entry[0];
+         Path   baseline  = (entry[1] == null)?null:Paths.get(entry[1]);
+         Path outputDirectory = Files.createTempDirectory("svd");
+         Path serialPath      = outputDirectory.resolve("serial");
+         Path parallelPath    = outputDirectory.resolve("parallel");
+
+         CreatePeripheralDatabase.setThreads(1);
+         long startTime = System.currentTimeMillis();
+         CreatePeripheralDatabase.mergeFiles(Paths.get(directory), serialPath, true);
+         long serialTime = System.currentTimeMillis()-startTime;
+
+         CreatePeripheralDatabase.setThreads(THREADS);
+         startTime = System.currentTimeMillis();
+         CreatePeripheralDatabase.mergeFiles(Paths.get(directory), parallelPath, true);
+         long parallelTime = System.currentTimeMillis()-startTime;
+
+         int count = compareTrees(serialPath, parallelPath);
+         System.err.println(String.format("%s : serial = %d ms, %d threads = %d ms, %d differences",
+               directory, serialTime, THREADS, parallelTime, count));
+         differences += count;
+
+         if ((baseline != null) && update) {
+            writeBaseline(baseline, digestTree(serialPath));
+            System.err.println(String.format("%s : baseline %s updated", directory, baseline));
+         }
+         else if (baseline != null) {
+            TreeMap<String, String> expected = readBaseline(baseline);
+            int serialCount   = compareBaseline(expected, serialPath);
+            int parallelCount = compareBaseline(expected, parallelPath);
+            System.err.println(String.format("%s : %d files in baseline, serial %d differences, %d threads %d differences",
+                  directory, expected.size(), serialCount, THREADS, parallelCount));
+            differences += serialCount+parallelCount;
+         }
+         CreatePeripheralDatabase.removeDirectoryTree(outputDirectory);
+      }
+      CreatePeripheralDatabase.setThreads(1);
+      if (differences > 0) {
+         System.err.println("FAILED");
+         System.exit(1);
+      }
+      System.err.println("PASSED");
+   }
+}
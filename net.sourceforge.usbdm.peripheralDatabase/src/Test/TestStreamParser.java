@@ -0,0 +1,202 @@
+package Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import net.sourceforge.usbdm.peripheralDatabase.DevicePeripherals;
+import net.sourceforge.usbdm.peripheralDatabase.PeripheralCache;
+
+/**
+ * Tests of SVD_XML_StreamParser
+ * <ul>
+ * <li>Each SVD file is loaded using the DOM parser and the streaming parser and
+ *     the resulting descriptions (written as SVD) must be identical
+ * <li>A copy of each file using &lt;xi:include&gt; in place of external entities must also give the same description
+ * <li>Parse time and peak heap use of the two parsers are reported
+ * <li>The streaming parser shares peripherals between devices (PeripheralCache) so this also checks
+ *     copies of cached peripherals are the same as newly parsed ones
+ * </ul>
+ * This is the equivalence check to run over the whole SVD tree before changing the default parser
+ * (see DevicePeripheralsFactory.setUseStreamingParser()).<br>
+ * Arguments are directories containing SVD files, searched recursively (defaults to the peripheral data in the workspace)
+ */
+public class TestStreamParser {
+
+   static final String[] DEFAULT_DIRECTORIES = {
+         "../net.sourceforge.usbdm.peripherals.freescale/data",
+         "../net.sourceforge.usbdm.peripherals.stmicro/data",
+         "../net.sourceforge.usbdm.peripherals.atmel/data",
+   };
+
+   static final Pattern ENTITY_PATTERN  = Pattern.compile("<!ENTITY\\s+(\\w+)\\s+SYSTEM\\s+\"([^\"]*)\"\\s*>");
+   static final Pattern DOCTYPE_PATTERN = Pattern.compile("<!DOCTYPE\\s+device\\s*\\[.*?\\]\\s*>", Pattern.DOTALL);
+
+   /** Time spent in each parser */
+   static long domTime    = 0;
+   static long streamTime = 0;
+
+   /** Largest peak heap use for each parser */
+   static long domPeak    = 0;
+   static long streamPeak = 0;
+
+   /**
+    * Reset peak usage of heap memory pools
+    */
+   static void resetPeakHeap() {
+      System.gc();
+      for (MemoryPoolMXBean pool:ManagementFactory.getMemoryPoolMXBeans()) {
+         if (pool.getType() == MemoryType.HEAP) {
+            pool.resetPeakUsage();
+         }
+      }
+   }
+
+   /**
+    * Get peak usage of heap memory pools since last reset
+    *
+    * @return Peak use in bytes
+    */
+   static long getPeakHeap() {
+      long peak = 0;
+      for (MemoryPoolMXBean pool:ManagementFactory.getMemoryPoolMXBeans()) {
+         if (pool.getType() == MemoryType.HEAP) {
+            peak += pool.getPeakUsage().getUsed();
+         }
+      }
+      return peak;
+   }
+
+   /**
+    * Load device and return description as SVD
+    *
+    * @param path                Path to SVD file
+    * @param useStreamingParser  Parser to use
+    *
+    * @return SVD text
+    *
+    * @throws Exception
+    */
+   static String load(Path path, boolean useStreamingParser) throws Exception {
+      resetPeakHeap();
+      long startTime = System.nanoTime();
+      DevicePeripherals devicePeripherals = new DevicePeripherals(path, useStreamingParser);
+      long time = System.nanoTime()-startTime;
+      long peak = getPeakHeap();
+      if (useStreamingParser) {
+         streamTime += time;
+         streamPeak  = Math.max(streamPeak, peak);
+      }
+      else {
+         domTime += time;
+         domPeak  = Math.max(domPeak, peak);
+      }
+      StringWriter stringWriter = new StringWriter();
+      PrintWriter  printWriter  = new PrintWriter(stringWriter);
+      devicePeripherals.writeSVD(printWriter, true);
+      printWriter.close();
+      return stringWriter.toString();
+   }
+
+   /**
+    * Create copy of SVD file that uses &lt;xi:include&gt; instead of external entities
+    *
+    * @param path Path to SVD file
+    *
+    * @return Path of copy or null if the file doesn't use external entities
+    *
+    * @throws Exception
+    */
+   static Path createXIncludeCopy(Path path, Path tempDirectory) throws Exception {
+      String text = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+      Matcher doctype = DOCTYPE_PATTERN.matcher(text);
+      if (!doctype.find()) {
+         return null;
+      }
+      HashMap<String, String> entities = new HashMap<String, String>();
+      Matcher entity = ENTITY_PATTERN.matcher(doctype.group());
+      while (entity.find()) {
+         entities.put(entity.group(1), path.resolveSibling(entity.group(2)).toUri().toString());
+      }
+      text = text.substring(0, doctype.start())+text.substring(doctype.end());
+      text = text.replaceFirst("<device\\b", "<device xmlns:xi=\"http://www.w3.org/2001/XInclude\"");
+      for (String name:entities.keySet()) {
+         text = text.replace("&"+name+";", "<xi:include href=\""+entities.get(name)+"\"/>");
+      }
+      Path copy = tempDirectory.resolve(path.getFileName());
+      Files.write(copy, text.getBytes(StandardCharsets.UTF_8));
+      return copy;
+   }
+
+   public static void main(String[] args) throws Exception {
+      if (args.length == 0) {
+         args = DEFAULT_DIRECTORIES;
+      }
+      Path tempDirectory = Files.createTempDirectory("svd");
+
+      int files    = 0;
+      int failures = 0;
+      for (String directory:args) {
+         ArrayList<Path> paths = new ArrayList<Path>();
+         try (Stream<Path> stream = Files.walk(Paths.get(directory))) {
+            Iterator<Path> it = stream.iterator();
+            while (it.hasNext()) {
+               Path path = it.next();
+               if (path.getFileName().toString().endsWith(".svd.xml")) {
+                  paths.add(path);
+               }
+            }
+         }
+         Collections.sort(paths);
+         for (Path path:paths) {
+            String expected;
+            try {
+               expected = load(path, false);
+            } catch (Exception e) {
+               // Not a device file or rejected by existing parser
+               continue;
+            }
+            files++;
+            try {
+               if (!expected.equals(load(path, true))) {
+                  System.err.println("Different: "+path);
+                  failures++;
+               }
+               Path copy = createXIncludeCopy(path, tempDirectory);
+               if (copy != null) {
+                  if (!expected.equals(load(copy, false)) || !expected.equals(load(copy, true))) {
+                     System.err.println("Different (XInclude): "+path);
+                     failures++;
+                  }
+                  Files.delete(copy);
+               }
+            } catch (Exception e) {
+               System.err.println("Failed: "+path+", reason: "+e.getMessage());
+               failures++;
+            }
+         }
+      }
+      Files.delete(tempDirectory);
+      System.err.println(PeripheralCache.getReport());
+      System.err.println(String.format("%d files, DOM = %.1f ms, peak heap = %d KiB, stream = %.1f ms, peak heap = %d KiB",
+            files, domTime/1000000.0, domPeak/1024, streamTime/1000000.0, streamPeak/1024));
+      if (failures != 0) {
+         System.err.println("FAILED, "+failures+" failures");
+         System.exit(1);
+      }
+      System.err.println("PASSED");
+   }
+}
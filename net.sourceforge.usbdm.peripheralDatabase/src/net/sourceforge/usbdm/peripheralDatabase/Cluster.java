@@ -9,6 +9,7 @@ import java.io.IOException;
 */
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -54,6 +55,15 @@ public class Cluster extends ModeControl implements Cloneable {
 
    /** Set to provide debug messages */
    private boolean fDebugThis;
+
+   /** Used to split dimension index into index and modifier e.g. "3:_HIGH" */
+   static final Pattern DIMENSION_INDEX_PATTERN = Pattern.compile("(^.*):(.*$)");
+
+   /** Used to split name into base name and name macro format e.g. "TAGVDW,@pTAGVDW@i@f" */
+   private static final Pattern NAME_PATTERN = Pattern.compile("^([^,]*),(.*)$");
+
+   /** Used to expand range in dimension index list e.g. "[0-7]" */
+   private static final Pattern DIMENSION_RANGE_PATTERN = Pattern.compile("^\\s*\\[?\\s*(\\d+)\\s*\\-\\s*(\\d+)\\s*\\]?\\s*$");
    
    Cluster(Peripheral owner) {
       this.fOwner            = owner;
@@ -120,6 +130,59 @@ public class Cluster extends ModeControl implements Cloneable {
       return clone;
    }
 
+   /**
+    * Returns a deep copy of the cluster for use in a copy of the owning peripheral
+    * (see {@link Peripheral#copy(DevicePeripherals)})<br>
+    * Registers, derivedFrom and owner refer to the copies.
+    * Lists shared between the originals (e.g. by {@link #clone()}) are also shared between the copies.
+    * 
+    * @param owner   Copy of owning peripheral
+    * @param copies  Map from original objects to copies already made
+    * 
+    * @return Copy of cluster
+    * 
+    * @throws CloneNotSupportedException
+    */
+   Cluster copy(Peripheral owner, IdentityHashMap<Object, Object> copies) throws CloneNotSupportedException {
+      Cluster copy = (Cluster) copies.get(this);
+      if (copy != null) {
+         return copy;
+      }
+      copy = (Cluster) super.clone();
+      copies.put(this, copy);
+      copy.fOwner     = owner;
+      copy.fRegisters = copyRegisters(fRegisters, owner, copies);
+      if (fRerivedFrom != null) {
+         copy.fRerivedFrom = fRerivedFrom.copy(owner, copies);
+      }
+      return copy;
+   }
+
+   /**
+    * Copy list of registers (see {@link #copy(Peripheral, IdentityHashMap)})
+    * 
+    * @param registers  Registers to copy
+    * @param owner      Copy of owning peripheral
+    * @param copies     Map from original objects to copies already made
+    * 
+    * @return Copy of list
+    * 
+    * @throws CloneNotSupportedException
+    */
+   @SuppressWarnings("unchecked")
+   static ArrayList<Cluster> copyRegisters(ArrayList<Cluster> registers, Peripheral owner, IdentityHashMap<Object, Object> copies) throws CloneNotSupportedException {
+      ArrayList<Cluster> copy = (ArrayList<Cluster>) copies.get(registers);
+      if (copy != null) {
+         return copy;
+      }
+      copy = new ArrayList<Cluster>(registers.size());
+      copies.put(registers, copy);
+      for (Cluster register:registers) {
+         copy.add(register.copy(owner, copies));
+      }
+      return copy;
+   }
+
    /* (non-Javadoc)
     * @see java.lang.Object#toString()
     */
@@ -191,7 +254,7 @@ public class Cluster extends ModeControl implements Cloneable {
     * @throws Exception
     */
    public String format(String format, int index) {
-      final Pattern pattern = Pattern.compile("(^.*):(.*$)");
+      final Pattern pattern = DIMENSION_INDEX_PATTERN;
       String sIndex   = "";
       String modifier = "";
       if (index>=0) {
@@ -226,7 +289,7 @@ public class Cluster extends ModeControl implements Cloneable {
     * @param name The name to set
     */
    public void setName(String name) {
-      final Pattern pattern = Pattern.compile("^([^,]*),(.*)$");
+      final Pattern pattern = NAME_PATTERN;
       
       this.fName         = name;
       Matcher matcher   = pattern.matcher(name);
@@ -358,8 +421,7 @@ public class Cluster extends ModeControl implements Cloneable {
       this.fDimensionIndexes = new ArrayList<String>(x.length);
       for (int index = 0; index < x.length; index++) {
          String part = x[index];
-         Pattern p = Pattern.compile("^\\s*\\[?\\s*(\\d+)\\s*\\-\\s*(\\d+)\\s*\\]?\\s*$");
-         Matcher m = p.matcher(part);
+         Matcher m = DIMENSION_RANGE_PATTERN.matcher(part);
          if (m.matches()) {
             int start = Integer.parseInt(m.group(1));
             int end   = Integer.parseInt(m.group(2));
@@ -656,6 +718,38 @@ public class Cluster extends ModeControl implements Cloneable {
       return true;
    }
 
+   /**
+    * Get structural fingerprint consistent with {@link #equivalent(Object, int)}
+    *
+    * @param matchOptions  Options as used for equivalent()
+    *
+    * @return Fingerprint
+    */
+   long getFingerprint(int matchOptions) {
+      long hash = Fingerprint.SEED;
+      hash = Fingerprint.add(hash, getAddressOffset());
+      hash = Fingerprint.add(hash, getName());
+      return Fingerprint.add(hash, getStructureFingerprint(matchOptions));
+   }
+
+   /**
+    * Get structural fingerprint consistent with {@link #equivalentStructure(Object, int)}
+    *
+    * @param matchOptions  Options as used for equivalentStructure()
+    *
+    * @return Fingerprint
+    */
+   long getStructureFingerprint(int matchOptions) {
+      long hash = Fingerprint.SEED;
+      hash = Fingerprint.add(hash, fRegisters.size());
+      hash = Fingerprint.add(hash, (fDimensionIndexes == null)?-1:fDimensionIndexes.size());
+      sortRegisters();
+      for (Cluster register:fRegisters) {
+         hash = Fingerprint.add(hash, register.getFingerprint(matchOptions));
+      }
+      return hash;
+   }
+
    public void report() throws Exception {
       for (Cluster register : fRegisters) {
          register.report();
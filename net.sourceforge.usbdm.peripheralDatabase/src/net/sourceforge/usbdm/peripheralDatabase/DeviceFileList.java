@@ -7,10 +7,19 @@ import java.util.Vector;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import net.sourceforge.usbdm.deviceDatabase.DeviceNameIndex;
 
 public class DeviceFileList extends SVD_XML_BaseParser {
    
    private ArrayList<DeviceSvdInfo> deviceList = new ArrayList<DeviceSvdInfo>();
+   
+   /** Index used by getBaseFilename() - device name, SVD name or pattern to entry */
+   private final DeviceNameIndex<DeviceSvdInfo> fBaseFilenameIndex = new DeviceNameIndex<DeviceSvdInfo>();
+   
+   /** Index used by getMappedDeviceName() - device name or pattern to entry */
+   private final DeviceNameIndex<DeviceSvdInfo> fDeviceNameIndex   = new DeviceNameIndex<DeviceSvdInfo>();
 
    /**
     *  Creates device name map from deviceFileList file
@@ -26,6 +35,29 @@ public class DeviceFileList extends SVD_XML_BaseParser {
       
       //  Process XML contents and generate Device list
       parseDocument(dom.getDocumentElement());
+      
+      // Index devices for name lookup
+      buildIndices();
+   }
+   
+   /**
+    * Build indices used to look up device names.<br>
+    * The order of entries is preserved so lookups give the same result as searching the list.
+    */
+   private void buildIndices() {
+      if (deviceList == null) {
+         // No devices listed
+         deviceList = new ArrayList<DeviceSvdInfo>();
+      }
+      for (DeviceSvdInfo entry:deviceList) {
+         if (!entry.deviceNamePattern.isEmpty()) {
+            fBaseFilenameIndex.addPattern(entry.deviceNamePattern, entry);
+            fDeviceNameIndex.addPattern(entry.deviceNamePattern, entry);
+         }
+         fBaseFilenameIndex.addName(entry.svdName, entry);
+         fBaseFilenameIndex.addName(entry.deviceName, entry);
+         fDeviceNameIndex.addName(entry.deviceName, entry);
+      }
    }
    
    /**
@@ -88,7 +120,15 @@ public class DeviceFileList extends SVD_XML_BaseParser {
             if (deviceList == null) {
                deviceList = new ArrayList<DeviceSvdInfo>();
             }
-            deviceList.add(new DeviceSvdInfo(element.getAttribute("name"), element.getAttribute("svdFileName"), element.getAttribute("pattern")));
+            String svdFileName = element.getAttribute("svdFileName");
+            if (svdFileName.isEmpty()) {
+               // Written as <svdFileName> element (see DeviceListSchema.dtd)
+               NodeList svdFileNameNodes = element.getElementsByTagName("svdFileName");
+               if (svdFileNameNodes.getLength() > 0) {
+                  svdFileName = svdFileNameNodes.item(0).getTextContent().trim();
+               }
+            }
+            deviceList.add(new DeviceSvdInfo(element.getAttribute("name"), svdFileName, element.getAttribute("pattern")));
          }
          else {
             throw new Exception("Unexpected field in DEVICELIST', value = \'"+element.getTagName()+"\'");
@@ -141,20 +181,11 @@ public class DeviceFileList extends SVD_XML_BaseParser {
     * @return filename if found e.g. MK11D5, or null if not found
     */
    public String getBaseFilename(String deviceName) {
-      for (DeviceSvdInfo entry:deviceList) {
-         // Use pattern if it exists
-         if (!entry.deviceNamePattern.isEmpty() && deviceName.matches(entry.deviceNamePattern)) {
-            return entry.svdName;
-         }
-         if (deviceName.equalsIgnoreCase(entry.svdName)) {
-            return entry.svdName;
-         }
-         // Try name directly
-         if (deviceName.equalsIgnoreCase(entry.deviceName)) {
-            return entry.svdName;
-         }
+      DeviceSvdInfo entry = fBaseFilenameIndex.find(deviceName);
+      if (entry == null) {
+         return null;
       }
-      return null;
+      return entry.svdName;
    }
 
    /**
@@ -165,17 +196,11 @@ public class DeviceFileList extends SVD_XML_BaseParser {
     * @return Device name if found e.g. MK10DxxxM5, or null if device is not found
     */
    public String getMappedDeviceName(String deviceName) {
-      for (DeviceSvdInfo entry:deviceList) {
-         // Use pattern if it exists
-         if (!entry.deviceNamePattern.isEmpty() && deviceName.matches(entry.deviceNamePattern)) {
-            return entry.deviceName;
-         }
-         // Try name directly
-         if (deviceName.equalsIgnoreCase(entry.deviceName)) {
-            return entry.deviceName;
-         }
+      DeviceSvdInfo entry = fDeviceNameIndex.find(deviceName);
+      if (entry == null) {
+         return null;
       }
-      return null;
+      return entry.deviceName;
    }
 
 }
@@ -9,8 +9,11 @@
  */
 package net.sourceforge.usbdm.peripheralDatabase;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.nio.file.Path;
@@ -27,6 +30,7 @@ import java.util.regex.Pattern;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.SubMonitor;
 
+import net.sourceforge.usbdm.cdt.utilties.FileWriteAvoidance;
 import net.sourceforge.usbdm.jni.UsbdmException;
 import net.sourceforge.usbdm.peripheralDatabase.Field.AccessType;
 
@@ -59,13 +63,26 @@ public class DevicePeripherals extends ModeControl {
    }
 
    /**
-    * Create DevicePeripherals using given path to SVD file
+    * Create DevicePeripherals using given path to SVD file<br>
+    * The parser is selected by {@link DevicePeripheralsFactory#setUseStreamingParser(boolean)}
     * 
     * @param path  Path to SVD file
     * 
     * @throws Exception
     */
    public DevicePeripherals(Path path) throws UsbdmException {
+      this(path, DevicePeripheralsFactory.isUseStreamingParser());
+   }
+
+   /**
+    * Create DevicePeripherals using given path to SVD file
+    * 
+    * @param path                Path to SVD file
+    * @param useStreamingParser  Use streaming parser rather than building a DOM of the file
+    * 
+    * @throws Exception
+    */
+   public DevicePeripherals(Path path, boolean useStreamingParser) throws UsbdmException {
       fName              = "";
       fVersion           = "0.0";
       fDescription       = "";
@@ -80,7 +97,7 @@ public class DevicePeripherals extends ModeControl {
       fVectorTable       = null;
 
       try {
-         SVD_XML_Parser parser = new SVD_XML_Parser();
+         SVD_XML_Parser parser = useStreamingParser?new SVD_XML_StreamParser():new SVD_XML_Parser();
          parser.parseDocument(path, this);
          fSvdFilename = path.getFileName().toString();
       } catch (Exception e) {
@@ -668,24 +685,22 @@ public class DevicePeripherals extends ModeControl {
                ;
 
    /**
-    *  Creates a header file from the device description
+    *  Creates a header file from the device description<br>
+    *  The file is left untouched if the contents are unchanged
     * 
     *  @param  headerFilePath  The destination for the data
     * 
     *  @throws Exception
     */
    public void writeHeaderFile(Path headerFilePath) throws Exception {
-      File headerFile = headerFilePath.toFile();
-      PrintWriter writer = null;
-      try {
-         writer = new PrintWriter(headerFile);
-         writeHeaderFile(writer);
-      }
-      finally {
-         if (writer != null) {
-            writer.close();
-         }
+      ByteArrayOutputStream contents = new ByteArrayOutputStream();
+      PrintWriter writer = new PrintWriter(new OutputStreamWriter(contents));
+      writeHeaderFile(writer);
+      writer.close();
+      if (writer.checkError()) {
+         throw new IOException("Failed to write header file " + headerFilePath);
       }
+      FileWriteAvoidance.writeIfChanged(headerFilePath, contents.toByteArray());
    }
 
    /**
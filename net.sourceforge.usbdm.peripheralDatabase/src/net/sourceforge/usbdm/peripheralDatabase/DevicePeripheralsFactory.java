@@ -6,6 +6,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Vector;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -17,9 +18,36 @@ public class DevicePeripheralsFactory {
    private Path                fFolderPath      = null;
    private DeviceFileList      fDeviceFileList  = null;
 
+   /** Cache of device names to SVD file paths already located */
+   private final HashMap<String, Path> fSvdPaths = new HashMap<String, Path>();
+
    private static final String USBDM_SVD_DEFAULT_PATH     = "Stationery/Device.SVD/Internal";
    private static final String USBDM_SVD_DEFAULT_FILELIST = "DeviceList.xml";
 
+   /** Use streaming parser when loading SVD files (allows use of PeripheralCache). Off by default. */
+   private static boolean fUseStreamingParser = false;
+
+   /**
+    * Select parser used when loading SVD files<br>
+    * The DOM parser is used by default. The streaming parser also shares peripherals
+    * from included files between devices (PeripheralCache).
+    * This setting also applies to {@link DevicePeripherals#DevicePeripherals(Path)}.
+    * 
+    * @param useStreamingParser True to use the streaming parser, false to build a DOM of the file
+    */
+   public static synchronized void setUseStreamingParser(boolean useStreamingParser) {
+      fUseStreamingParser = useStreamingParser;
+   }
+
+   /**
+    * Indicates which parser is used when loading SVD files
+    * 
+    * @return True if the streaming parser is used
+    */
+   public static synchronized boolean isUseStreamingParser() {
+      return fUseStreamingParser;
+   }
+
    /**
     * Creates factory using given path to device folder
     * 
@@ -89,7 +117,7 @@ public class DevicePeripheralsFactory {
       if (!path.toFile().isFile()) {
          throw new UsbdmException("Path to SVD file is not valid \'" + path + "\'");
       }
-      return new DevicePeripherals(path);
+      return new DevicePeripherals(path, isUseStreamingParser());
    }
    /**
     *  Creates peripheral database for device
@@ -101,22 +129,11 @@ public class DevicePeripheralsFactory {
    public DevicePeripherals getDevicePeripherals(String deviceName) {
       DevicePeripherals devicePeripherals = null;
 
-      // Check for mapping file
-      if (fDeviceFileList != null) {
-         // Map device name to SVD file name
-         deviceName = fDeviceFileList.getBaseFilename(deviceName);
-      }
       // Parse the XML file into the XML internal DOM representation
       try {
-         for (String extension : new String[]{"", ".svd", ".xml", ".svd.xml"}) {
-            // Resolve against folder path
-            Path filename = fFolderPath.resolve(deviceName+extension);
-            if (Files.isRegularFile(filename)) {
-//               System.err.println("DevicePeripheralsFactory.getDevicePeripherals() - Trying \""+filename+"\" - found");
-               devicePeripherals = new DevicePeripherals(filename);
-               break;
-            }
-//            System.err.println("DevicePeripheralsFactory.getDevicePeripherals() - Trying \""+filename+"\" - not found");
+         Path filename = findSvdPath(deviceName);
+         if (filename != null) {
+            devicePeripherals = new DevicePeripherals(filename, isUseStreamingParser());
          }
       } catch (Exception e) {
          e.printStackTrace();
@@ -126,6 +143,42 @@ public class DevicePeripheralsFactory {
       return devicePeripherals;
    }
    
+   /**
+    * Locate SVD file for device.<br>
+    * Successful lookups are cached so later requests for the same device don't search the folder.
+    * 
+    *  @param deviceName Name of device or SVD file name e.g. "MK20D5", default extensions will be tried e.g. ".xml"
+    *  
+    *  @return Path to SVD file or null if not found
+    */
+   private synchronized Path findSvdPath(String deviceName) {
+      Path filename = fSvdPaths.get(deviceName);
+      if ((filename != null) && Files.isRegularFile(filename)) {
+         return filename;
+      }
+      String baseName = deviceName;
+      // Check for mapping file
+      if (fDeviceFileList != null) {
+         // Map device name to SVD file name
+         String mappedName = fDeviceFileList.getBaseFilename(deviceName);
+         if (mappedName != null) {
+            baseName = mappedName;
+         }
+      }
+      for (String extension : new String[]{"", ".svd", ".xml", ".svd.xml"}) {
+         // Resolve against folder path
+         filename = fFolderPath.resolve(baseName+extension);
+         if (Files.isRegularFile(filename)) {
+//            System.err.println("DevicePeripheralsFactory.findSvdPath() - Trying \""+filename+"\" - found");
+            fSvdPaths.put(deviceName, filename);
+            return filename;
+         }
+//         System.err.println("DevicePeripheralsFactory.findSvdPath() - Trying \""+filename+"\" - not found");
+      }
+      fSvdPaths.remove(deviceName);
+      return null;
+   }
+   
    /**
     * Determine the base file name for the deviceName.<br>
     * This can be used to construct the name of either the header file or the SVD file.
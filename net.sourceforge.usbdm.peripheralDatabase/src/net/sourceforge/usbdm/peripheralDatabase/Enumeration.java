@@ -65,6 +65,20 @@ public class Enumeration extends ModeControl {
              (this.value == other.value);
    }
    
+   /**
+    * Get structural fingerprint consistent with {@link #equivalent(Enumeration)}
+    *
+    * @return Fingerprint
+    */
+   long getFingerprint() {
+      long hash = Fingerprint.SEED;
+      hash = Fingerprint.add(hash, name);
+      hash = Fingerprint.add(hash, description);
+      hash = Fingerprint.add(hash, mask);
+      hash = Fingerprint.add(hash, value);
+      return hash;
+   }
+   
    public String getName() {
       if (name != null) {
          return name;
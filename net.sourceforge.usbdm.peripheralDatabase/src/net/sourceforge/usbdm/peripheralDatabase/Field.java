@@ -12,6 +12,7 @@ import java.io.IOException;
 import java.io.Writer;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -150,6 +151,72 @@ public class Field extends ModeControl implements Cloneable {
       fIgnoreOverlap      = other.fIgnoreOverlap;
    }
 
+   /*
+    * Copy constructor used by {@link #copy(Peripheral, IdentityHashMap)}
+    */
+   private Field(Field other, Register owner) {
+      fDerivedFrom        = other.fDerivedFrom;
+      fAccessType         = other.fAccessType;
+      fBitOffsetText      = other.fBitOffsetText;
+      fBitOffset          = other.fBitOffset;
+      fBitwidthText       = other.fBitwidthText;
+      fBitwidth           = other.fBitwidth;
+      fDescription        = other.fDescription;
+      fSortedEnumerations = other.fSortedEnumerations;
+      fEnumerations       = other.fEnumerations;
+      fName               = other.fName;
+      fOwner              = owner;
+      fIgnoreOverlap      = other.fIgnoreOverlap;
+      fHidden             = other.fHidden;
+   }
+
+   /**
+    * Returns a copy of the field for use in a copy of the owning peripheral
+    * (see {@link Peripheral#copy(DevicePeripherals)})<br>
+    * The owner and derivedFrom refer to the copies.<br>
+    * The list of enumerations is copied as it is cleared by {@link #setDerivedFrom(Field)}.
+    * Lists shared between the originals are also shared between the copies.<br>
+    * Shares (don't modify)
+    * <ul>
+    *    <li>enumerations
+    * </ul>
+    * 
+    * @param peripheral Copy of owning peripheral
+    * @param copies     Map from original objects to copies already made
+    * 
+    * @return Copy of field
+    * 
+    * @throws CloneNotSupportedException
+    */
+   Field copy(Peripheral peripheral, IdentityHashMap<Object, Object> copies) throws CloneNotSupportedException {
+      Field copy = (Field) copies.get(this);
+      if (copy != null) {
+         return copy;
+      }
+      Register owner = null;
+      if (fOwner != null) {
+         owner = (Register) fOwner.copy(peripheral, copies);
+         // Copying the owner may have copied this field
+         copy = (Field) copies.get(this);
+         if (copy != null) {
+            return copy;
+         }
+      }
+      copy = new Field(this, owner);
+      copies.put(this, copy);
+      @SuppressWarnings("unchecked")
+      ArrayList<Enumeration> enumerations = (ArrayList<Enumeration>) copies.get(fEnumerations);
+      if (enumerations == null) {
+         enumerations = new ArrayList<Enumeration>(fEnumerations);
+         copies.put(fEnumerations, enumerations);
+      }
+      copy.fEnumerations = enumerations;
+      if (fDerivedFrom != null) {
+         copy.fDerivedFrom = fDerivedFrom.copy(peripheral, copies);
+      }
+      return copy;
+   }
+
    public Field getDerivedFrom() {
       return fDerivedFrom;
    }
@@ -361,6 +428,27 @@ public class Field extends ModeControl implements Cloneable {
       return true;
    }
    
+   /**
+    * Get structural fingerprint consistent with {@link #equivalent(Field)}
+    *
+    * @return Fingerprint
+    */
+   long getFingerprint() {
+      long hash = Fingerprint.SEED;
+      hash = Fingerprint.add(hash, fName);
+      hash = Fingerprint.addIgnoreCase(hash, fDescription);
+      hash = Fingerprint.add(hash, fBitOffset);
+      hash = Fingerprint.add(hash, fBitwidth);
+      if (!isIgnoreAccessTypeInEquivalence()) {
+         hash = Fingerprint.add(hash, fAccessType);
+      }
+      hash = Fingerprint.add(hash, fSortedEnumerations.size());
+      for (Enumeration enumeration:fSortedEnumerations.values()) {
+         hash = Fingerprint.add(hash, enumeration.getFingerprint());
+      }
+      return hash;
+   }
+
    public void report() {
       System.out.println(String.format("          Field \"%s\" [%d-%d], Description = \"%s\" : " + fAccessType.toString(),
             getName(), getBitOffset(), getBitOffset()+getBitwidth()-1, getDescription()));
@@ -0,0 +1,100 @@
+package net.sourceforge.usbdm.peripheralDatabase;
+
+/**
+ * Helpers used to build structural fingerprints of peripherals, registers etc.<br>
+ *
+ * A fingerprint is a 64-bit hash built bottom-up (Enumeration &rarr; Field &rarr; Register &rarr; Cluster &rarr; Peripheral)
+ * from the same properties that are compared by the corresponding <b>equivalent()</b> method.
+ * Equivalent objects always have the same fingerprint so objects with different fingerprints need not be compared.
+ * Objects with the same fingerprint must still be checked using <b>equivalent()</b>.
+ */
+class Fingerprint {
+
+   /** Initial value for a fingerprint */
+   static final long SEED = 0xCBF29CE484222325L;
+
+   /**
+    * Add a value to a fingerprint
+    *
+    * @param hash   Fingerprint so far
+    * @param value  Value to add
+    *
+    * @return Updated fingerprint
+    */
+   static long add(long hash, long value) {
+      hash = (hash ^ value) * 0x9E3779B97F4A7C15L;
+      return hash ^ (hash >>> 29);
+   }
+
+   /**
+    * Add a boolean to a fingerprint
+    *
+    * @param hash   Fingerprint so far
+    * @param value  Value to add
+    *
+    * @return Updated fingerprint
+    */
+   static long add(long hash, boolean value) {
+      return add(hash, value?1:0);
+   }
+
+   /**
+    * Add a string to a fingerprint (case sensitive)
+    *
+    * @param hash   Fingerprint so far
+    * @param value  Value to add (may be null)
+    *
+    * @return Updated fingerprint
+    */
+   static long add(long hash, String value) {
+      if (value == null) {
+         return add(hash, -1);
+      }
+      return add(hash, ((long)value.length()<<32)|(value.hashCode()&0xFFFFFFFFL));
+   }
+
+   /**
+    * Add an enumerated value to a fingerprint
+    *
+    * @param hash   Fingerprint so far
+    * @param value  Value to add (may be null)
+    *
+    * @return Updated fingerprint
+    */
+   static long add(long hash, Enum<?> value) {
+      return add(hash, (value == null)?-1:value.ordinal());
+   }
+
+   /**
+    * Add a string to a fingerprint ignoring case.<br>
+    * Strings that are equal according to {@link String#equalsIgnoreCase(String)} add the same value.
+    *
+    * @param hash   Fingerprint so far
+    * @param value  Value to add (may be null)
+    *
+    * @return Updated fingerprint
+    */
+   static long addIgnoreCase(long hash, String value) {
+      if (value == null) {
+         return add(hash, -1);
+      }
+      int h = 0;
+      for (int index=0; index<value.length(); ) {
+         int codePoint = value.charAt(index);
+         if (codePoint < 0x80) {
+            // Fast path for ASCII
+            if ((codePoint >= 'A') && (codePoint <= 'Z')) {
+               codePoint += 'a'-'A';
+            }
+            index++;
+         }
+         else {
+            codePoint = value.codePointAt(index);
+            index += Character.charCount(codePoint);
+            codePoint = Character.toLowerCase(Character.toUpperCase(codePoint));
+         }
+         h = 31*h + codePoint;
+      }
+      return add(hash, h);
+   }
+}
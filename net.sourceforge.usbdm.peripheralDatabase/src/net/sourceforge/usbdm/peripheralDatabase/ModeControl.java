@@ -13,7 +13,8 @@ import net.sourceforge.usbdm.peripheralDatabase.Field.Pair;
 
 public class ModeControl {
 
-   private static String reasonForDifference   = null;
+   /** Reason the last peripheral comparison failed (per thread as devices may be optimised concurrently) */
+   private static final ThreadLocal<String> reasonForDifference = new ThreadLocal<String>();
    
    /**
     * Controls some standard differences between ARM header files and Freescale typical
@@ -105,7 +106,8 @@ public class ModeControl {
    private static boolean renameSimSource = false;
 
    // Bit dodgy - assumes you only write the Macros once!
-   private static HashMap<String, Integer> fieldMacros = null;
+   // Kept per thread so header files for different devices may be written concurrently
+   private static final ThreadLocal<HashMap<String, Integer>> fieldMacros = new ThreadLocal<HashMap<String, Integer>>();
 
    /**
     * Whether to similar extract fields that can be expressed as <derivedFrom>
@@ -130,6 +132,11 @@ public class ModeControl {
     */
    private static boolean fIgnoreResetValuesInEquivalence = false;
 
+   /**
+    * Per-thread override of fIgnoreResetValuesInEquivalence (see {@link #overrideIgnoreResetValuesInEquivalence(Boolean)})
+    */
+   private static final ThreadLocal<Boolean> fIgnoreResetValuesOverride = new ThreadLocal<Boolean>();
+
    /**
     * Control if Access Type of a register is considered when checking for equivalence
     */
@@ -143,6 +150,30 @@ public class ModeControl {
    public ModeControl() {
    }
 
+   /**
+    * Get the current settings as a single value<br>
+    * Used to check if descriptions created with earlier settings are still valid
+    * 
+    * @return Bit mask of settings
+    */
+   static long getSettingsMask() {
+      boolean[] settings = {
+            freescaleModeFieldNames, generateFreescaleRegisterMacros, mapFreescaleCommonNames, extractSimpleRegisterArrays,
+            extractComplexStructures, extractDerivedPeripherals, regenerateAddressBlocks, expandDerivedRegisters,
+            expandDerivedPeripherals, extractCommonPrefix, foldRegisters, useNamesInFieldMacros,
+            hackKnownValues, stripWhiteSpace, flattenArrays, renameSimSource,
+            extractSimilarFields, useBytePadding, fMapRegisterNames, fIgnoreResetValuesInEquivalence,
+            fIgnoreAccessTypeInEquivalence, fCollectVectors
+      };
+      long mask = 0;
+      for (int index=0; index<settings.length; index++) {
+         if (settings[index]) {
+            mask |= 1L<<index;
+         }
+      }
+      return mask;
+   }
+
    /**
     * Indicates if Access Type of a register is considered when checking for equivalence
     * 
@@ -167,9 +198,33 @@ public class ModeControl {
     * @return True indicates ignoring reset values
     */
    public static boolean isIgnoreResetValuesInEquivalence() {
+      Boolean override = fIgnoreResetValuesOverride.get();
+      if (override != null) {
+         return override;
+      }
       return fIgnoreResetValuesInEquivalence;
    }
 
+   /**
+    * Temporarily overrides whether reset values are considered when checking for equivalence.<br>
+    * This only affects the current thread so devices may be optimised concurrently.<br>
+    * The previous override should be restored by passing the returned value when done.
+    * 
+    * @param value True to ignore reset values, null to remove override
+    * 
+    * @return Previous override (null if none)
+    */
+   static Boolean overrideIgnoreResetValuesInEquivalence(Boolean value) {
+      Boolean previous = fIgnoreResetValuesOverride.get();
+      if (value == null) {
+         fIgnoreResetValuesOverride.remove();
+      }
+      else {
+         fIgnoreResetValuesOverride.set(value);
+      }
+      return previous;
+   }
+
    /**
     * Controls whether reset values of a register is considered when checking for equivalence
     * 
@@ -517,7 +572,7 @@ public class ModeControl {
     * @return reason (or null if none)
     */
    public static String getReasonForDifference() {
-      return reasonForDifference;
+      return reasonForDifference.get();
    }
 
    /**
@@ -526,9 +581,12 @@ public class ModeControl {
     * @param reasonForDifference
     */
    public static void setReasonForDifference(String reasonForDifference) {
-      ModeControl.reasonForDifference = reasonForDifference;
+      ModeControl.reasonForDifference.set(reasonForDifference);
    }
 
+   /** Pattern used by {@link #getSanitizedDescription(String)} */
+   private static final Pattern sanitizeDescriptionPattern = Pattern.compile("((.*)(\\.$))|((.*)( [R|r]egisters)( )*$)");
+
    /**
     * Does some simple modifications to descriptions to increase the likelihood of folding.
     * @param description String to operate on
@@ -536,9 +594,11 @@ public class ModeControl {
     * @return     Modified string
     */
    public static String getSanitizedDescription(String description) {
-      final Pattern p = Pattern.compile("((.*)(\\.$))|((.*)( [R|r]egisters)( )*$)");
-
-      Matcher m = p.matcher(description);
+      if ((description.indexOf('.') < 0) && !description.contains("egisters")) {
+         // Can't match pattern
+         return description;
+      }
+      Matcher m = sanitizeDescriptionPattern.matcher(description);
       return m.replaceAll("$2$5");
    }
 
@@ -673,7 +733,7 @@ public class ModeControl {
     * Reset the cache used to detect macro collisions.
     */
    static protected void clearMacroCache() {
-      fieldMacros = null;
+      fieldMacros.remove();
    }
 
    /**
@@ -687,11 +747,13 @@ public class ModeControl {
     * @throws Exception if name used previously with different offset/width
     */
    protected static boolean fieldMacroAlreadyDone(Field field, String fieldname) throws Exception {
-      if (fieldMacros == null) {
-         fieldMacros = new HashMap<String, Integer>();
+      HashMap<String, Integer> macros = fieldMacros.get();
+      if (macros == null) {
+         macros = new HashMap<String, Integer>();
+         fieldMacros.set(macros);
       }
       int newHashcode = (int) (field.getBitwidth() + (field.getBitOffset()<<8));
-      Integer hashCode = fieldMacros.get(fieldname);
+      Integer hashCode = macros.get(fieldname);
       if (hashCode != null) {
          // Check if re-definition is the same
          if (hashCode != newHashcode) {
@@ -705,7 +767,7 @@ public class ModeControl {
          return true;
       }
       // Add to table
-      fieldMacros.put(fieldname, newHashcode);
+      macros.put(fieldname, newHashcode);
       // Indicate new MACRO
       return false;
    }
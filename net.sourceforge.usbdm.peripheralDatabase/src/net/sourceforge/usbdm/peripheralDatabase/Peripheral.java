@@ -7,6 +7,8 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.Map.Entry;
 import java.util.TreeMap;
 import java.util.regex.Matcher;
@@ -57,8 +59,21 @@ public class Peripheral extends ModeControl implements Cloneable {
    /** Arbitrary text to add to peripheral C declaration */
    private String                    fTemplate               = null;
    
-   private static HashSet<String>    fConflictedNames        = new HashSet<String>();
-   private static HashSet<String>    fTypedefsTable          = new HashSet<String>();
+   /** Peripheral names already reported as conflicting (per thread as devices may be optimised concurrently) */
+   private static final ThreadLocal<HashSet<String>> fConflictedNames = new ThreadLocal<HashSet<String>>() {
+      @Override
+      protected HashSet<String> initialValue() {
+         return new HashSet<String>();
+      }
+   };
+   
+   /** Typedefs written to the current header file (per thread as header files may be written concurrently) */
+   private static final ThreadLocal<HashSet<String>> fTypedefsTable = new ThreadLocal<HashSet<String>>() {
+      @Override
+      protected HashSet<String> initialValue() {
+         return new HashSet<String>();
+      }
+   };
    
    static class RegisterPair {
       public Register cReg;
@@ -102,37 +117,51 @@ public class Peripheral extends ModeControl implements Cloneable {
     * @throws CloneNotSupportedException
     */
    public void foldRegisters() throws CloneNotSupportedException {
-      boolean oldIgnoreResetType  = isIgnoreResetValuesInEquivalence();
-      setIgnoreResetValuesInEquivalence(true);
+      // Only affects this thread so other devices may be optimised concurrently
+      Boolean previousOverride = overrideIgnoreResetValuesInEquivalence(true);
+      try {
 //      if (getName().startsWith("LLWU")) {
 //         System.err.println("foldRegisters() - " + getName());
 //      }
-      for(int index1=0; index1<fRegisters.size(); index1++) {
-         Cluster reference = fRegisters.get(index1);
-         if (reference.getDerivedFrom() != null) {
-            // Already mapped
-            continue;
-         }
-         for(int index2=index1+1; index2<fRegisters.size(); index2++) {
-            Cluster candidate = fRegisters.get(index2);
-            if (candidate.getDerivedFrom() != null) {
+         // Group registers by structure - only registers in the same group can be equivalent
+         LinkedHashMap<Long, ArrayList<Cluster>> structures = new LinkedHashMap<Long, ArrayList<Cluster>>();
+         for (Cluster register:fRegisters) {
+            if (register.getDerivedFrom() != null) {
                // Already mapped
                continue;
             }
-//            System.err.println("foldRegisters() - " + c2.getName() + " to " + c1.getName());
-//            if (c2.getName().startsWith("CMD1") && c1.getName().startsWith("CMD2")) {
-//               System.err.println("foldRegisters() - " + c2.getName() + " to " + c1.getName());
-//            }
-            // Check of equivalent ignoring array info
-            if (reference.equivalentStructure(candidate, MatchOptions.MATCH_NAMES)) {
-               // Add derivation
-               candidate.setDerivedFrom(reference);
-//               derivedRegisters.put(c2, c1);
-//               System.err.println("foldRegisters() - folding " + c2.getName() + " to " + c1.getName());
+            Long fingerprint = register.getStructureFingerprint(MatchOptions.MATCH_NAMES);
+            ArrayList<Cluster> group = structures.get(fingerprint);
+            if (group == null) {
+               group = new ArrayList<Cluster>();
+               structures.put(fingerprint, group);
+            }
+            group.add(register);
+         }
+         for (ArrayList<Cluster> group:structures.values()) {
+            for(int index1=0; index1<group.size(); index1++) {
+               Cluster reference = group.get(index1);
+               if (reference.getDerivedFrom() != null) {
+                  // Already mapped
+                  continue;
+               }
+               for(int index2=index1+1; index2<group.size(); index2++) {
+                  Cluster candidate = group.get(index2);
+                  if (candidate.getDerivedFrom() != null) {
+                     // Already mapped
+                     continue;
+                  }
+                  // Check of equivalent ignoring array info
+                  if (reference.equivalentStructure(candidate, MatchOptions.MATCH_NAMES)) {
+                     // Add derivation
+                     candidate.setDerivedFrom(reference);
+                  }
+               }
             }
          }
+      } finally {
+         overrideIgnoreResetValuesInEquivalence(previousOverride);
       }
-      setIgnoreResetValuesInEquivalence(oldIgnoreResetType);
    }
    
    public Peripheral(DevicePeripherals owner) {
@@ -177,6 +206,39 @@ public class Peripheral extends ModeControl implements Cloneable {
       return clone;
    }
 
+   /**
+    * Returns a deep copy of the peripheral for use by another device.<br>
+    * The copy is independent of this peripheral and may be modified (e.g. optimised).<br>
+    * Interrupt entries are not copied.<br>
+    * Shares (don't modify)
+    * <ul>
+    *    <li>enumerations
+    *    <li>parameters
+    * </ul>
+    * 
+    * @param owner Device that will own the copy
+    * 
+    * @return Copy of peripheral
+    * 
+    * @throws CloneNotSupportedException
+    */
+   Peripheral copy(DevicePeripherals owner) throws CloneNotSupportedException {
+      IdentityHashMap<Object, Object> copies = new IdentityHashMap<Object, Object>();
+
+      Peripheral copy = (Peripheral) super.clone();
+      copy.fOwner              = owner;
+      copy.fInterrupts         = null;
+      copy.fUsedBy             = new ArrayList<String>(fUsedBy);
+      copy.fParameters         = new TreeMap<String, Parameter>(fParameters);
+      copy.fSimpleParameterMap = null;
+      copy.fAddressBlocks      = new ArrayList<AddressBlock>();
+      for (AddressBlock addressBlock:fAddressBlocks) {
+         copy.fAddressBlocks.add((AddressBlock) addressBlock.clone());
+      }
+      copy.fRegisters = Cluster.copyRegisters(fRegisters, copy, copies);
+      return copy;
+   }
+
    /* (non-Javadoc)
     * @see java.lang.Object#toString()
     */
@@ -681,6 +743,10 @@ public class Peripheral extends ModeControl implements Cloneable {
       sortUsedBy(fUsedBy);
    }
 
+   /** Patterns used to split device names when sorting usedBy list */
+   private static final Pattern usedByPattern1 = Pattern.compile("^(.*[(DX)|(DN|(FX)|(FN)|Z])(\\d+)(.*)$");
+   private static final Pattern usedByPattern2 = Pattern.compile("^(.*[DX)|(DN|(FX)|(FN)|Z])(\\d+)(.*)$");
+   
    /**
     * Sorts usedBy list and removed duplicates
     */
@@ -688,8 +754,8 @@ public class Peripheral extends ModeControl implements Cloneable {
       Collections.sort(usedBy, new Comparator<String>() {
          @Override
          public int compare(String s1, String s2) {
-            Pattern p1 = Pattern.compile("^(.*[(DX)|(DN|(FX)|(FN)|Z])(\\d+)(.*)$");
-            Pattern p2 = Pattern.compile("^(.*[DX)|(DN|(FX)|(FN)|Z])(\\d+)(.*)$");
+            Pattern p1 = usedByPattern1;
+            Pattern p2 = usedByPattern2;
             Matcher m1 = p1.matcher(s1);
             Matcher m2 = p2.matcher(s2);
             String p1a = m1.replaceAll("$1$3");
@@ -863,6 +929,35 @@ public class Peripheral extends ModeControl implements Cloneable {
       }
       return true;
    }
+
+   /**
+    * Get structural fingerprint consistent with {@link #equivalent(Peripheral)}<br>
+    * Peripherals that are equivalent have the same fingerprint.
+    *
+    * @return Fingerprint
+    */
+   long getFingerprint() {
+      long hash = Fingerprint.SEED;
+      hash = Fingerprint.add(hash, getName());
+      hash = Fingerprint.add(hash, getDescription());
+      hash = Fingerprint.add(hash, fPrependToName);
+      hash = Fingerprint.add(hash, fBaseAddress);
+      hash = Fingerprint.add(hash, fAppendToName);
+      hash = Fingerprint.add(hash, getGroupName());
+      if (fDerivedFrom != null) {
+         return Fingerprint.add(hash, fDerivedFrom.getName());
+      }
+      hash = Fingerprint.add(hash, fWidth);
+      hash = Fingerprint.add(hash, fResetValue);
+      hash = Fingerprint.add(hash, fResetMask);
+      hash = Fingerprint.add(hash, fAccessType);
+      hash = Fingerprint.add(hash, fRegisters.size());
+      sortRegisters();
+      for (Cluster register:fRegisters) {
+         hash = Fingerprint.add(hash, register.getFingerprint(MatchOptions.MATCH_SUBS|MatchOptions.MATCH_NAMES));
+      }
+      return hash;
+   }
    
    /**
     * Sort interrupts by index
@@ -915,11 +1010,7 @@ public class Peripheral extends ModeControl implements Cloneable {
    }
 
    static boolean isNewConflict(String name) {
-      if (fConflictedNames.contains(name)) {
-         return false;
-      }
-      fConflictedNames.add(name);
-      return true;
+      return fConflictedNames.get().add(name);
    }
 
    /**
@@ -962,9 +1053,8 @@ public class Peripheral extends ModeControl implements Cloneable {
          return;
       }
       namePrefix = namePrefix.substring(0, commonLength);
-      Matcher matcher = Pattern.compile("^(.*)_$").matcher(namePrefix);
-      if (matcher.matches()) {
-         namePrefix = matcher.replaceAll("$1");
+      if (namePrefix.endsWith("_")) {
+         namePrefix = namePrefix.substring(0, namePrefix.length()-1);
       }
       setPrependToName(namePrefix);
       // Remove the prefix from the actual register names
@@ -982,7 +1072,36 @@ public class Peripheral extends ModeControl implements Cloneable {
       }
    }
    
-   static HashMap<String, String> freescalePeripheralNameMap = null;
+   /** Map from peripheral names in the data to preferred Freescale names */
+   static final HashMap<String, String> freescalePeripheralNameMap = createFreescalePeripheralNameMap();
+   
+   /**
+    * Create map from peripheral names in the data to preferred Freescale names
+    * 
+    * @return Map
+    */
+   private static HashMap<String, String> createFreescalePeripheralNameMap() {
+      // TODO Where Peripheral names are mapped
+      HashMap<String, String> peripheralNameMap = new HashMap<String, String>();
+      peripheralNameMap.put("PTA", "GPIOA");
+      peripheralNameMap.put("PTB", "GPIOB");
+      peripheralNameMap.put("PTC", "GPIOC");
+      peripheralNameMap.put("PTD", "GPIOD");
+      peripheralNameMap.put("PTE", "GPIOE");
+      peripheralNameMap.put("PTF", "GPIOF");
+      peripheralNameMap.put("FPTA", "FGPIOA");
+      peripheralNameMap.put("FPTB", "FGPIOB");
+      peripheralNameMap.put("FPTC", "FGPIOC");
+      peripheralNameMap.put("FPTD", "FGPIOD");
+      peripheralNameMap.put("FPTE", "FGPIOE");
+      peripheralNameMap.put("FPTF", "FGPIOF");
+      peripheralNameMap.put("FTFA_FlashConfig", "NV");
+      peripheralNameMap.put("FTFL_FlashConfig", "NV");
+      peripheralNameMap.put("FTFE_FlashConfig", "NV");
+      peripheralNameMap.put("SystemControl", "SCB");
+      peripheralNameMap.put("SysTick", "SYST");
+      return peripheralNameMap;
+   }
    
    /**
     * Maps peripheral names in the data to preferred Freescale names
@@ -991,27 +1110,6 @@ public class Peripheral extends ModeControl implements Cloneable {
       if (!isMapFreescaleCommonNames()) {
          return name;
       }
-      // TODO Where Peripheral names are mapped
-      if (freescalePeripheralNameMap == null) {
-         freescalePeripheralNameMap = new HashMap<String, String>();
-         freescalePeripheralNameMap.put("PTA", "GPIOA");
-         freescalePeripheralNameMap.put("PTB", "GPIOB");
-         freescalePeripheralNameMap.put("PTC", "GPIOC");
-         freescalePeripheralNameMap.put("PTD", "GPIOD");
-         freescalePeripheralNameMap.put("PTE", "GPIOE");
-         freescalePeripheralNameMap.put("PTF", "GPIOF");
-         freescalePeripheralNameMap.put("FPTA", "FGPIOA");
-         freescalePeripheralNameMap.put("FPTB", "FGPIOB");
-         freescalePeripheralNameMap.put("FPTC", "FGPIOC");
-         freescalePeripheralNameMap.put("FPTD", "FGPIOD");
-         freescalePeripheralNameMap.put("FPTE", "FGPIOE");
-         freescalePeripheralNameMap.put("FPTF", "FGPIOF");
-         freescalePeripheralNameMap.put("FTFA_FlashConfig", "NV");
-         freescalePeripheralNameMap.put("FTFL_FlashConfig", "NV");
-         freescalePeripheralNameMap.put("FTFE_FlashConfig", "NV");
-         freescalePeripheralNameMap.put("SystemControl", "SCB");
-         freescalePeripheralNameMap.put("SysTick", "SYST");
-      }
       String mappedName = freescalePeripheralNameMap.get(name);
       if (mappedName != null) {
          return mappedName;
@@ -1041,7 +1139,15 @@ public class Peripheral extends ModeControl implements Cloneable {
       }
    }
    
-   public static ArrayList<ComplexStructuresInformation> getComplexStructures(String name) {
+   /** Complex structures for each peripheral (patterns are compiled once) */
+   private static final HashMap<String, ArrayList<ComplexStructuresInformation>> complexStructures = createComplexStructures();
+
+   /**
+    * Create table of complex structures for each peripheral
+    * 
+    * @return Table indexed by peripheral name
+    */
+   private static HashMap<String, ArrayList<ComplexStructuresInformation>> createComplexStructures() {
       final HashMap<String, ArrayList<ComplexStructuresInformation>> complexStructures = new HashMap<String,  ArrayList<ComplexStructuresInformation>>(20);
       if (complexStructures.isEmpty()) {
          ArrayList<ComplexStructuresInformation> entry = null;
@@ -1192,6 +1298,10 @@ public class Peripheral extends ModeControl implements Cloneable {
 //         complexStructures.put("GPIO",  entry);
 
       }
+      return complexStructures;
+   }
+   
+   public static ArrayList<ComplexStructuresInformation> getComplexStructures(String name) {
       return complexStructures.get(name);
    }
    
@@ -1228,6 +1338,32 @@ public class Peripheral extends ModeControl implements Cloneable {
       ArrayList<Register> removedRegisters = new ArrayList<Register>();
       Cluster cluster = null;
 
+      // Match register names against pattern once giving {arrayName, nameIndex, fieldName}
+      // Registers are grouped by arrayName and fieldName - only registers in the same group may be combined
+      IdentityHashMap<Register, String[]>  nameParts      = new IdentityHashMap<Register, String[]>();
+      HashMap<String, ArrayList<Register>> registerGroups = new HashMap<String, ArrayList<Register>>();
+      for (Cluster reg : fRegisters) {
+         if (!(reg instanceof Register)) {
+            continue;
+         }
+         Matcher matcher = information.pattern.matcher(reg.getName());
+         if (!matcher.matches()) {
+            continue;
+         }
+         String[] parts = {
+               matcher.replaceFirst(information.arrayName),
+               matcher.replaceFirst(information.nameIndex),
+               matcher.replaceFirst(information.fieldName),
+         };
+         nameParts.put((Register)reg, parts);
+         String key = parts[0]+"\n"+parts[2];
+         ArrayList<Register> registerGroup = registerGroups.get(key);
+         if (registerGroup == null) {
+            registerGroup = new ArrayList<Register>();
+            registerGroups.put(key, registerGroup);
+         }
+         registerGroup.add((Register)reg);
+      }
       for (int reg1 = 0; reg1<getRegisters().size(); reg1++) {
          // Only match simple registers
          if (!(fRegisters.get(reg1) instanceof Register)) {
@@ -1245,13 +1381,13 @@ public class Peripheral extends ModeControl implements Cloneable {
             System.err.println(String.format("\n    extractComplexStructures(), mergeName=\"%s\"", mergeName));
          }
          // Check if matches pattern
-         Matcher mergeMatcher = information.pattern.matcher(mergeName);
-         if (!mergeMatcher.matches()) {
+         String[] mergeParts = nameParts.get(mergeReg);
+         if (mergeParts == null) {
             continue;
          }
-         String arrayName   = mergeMatcher.replaceFirst(information.arrayName);
-         String nameIndex   = mergeMatcher.replaceFirst(information.nameIndex);
-         String fieldName   = mergeMatcher.replaceFirst(information.fieldName);
+         String arrayName   = mergeParts[0];
+         String nameIndex   = mergeParts[1];
+         String fieldName   = mergeParts[2];
          long stride = 0;
          
          // Starting new set of matches
@@ -1264,28 +1400,15 @@ public class Peripheral extends ModeControl implements Cloneable {
 //         System.err.println(String.format("Complex Pattern: %-15s => %s[%s].%s ", mergeName, arrayName, nameIndex, fieldName));
 
          int index = 1;
-         for (int reg2 = reg1+1; reg2<getRegisters().size(); reg2++) {
-            // Only match simple registers
-            if (!(fRegisters.get(reg2) instanceof Register)) {
-               continue;
-            }
+         // Only following registers in the same group match the pattern with the same arrayName and fieldName
+         ArrayList<Register> registerGroup = registerGroups.get(arrayName+"\n"+fieldName);
+         for (int reg2 = registerGroup.indexOf(mergeReg)+1; reg2<registerGroup.size(); reg2++) {
             // Get candidate to match
-            Register victimReg   = (Register)fRegisters.get(reg2);
+            Register victimReg   = registerGroup.get(reg2);
             if (victimReg.isDeleted()) {
                continue;
             }
-            // Check against pattern
-            String  victimName    = victimReg.getName();
-            Matcher victimMatcher = information.pattern.matcher(victimName);
-            if (!victimMatcher.matches()) {
-               continue;
-            }
-            String vArrayName   = victimMatcher.replaceFirst(information.arrayName);
-            String vNameIndex   = victimMatcher.replaceFirst(information.nameIndex);
-            String vFieldName   = victimMatcher.replaceFirst(information.fieldName);
-            if (!vArrayName.equals(arrayName) || !vFieldName.equals(fieldName)) {
-               continue;
-            }
+            String vNameIndex   = nameParts.get(victimReg)[1];
 //            System.err.println(String.format("   Found %s ", victimName));
             if (stride == 0) {
                // Get stride from 1st matching register
@@ -1349,31 +1472,61 @@ public class Peripheral extends ModeControl implements Cloneable {
       sortRegisters();
    }
    
+   /** Peripherals and particular registers not to turn into arrays */
+   private static final HashMap<String, String> excludedCommonRegisterPeripherals = createExcludedSimpleRegisterArrayPeripherals();
+   
+   /** Compiled patterns from excludedCommonRegisterPeripherals */
+   private static final HashMap<String, Pattern> excludedCommonRegisterPatterns = new HashMap<String,  Pattern>();
+   
+   static {
+      for (Entry<String, String> entry:excludedCommonRegisterPeripherals.entrySet()) {
+         excludedCommonRegisterPatterns.put(entry.getKey(), Pattern.compile(entry.getValue()));
+      }
+   }
+   
+   /**
+    * Create table of peripherals and particular registers not to turn into arrays
+    * 
+    * @return Table of patterns indexed by peripheral name
+    */
+   private static HashMap<String, String> createExcludedSimpleRegisterArrayPeripherals() {
+      final HashMap<String, String> excludedCommonRegisterPeripherals = new HashMap<String,  String>(200);
+      // TODO Where to select peripherals and particular registers not to turn into arrays
+      excludedCommonRegisterPeripherals.put("ITM",   "PID.*"); // PIDs are in a strange order
+      excludedCommonRegisterPeripherals.put("DWT",   "PID.*");
+      excludedCommonRegisterPeripherals.put("FPB",   "PID.*");
+      excludedCommonRegisterPeripherals.put("TPIU",  "PID.*");
+      excludedCommonRegisterPeripherals.put("ETM",   "PID.*");
+      excludedCommonRegisterPeripherals.put("ETB",   "PID.*");
+      excludedCommonRegisterPeripherals.put("ETF",   "PID.*");
+      excludedCommonRegisterPeripherals.put("FMC",   "PID.*");
+      excludedCommonRegisterPeripherals.put("ADC",   "CLP.*");    // Leave as individual registers
+      excludedCommonRegisterPeripherals.put("ADC0",  "CLP.*");    // Leave as individual registers
+      excludedCommonRegisterPeripherals.put("ADC1",  "CLP.*");    // Leave as individual registers
+      excludedCommonRegisterPeripherals.put("PCC",   "PCC_.*");   // Each peripheral has own register
+      excludedCommonRegisterPeripherals.put("TRGMUX",".*_.*");    // Registers are odd
+      excludedCommonRegisterPeripherals.put("TRGMUX0",".*_.*");   // Registers are odd
+      excludedCommonRegisterPeripherals.put("TRGMUX1",".*_.*");   // Registers are odd
+      excludedCommonRegisterPeripherals.put("MCG",   ".*");       // Some odd reg. pairs are better separate
+      return excludedCommonRegisterPeripherals;
+   }
+   
    // This is a list of peripherals and particular registers not to turn into arrays
    public static String getExcludedSimpleRegisterArrayPeripherals(String name) {
-      final HashMap<String, String> excludedCommonRegisterPeripherals = new HashMap<String,  String>(200);
-      if (excludedCommonRegisterPeripherals.isEmpty()) {
-         // TODO Where to select peripherals and particular registers not to turn into arrays
-         excludedCommonRegisterPeripherals.put("ITM",   "PID.*"); // PIDs are in a strange order
-         excludedCommonRegisterPeripherals.put("DWT",   "PID.*");
-         excludedCommonRegisterPeripherals.put("FPB",   "PID.*");
-         excludedCommonRegisterPeripherals.put("TPIU",  "PID.*");
-         excludedCommonRegisterPeripherals.put("ETM",   "PID.*");
-         excludedCommonRegisterPeripherals.put("ETB",   "PID.*");
-         excludedCommonRegisterPeripherals.put("ETF",   "PID.*");
-         excludedCommonRegisterPeripherals.put("FMC",   "PID.*");
-         excludedCommonRegisterPeripherals.put("ADC",   "CLP.*");    // Leave as individual registers
-         excludedCommonRegisterPeripherals.put("ADC0",  "CLP.*");    // Leave as individual registers
-         excludedCommonRegisterPeripherals.put("ADC1",  "CLP.*");    // Leave as individual registers
-         excludedCommonRegisterPeripherals.put("PCC",   "PCC_.*");   // Each peripheral has own register
-         excludedCommonRegisterPeripherals.put("TRGMUX",".*_.*");    // Registers are odd
-         excludedCommonRegisterPeripherals.put("TRGMUX0",".*_.*");   // Registers are odd
-         excludedCommonRegisterPeripherals.put("TRGMUX1",".*_.*");   // Registers are odd
-         excludedCommonRegisterPeripherals.put("MCG",   ".*");       // Some odd reg. pairs are better separate
-      }
       return excludedCommonRegisterPeripherals.get(name);
    }
    
+   /**
+    * Get compiled pattern for registers not to turn into arrays
+    * 
+    * @param name Name of peripheral
+    * 
+    * @return Pattern from {@link #getExcludedSimpleRegisterArrayPeripherals(String)} or null if none
+    */
+   static Pattern getExcludedSimpleRegisterArrayPattern(String name) {
+      return excludedCommonRegisterPatterns.get(name);
+   }
+   
    static class PatternTuple {
       final Pattern pattern;      // Pattern to match
       final String  indexPattern; // String to produce result
@@ -1394,24 +1547,34 @@ public class Peripheral extends ModeControl implements Cloneable {
       }
    }
    
-   public static PatternTuple getRegisterArrayPatterns(String name) {
-      // This is a list of peripherals with special matching patterns for register combining
+   /** Peripherals with special matching patterns for register combining */
+   private static final HashMap<String, PatternTuple> freescalePeripheralRegisterArrayPatterns = createRegisterArrayPatterns();
+   
+   /** Pattern used for register combining in other peripherals (prefix index suffix) */
+   private static final PatternTuple defaultRegisterArrayPattern = new PatternTuple("(.+?)(\\d+|[A-F|a-f])$",  "$1%s", "$2");
+   
+   /**
+    * Create table of peripherals with special matching patterns for register combining
+    * 
+    * @return Table indexed by peripheral name
+    */
+   private static HashMap<String, PatternTuple> createRegisterArrayPatterns() {
       final HashMap<String, PatternTuple> freescalePeripheralRegisterArrayPatterns = new HashMap<String, PatternTuple>();
-      if (freescalePeripheralRegisterArrayPatterns.isEmpty()) {
-         freescalePeripheralRegisterArrayPatterns.put("ADC0", new PatternTuple("(SC1|R|.+)([0-9]+)(.*)$", "$1%s$3",  "$2")); // Special pattern for ADC
-         freescalePeripheralRegisterArrayPatterns.put("ADC1", new PatternTuple("(SC1|R|.+)([0-9]+)(.*)$", "$1%s$3",  "$2")); // Special pattern for ADC
-         freescalePeripheralRegisterArrayPatterns.put("ITM",  new PatternTuple("(.+)([0-9]+)(.*)$",       "$1%s$3",  "$2")); // Special pattern for ITM
-         freescalePeripheralRegisterArrayPatterns.put("ITM0", new PatternTuple("(.+)([0-9]+)(.*)$",       "$1%s$3",  "$2")); // Special pattern for ITM
-         freescalePeripheralRegisterArrayPatterns.put("PDB",  new PatternTuple("(.+)([0-9]+)(.*)$",       "$1%s$3",  "$2")); // Special pattern for PDB
-         freescalePeripheralRegisterArrayPatterns.put("PDB0", new PatternTuple("(.+)([0-9]+)(.*)$",       "$1%s$3",  "$2")); // Special pattern for PDB
-         freescalePeripheralRegisterArrayPatterns.put("LTC",  new PatternTuple("(.+)_([0-9]+)$",          "$1%s",    "$2")); // Special pattern for LTC
-         freescalePeripheralRegisterArrayPatterns.put("LTC0", new PatternTuple("(.+)_([0-9]+)$",          "$1%s",    "$2")); // Special pattern for LTC
-      }
+      freescalePeripheralRegisterArrayPatterns.put("ADC0", new PatternTuple("(SC1|R|.+)([0-9]+)(.*)$", "$1%s$3",  "$2")); // Special pattern for ADC
+      freescalePeripheralRegisterArrayPatterns.put("ADC1", new PatternTuple("(SC1|R|.+)([0-9]+)(.*)$", "$1%s$3",  "$2")); // Special pattern for ADC
+      freescalePeripheralRegisterArrayPatterns.put("ITM",  new PatternTuple("(.+)([0-9]+)(.*)$",       "$1%s$3",  "$2")); // Special pattern for ITM
+      freescalePeripheralRegisterArrayPatterns.put("ITM0", new PatternTuple("(.+)([0-9]+)(.*)$",       "$1%s$3",  "$2")); // Special pattern for ITM
+      freescalePeripheralRegisterArrayPatterns.put("PDB",  new PatternTuple("(.+)([0-9]+)(.*)$",       "$1%s$3",  "$2")); // Special pattern for PDB
+      freescalePeripheralRegisterArrayPatterns.put("PDB0", new PatternTuple("(.+)([0-9]+)(.*)$",       "$1%s$3",  "$2")); // Special pattern for PDB
+      freescalePeripheralRegisterArrayPatterns.put("LTC",  new PatternTuple("(.+)_([0-9]+)$",          "$1%s",    "$2")); // Special pattern for LTC
+      freescalePeripheralRegisterArrayPatterns.put("LTC0", new PatternTuple("(.+)_([0-9]+)$",          "$1%s",    "$2")); // Special pattern for LTC
+      return freescalePeripheralRegisterArrayPatterns;
+   }
+   
+   public static PatternTuple getRegisterArrayPatterns(String name) {
       PatternTuple pair = freescalePeripheralRegisterArrayPatterns.get(name);
       if (pair == null) {
-         //           prefix index suffix
-         // pair = new PatternTuple("(.+?)([0-9|A-F|a-f]+)$",  "$1%s", "$2");
-         pair = new PatternTuple("(.+?)(\\d+|[A-F|a-f])$",  "$1%s", "$2");
+         pair = defaultRegisterArrayPattern;
       }
       return pair;
    }
@@ -1437,6 +1600,20 @@ public class Peripheral extends ModeControl implements Cloneable {
       if (debugThisPeripheral) {
          System.err.println(String.format("    extractSimpleRegisterArrays(%s):1", getName()));
       }
+      // Group registers by name with index removed - only registers in the same group may be combined
+      HashMap<String, ArrayList<Register>> registerGroups = new HashMap<String, ArrayList<Register>>();
+      for (Cluster cluster:registerList) {
+         if (!(cluster instanceof Register) || (cluster.getDerivedFrom() != null)) {
+            continue;
+         }
+         String baseName = matchInformation.getBaseRegisterName(cluster.getName());
+         ArrayList<Register> registerGroup = registerGroups.get(baseName);
+         if (registerGroup == null) {
+            registerGroup = new ArrayList<Register>();
+            registerGroups.put(baseName, registerGroup);
+         }
+         registerGroup.add((Register)cluster);
+      }
       for (int reg1 = 0; reg1<registerList.size(); reg1++) {
          Cluster mergeCluster = registerList.get(reg1);
          if (!(mergeCluster instanceof Register)) {
@@ -1485,20 +1662,13 @@ public class Peripheral extends ModeControl implements Cloneable {
          String               modifiedRegisterName            = matchInformation.getBaseRegisterName(mergeName);
          
 
-         // Go through other register looking for candidates that match the current register
+         // Go through following registers in the same group looking for candidates that match the current register
          // When found add to removedRegisters list.
          ArrayList<Register> removedRegisters = new ArrayList<Register>();
-         for (int reg2 = reg1+1; reg2<registerList.size(); reg2++) {
+         ArrayList<Register> registerGroup    = registerGroups.get(modifiedRegisterName);
+         for (int reg2 = registerGroup.indexOf(mergeReg)+1; reg2<registerGroup.size(); reg2++) {
             
-            // Only process registers (not clusters)
-            if (!(registerList.get(reg2) instanceof Register)) {
-               continue;
-            }
-            Register victimReg  = (Register)registerList.get(reg2);
-            if (victimReg.getDerivedFrom() != null) {
-               // Don't merge derived registers
-               continue;
-            }
+            Register victimReg  = registerGroup.get(reg2);
             String   victimName = victimReg.getName();
 
             boolean  debugThisMatch = debugThisRegister && victimName.equals("CCR2");
@@ -1509,19 +1679,9 @@ public class Peripheral extends ModeControl implements Cloneable {
                            "\""+victimName+"\""));
             }
             
-            // Check if candidate matches the same pattern as original register i.e.
-            // Both register name should be the same after applying the regular expression
+            // Candidate matches the same pattern as original register i.e.
+            // Both register name are the same after applying the regular expression
             
-            /** Name of register based on victim register */
-            String victimModifiedRegisterName = matchInformation.getBaseRegisterName(victimName);
-
-            if (!victimModifiedRegisterName.equals(modifiedRegisterName)) {
-//               System.err.println(
-//                     String.format("    extractSimpleRegisterArrays(), rejecting %-20s != %-20s",
-//                           "\""+mergeName+"\"",
-//                           "\""+victimName+"\""));
-               continue;
-            }
             // Extract the variant part of the candidate name
             String victimIndex  = matchInformation.getIndex(victimName);
             
@@ -1564,6 +1724,7 @@ public class Peripheral extends ModeControl implements Cloneable {
                }
                registerList.remove(victimReg);
             }
+            registerGroup.removeAll(removedRegisters);
             mergeReg.setDebugThis(true);
             mergeReg.setName(modifiedRegisterName);
             mergeReg.setDescription(mergePatternDescription);
@@ -1596,7 +1757,7 @@ public class Peripheral extends ModeControl implements Cloneable {
             return;
          }
          // Pattern to exclude register from collection
-         excludedRegisterPattern = Pattern.compile(excludedRegisterName);
+         excludedRegisterPattern = getExcludedSimpleRegisterArrayPattern(getName());
       }
       // Pattern used to find candidate registers
       PatternTuple matchInformation = getRegisterArrayPatterns(getName());
@@ -2053,14 +2214,14 @@ public class Peripheral extends ModeControl implements Cloneable {
    }
    
    public static void clearTypedefsTable() {
-      fTypedefsTable = new HashSet<String>();
+      fTypedefsTable.set(new HashSet<String>());
    }
    
    public void addTypedefsTable(String name) throws Exception {
-      if (fTypedefsTable.contains(name)) {
+      if (fTypedefsTable.get().contains(name)) {
          throw new Exception("Peripheral Typedef clash - " + this.getName() + ", " + name);
       }
-      fTypedefsTable.add(name);
+      fTypedefsTable.get().add(name);
    }
 
    /**
@@ -2097,7 +2258,7 @@ public class Peripheral extends ModeControl implements Cloneable {
       unionRegisters.writeHeaderFileUnion();
       
       String structName = getSafeHeaderStructName();
-      if (fTypedefsTable.contains(structName)) {
+      if (fTypedefsTable.get().contains(structName)) {
         System.err.println("Peripheral Typedef clash - " + this.getName() + ", " + structName);
         structName = structName + "X";
       }
@@ -0,0 +1,227 @@
+package net.sourceforge.usbdm.peripheralDatabase;
+
+import java.lang.ref.SoftReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process-wide cache of peripherals parsed from shared SVD fragments<br>
+ *
+ * The device files in the peripheral database include common peripheral descriptions
+ * (e.g. peripherals/ADC0_MK.svd.xml) using external entities or XInclude.
+ * A peripheral parsed from such a fragment is remembered and other devices including the same fragment
+ * receive a copy (see {@link Peripheral#copy(DevicePeripherals)}) rather than parsing the fragment again.
+ *
+ * Entries are keyed by fragment and position in the fragment together with the device defaults inherited by the
+ * peripheral and the current {@link ModeControl} settings.
+ * An entry is discarded when the fragment file is modified.
+ *
+ * The cache is bounded so it doesn't hold a parsed copy of every fragment for the life of the process:
+ * <ul>
+ * <li>At most {@link #DEFAULT_MAXIMUM_ENTRIES} peripherals are held (see {@link #setMaximumEntries(int)}).
+ *     The least recently used entry is discarded when the limit is reached
+ * <li>Cached peripherals are held by soft references so they are released if heap becomes short
+ * </ul>
+ *
+ * Used by {@link SVD_XML_StreamParser}.
+ */
+public class PeripheralCache {
+
+   /** Cached peripheral */
+   private static class Entry {
+      final long                        fLastModified;
+      final SoftReference<Peripheral>   fPeripheral;
+
+      Entry(long lastModified, Peripheral peripheral) {
+         fLastModified = lastModified;
+         fPeripheral   = new SoftReference<Peripheral>(peripheral);
+      }
+   }
+
+   /** Default limit on number of cached peripherals */
+   public static final int DEFAULT_MAXIMUM_ENTRIES = 512;
+
+   /** Enables use of the cache */
+   private static boolean fEnabled = true;
+
+   /** Limit on number of cached peripherals */
+   private static int fMaximumEntries = DEFAULT_MAXIMUM_ENTRIES;
+
+   /** Cached peripherals in least recently used order */
+   @SuppressWarnings("serial")
+   private static final LinkedHashMap<String, Entry> fEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+         return size() > fMaximumEntries;
+      }
+   };
+
+   /** Number of peripherals obtained from the cache since statistics were reset */
+   private static long fHits = 0;
+
+   /** Number of peripherals parsed and added to the cache since statistics were reset */
+   private static long fMisses = 0;
+
+   /**
+    * Create key for peripheral
+    *
+    * @param path      Path of fragment file
+    * @param location  Position of peripheral within the fragment
+    * @param device    Device being parsed (supplies defaults inherited by the peripheral)
+    *
+    * @return Key
+    */
+   static String getKey(Path path, String location, DevicePeripherals device) {
+      return String.format("%s#%s:%d:%s:%X:%X:%X", path, location,
+            device.getWidth(), device.getAccessType(), device.getResetValue(), device.getResetMask(),
+            ModeControl.getSettingsMask());
+   }
+
+   /**
+    * Get copy of cached peripheral
+    *
+    * @param path    Path of fragment file
+    * @param key     Key from {@link #getKey(Path, String, DevicePeripherals)}
+    * @param device  Device that will own the peripheral
+    *
+    * @return Copy of peripheral or null if not cached or file has been modified
+    *
+    * @throws Exception
+    */
+   static Peripheral get(Path path, String key, DevicePeripherals device) throws Exception {
+      Entry entry;
+      synchronized (PeripheralCache.class) {
+         if (!fEnabled) {
+            return null;
+         }
+         entry = fEntries.get(key);
+      }
+      if (entry == null) {
+         return null;
+      }
+      Peripheral cachedPeripheral = entry.fPeripheral.get();
+      if ((cachedPeripheral == null) || (entry.fLastModified != Files.getLastModifiedTime(path).toMillis())) {
+         // Released by garbage collector or file changed
+         synchronized (PeripheralCache.class) {
+            fEntries.remove(key);
+         }
+         return null;
+      }
+      // Cached peripheral is never modified so may be copied without locking
+      Peripheral peripheral = cachedPeripheral.copy(device);
+      synchronized (PeripheralCache.class) {
+         fHits++;
+      }
+      return peripheral;
+   }
+
+   /**
+    * Add peripheral to cache<br>
+    * A copy of the peripheral is cached so the peripheral may be modified by its device.
+    *
+    * @param path        Path of fragment file
+    * @param key         Key from {@link #getKey(Path, String, DevicePeripherals)}
+    * @param peripheral  Peripheral parsed from fragment
+    *
+    * @throws Exception
+    */
+   static void put(Path path, String key, Peripheral peripheral) throws Exception {
+      if (!isEnabled()) {
+         return;
+      }
+      long lastModified = Files.getLastModifiedTime(path).toMillis();
+      Entry entry = new Entry(lastModified, peripheral.copy(null));
+      synchronized (PeripheralCache.class) {
+         fEntries.put(key, entry);
+         fMisses++;
+      }
+   }
+
+   /**
+    * Enable or disable the cache
+    *
+    * @param enable True to enable
+    */
+   public static synchronized void setEnabled(boolean enable) {
+      fEnabled = enable;
+      if (!enable) {
+         fEntries.clear();
+      }
+   }
+
+   /**
+    * Set limit on number of cached peripherals<br>
+    * Least recently used entries are discarded if the cache is over the limit.
+    *
+    * @param maximumEntries Limit
+    */
+   public static synchronized void setMaximumEntries(int maximumEntries) {
+      fMaximumEntries = maximumEntries;
+      while (fEntries.size() > fMaximumEntries) {
+         fEntries.remove(fEntries.keySet().iterator().next());
+      }
+   }
+
+   /**
+    * Get limit on number of cached peripherals
+    *
+    * @return Limit
+    */
+   public static synchronized int getMaximumEntries() {
+      return fMaximumEntries;
+   }
+
+   /**
+    * Indicates if the cache is enabled
+    *
+    * @return True if enabled
+    */
+   public static synchronized boolean isEnabled() {
+      return fEnabled;
+   }
+
+   /**
+    * Discard cached peripherals
+    */
+   public static synchronized void clear() {
+      fEntries.clear();
+   }
+
+   /**
+    * Reset statistics
+    */
+   public static synchronized void resetStatistics() {
+      fHits   = 0;
+      fMisses = 0;
+   }
+
+   /**
+    * Get number of peripherals obtained from the cache since statistics were reset
+    *
+    * @return Count
+    */
+   public static synchronized long getHitCount() {
+      return fHits;
+   }
+
+   /**
+    * Get number of peripherals parsed and added to the cache since statistics were reset
+    *
+    * @return Count
+    */
+   public static synchronized long getMissCount() {
+      return fMisses;
+   }
+
+   /**
+    * Get report of cache use since statistics were reset
+    *
+    * @return Report
+    */
+   public static synchronized String getReport() {
+      return String.format("Cached peripherals = %d, copied from cache = %d, parsed = %d",
+            fEntries.size(), fHits, fMisses);
+   }
+}
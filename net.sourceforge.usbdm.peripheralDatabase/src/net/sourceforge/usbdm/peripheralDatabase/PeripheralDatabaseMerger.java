@@ -159,11 +159,38 @@ public class PeripheralDatabaseMerger {
    HashMap<String, ArrayList<Peripheral>> peripheralMap   = new HashMap<String, ArrayList<Peripheral>>(200);
    ArrayList<VectorTable>                 vectorTableList = new ArrayList<VectorTable>();
 
+   /** Shared peripherals indexed by structural fingerprint (see {@link Peripheral#getFingerprint()}) */
+   private final HashMap<Long, ArrayList<Peripheral>> peripheralsByFingerprint = new HashMap<Long, ArrayList<Peripheral>>(2000);
+
+   /** Shared peripherals indexed by name and source file name */
+   private final HashMap<String, Peripheral> peripheralsBySource = new HashMap<String, Peripheral>(2000);
+
+   /** Shared vector tables indexed by fingerprint (see {@link VectorTable#getFingerprint()}) */
+   private final HashMap<Long, ArrayList<VectorTable>> vectorTablesByFingerprint = new HashMap<Long, ArrayList<VectorTable>>();
+
+   /** Number of full equivalence checks done */
+   private long equivalenceChecks = 0;
+
+   /**
+    * Get number of full equivalence checks done when locating shared peripherals and vector tables
+    *
+    * @return Count
+    */
+   public long getEquivalenceCheckCount() {
+      return equivalenceChecks;
+   }
+
    private void addVectortableToList(DevicePeripherals device) throws Exception {
       VectorTable newVectorTable = device.getVectorTable();
-      int index;
-      for(index=0; index<vectorTableList.size(); index++) {
-         VectorTable vectorTable = vectorTableList.get(index);
+      Long fingerprint = newVectorTable.getFingerprint();
+      ArrayList<VectorTable> candidates = vectorTablesByFingerprint.get(fingerprint);
+      if (candidates == null) {
+         candidates = new ArrayList<VectorTable>(1);
+         vectorTablesByFingerprint.put(fingerprint, candidates);
+      }
+      // Only vector tables with the same fingerprint can be equal
+      for (VectorTable vectorTable:candidates) {
+         equivalenceChecks++;
          if (newVectorTable.equals(vectorTable)) {
             // Add usage information
             vectorTable.addUsedBy(device.getName());
@@ -178,6 +205,7 @@ public class PeripheralDatabaseMerger {
 
       // Add to list of know peripherals
       vectorTableList.add(newVectorTable);
+      candidates.add(newVectorTable);
    }
 
    /**
@@ -200,24 +228,38 @@ public class PeripheralDatabaseMerger {
          peripheralList = new ArrayList<Peripheral>(20);
          peripheralMap.put(newPeripheral.getName(), peripheralList);
       }
+      Long fingerprint = newPeripheral.getFingerprint();
+      ArrayList<Peripheral> candidates = peripheralsByFingerprint.get(fingerprint);
+      if (candidates == null) {
+         candidates = new ArrayList<Peripheral>(1);
+         peripheralsByFingerprint.put(fingerprint, candidates);
+      }
       // Check if equivalent to an exiting peripheral
-      for(int index=0; index<peripheralList.size(); index++) {
-         Peripheral peripheral = peripheralList.get(index);
-//         if (newPeripheral.getSourceFilename().equals("FGPIOA_MKE") &&
-//               newPeripheral.getSourceFilename().equals(peripheral.getSourceFilename())) {
-//            System.err.println("Checking, "+newPeripheral.getSourceFilename()+" <> "+peripheral.getSourceFilename());
-//         }
+      // Only peripherals with the same fingerprint can be equivalent
+      Peripheral equivalentPeripheral = null;
+      for (Peripheral peripheral:candidates) {
+         equivalenceChecks++;
          if (newPeripheral.equivalent(peripheral)) {
-            // Found equivalent
-            peripheral.addUsedBy(device.getName());
-            newPeripheral.setFilename(peripheral.getFilename());
-            return;
+            equivalentPeripheral = peripheral;
+            break;
          }
-         if (peripheral.getSourceFilename().equals(newPeripheral.getSourceFilename())) {
+      }
+      // A peripheral from the same source file must be equivalent unless preceded by an equivalent one
+      String sourceFilename = newPeripheral.getSourceFilename();
+      if (sourceFilename != null) {
+         Peripheral peripheral = peripheralsBySource.get(newPeripheral.getName()+"/"+sourceFilename);
+         if ((peripheral != null) && (peripheral != equivalentPeripheral) &&
+               ((equivalentPeripheral == null) || (peripheralList.indexOf(peripheral) < peripheralList.indexOf(equivalentPeripheral)))) {
             newPeripheral.equivalent(peripheral);
             throw new Exception("Failed sanity check, Expected '"+newPeripheral.getSourceFilename()+"' == '"+peripheral.getSourceFilename()+"' but not equivalent");
          }
       }
+      if (equivalentPeripheral != null) {
+         // Found equivalent
+         equivalentPeripheral.addUsedBy(device.getName());
+         newPeripheral.setFilename(equivalentPeripheral.getFilename());
+         return;
+      }
       // First time the device is used - clear references etc
       newPeripheral.clearUsedBy();
       newPeripheral.addUsedBy(device.getName());
@@ -227,6 +269,11 @@ public class PeripheralDatabaseMerger {
 
       // Add to list of know peripherals
       peripheralList.add(newPeripheral);
+      candidates.add(newPeripheral);
+      String key = newPeripheral.getName()+"/"+newPeripheral.getSourceFilename();
+      if (!peripheralsBySource.containsKey(key)) {
+         peripheralsBySource.put(key, newPeripheral);
+      }
    }
 
    private final String xmlPreamble =
@@ -4,6 +4,7 @@ import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.Map.Entry;
 import java.util.regex.Matcher;
@@ -98,6 +99,57 @@ public class Register extends Cluster implements Cloneable {
       return clone;
    }
 
+   /**
+    * Returns a deep copy of the register for use in a copy of the owning peripheral
+    * (see {@link Peripheral#copy(DevicePeripherals)})<br>
+    * Fields and the enclosing cluster refer to the copies.
+    * 
+    * @param owner   Copy of owning peripheral
+    * @param copies  Map from original objects to copies already made
+    * 
+    * @return Copy of register
+    * 
+    * @throws CloneNotSupportedException
+    */
+   @Override
+   Cluster copy(Peripheral owner, IdentityHashMap<Object, Object> copies) throws CloneNotSupportedException {
+      Register copy = (Register) copies.get(this);
+      if (copy != null) {
+         return copy;
+      }
+      copy = (Register) super.copy(owner, copies);
+      if (fCluster != null) {
+         copy.fCluster = fCluster.copy(owner, copies);
+      }
+      copy.fFields = copyFields(fFields, owner, copies);
+      return copy;
+   }
+
+   /**
+    * Copy list of fields (see {@link #copy(Peripheral, IdentityHashMap)})
+    * 
+    * @param fields  Fields to copy
+    * @param owner   Copy of owning peripheral
+    * @param copies  Map from original objects to copies already made
+    * 
+    * @return Copy of list
+    * 
+    * @throws CloneNotSupportedException
+    */
+   @SuppressWarnings("unchecked")
+   private static ArrayList<Field> copyFields(ArrayList<Field> fields, Peripheral owner, IdentityHashMap<Object, Object> copies) throws CloneNotSupportedException {
+      ArrayList<Field> copy = (ArrayList<Field>) copies.get(fields);
+      if (copy != null) {
+         return copy;
+      }
+      copy = new ArrayList<Field>(fields.size());
+      copies.put(fields, copy);
+      for (Field field:fields) {
+         copy.add(field.copy(owner, copies));
+      }
+      return copy;
+   }
+
    /* (non-Javadoc)
     * @see java.lang.Object#toString()
     */
@@ -201,6 +253,37 @@ public class Register extends Cluster implements Cloneable {
       return true;
    }
    
+   /**
+    * Get structural fingerprint consistent with {@link #equivalentStructure(Object, int)}<br>
+    * The description is not included as it may be matched using a pattern.
+    *
+    * @param matchOptions  Options as used for equivalentStructure()
+    *
+    * @return Fingerprint
+    */
+   @Override
+   long getStructureFingerprint(int matchOptions) {
+      long hash = Fingerprint.SEED;
+      if ((matchOptions&MatchOptions.MATCH_SUBS) != 0) {
+         hash = Fingerprint.add(hash, getDimension());
+         hash = Fingerprint.add(hash, getDimensionIncrement());
+      }
+      hash = Fingerprint.add(hash, getWidth());
+      if (!isIgnoreAccessTypeInEquivalence()) {
+         hash = Fingerprint.add(hash, getAccessType());
+      }
+      if (!isIgnoreResetValuesInEquivalence()) {
+         hash = Fingerprint.add(hash, getResetValue());
+         hash = Fingerprint.add(hash, getResetMask());
+      }
+      hash = Fingerprint.add(hash, fFields.size());
+      sortFields();
+      for (Field field:fFields) {
+         hash = Fingerprint.add(hash, field.getFingerprint());
+      }
+      return hash;
+   }
+
    /** Determines if two registers are equivalent
     * 
     * @param other               Other enumeration to check
@@ -358,7 +441,7 @@ public class Register extends Cluster implements Cloneable {
     * @throws Exception
     */
    public String format(String format, int clusterIndex, int registerIndex) {
-      final Pattern pattern = Pattern.compile("(^.*):(.*$)");
+      final Pattern pattern = DIMENSION_INDEX_PATTERN;
       String sRegisterIndex   = "";
       if (registerIndex>=0) {
          ArrayList<String> dimensionIndexes = getDimensionIndexes();
@@ -24,8 +24,13 @@ public class RegisterUnion {
    /** Size of overlapping registers */
    private        long         fSize;
    
-   /** Suffix to apply to next Reserved fill */
-   private static int          fSuffix = 0;
+   /** Suffix to apply to next Reserved fill (per thread as header files may be written concurrently) */
+   private static final ThreadLocal<Integer> fSuffix = new ThreadLocal<Integer>() {
+      @Override
+      protected Integer initialValue() {
+         return 0;
+      }
+   };
    
    /** Writer to use */
    private final  Writer       fWriter;
@@ -73,7 +78,18 @@ public class RegisterUnion {
     * Clear suffix for Reserved filler bytes in STRUCTS
     */
    static void clearSuffix() {
-      fSuffix = 0;
+      fSuffix.set(0);
+   }
+   
+   /**
+    * Get suffix for next Reserved filler bytes in STRUCTS
+    * 
+    * @return Suffix
+    */
+   private static int nextSuffix() {
+      int suffix = fSuffix.get();
+      fSuffix.set(suffix+1);
+      return suffix;
    }
    
    /**
@@ -257,7 +273,7 @@ public class RegisterUnion {
     * @throws Exception 
     */
    public void fillTo(long address) throws Exception {
-      writeFill(fWriter, fIndent, fSuffix++, fBaseAddress+fLastWrittenOffset, address-(fBaseAddress+fLastWrittenOffset));
+      writeFill(fWriter, fIndent, nextSuffix(), fBaseAddress+fLastWrittenOffset, address-(fBaseAddress+fLastWrittenOffset));
       fLastWrittenOffset = address-fBaseAddress;
    }
    
@@ -269,7 +285,7 @@ public class RegisterUnion {
     * @throws Exception 
     */
    public void fill(long address, long size) throws Exception {
-      writeFill(fWriter, fIndent, fSuffix++, address, size);
+      writeFill(fWriter, fIndent, nextSuffix(), address, size);
       fLastWrittenOffset = address+size;
    }
    
@@ -273,7 +273,19 @@ public class SVD_XML_BaseParser {
     * @throws Exception
     */
    protected static Field.AccessType getAccessElement(Element element) throws Exception {
-      String accessName = element.getTextContent();
+      return getAccessType(element.getTextContent());
+   }
+
+   /**
+    * Converts access name to access type
+    * 
+    * @param accessName Name e.g. read-only
+    * 
+    * @return Access type
+    * 
+    * @throws Exception if name is not recognised
+    */
+   protected static Field.AccessType getAccessType(String accessName) throws Exception {
       if (accessName.equals("read-only")) {
          return Field.AccessType.ReadOnly;
       }
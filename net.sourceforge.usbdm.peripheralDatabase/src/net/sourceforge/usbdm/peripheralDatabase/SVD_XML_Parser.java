@@ -182,7 +182,7 @@ public class SVD_XML_Parser extends SVD_XML_BaseParser {
     * 
     * @return
     */
-   private static String getMappedEnumeratedValue(String value) {
+   static String getMappedEnumeratedValue(String value) {
       // Mapping to apply to names
       final ArrayList<Pair> mappedMacros = new ArrayList<Pair>();
 
@@ -209,7 +209,7 @@ public class SVD_XML_Parser extends SVD_XML_BaseParser {
     * 
     * @return
     */
-   private static String getMappedEnumeratedName(String value) {
+   static String getMappedEnumeratedName(String value) {
       // Mapping to apply to names
       final ArrayList<Pair> mappedMacros = new ArrayList<Pair>();
 
@@ -804,7 +804,7 @@ public class SVD_XML_Parser extends SVD_XML_BaseParser {
     * 
     * @return  Corrected name
     */
-   private String getFixedVectorPeripheralName(String name) {
+   String getFixedVectorPeripheralName(String name) {
 
       Peripheral peripheral = fDevicePeripherals.findPeripheral(name);
       if (peripheral == null) {
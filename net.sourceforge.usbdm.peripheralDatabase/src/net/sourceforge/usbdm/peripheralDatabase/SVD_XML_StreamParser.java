@@ -0,0 +1,1471 @@
+package net.sourceforge.usbdm.peripheralDatabase;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+import net.sourceforge.usbdm.cdt.utilties.Eval;
+
+/**
+ * Parses a SVD file using a streaming (StAX) parser<br>
+ *
+ * Produces the same description as {@link SVD_XML_Parser} without building a DOM of the entire file.
+ * The peripherals, registers etc. are created as the elements are read in a single pass.
+ * External entities are expanded by the XML parser while XIncludes are followed by this parser.
+ * Peripherals in included files are shared between devices using {@link PeripheralCache}.
+ */
+public class SVD_XML_StreamParser extends SVD_XML_Parser {
+
+   static final String XINCLUDE_NAMESPACE = "http://www.w3.org/2001/XInclude";
+   static final String INCLUDE_TAG        = "include";
+   static final String HREF_ATTRIB        = "href";
+
+   /** Factory for XML readers */
+   private final XMLInputFactory fFactory;
+
+   /** Readers for documents being included (not including the current reader) */
+   private final ArrayDeque<XMLStreamReader> fReaders = new ArrayDeque<XMLStreamReader>();
+
+   /** Streams for documents being read (including the current document) */
+   private final ArrayDeque<InputStream> fStreams = new ArrayDeque<InputStream>();
+
+   /** URIs of documents being read (including the current document) */
+   private final ArrayDeque<URI> fDocumentUris = new ArrayDeque<URI>();
+
+   /** Current reader */
+   private XMLStreamReader fReader = null;
+
+   public SVD_XML_StreamParser() {
+      fFactory = XMLInputFactory.newInstance();
+      fFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE,               true);
+      fFactory.setProperty(XMLInputFactory.SUPPORT_DTD,                      true);
+      fFactory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES,   true);
+      fFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,  true);
+   }
+
+   /**
+    * Open document and make it the current document
+    *
+    * @param uri URI of document
+    *
+    * @throws Exception
+    */
+   private void openDocument(URI uri) throws Exception {
+      if (fDocumentUris.contains(uri)) {
+         throw new Exception("Recursive XInclude of \"" + uri + "\"");
+      }
+      InputStream stream = uri.toURL().openStream();
+      try {
+         XMLStreamReader reader = fFactory.createXMLStreamReader(uri.toString(), stream);
+         if (fReader != null) {
+            fReaders.push(fReader);
+         }
+         fReader = reader;
+      } catch (Exception e) {
+         stream.close();
+         throw e;
+      }
+      fStreams.push(stream);
+      fDocumentUris.push(uri);
+   }
+
+   /**
+    * Close current document and return to including document (if any)
+    *
+    * @throws Exception
+    */
+   private void closeDocument() throws Exception {
+      fReader.close();
+      fStreams.pop().close();
+      fDocumentUris.pop();
+      fReader = fReaders.poll();
+   }
+
+   /**
+    * Close all documents
+    */
+   private void closeAll() {
+      while (fReader != null) {
+         try {
+            closeDocument();
+         } catch (Exception e) {
+            // Ignore
+         }
+      }
+   }
+
+   /**
+    * Indicates if the current element is a &lt;xi:include&gt;
+    *
+    * @return True if XInclude
+    */
+   private boolean isInclude() {
+      return XINCLUDE_NAMESPACE.equals(fReader.getNamespaceURI()) && INCLUDE_TAG.equals(fReader.getLocalName());
+   }
+
+   /**
+    * Open document referenced by current &lt;xi:include&gt; element
+    *
+    * @throws Exception
+    */
+   private void openInclude() throws Exception {
+      String href = fReader.getAttributeValue(null, HREF_ATTRIB);
+      if ((href == null) || href.isEmpty()) {
+         throw new Exception("XInclude without href");
+      }
+      if ((fReader.getAttributeValue(null, "xpointer") != null) ||
+            ((fReader.getAttributeValue(null, "parse") != null) && !"xml".equals(fReader.getAttributeValue(null, "parse")))) {
+         throw new Exception("Unsupported XInclude of \"" + href + "\"");
+      }
+      // Resolve relative to the entity or document containing the include
+      String systemId = fReader.getLocation().getSystemId();
+      URI    base     = (systemId != null)?new URI(systemId):fDocumentUris.peek();
+      openDocument(base.resolve(href));
+   }
+
+   /**
+    * Skip to the end of the current &lt;xi:include&gt; element ignoring any &lt;xi:fallback&gt;
+    *
+    * @throws Exception
+    */
+   private void skipIncludeElement() throws Exception {
+      int depth = 0;
+      while (true) {
+         int event = fReader.next();
+         if (event == XMLStreamConstants.START_ELEMENT) {
+            depth++;
+         }
+         else if (event == XMLStreamConstants.END_ELEMENT) {
+            if (depth-- == 0) {
+               return;
+            }
+         }
+      }
+   }
+
+   /**
+    * Get next event from document.<br>
+    * Included documents are inserted in place of the &lt;xi:include&gt; element.
+    * The document type declaration is not reported.
+    *
+    * @return Event type e.g. XMLStreamConstants.START_ELEMENT
+    *
+    * @throws Exception
+    */
+   private int nextEvent() throws Exception {
+      while (true) {
+         int event = fReader.next();
+         if (event == XMLStreamConstants.START_ELEMENT) {
+            if (isInclude()) {
+               openInclude();
+               continue;
+            }
+         }
+         else if (event == XMLStreamConstants.END_DOCUMENT) {
+            if (fReaders.isEmpty()) {
+               return event;
+            }
+            closeDocument();
+            skipIncludeElement();
+            continue;
+         }
+         else if (event == XMLStreamConstants.DTD) {
+            continue;
+         }
+         return event;
+      }
+   }
+
+   /**
+    * Get name of current element or processing instruction
+    *
+    * @return Name (including any prefix)
+    */
+   private String getTagName() {
+      if (fReader.getEventType() == XMLStreamConstants.PROCESSING_INSTRUCTION) {
+         return fReader.getPITarget();
+      }
+      String prefix = fReader.getPrefix();
+      if ((prefix == null) || prefix.isEmpty()) {
+         return fReader.getLocalName();
+      }
+      return prefix+":"+fReader.getLocalName();
+   }
+
+   /**
+    * Get text content of current element including any nested elements.<br>
+    * The reader is left at the end of the element.
+    *
+    * @return Text (equivalent to Element.getTextContent())
+    *
+    * @throws Exception
+    */
+   private String getText() throws Exception {
+      String        text = "";
+      StringBuilder sb   = null;
+      int depth = 0;
+      while (true) {
+         int event = nextEvent();
+         switch (event) {
+         case XMLStreamConstants.CHARACTERS:
+         case XMLStreamConstants.CDATA:
+         case XMLStreamConstants.SPACE:
+            if (sb != null) {
+               sb.append(fReader.getText());
+            }
+            else if (text.isEmpty()) {
+               // Usually only a single piece of text
+               text = fReader.getText();
+            }
+            else {
+               sb = new StringBuilder(text);
+               sb.append(fReader.getText());
+            }
+            break;
+         case XMLStreamConstants.START_ELEMENT:
+            depth++;
+            break;
+         case XMLStreamConstants.END_ELEMENT:
+            if (depth-- == 0) {
+               return (sb != null)?sb.toString():text;
+            }
+            break;
+         case XMLStreamConstants.END_DOCUMENT:
+            throw new Exception("Unexpected end of document");
+         }
+      }
+   }
+
+   /**
+    * Skip current element including any nested elements
+    *
+    * @throws Exception
+    */
+   private void skipElement() throws Exception {
+      int depth = 0;
+      while (true) {
+         int event = nextEvent();
+         if (event == XMLStreamConstants.START_ELEMENT) {
+            depth++;
+         }
+         else if (event == XMLStreamConstants.END_ELEMENT) {
+            if (depth-- == 0) {
+               return;
+            }
+         }
+         else if (event == XMLStreamConstants.END_DOCUMENT) {
+            throw new Exception("Unexpected end of document");
+         }
+      }
+   }
+
+   /**
+    * Advance to next child element or processing instruction of the current element
+    *
+    * @return Event type (START_ELEMENT or PROCESSING_INSTRUCTION) or END_ELEMENT at the end of the current element
+    *
+    * @throws Exception
+    */
+   private int nextChild() throws Exception {
+      while (true) {
+         int event = nextEvent();
+         switch (event) {
+         case XMLStreamConstants.START_ELEMENT:
+         case XMLStreamConstants.END_ELEMENT:
+         case XMLStreamConstants.PROCESSING_INSTRUCTION:
+            return event;
+         case XMLStreamConstants.END_DOCUMENT:
+            throw new Exception("Unexpected end of document");
+         }
+      }
+   }
+
+   /**
+    * Get integer from text of element or processing instruction<br>
+    * Parameters of the current peripheral are substituted
+    *
+    * @param text Text to parse
+    *
+    * @return integer
+    *
+    * @throws Exception
+    */
+   private long getIntText(String text) throws Exception {
+      if (fCurrentPeripheral != null) {
+         text = fCurrentPeripheral.getSimpleParameterMap().substitute(text);
+      }
+      return getIntFromText(text);
+   }
+
+   /**
+    * Get integer from text of current element<br>
+    * Parameters of the current peripheral are substituted
+    *
+    * @return integer
+    *
+    * @throws Exception
+    */
+   private long getIntElement() throws Exception {
+      return getIntText(getText());
+   }
+
+   /**
+    * Parse a <enumeratedValue> element
+    *
+    * @param field Field owning enumeration
+    *
+    * @return Enumeration described
+    *
+    * @throws Exception
+    */
+   private Enumeration parseEnumeratedValue(Field field) throws Exception {
+
+      Enumeration enumeration = new Enumeration();
+
+      int event;
+      while ((event = nextChild()) != XMLStreamConstants.END_ELEMENT) {
+         if (event != XMLStreamConstants.START_ELEMENT) {
+            continue;
+         }
+         String tagName = getTagName();
+         try {
+            if (tagName.equals(NAME_TAG)) {
+               enumeration.setName(getMappedEnumeratedName(getText()));
+            }
+            else if (tagName.equals(DESCRIPTION_TAG)) {
+               enumeration.setDescription(getText().trim());
+            }
+            else if (tagName.equals(VALUE_TAG)) {
+               enumeration.setValue(getMappedEnumeratedValue(getText()));
+            }
+            else if (tagName.equals(ISDEFAULT_TAG)) {
+               skipElement();
+               enumeration.setAsDefault();
+            }
+            else {
+               throw new Exception("Unexpected field in ENUMERATEDVALUE', value = \'"+tagName+"\'");
+            }
+         } catch (Exception e) {
+            System.err.println("Error in parseEnumeratedValue() - element =" + tagName + ", field =" + field.getName());
+            throw e;
+         }
+      }
+      return enumeration;
+   }
+
+   /**
+    * Parse a <enumeratedValues> element
+    *
+    * @param field Field to add enumerations to
+    *
+    * @throws Exception
+    */
+   private void parseEnumeratedValues(Field field) throws Exception {
+
+      int event;
+      while ((event = nextChild()) != XMLStreamConstants.END_ELEMENT) {
+         if (event != XMLStreamConstants.START_ELEMENT) {
+            continue;
+         }
+         String tagName = getTagName();
+         if (tagName.equals(ENUMERATEDVALUE_TAG)) {
+            field.addEnumeration(parseEnumeratedValue(field));
+         }
+         else if (tagName.equals(NAME_TAG)) {
+            //TODO: Implement <name>
+            skipElement();
+         }
+         else {
+            throw new Exception("Unexpected field in ENUMERATEDVALUES', value = \'"+tagName+"\'");
+         }
+      }
+   }
+
+   /**
+    * Parse a <field> element
+    *
+    * @param register Register owning field
+    *
+    * @return Field described
+    *
+    * @throws Exception
+    */
+   private Field parseField(Register register) throws Exception {
+      Field field = null;
+      String derivedFrom = fReader.getAttributeValue(null, DERIVEDFROM_ATTRIB);
+      if (derivedFrom != null) {
+         Field referencedField = null;
+         if (register != null) {
+            referencedField = register.findField(derivedFrom);
+         }
+         if (referencedField == null) {
+            throw new Exception("DerivedFrom field cannot be found: \"" + derivedFrom + "\"");
+         }
+         field = new Field(referencedField);
+      }
+      else {
+         field = new Field(register);
+      }
+      int event;
+      while ((event = nextChild()) != XMLStreamConstants.END_ELEMENT) {
+         String tagName = getTagName();
+         if (event == XMLStreamConstants.PROCESSING_INSTRUCTION) {
+            if (tagName.equals(IGNOREOVERLAP_PROCESSING)) {
+               field.setIgnoreOverlap(true);
+            }
+            else if (tagName.equals(HIDE_PROCESSING)) {
+               field.setHidden(true);
+            }
+            continue;
+         }
+         if (tagName.equals(NAME_TAG)) {
+            field.setName(getText().trim());
+         }
+         else if (tagName.equals(DESCRIPTION_TAG)) {
+            field.setDescription(getText().trim());
+         }
+         else if (tagName.equals(LSB_TAG)) {
+            String text = getText();
+            field.setBitOffsetText(text);
+            field.setBitOffset(getIntText(text));
+         }
+         else if (tagName.equals(MSB_TAG)) {
+            String text = getText();
+            field.setBitWidthText(text+"-"+field.getBitOffsetText()+"+1");
+            field.setBitwidth(getIntText(text)-field.getBitOffset()+1);
+         }
+         else if (tagName.equals(BITOFFSET_TAG)) {
+            String text = getText();
+            field.setBitOffsetText(text);
+            field.setBitOffset(getIntText(text));
+         }
+         else if (tagName.equals(BITWIDTH_TAG)) {
+            String text = getText();
+            field.setBitWidthText(text);
+            field.setBitwidth(getIntText(text));
+         }
+         else if (tagName.equals(BITRANGE_TAG)) {
+            String bitRange = getText();
+            if ((bitRange.charAt(0) != '[')||(bitRange.charAt(bitRange.length()-1) != ']')) {
+               throw new Exception("Illegal BITRANGE in FIELD', value = \'"+bitRange+"\'");
+            }
+            bitRange = bitRange.substring(1, bitRange.length()-1);
+            int commaIndex = bitRange.indexOf(':');
+            if (commaIndex < 0) {
+               throw new Exception("Illegal BITRANGE in FIELD', value = \'"+bitRange+"\'");
+            }
+            String end   = bitRange.substring(0, commaIndex);
+            String start = bitRange.substring(commaIndex+1);
+            int startBit = Integer.parseInt(start);
+            int endBit   = Integer.parseInt(end);
+            field.setBitOffsetText(start);
+            field.setBitOffset(startBit);
+            field.setBitWidthText(end+"-"+start+"+1");
+            field.setBitwidth(endBit-startBit+1);
+         }
+         else if (tagName.equals(ACCESS_TAG)) {
+            field.setAccessType(getAccessType(getText()));
+         }
+         else if (tagName.equals(MODIFIEDWRITEVALUES_TAG)) {
+            //TODO: Implement modifiedWriteValues
+            skipElement();
+         }
+         else if (tagName.equals(WRITECONSTRAINTS_TAG)) {
+            //TODO: Implement writeConstraint
+            skipElement();
+         }
+         else if (tagName.equals(READACTION_TAG)) {
+            //TODO: Implement readAction
+            skipElement();
+         }
+         else if (tagName.equals(ENUMERATEDVALUES_TAG)) {
+            parseEnumeratedValues(field);
+         }
+         else {
+            throw new Exception("Unexpected field in FIELD', value = \'"+tagName+"\'");
+         }
+      }
+      return field;
+   }
+
+   /**
+    * Parse a <fields> element
+    *
+    * @param register Register to add fields to
+    *
+    * @throws Exception
+    */
+   private void parseFields(Register register) throws Exception {
+      int event;
+      while ((event = nextChild()) != XMLStreamConstants.END_ELEMENT) {
+         if (event != XMLStreamConstants.START_ELEMENT) {
+            continue;
+         }
+         String tagName = getTagName();
+         if (tagName.equals(FIELD_TAG)) {
+            Field field = parseField(register);
+            if (!field.getName().equals(RESERVED_TAG)) {
+               register.addField(field);
+            }
+         }
+         else {
+            throw new Exception(String.format("Unexpected field in <fields>, reg = \'%s\', field = \'%s\'",
+                  register.getName(), tagName));
+         }
+      }
+   }
+
+   /**
+    * Parse a <register> element
+    *
+    * @param peripheral Peripheral owning register
+    * @param cluster    Cluster owning register (may be null)
+    *
+    * @return Register described
+    *
+    * @throws Exception
+    */
+   private Register parseRegister(Peripheral peripheral, Cluster cluster) throws Exception {
+
+      Register register = null;
+      String   referencedRegName = fReader.getAttributeValue(null, DERIVEDFROM_ATTRIB);
+      boolean  derived  = referencedRegName != null;
+
+      if (derived) {
+         Cluster referencedRegister = null;
+         if (cluster != null) {
+            referencedRegister = cluster.findRegister(Peripheral.getMappedPeripheralName(referencedRegName));
+            if (referencedRegister == null) {
+               // Try unmapped name
+               referencedRegister = cluster.findRegister(referencedRegName);
+            }
+         }
+         if (referencedRegister == null) {
+            referencedRegister = peripheral.findRegister(Peripheral.getMappedPeripheralName(referencedRegName));
+            if (referencedRegister == null) {
+               // Try unmapped name
+               referencedRegister = peripheral.findRegister(referencedRegName);
+               if (referencedRegister == null) {
+                  throw new Exception("Referenced register cannot be found: \""+referencedRegName+"\"");
+               }
+            }
+         }
+         register = (Register) ((Register) referencedRegister).clone();
+      }
+      else {
+         register = new Register(peripheral, cluster);
+
+         // Inherit default from device
+         register.setWidth(peripheral.getWidth());
+         register.setAccessType(peripheral.getAccessType());
+         register.setResetValue(peripheral.getResetValue());
+         register.setResetMask(peripheral.getResetMask());
+      }
+      String dimensionFromTag = null;
+      int event;
+      while ((event = nextChild()) != XMLStreamConstants.END_ELEMENT) {
+         String tagName = getTagName();
+         if (event == XMLStreamConstants.PROCESSING_INSTRUCTION) {
+            if (tagName.equals(HIDE_PROCESSING)) {
+               register.setHidden(true);
+            }
+            else if (tagName.equals(ISOLATE_PROCESSING)) {
+               register.setIsolated();
+            }
+            else if (tagName.equals(DODERIVEDMACROS_PROCESSING)) {
+               register.setDoDerivedMacros(true);
+            }
+            else if (tagName.equals(KEEPASARRAY_PROCESSING)) {
+               register.setKeepAsArray(true);
+            }
+            else {
+               throw new Exception("parseRegister() - unknown attribute " + tagName);
+            }
+            continue;
+         }
+         if (tagName.equals(NAME_TAG)) {
+            register.setName(mapRegisterName(getText()));
+         }
+         else if (tagName.equals(ADDRESSOFFSET_TAG)) {
+            register.setAddressOffset(getIntElement());
+         }
+         else if (tagName.equals(DISPLAYNAME_TAG)) {
+            String text = getText();
+            if ((register.getName() == null) || (register.getName().length() == 0))
+            register.setName(mapRegisterName(text));
+         }
+         else if (tagName.equals(DESCRIPTION_TAG)) {
+            register.setDescription(getText().trim());
+         }
+         else if (tagName.equals(ALTERNATEGROUP_TAG)) {
+            register.setAlternateGroup(getText());
+         }
+         else if (tagName.equals(RESETVALUE_TAG)) {
+            register.setResetValue(getIntElement());
+         }
+         else if (tagName.equals(RESETMASK_TAG)) {
+            register.setResetMask(getIntElement());
+         }
+         else if (tagName.equals(DIM_TAG)) {
+            // Save for check or auto generate indices
+            dimensionFromTag = getText().trim();
+         }
+         else if (tagName.equals(DIMINCREMENT_TAG)) {
+            register.setDimensionIncrement((int) getIntElement());
+         }
+         else if (tagName.equals(DIMINDEX_TAG)) {
+            register.setDimensionIndexes(getText());
+         }
+         else if (tagName.equals(ACCESS_TAG)) {
+            register.setAccessType(getAccessType(getText()));
+         }
+         else if (derived)  {
+            throw new Exception(String.format("Unexpected field in derived <register>, p=%s, r=%s, v=%s",
+                  peripheral.getName(), register.getName(), tagName));
+         }
+         else if (tagName.equals(SIZE_TAG)) {
+            register.setWidth(getIntElement());
+         }
+         else if (tagName.equals(MODIFIEDWRITEVALUES_TAG)) {
+            //TODO: Implement modifiedWriteValues
+            skipElement();
+         }
+         else if (tagName.equals(WRITECONSTRAINT_TAG)) {
+            //TODO: Implement writeConstraint
+            skipElement();
+         }
+         else if (tagName.equals(READACTION_TAG)) {
+            //TODO: Implement readAction
+            skipElement();
+         }
+         else if (tagName.equals(FIELDS_TAG)) {
+            parseFields(register);
+         }
+         else if (tagName.equals(ALTERNATEREGISTER_TAG)) {
+            //TODO: Implement alternateRegister
+            skipElement();
+         }
+         else {
+            throw new Exception(String.format("Unexpected field in <register>, p=%s, r=%s, v=%s",
+                  peripheral.getName(), register.getName(), tagName));
+         }
+      }
+      if (register.getWidth() == 0) {
+         register.setWidth(peripheral.getWidth());
+      }
+      if (register.getAccessType() == null) {
+         register.setAccessType(peripheral.getAccessType());
+      }
+      int dim = -1;
+      if (dimensionFromTag == null) {
+         // No dimension set (may inherit)
+      }
+      else {
+         register.setDim(dimensionFromTag);
+
+         dim = Eval.eval(peripheral.getSimpleParameterMap().substitute(dimensionFromTag));
+      }
+      if (dim==0) {
+         // Dimension explicitly set to zero - delete dimension information
+         register.setDimensionIndexes((String)null);
+         register.setDimensionIncrement(0);
+      }
+      if ((register.getDimension() == 0) && (dim > 0)) {
+         if (!dimensionFromTag.contains("$")) {
+            System.err.println("Warning setting auto dimension to r=" + register.getName() + ", d="+dimensionFromTag);
+         }
+         register.setAutoDimension(dim);
+      }
+      register.checkFieldAccess();
+      register.checkFieldDimensions();
+      return register;
+   }
+
+   /**
+    * Parse a <cluster> element
+    *
+    * @param peripheral Peripheral owning cluster
+    *
+    * @return Cluster described
+    *
+    * @throws Exception
+    */
+   private Cluster parseCluster(Peripheral peripheral) throws Exception {
+
+      Cluster cluster = new Cluster(peripheral);
+
+      // Inherit default from device
+      cluster.setAccessType(peripheral.getAccessType());
+      cluster.setResetValue(peripheral.getResetValue());
+      cluster.setResetMask(peripheral.getResetMask());
+
+      String dimensionFromTag = null;
+      int event;
+      while ((event = nextChild()) != XMLStreamConstants.END_ELEMENT) {
+         String tagName = getTagName();
+         if (event == XMLStreamConstants.PROCESSING_INSTRUCTION) {
+            if (tagName.equals(HIDE_PROCESSING)) {
+               cluster.setHidden(true);
+            }
+            else if (tagName.equals(DODERIVEDMACROS_PROCESSING)) {
+               cluster.setDoDerivedMacros(true);
+            }
+            else if (tagName.equals(ISOLATE_PROCESSING)) {
+               cluster.setIsolated();
+            }
+            else if (tagName.equals(KEEPASARRAY_PROCESSING)) {
+               cluster.setKeepAsArray(true);
+            }
+            else {
+               throw new Exception("parseCluster() - unknown attribute '" + tagName + "'");
+            }
+            continue;
+         }
+         if (tagName.equals(DIM_TAG)) {
+            // Save for check or auto generate indices
+            dimensionFromTag = getText().trim();
+         }
+         else if (tagName.equals(DIMINCREMENT_TAG)) {
+            cluster.setDimensionIncrement((int) getIntElement());
+         }
+         else if (tagName.equals(DIMINDEX_TAG)) {
+            cluster.setDimensionIndexes(getText());
+         }
+         else if (tagName.equals(NAME_TAG)) {
+            cluster.setName(mapRegisterName(getText()));
+         }
+         else if (tagName.equals(ADDRESSOFFSET_TAG)) {
+            cluster.setAddressOffset(getIntElement());
+         }
+         else if (tagName.equals(REGISTER_TAG)) {
+            Register register = parseRegister(peripheral, cluster);
+            cluster.addRegister(register);
+            if (register.getWidth() == 0) {
+               register.setWidth(peripheral.getWidth());
+            }
+            if (register.getAccessType() == null) {
+               register.setAccessType(peripheral.getAccessType());
+            }
+         }
+         else {
+            throw new Exception("Unexpected field in CLUSTER', value = \'"+tagName+"\'");
+         }
+      }
+      int dim = -1;
+      if (dimensionFromTag == null) {
+         // No dimension set (may inherit)
+      }
+      else {
+         cluster.setDim(dimensionFromTag);
+         dim = Eval.eval(peripheral.getSimpleParameterMap().substitute(dimensionFromTag));
+      }
+      if (dim==0) {
+         // Dimension explicitly set to zero - delete dimension information
+         cluster.setDimensionIndexes((String)null);
+         cluster.setDimensionIncrement(0);
+      }
+      if ((cluster.getDimension() == 0) && (dim > 0)) {
+         if (!dimensionFromTag.contains("$")) {
+            System.err.println("Warning setting auto dimension to r=" + cluster.getName() + ", d="+dimensionFromTag);
+         }
+         cluster.setAutoDimension(dim);
+      }
+      return cluster;
+   }
+
+   /**
+    * Parse a <registers> element
+    *
+    * @param peripheral Peripheral to add registers to
+    *
+    * @throws Exception
+    */
+   private void parseRegisters(Peripheral peripheral) throws Exception {
+
+      int event;
+      while ((event = nextChild()) != XMLStreamConstants.END_ELEMENT) {
+         if (event != XMLStreamConstants.START_ELEMENT) {
+            continue;
+         }
+         String tagName = getTagName();
+         try {
+            if (tagName.equals(REGISTER_TAG)) {
+               Register register = parseRegister(peripheral, null);
+               peripheral.addRegister(register);
+               if (register.getWidth() == 0) {
+                  register.setWidth(peripheral.getWidth());
+               }
+               if (register.getAccessType() == null) {
+                  register.setAccessType(peripheral.getAccessType());
+               }
+            }
+            else if (tagName.equals(CLUSTER_TAG)) {
+               Cluster cluster = parseCluster(peripheral);
+               peripheral.addRegister(cluster);
+            }
+            else {
+               throw new Exception("Unexpected field in REGISTERS', value = \'"+tagName+"\'");
+            }
+         } catch (Exception e) {
+            System.err.println("parseRegisters() - peripheral = " + peripheral.getName() + ", element tag =" + tagName);
+            throw e;
+         }
+      }
+   }
+
+   /**
+    * Parse a <addressBlock> element
+    *
+    * @return AddressBlock described
+    *
+    * @throws Exception
+    */
+   private AddressBlock parseAddressBlock() throws Exception {
+
+      AddressBlock addressBlock = new AddressBlock();
+
+      int event;
+      while ((event = nextChild()) != XMLStreamConstants.END_ELEMENT) {
+         String tagName = getTagName();
+         if (event == XMLStreamConstants.PROCESSING_INSTRUCTION) {
+            if (tagName.equals(WIDTH_PROCESSING)) {
+               addressBlock.setWidthInBits((int)getIntText(fReader.getPIData()));
+            }
+            else {
+               throw new Exception("Unexpected PROCESSING_INSTRUCTION_NODE node', value = \'"+tagName+"\'");
+            }
+            continue;
+         }
+         if (tagName.equals(OFFSET_TAG)) {
+            addressBlock.setOffset(getIntElement());
+         }
+         else if (tagName.equals(SIZE_TAG)) {
+            addressBlock.setSize(getIntElement());
+         }
+         else if (tagName.equals(WIDTH_TAG)) {
+            addressBlock.setWidthInBits(getIntElement());
+         }
+         else if (tagName.equals(USAGE_TAG)) {
+            addressBlock.setUsage(getText());
+         }
+         else {
+            throw new Exception("Unexpected field in ADDRESSBLOCK', value = \'"+tagName+"\'");
+         }
+      }
+      return addressBlock;
+   }
+
+   /**
+    * Parse a <interrupt> element
+    *
+    * @return InterruptEntry described
+    *
+    * @throws Exception
+    */
+   private InterruptEntry parseInterrupt() throws Exception {
+
+      InterruptEntry interruptEntry = new InterruptEntry();
+      Peripheral peripheral = null;
+      int event;
+      while ((event = nextChild()) != XMLStreamConstants.END_ELEMENT) {
+         if (event != XMLStreamConstants.START_ELEMENT) {
+            continue;
+         }
+         String tagName = getTagName();
+         if (tagName.equals(NAME_TAG)) {
+            String name = getText().trim();
+            interruptEntry.setName(name.replace("INT_", ""));
+         }
+         else if (tagName.equals(DESCRIPTION_TAG)) {
+            interruptEntry.setDescription(getText().trim());
+         }
+         else if (tagName.equals(VALUE_TAG)) {
+            interruptEntry.setIndexNumber((int)getIntElement());
+         }
+         else if (tagName.equals(PERIPHERAL_TAG)) {
+            String name = getFixedVectorPeripheralName(getText().trim());
+            if ("Internal".compareToIgnoreCase(name) != 0) {
+               // Ignores 'internal' IRQs
+               peripheral = fDevicePeripherals.findPeripheral(name);
+               if (peripheral == null) {
+                  throw new Exception("Failed to find peripheral "+name+" for vector");
+               }
+               interruptEntry.addPeripheral(peripheral);
+               peripheral.addInterruptEntry(interruptEntry);
+               if (interruptEntry.getDescription().isEmpty()) {
+                  interruptEntry.setDescription(peripheral.getDescription());
+               }
+            }
+         }
+         else {
+            throw new Exception("Unexpected field in INTERRUPT', value = \'"+tagName+"\'");
+         }
+      }
+      return interruptEntry;
+   }
+
+   /**
+    * Parse a <interrupt> element
+    *
+    * @param peripheral Peripheral owning interrupt
+    *
+    * @return InterruptEntry described
+    *
+    * @throws Exception
+    */
+   private InterruptEntry parseInterrupt(Peripheral peripheral) throws Exception {
+      InterruptEntry interruptEntry =  parseInterrupt();
+      interruptEntry.addPeripheral(peripheral);
+      if (interruptEntry.getDescription().isEmpty()) {
+         interruptEntry.setDescription(peripheral.getDescription());
+      }
+      return interruptEntry;
+   }
+
+   /**
+    * Parse a <peripheral> element
+    *
+    * @param device Device owning peripheral
+    *
+    * @return Peripheral described
+    *
+    * @throws Exception
+    */
+   private Peripheral parsePeripheral(DevicePeripherals device) throws Exception {
+
+      fCurrentPeripheral = null;
+      String     derivedFrom = fReader.getAttributeValue(null, DERIVEDFROM_ATTRIB);
+      boolean    derived     = derivedFrom != null;
+      Peripheral referencedPeripheral = null;
+
+      if (derived) {
+         referencedPeripheral = device.findPeripheral(Peripheral.getMappedPeripheralName(derivedFrom));
+         if (referencedPeripheral == null) {
+            // Try unmapped name
+            referencedPeripheral = device.findPeripheral(derivedFrom);
+            if (referencedPeripheral == null) {
+               for (Peripheral x : device.getPeripherals()) {
+                  System.err.println("Peripherals :" + x.getName());
+               }
+               throw new Exception(
+                     "Referenced peripheral cannot be found: \""+derivedFrom+"\"\n");
+            }
+         }
+         fCurrentPeripheral = (Peripheral) referencedPeripheral.clone();
+      }
+      else {
+         fCurrentPeripheral = new Peripheral(device);
+         // Inherit default from device
+         fCurrentPeripheral.setWidth(device.getWidth());
+         fCurrentPeripheral.setAccessType(device.getAccessType());
+         fCurrentPeripheral.setResetValue(device.getResetValue());
+         fCurrentPeripheral.setResetMask(device.getResetMask());
+      }
+      int event;
+      while ((event = nextChild()) != XMLStreamConstants.END_ELEMENT) {
+         String tagName = getTagName();
+         if (event == XMLStreamConstants.PROCESSING_INSTRUCTION) {
+            String data = fReader.getPIData();
+            if (tagName.equals(SOURCEFILE_PROCESSING)) {
+               fCurrentPeripheral.setSourceFilename(stripQuotes(data));
+            }
+            if (tagName.equals(PREFERREDACCESSWIDTH_PROCESSING)) {
+               fCurrentPeripheral.setBlockAccessWidth((int)getIntText(data));
+            }
+            if (tagName.equals(FORCED_ACCESS_PROCESSING)) {
+               System.err.println("OPPS");
+            }
+            if (tagName.equals(FORCED_BLOCK_PROCESSING)) {
+               fCurrentPeripheral.setForcedBlockMultiple((int)getIntText(data));
+            }
+            if (tagName.equals(REFRESH_WHOLE_PERIPHERAL_PROCESSING)) {
+               fCurrentPeripheral.setRefreshAll(true);
+            }
+            continue;
+         }
+         if (tagName.equals(NAME_TAG)) {
+            fCurrentPeripheral.setName(getText());
+         }
+         else if (tagName.equals(VERSION_TAG)) {
+            //TODO: Implement version
+            skipElement();
+         }
+         else if (tagName.equals(DESCRIPTION_TAG)) {
+            fCurrentPeripheral.setDescription(getText().trim());
+         }
+         else if (tagName.equals(GROUPNAME_TAG)) {
+            fCurrentPeripheral.setGroupName(getText());
+         }
+         else if (tagName.equals(PREPENDTONAME_TAG)) {
+            fCurrentPeripheral.setPrependToName(getText());
+         }
+         else if (tagName.equals(APPENDTONAME_TAG)) {
+            fCurrentPeripheral.setAppendToName(getText());
+         }
+         else if (tagName.equals(HEADERSTRUCTNAME_TAG)) {
+            fCurrentPeripheral.setHeaderStructName(getText());
+         }
+         else if (tagName.equals(BASEADDRESS_TAG)) {
+            fCurrentPeripheral.setBaseAddress(getIntElement());
+         }
+         else if (tagName.equals(INTERRUPT_TAG)) {
+            InterruptEntry interruptEntry;
+            if (fCurrentPeripheral.getName().contains("NVIC")) {
+               interruptEntry = parseInterrupt();
+               System.err.println("Not adding vector for " + fCurrentPeripheral.getName());
+            }
+            else {
+               interruptEntry = parseInterrupt(fCurrentPeripheral);
+            }
+            device.addInterruptEntry(interruptEntry);
+         }
+         else if (tagName.equals(ADDRESSBLOCK_TAG)) {
+            fCurrentPeripheral.addAddressBlock(parseAddressBlock());
+         }
+         else if (tagName.equals(TEMPLATE_TAG)) {
+            fCurrentPeripheral.addTemplate(getText());
+         }
+         else if (derived) {
+            throw new Exception("Unexpected field in derived PERIPHERAL', value = \'"+tagName+"\'");
+         }
+         else if (tagName.equals(ACCESS_TAG)) {
+            fCurrentPeripheral.setAccessType(getAccessType(getText()));
+         }
+         else if (tagName.equals(RESETVALUE_TAG)) {
+            fCurrentPeripheral.setResetValue(getIntElement());
+         }
+         else if (tagName.equals(RESETMASK_TAG)) {
+            fCurrentPeripheral.setResetMask(getIntElement());
+         }
+         else if (tagName.equals(SIZE_TAG)) {
+            fCurrentPeripheral.setWidth(getIntElement());
+         }
+         else if (tagName.equals(REGISTERS_TAG)) {
+            parseRegisters(fCurrentPeripheral);
+         }
+         else if (tagName.equals(PARAMETERS_TAG)) {
+            parseParameters(fCurrentPeripheral);
+         }
+         else {
+            throw new Exception("parsePeripheral() - Unexpected field in PERIPHERAL', value = \'"+tagName+"\'");
+         }
+      }
+      return fCurrentPeripheral;
+   }
+
+   /**
+    * Get path of fragment containing the current element
+    *
+    * @return Path or null if the element is not within an included file
+    *
+    * @throws Exception
+    */
+   private Path getFragmentPath() throws Exception {
+      String systemId = fReader.getLocation().getSystemId();
+      if ((systemId == null) || systemId.equals(fDocumentUris.peekLast().toString())) {
+         return null;
+      }
+      URI uri = new URI(systemId);
+      if (!"file".equals(uri.getScheme())) {
+         return null;
+      }
+      return Paths.get(uri);
+   }
+
+   /**
+    * Parse a <peripheral> element<br>
+    * A peripheral within a file included by the device file (entity or XInclude) is obtained from
+    * the {@link PeripheralCache} if it was previously parsed
+    *
+    * @param device Device owning peripheral
+    *
+    * @return Peripheral described
+    *
+    * @throws Exception
+    */
+   private Peripheral parseSharedPeripheral(DevicePeripherals device) throws Exception {
+      if (!PeripheralCache.isEnabled() || (fReader.getAttributeValue(null, DERIVEDFROM_ATTRIB) != null)) {
+         return parsePeripheral(device);
+      }
+      Path path = getFragmentPath();
+      if (path == null) {
+         return parsePeripheral(device);
+      }
+      Location location = fReader.getLocation();
+      String   key      = PeripheralCache.getKey(path, location.getLineNumber()+":"+location.getColumnNumber(), device);
+
+      Peripheral peripheral = PeripheralCache.get(path, key, device);
+      if (peripheral != null) {
+         skipElement();
+         fCurrentPeripheral = peripheral;
+         return peripheral;
+      }
+      peripheral = parsePeripheral(device);
+      if (peripheral.getInterruptEntries() == null) {
+         // Interrupts refer to the device so can't be shared
+         PeripheralCache.put(path, key, peripheral);
+      }
+      return peripheral;
+   }
+
+   /**
+    * Parse a <parameters> element
+    *
+    * @param peripheral Peripheral to add parameters to
+    *
+    * @throws Exception
+    */
+   private void parseParameters(Peripheral peripheral) throws Exception {
+
+      int event;
+      while ((event = nextChild()) != XMLStreamConstants.END_ELEMENT) {
+         if (event != XMLStreamConstants.START_ELEMENT) {
+            continue;
+         }
+         String tagName = getTagName();
+         try {
+            if (tagName.equals(PARAMETER_TAG)) {
+               parseParameter(peripheral);
+            }
+            else {
+               throw new Exception("Unexpected field in PARAMETERS', value = \'"+tagName+"\'");
+            }
+         } catch (Exception e) {
+            System.err.println("parseParameters() - peripheral = " + peripheral.getName() + ", element tag =" + tagName);
+            throw e;
+         }
+      }
+   }
+
+   /**
+    * Parse a <parameter> element
+    *
+    * @param peripheral Peripheral to add parameter to
+    *
+    * @throws Exception
+    */
+   private void parseParameter(Peripheral peripheral) throws Exception {
+
+      Parameter parameter = new Parameter();
+
+      int event;
+      while ((event = nextChild()) != XMLStreamConstants.END_ELEMENT) {
+         if (event != XMLStreamConstants.START_ELEMENT) {
+            continue;
+         }
+         String tagName = getTagName();
+         try {
+            if (tagName.equals(NAME_TAG)) {
+               parameter.setName(getText().trim());
+            }
+            else if (tagName.equals(VALUE_TAG)) {
+               parameter.setValue(getText().trim());
+            }
+            else if (tagName.equals(DESCRIPTION_TAG)) {
+               parameter.setDescription(getText().trim().replaceAll("\n", " "));
+            }
+            else {
+               throw new Exception("Unexpected field in PARAMETER', value = \'"+tagName+"\'");
+            }
+         } catch (Exception e) {
+            System.err.println("parseParameter() - peripheral = " + peripheral.getName() + ", element tag =" + tagName);
+            throw e;
+         }
+      }
+      peripheral.addParameter(parameter);
+   }
+
+   /**
+    * Parse a <peripherals> element
+    *
+    * @param device Device to add peripherals to
+    *
+    * @throws Exception
+    */
+   private void parsePeripherals(DevicePeripherals device) throws Exception {
+
+      int event;
+      while ((event = nextChild()) != XMLStreamConstants.END_ELEMENT) {
+         if (event != XMLStreamConstants.START_ELEMENT) {
+            continue;
+         }
+         String tagName = getTagName();
+         if (tagName.equals(PERIPHERAL_TAG)) {
+            Peripheral peripheral;
+            try {
+               peripheral = parseSharedPeripheral(device);
+            } catch (Exception e) {
+               System.err.println("parsePeripherals() device = " + device.getName() + ", Tag = " + PERIPHERALS_TAG);
+               throw e;
+            }
+            device.addPeripheral(peripheral);
+            if (peripheral.getWidth() == 0) {
+               peripheral.setWidth(device.getWidth());
+            }
+            if (peripheral.getAccessType() == null) {
+               peripheral.setAccessType(device.getAccessType());
+            }
+         }
+         else {
+            throw new Exception("Unexpected field in PERIPHERALS', value = \'"+tagName+"\'");
+         }
+      }
+   }
+
+   /**
+    * Parse a <cpu> element<br>
+    * The CPU is created from the <name> element so other elements are saved until it is found
+    *
+    * @param devicePeripherals Device to add CPU to
+    *
+    * @throws Exception
+    */
+   private void parseCpu(DevicePeripherals devicePeripherals) throws Exception {
+
+      ArrayList<String> tagNames = new ArrayList<String>();
+      ArrayList<String> texts    = new ArrayList<String>();
+      String name = null;
+      int nameCount = 0;
+      int event;
+      while ((event = nextChild()) != XMLStreamConstants.END_ELEMENT) {
+         if (event != XMLStreamConstants.START_ELEMENT) {
+            continue;
+         }
+         String tagName = getTagName();
+         String text    = getText();
+         if (tagName.equals(NAME_TAG)) {
+            name = text;
+            nameCount++;
+         }
+         tagNames.add(tagName);
+         texts.add(text);
+      }
+      if (nameCount != 1) {
+         throw new Exception("Expected single <name> node in <cpu>");
+      }
+      Cpu cpu = new Cpu(name);
+
+      for (int index=0; index<tagNames.size(); index++) {
+         String tagName = tagNames.get(index);
+         String text    = texts.get(index);
+         if (tagName.equals(NAME_TAG)) {
+            // Already processed
+            continue;
+         }
+         else if (tagName.equals(REVISION_TAG)) {
+            cpu.setRevision(text);
+         }
+         else if (tagName.equals(ENDIAN_TAG)) {
+            cpu.setEndian(text);
+         }
+         else if (tagName.equals(MPUPRESENT_TAG)) {
+            cpu.setMpuPresent(text.equalsIgnoreCase(TRUE_TAG));
+         }
+         else if (tagName.equals(FPUPRESENT_TAG)) {
+            cpu.setFpuPresent(text.equalsIgnoreCase(TRUE_TAG));
+         }
+         else if (tagName.equals(VTORPRESENT_TAG)) {
+            cpu.setVtorPresent(text.equalsIgnoreCase(TRUE_TAG));
+         }
+         else if (tagName.equals(NVICPRIOBITS_TAG)) {
+            cpu.setNvicPrioBits((int)getIntText(text));
+         }
+         else if (tagName.equals(VENDORSYSTICKCONFIG_TAG)) {
+            // Ignored
+         }
+         else {
+            throw new Exception("Unexpected field in CPU, value = \'"+tagName+"\'");
+         }
+      }
+      devicePeripherals.setCpu(cpu);
+   }
+
+   /**
+    * Parse a <interrupts> element
+    *
+    * @param devicePeripherals Device to add interrupts to
+    *
+    * @throws Exception
+    */
+   private void parseInterrupts(DevicePeripherals devicePeripherals) throws Exception {
+      int lastEntryNumber = -1000;
+      VectorTable vectorTable = VectorTable.factory(devicePeripherals.getCpu().getName());
+
+      int event;
+      while ((event = nextChild()) != XMLStreamConstants.END_ELEMENT) {
+         if (event != XMLStreamConstants.START_ELEMENT) {
+            continue;
+         }
+         String tagName = getTagName();
+         if (tagName.equals(NAME_TAG)) {
+            vectorTable.setName(getText());
+         }
+         else if (tagName.equals(DESCRIPTION_TAG)) {
+            vectorTable.setDescription(getText().trim().replaceAll("\n", " "));
+         }
+         else if (tagName.equals(INTERRUPT_TAG)) {
+            InterruptEntry entry = parseInterrupt();
+            if (entry.getIndexNumber() <= lastEntryNumber) {
+               throw new Exception("Interrupt vectors must be monotonic, # + " + entry.getIndexNumber());
+            }
+            lastEntryNumber = entry.getIndexNumber();
+            if (vectorTable.getEntry(lastEntryNumber) != null) {
+               throw new Exception("Repeated Interrupt number");
+            }
+            if (entry.getIndexNumber()<0) {
+               System.err.println("Warning: Discarding predefined vector \""+entry.getName()+"\"");
+               continue;
+            }
+            vectorTable.addEntry(entry);
+            if (((entry.getPeripherals() == null) || (entry.getPeripherals().size() == 0)) &&
+                  !entry.getName().equals("SWI")) {
+               System.err.println("Vector Entry " + entry.getName() + ", Per = none!!");
+            }
+         }
+         else {
+            System.err.println("Unexpected field in <interrupts>', value = \'"+tagName+"\'");
+            skipElement();
+         }
+      }
+      if (vectorTable.getName() == null) {
+         vectorTable.setName(devicePeripherals.getName()+"_VectorTable.svd");
+      }
+      devicePeripherals.setVectorTable(vectorTable);
+   }
+
+   /**
+    * Parse a <vendorExtensions> element
+    *
+    * @param devicePeripherals Device to add vector table to
+    *
+    * @throws Exception
+    */
+   private void parseVendorExtensions(DevicePeripherals devicePeripherals) throws Exception {
+      int event;
+      while ((event = nextChild()) != XMLStreamConstants.END_ELEMENT) {
+         if (event != XMLStreamConstants.START_ELEMENT) {
+            continue;
+         }
+         String tagName = getTagName();
+         if (tagName.equals(INTERRUPTS_TAG)) {
+            parseInterrupts(devicePeripherals);
+         }
+         else {
+            System.err.println("Unexpected field in <vendorExtensions>', value = \'"+tagName+"\'");
+            skipElement();
+         }
+      }
+   }
+
+   /**
+    * Parse a <device> element
+    *
+    * @param devicePeripherals Device to fill in
+    *
+    * @throws Exception
+    */
+   private void parseDevice(DevicePeripherals devicePeripherals) throws Exception {
+      int event;
+      while ((event = nextChild()) != XMLStreamConstants.END_ELEMENT) {
+         if (event != XMLStreamConstants.START_ELEMENT) {
+            continue;
+         }
+         String tagName = getTagName();
+         if (tagName.equals(NAME_TAG)) {
+            devicePeripherals.setName(getText());
+         }
+         else if (tagName.equals(VERSION_TAG)) {
+            devicePeripherals.setVersion(getText());
+         }
+         else if (tagName.equals(DESCRIPTION_TAG)) {
+            devicePeripherals.setDescription(getText().trim());
+         }
+         else if (tagName.equals(ADDRESSUNITSBITS_TAG)) {
+            devicePeripherals.setAddressUnitBits(getIntElement());
+         }
+         else if (tagName.equals(WIDTH_TAG)) {
+            devicePeripherals.setWidth(getIntElement());
+         }
+         else if (tagName.equals(SIZE_TAG)) {
+            devicePeripherals.setWidth(getIntElement());
+         }
+         else if (tagName.equals(ACCESS_TAG)) {
+            devicePeripherals.setAccessType(getAccessType(getText()));
+         }
+         else if (tagName.equals(RESETVALUE_TAG)) {
+            devicePeripherals.setResetValue(getIntElement());
+         }
+         else if (tagName.equals(RESETMASK_TAG)) {
+            devicePeripherals.setResetMask(getIntElement());
+         }
+         else if (tagName.equals(PERIPHERALS_TAG)) {
+            parsePeripherals(devicePeripherals);
+         }
+         else if (tagName.equals(CPU_TAG)) {
+            parseCpu(devicePeripherals);
+         }
+         else if (tagName.equals(VENDOR_TAG)) {
+            devicePeripherals.setVendor(getText());
+         }
+         else if (tagName.equals(VENDORID_TAG)) {
+            devicePeripherals.setVendor(getText());
+         }
+         else if (tagName.equals(LICENSE_TAG)) {
+            devicePeripherals.setLicense(getText());
+         }
+         else if (tagName.equals(SERIES_TAG)) {
+            // Ignore
+            skipElement();
+         }
+         else if (tagName.equals(VENDOREXTENSIONS_TAG)) {
+            parseVendorExtensions(devicePeripherals);
+         }
+         else if (tagName.equals(HEADERDEFINITIONSPREFIX_TAG)) {
+            devicePeripherals.setHeaderDefinitionsPrefix(getText());
+         }
+         else {
+            throw new Exception("Unexpected field in DEVICE, value = \'"+tagName+"\'");
+         }
+      }
+   }
+
+   /**
+    * Parses document from top element
+    *
+    * @param path               Path of SVD file
+    * @param devicePeripherals  Device to fill in
+    *
+    * @throws Exception
+    */
+   @Override
+   public void parseDocument(Path path, DevicePeripherals devicePeripherals) throws Exception {
+
+      fDevicePeripherals = devicePeripherals;
+
+      if (!Files.isReadable(path)) {
+         throw new Exception("Unable to read \"" + path + "\"");
+      }
+      try {
+         openDocument(path.toAbsolutePath().toUri());
+         int event;
+         do {
+            event = nextEvent();
+            if (event == XMLStreamConstants.END_DOCUMENT) {
+               throw new Exception("Failed to find document element");
+            }
+         } while (event != XMLStreamConstants.START_ELEMENT);
+         parseDevice(devicePeripherals);
+      } finally {
+         closeAll();
+      }
+   }
+}
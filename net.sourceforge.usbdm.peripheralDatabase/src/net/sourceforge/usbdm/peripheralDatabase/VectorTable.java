@@ -208,6 +208,25 @@ public abstract class VectorTable extends ModeControl {
       return Arrays.equals(interrupts, o.interrupts);
    }
 
+   /**
+    * Get fingerprint consistent with {@link #equals(Object)}
+    *
+    * @return Fingerprint
+    */
+   long getFingerprint() {
+      long hash = Fingerprint.SEED;
+      for (InterruptEntry entry:interrupts) {
+         if (entry == null) {
+            hash = Fingerprint.add(hash, -1);
+            continue;
+         }
+         hash = Fingerprint.add(hash, entry.getIndexNumber());
+         hash = Fingerprint.addIgnoreCase(hash, entry.getName());
+         hash = Fingerprint.addIgnoreCase(hash, entry.getDescription());
+      }
+      return hash;
+   }
+
    /**
     * Gets interrupt entry for given number
     * 
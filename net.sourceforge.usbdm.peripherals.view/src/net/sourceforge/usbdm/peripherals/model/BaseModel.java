@@ -57,6 +57,16 @@ public abstract class BaseModel extends ObservableModel {
       return fChildren;
    }
 
+   /**
+    * Indicates if this element has children<br>
+    * This may avoid creating the children
+    * 
+    * @return true if there are children
+    */
+   public boolean hasChildren() {
+      return fChildren.size() > 0;
+   }
+
    /**
     * Gets the name of the tree item
     * 
@@ -98,12 +98,8 @@ public class FieldModel extends BaseModel implements UpdateInterface {
     */
    @Override
    public boolean isChanged() {
-      try {
-         return getValue() != getLastValue();
-      } catch (MemoryException e) {
-         // Quietly ignore
-      }
-      return false;
+      RegisterModel parent = (RegisterModel) fParent;
+      return (((1l<<fSize)-1)&(parent.getChangedMask()>>fBitOffset)) != 0;
    }
 
    /* (non-Javadoc)
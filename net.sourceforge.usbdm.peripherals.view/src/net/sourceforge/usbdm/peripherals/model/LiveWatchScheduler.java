@@ -0,0 +1,400 @@
+package net.sourceforge.usbdm.peripherals.model;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.swt.widgets.Display;
+
+import net.sourceforge.usbdm.peripheralDatabase.RegisterException;
+
+/**
+ * Periodically samples selected registers/peripherals from the target while it is running (live watch)<br>
+ *
+ * <ul>
+ * <li>All sampling is done on a single scheduler thread
+ * <li>The watched blocks are read together using {@link MemoryReadScheduler#readBlocks(ArrayList)} so
+ *     nearby blocks are merged into a single target access
+ * <li>Blocks containing isolated registers (e.g. registers with read side-effects) are never watched
+ * <li>If a sample takes too long or fails (link saturated) the sample period is increased and then
+ *     gradually returned to the requested period
+ * <li>UI updates are coalesced - at most one is pending at any time and it notifies listeners of all blocks
+ *     that changed since the previous update
+ * </ul>
+ */
+public class LiveWatchScheduler {
+
+   /**
+    * Statistics for live watch
+    */
+   public static class Statistics {
+      /** Number of samples taken */
+      public final long   fSamples;
+      /** Number of samples missed at the requested rate (due to back-off or overrun) */
+      public final long   fDroppedSamples;
+      /** Number of samples where no block could be read */
+      public final long   fFailedSamples;
+      /** Achieved sample rate (Hz) */
+      public final double fSampleRate;
+      /** Requested sample period (ms) */
+      public final int    fRequestedPeriod;
+      /** Current sample period after back-off (ms) */
+      public final int    fPeriod;
+
+      Statistics(long samples, long droppedSamples, long failedSamples, double sampleRate, int requestedPeriod, int period) {
+         fSamples         = samples;
+         fDroppedSamples  = droppedSamples;
+         fFailedSamples   = failedSamples;
+         fSampleRate      = sampleRate;
+         fRequestedPeriod = requestedPeriod;
+         fPeriod          = period;
+      }
+
+      @Override
+      public String toString() {
+         return String.format("Live watch: %.1f Hz (requested %.1f Hz), samples=%d, dropped=%d, failed=%d",
+               fSampleRate, 1000.0/fRequestedPeriod, fSamples, fDroppedSamples, fFailedSamples);
+      }
+   }
+
+   /** Default sample period (ms) */
+   public static final int DEFAULT_PERIOD = 200;
+
+   /** Shortest sample period allowed (ms) */
+   public static final int MINIMUM_PERIOD = 10;
+
+   /** Largest factor the sample period is increased by when backing off */
+   private static final int MAXIMUM_BACKOFF = 16;
+
+   /** Link is considered saturated if a sample takes longer than this fraction of the period */
+   private static final double SATURATION_RATIO = 0.5;
+
+   /** Weight given to the latest sample when filtering sample rate */
+   private static final double RATE_FILTER = 0.2;
+
+   private static LiveWatchScheduler fScheduler = null;
+
+   /**
+    * Get shared live watch scheduler
+    *
+    * @return Scheduler
+    */
+   public static synchronized LiveWatchScheduler getScheduler() {
+      if (fScheduler == null) {
+         fScheduler = new LiveWatchScheduler();
+      }
+      return fScheduler;
+   }
+
+   /** Single thread used for sampling */
+   private final ScheduledExecutorService fExecutor;
+
+   /** Blocks being watched */
+   private final LinkedHashSet<MemoryBlockCache> fWatchedBlocks = new LinkedHashSet<MemoryBlockCache>();
+
+   /** Blocks changed since last UI update */
+   private final LinkedHashSet<MemoryBlockCache> fChangedBlocks = new LinkedHashSet<MemoryBlockCache>();
+
+   /** Indicates a UI update has been posted but not yet run */
+   private boolean fUiUpdatePending = false;
+
+   /** Next sample (null if not running) */
+   private ScheduledFuture<?> fSampleFuture = null;
+
+   /** Incremented each time sampling is started so a sample from a previous start is not re-scheduled */
+   private int fGeneration = 0;
+
+   private int    fRequestedPeriod = DEFAULT_PERIOD;
+   private int    fPeriod          = DEFAULT_PERIOD;
+   private long   fLastSampleTime  = 0;
+   private double fSampleRate      = 0;
+   private long   fSamples         = 0;
+   private long   fDroppedSamples  = 0;
+   private long   fFailedSamples   = 0;
+
+   private final Runnable fSampleTask = new Runnable() {
+      @Override
+      public void run() {
+         int generation;
+         synchronized (LiveWatchScheduler.this) {
+            generation = fGeneration;
+         }
+         try {
+            sample();
+         } catch (Exception e) {
+            // Don't let an unexpected error stop the scheduler
+            e.printStackTrace();
+            synchronized (LiveWatchScheduler.this) {
+               // Sampling may have been restarted (and a new sample scheduled) while this sample ran
+               if ((fSampleFuture != null) && (generation == fGeneration)) {
+                  scheduleNextSample(fPeriod);
+               }
+            }
+         }
+      }
+   };
+
+   private final Runnable fUiUpdateTask = new Runnable() {
+      @Override
+      public void run() {
+         ArrayList<MemoryBlockCache> changedBlocks;
+         synchronized (LiveWatchScheduler.this) {
+            changedBlocks = new ArrayList<MemoryBlockCache>(fChangedBlocks);
+            fChangedBlocks.clear();
+            fUiUpdatePending = false;
+         }
+         for (MemoryBlockCache block:changedBlocks) {
+            block.notifyAllChangeListeners();
+         }
+      }
+   };
+
+   private LiveWatchScheduler() {
+      fExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+         @Override
+         public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Peripheral live watch");
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+   }
+
+   /**
+    * Add block to live watch
+    *
+    * @param block Block to add
+    *
+    * @return true if added, false if the block may not be watched (not readable or isolated)
+    */
+   synchronized boolean addWatch(MemoryBlockCache block) {
+      if ((block == null) || !block.isReadable() || block.isIsolated()) {
+         return false;
+      }
+      fWatchedBlocks.add(block);
+      return true;
+   }
+
+   /**
+    * Add register to live watch<br>
+    * The entire memory block containing the register is sampled.
+    *
+    * @param register Register to add
+    *
+    * @return true if added, false if the register may not be watched (not readable or has read side-effects)
+    */
+   public boolean addWatch(RegisterModel register) {
+      return addWatch(register.getMemoryBlockCache());
+   }
+
+   /**
+    * Add peripheral to live watch<br>
+    * Memory blocks that contain registers with read side-effects are skipped.
+    *
+    * @param peripheral Peripheral to add
+    *
+    * @return Number of memory blocks added
+    *
+    * @throws RegisterException
+    */
+   public int addWatch(PeripheralModel peripheral) throws RegisterException {
+      int added = 0;
+      for (MemoryBlockCache block:peripheral.getMemoryBlockCaches()) {
+         if (addWatch(block)) {
+            added++;
+         }
+      }
+      return added;
+   }
+
+   /**
+    * Remove register from live watch
+    *
+    * @param register Register to remove
+    */
+   public synchronized void removeWatch(RegisterModel register) {
+      fWatchedBlocks.remove(register.getMemoryBlockCache());
+   }
+
+   /**
+    * Remove peripheral from live watch
+    *
+    * @param peripheral Peripheral to remove
+    *
+    * @throws RegisterException
+    */
+   public synchronized void removeWatch(PeripheralModel peripheral) throws RegisterException {
+      fWatchedBlocks.removeAll(peripheral.getMemoryBlockCaches());
+   }
+
+   /**
+    * Remove all watches
+    */
+   public synchronized void clearWatches() {
+      fWatchedBlocks.clear();
+   }
+
+   /**
+    * Get number of memory blocks being watched
+    *
+    * @return Number of blocks
+    */
+   public synchronized int getWatchCount() {
+      return fWatchedBlocks.size();
+   }
+
+   /**
+    * Set requested sample period
+    *
+    * @param period Period in milliseconds (limited to MINIMUM_PERIOD)
+    */
+   public synchronized void setPeriod(int period) {
+      fRequestedPeriod = Math.max(MINIMUM_PERIOD, period);
+      fPeriod          = fRequestedPeriod;
+   }
+
+   /**
+    * Get requested sample period
+    *
+    * @return Period in milliseconds
+    */
+   public synchronized int getPeriod() {
+      return fRequestedPeriod;
+   }
+
+   /**
+    * Start sampling
+    */
+   public synchronized void start() {
+      if (fSampleFuture != null) {
+         return;
+      }
+      fGeneration++;
+      fPeriod         = fRequestedPeriod;
+      fLastSampleTime = 0;
+      fSampleRate     = 0;
+      scheduleNextSample(0);
+   }
+
+   /**
+    * Stop sampling<br>
+    * A sample in progress is allowed to complete.
+    */
+   public synchronized void stop() {
+      if (fSampleFuture != null) {
+         fSampleFuture.cancel(false);
+         fSampleFuture = null;
+      }
+      fSampleRate = 0;
+   }
+
+   /**
+    * Indicates if sampling is active
+    *
+    * @return true if running
+    */
+   public synchronized boolean isRunning() {
+      return fSampleFuture != null;
+   }
+
+   /**
+    * Get statistics
+    *
+    * @return Snapshot of statistics
+    */
+   public synchronized Statistics getStatistics() {
+      return new Statistics(fSamples, fDroppedSamples, fFailedSamples, fSampleRate, fRequestedPeriod, fPeriod);
+   }
+
+   /**
+    * Reset statistics
+    */
+   public synchronized void resetStatistics() {
+      fSamples        = 0;
+      fDroppedSamples = 0;
+      fFailedSamples  = 0;
+   }
+
+   /**
+    * Schedule next sample
+    *
+    * @param delay Delay in milliseconds
+    *
+    * @note Called with lock held
+    */
+   private void scheduleNextSample(long delay) {
+      fSampleFuture = fExecutor.schedule(fSampleTask, delay, TimeUnit.MILLISECONDS);
+   }
+
+   /**
+    * Read all watched blocks from target, adjust the sample period and post a UI update for changed blocks
+    *
+    * @note Runs on the scheduler thread
+    */
+   void sample() {
+      ArrayList<MemoryBlockCache> blocks;
+      int generation;
+      synchronized (this) {
+         if (fSampleFuture == null) {
+            // Stopped
+            return;
+         }
+         generation = fGeneration;
+         blocks = new ArrayList<MemoryBlockCache>(fWatchedBlocks);
+      }
+      int[] previousChangeCount = new int[blocks.size()];
+      for (int index=0; index<blocks.size(); index++) {
+         previousChangeCount[index] = blocks.get(index).getChangeCount();
+      }
+      long startTime = System.nanoTime();
+      MemoryReadScheduler.ReadCount count = null;
+      if (!blocks.isEmpty()) {
+         count = MemoryReadScheduler.getScheduler().readBlocks(new ArrayList<MemoryBlockCache>(blocks));
+      }
+      long duration = (System.nanoTime()-startTime)/1000000;
+
+      synchronized (this) {
+         fSamples++;
+         boolean failed = (count != null) && (count.fFailedBlocks == blocks.size());
+         if (failed) {
+            fFailedSamples++;
+         }
+         if (fLastSampleTime != 0) {
+            long interval = startTime-fLastSampleTime;
+            long missed   = (interval/(fRequestedPeriod*1000000L))-1;
+            if (missed > 0) {
+               fDroppedSamples += missed;
+            }
+            double rate = 1000000000.0/Math.max(1, interval);
+            fSampleRate = (fSampleRate == 0)?rate:(fSampleRate+(RATE_FILTER*(rate-fSampleRate)));
+         }
+         fLastSampleTime = startTime;
+
+         // Back off if link saturated or target not accessible
+         if (failed || (duration > (fPeriod*SATURATION_RATIO))) {
+            fPeriod = Math.min(2*fPeriod, MAXIMUM_BACKOFF*fRequestedPeriod);
+         }
+         else if (fPeriod > fRequestedPeriod) {
+            fPeriod = Math.max(fRequestedPeriod, (3*fPeriod)/4);
+         }
+         // Only notify listeners of blocks that have changed
+         for (int index=0; index<blocks.size(); index++) {
+            MemoryBlockCache block = blocks.get(index);
+            if (previousChangeCount[index] != block.getChangeCount()) {
+               fChangedBlocks.add(block);
+            }
+         }
+         if (!fChangedBlocks.isEmpty() && !fUiUpdatePending) {
+            fUiUpdatePending = true;
+            Display.getDefault().asyncExec(fUiUpdateTask);
+         }
+         if ((fSampleFuture != null) && (generation == fGeneration)) {
+            scheduleNextSample(Math.max(0, fPeriod-duration));
+         }
+      }
+   }
+}
@@ -9,18 +9,11 @@ package net.sourceforge.usbdm.peripherals.model;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.concurrent.TimeoutException;
 
 import net.sourceforge.usbdm.peripheralDatabase.AddressBlock;
 import net.sourceforge.usbdm.peripheralDatabase.Peripheral;
 import net.sourceforge.usbdm.peripherals.view.GdbCommonInterface;
 
-import org.eclipse.core.runtime.IProgressMonitor;
-import org.eclipse.core.runtime.IStatus;
-import org.eclipse.core.runtime.Status;
-import org.eclipse.core.runtime.jobs.Job;
-import org.eclipse.swt.widgets.Display;
-
 public class MemoryBlockCache {
       private final long fAddress;
       private final long fSizeInBytes;
@@ -30,16 +23,28 @@ public class MemoryBlockCache {
       
       // Data caching the value from target
       private byte[]             fData;
-      // Reference copy of data for change indication
+      // Reference copy of data for change indication (buffer is swapped with fData rather than copied)
       private byte[]             fLastData;
+      // Current data is to become the reference on the next read (fData and fLastData buffers are swapped)
+      private boolean            fReferencePending;
+      // One bit per byte indicating the byte differs from the reference (updated when data or reference changes)
+      private long[]             fChangedBits;
+      // Incremented each time the data or reference changes - used to cache values derived from changes
+      private int                fChangeCount;
       // Indicates block is inaccessible (access error)
       private boolean            fInaccessible;
       // Indicates data is out of date
       private boolean            fNeedsUpdate;
       // Update from target has been scheduled
       private boolean            fUpdatePending;
+      // Block contains isolated registers (e.g. read side-effects) and must be read by itself
+      private boolean            fIsolated;
       // Interface to target
       private GdbCommonInterface fGdbInterface = null;
+      // Peripheral owning this block
+      private final Peripheral   fPeripheral;
+      // All blocks of the owning peripheral (including this one)
+      private ArrayList<MemoryBlockCache> fPeripheralBlocks = null;
       // Listeners on changes in the block data
       private ArrayList<MemoryBlockChangeListener> fChangeListeners = new ArrayList<MemoryBlockChangeListener>();
           
@@ -51,6 +56,7 @@ public class MemoryBlockCache {
          fUpdatePending   = false;
          fGdbInterface    = gdbInterface; 
          fWriteable       = false;
+         fPeripheral      = peripheral;
       }
       
       /**
@@ -62,10 +68,19 @@ public class MemoryBlockCache {
          fChangeListeners.add(listener);
       }
       
+      /**
+       * Removes the listener from the objects receiving change notification 
+       * 
+       * @param listener
+       */
+      public void removeChangeListener(MemoryBlockChangeListener listener) {
+         fChangeListeners.remove(listener);
+      }
+      
       /**
        * Notifies all change listeners
        */
-      private void notifyAllChangeListeners() {
+      void notifyAllChangeListeners() {
          for (MemoryBlockChangeListener changeListener : fChangeListeners) {
 //            System.err.println("MemoryBlockCache.notifyAllChangeListeners(), changeListeners = " + changeListener.toString());
             changeListener.notifyMemoryChanged(this);
@@ -98,7 +113,8 @@ public class MemoryBlockCache {
 
       /**
        * Gets an 8, 16 or 32-bit value<br>
-       * Does not trigger change listeners
+       * Does not trigger change listeners<br>
+       * Synchronized as the data buffers are swapped by {@link #setData(byte[], int)} on another thread
        * 
        * @param address
        * @param sizeInBytes size in bytes!
@@ -106,7 +122,7 @@ public class MemoryBlockCache {
        * @return value
        * @throws MemoryException 
        */
-      public long getValue(long address, int sizeInBytes) throws MemoryException {
+      public synchronized long getValue(long address, int sizeInBytes) throws MemoryException {
          allocateDataIfNeeded();
          if (fGdbInterface == null) {
             return 0;
@@ -186,14 +202,17 @@ public class MemoryBlockCache {
        * 
        * @throws Exception 
        */
-      public void setValue(long address, int sizeInBytes, long value) throws Exception {
+      public synchronized void setValue(long address, int sizeInBytes, long value) throws Exception {
 //         System.err.println(String.format("MemoryBlockCache.setValue() a=0x%X, v=%d, s=%d bytes", address, value, sizeInBytes));
          allocateDataIfNeeded();
+         resolvePendingReference();
          switch (sizeInBytes) {
          case 1:  set8bitValue(address, value);     break;
          case 2:  set16bitValue(address, value);    break;
          case 4:  set32bitValue(address, value);    break;
          }
+         long offset = address-fAddress;
+         updateChangedBits((int)offset, (int)Math.min(offset+sizeInBytes, fSizeInBytes));
       }
       
       /**
@@ -203,9 +222,71 @@ public class MemoryBlockCache {
          if (fData == null) {
             fData = new byte[(int) getSize()];
             Arrays.fill(fData, (byte)0xAA);
+            fChangedBits = new long[(fData.length+63)/64];
          }
       }
 
+      /**
+       * Get data used as reference for changes
+       * 
+       * @return Reference data or null if no reference has been set
+       */
+      private byte[] getReferenceData() {
+         return fReferencePending?fData:fLastData;
+      }
+
+      /**
+       * Copies the current data to the reference if the buffer swap has not yet been done.<br>
+       * Used before the current data is modified other than by a read.
+       */
+      private void resolvePendingReference() {
+         if (fReferencePending) {
+            System.arraycopy(fData, 0, fLastData, 0, fData.length);
+            fReferencePending = false;
+         }
+      }
+
+      /**
+       * Update the changed bits for a range of bytes by comparing the data against the reference
+       * 
+       * @param start   Offset of first byte
+       * @param end     Offset past last byte
+       */
+      private void updateChangedBits(int start, int end) {
+         if ((start == 0) && (end == fData.length)) {
+            Arrays.fill(fChangedBits, 0L);
+         }
+         else {
+            for (int index=start; index<end; index++) {
+               fChangedBits[index>>6] &= ~(1L<<(index&63));
+            }
+         }
+         byte[] referenceData = getReferenceData();
+         if ((referenceData != null) && (referenceData != fData)) {
+            int index = start;
+            while (index < end) {
+               int mismatch = Arrays.mismatch(fData, index, end, referenceData, index, end);
+               if (mismatch < 0) {
+                  break;
+               }
+               index += mismatch;
+               fChangedBits[index>>6] |= 1L<<(index&63);
+               index++;
+            }
+         }
+         fChangeCount++;
+      }
+
+      /**
+       * Get count that changes each time the data or change reference is modified<br>
+       * Used to cache values derived from the data e.g. changed bit masks
+       * 
+       * @return Change count
+       */
+      synchronized int getChangeCount() {
+         return fChangeCount;
+      }
+
       /**
        * Get 8-bit value from last data value reference
        * 
@@ -217,13 +298,14 @@ public class MemoryBlockCache {
        */
       private long get8bitLastValue(long address) throws MemoryException {
          long offset = address-fAddress;
-         if (fLastData == null) {
+         byte[] referenceData = getReferenceData();
+         if (referenceData == null) {
             throw new MemoryException("memoryBlockCache.get8bitLastValue() no data read");
          }
-         if ((offset<0) || (offset>=fLastData.length)) {
+         if ((offset<0) || (offset>=referenceData.length)) {
             return 0;
          }
-         return fGdbInterface.getValue8bit(fLastData, (int)offset);
+         return fGdbInterface.getValue8bit(referenceData, (int)offset);
       }
       
       /**
@@ -237,13 +319,14 @@ public class MemoryBlockCache {
        */
       private long get16bitLastValue(long address) throws MemoryException {
          long offset = address-fAddress;
-         if (fLastData == null) {
+         byte[] referenceData = getReferenceData();
+         if (referenceData == null) {
             throw new MemoryException("memoryBlockCache.get16bitLastValue() no data read");
          }
-         if ((offset<0) || (offset>=fLastData.length)) {
+         if ((offset<0) || (offset>=referenceData.length)) {
             return 0;
          }
-         return fGdbInterface.getValue16bit(fLastData, (int)offset);
+         return fGdbInterface.getValue16bit(referenceData, (int)offset);
       }
 
       /**
@@ -257,13 +340,14 @@ public class MemoryBlockCache {
        */
       private long get32bitLastValue(long address) throws MemoryException {
          long offset = address-fAddress;
-         if (fLastData == null) {
+         byte[] referenceData = getReferenceData();
+         if (referenceData == null) {
             throw new MemoryException("memoryBlockCache.get32bitLastValue() no data read");
          }
-         if ((offset<0) || (offset>=fLastData.length)) {
+         if ((offset<0) || (offset>=referenceData.length)) {
             return 0;
          }
-         return fGdbInterface.getValue32bit(fLastData, (int)offset);
+         return fGdbInterface.getValue32bit(referenceData, (int)offset);
       }
 
       /**
@@ -275,7 +359,7 @@ public class MemoryBlockCache {
        * @return Value
        * @throws MemoryException 
        */
-      public long getLastValue(long address, int sizeInBytes) throws MemoryException {
+      public synchronized long getLastValue(long address, int sizeInBytes) throws MemoryException {
          switch (sizeInBytes) {
          case 1:  return get8bitLastValue(address);
          case 2:  return get16bitLastValue(address);
@@ -347,6 +431,72 @@ public class MemoryBlockCache {
          fReadable = readable;
       }
 
+      /**
+       * Indicates the block contains isolated registers e.g. registers with read side-effects.<br>
+       * Such blocks are never read together with other blocks.
+       * 
+       * @return the isolated
+       */
+      public boolean isIsolated() {
+         return fIsolated;
+      }
+
+      /**
+       * @param isolated the isolated to set
+       */
+      public void setIsolated(boolean isolated) {
+         fIsolated = isolated;
+      }
+
+      /**
+       * Get peripheral owning this block
+       * 
+       * @return Peripheral
+       */
+      Peripheral getPeripheral() {
+         return fPeripheral;
+      }
+
+      /**
+       * Set the blocks of the owning peripheral<br>
+       * These are used to check that a read spanning the gap between blocks does not touch an isolated block
+       * 
+       * @param peripheralBlocks All blocks of the peripheral (including this one)
+       */
+      void setPeripheralBlocks(ArrayList<MemoryBlockCache> peripheralBlocks) {
+         fPeripheralBlocks = peripheralBlocks;
+      }
+
+      /**
+       * Indicates if an address range overlaps an isolated block of the owning peripheral<br>
+       * The isolated block is considered whether or not it is readable or waiting to be read.
+       * 
+       * @param start   Start of range
+       * @param end     End of range (exclusive)
+       * 
+       * @return true if the range overlaps an isolated block
+       */
+      boolean overlapsIsolatedBlock(long start, long end) {
+         if (fPeripheralBlocks == null) {
+            return false;
+         }
+         for (MemoryBlockCache block:fPeripheralBlocks) {
+            if (block.isIsolated() && (block.getAddress() < end) && (start < block.getAddress()+block.getSize())) {
+               return true;
+            }
+         }
+         return false;
+      }
+
+      /**
+       * Get interface used to access target
+       * 
+       * @return Interface
+       */
+      GdbCommonInterface getGdbInterface() {
+         return fGdbInterface;
+      }
+
       /**
        * Get width
        * 
@@ -361,7 +511,7 @@ public class MemoryBlockCache {
        * 
        * @return The current data associated with this block
        */
-      public byte[] getData() {
+      public synchronized byte[] getData() {
          return fData;
       }
       
@@ -371,10 +521,37 @@ public class MemoryBlockCache {
        * @param data The data to set
        */
       public void setData(byte[] data) {
-         fData = data;
+         setData(data, 0);
 //         notifyAllChangeListeners();
       }
       
+      /**
+       * Sets the data associated with this block<br>
+       * The data is copied into the block buffer and the changes compared to the reference are updated
+       * 
+       * @param data     Data to copy
+       * @param offset   Offset of block data within data
+       */
+      public synchronized void setData(byte[] data, int offset) {
+         allocateDataIfNeeded();
+         boolean changed = fReferencePending;
+         if (fReferencePending) {
+            // Current data becomes the reference - swap buffers rather than copying
+            byte[] referenceData = fLastData;
+            fLastData         = fData;
+            fData             = referenceData;
+            fReferencePending = false;
+         }
+         else if (fInaccessible || (Arrays.mismatch(fData, 0, fData.length, data, offset, offset+fData.length) >= 0)) {
+            changed = true;
+         }
+         System.arraycopy(data, offset, fData, 0, fData.length);
+         if (changed) {
+            // Only need to compare against reference if data or reference changed
+            updateChangedBits(0, fData.length);
+         }
+      }
+      
       /**
        * Check if an address range lies (entirely) within this address block
        * 
@@ -429,64 +606,51 @@ public class MemoryBlockCache {
          allocateDataIfNeeded();
          fUpdatePending = true;
 
-         Job job = new Job("Updating peripheral display") {
-            protected synchronized IStatus run(IProgressMonitor monitor) {
-               monitor.beginTask("Updating peripheral display...", 10);
-               try {
-                  fUpdatePending = false;
-                  if (!fNeedsUpdate) {
-                     // May have been updated since original request
-//                     System.err.println(String.format("MemoryBlockCache[0x%X..0x%X].retrieveValue.run() - no action", getAddress(), getAddress()+getSize()-1));
-                     return Status.OK_STATUS;
-                  }
-//                  System.err.println(String.format("MemoryBlockCache[0x%X..0x%X].retrieveValue.run() - reading from target", getAddress(), getAddress()+getSize()-1));
-                  byte[] value = null;
-                  try {
-                     value = fGdbInterface.readMemory(getAddress(), (int)getSize(), (int)getWidthInBits());
-                  } catch (Exception e) {
-                     fInaccessible = true;
-                     fNeedsUpdate  = false;
-                     System.err.println(String.format("MemoryBlockCache[0x%X..0x%X].retrieveValue.run() - Unable to access target", getAddress(), getAddress()+getSize()-1));
-                     return Status.OK_STATUS;
-                  }
-//                  System.err.println(String.format("MemoryBlockCache[0x%X..0x%X].retrieveValue.run() - read from target", getAddress(), getAddress()+getSize()-1));
-                  setData(value);
-                  fInaccessible = false;
-                  fNeedsUpdate  = false;
-//                  System.err.println(String.format("MemoryBlockCache[0x%X..0x%X].retrieveValue.run() model = %s", getAddress(), getAddress()+getSize()-1,  model));
-//                  if ((model == null) || !model.isRefreshPending()) {
-//                     // No model or model needs refreshing
-//                     if (model != null) {
-//                        model.setRefreshPending(true);
-//                     }
-                     Display.getDefault().syncExec(new Runnable() {
-                        @Override
-                        public void run() {
-//                           if (model != null) {
-//                              model.setRefreshPending(false);
-//                           }
-                           notifyAllChangeListeners();
-                        }
-                     });
-//                  }
-               } finally {
-                  monitor.done();
-               }
-               return Status.OK_STATUS;
-            }};
-//            job.setPriority(Job.SHORT);
-            job.setUser(false);
-            job.schedule();
-         }
+         MemoryReadScheduler.getScheduler().requestRead(this);
+      }
+
+      /**
+       * Called by MemoryReadScheduler before reading the block from target
+       * 
+       * @return true if the block still needs to be read
+       */
+      synchronized boolean startRead() {
+         fUpdatePending = false;
+         // May have been updated since original request
+         return fNeedsUpdate;
+      }
+
+      /**
+       * Called by MemoryReadScheduler when block has been read from target<br>
+       * Change listeners are notified separately
+       * 
+       * @param data     Data read
+       * @param offset   Offset of block data within data
+       */
+      synchronized void readCompleted(byte[] data, int offset) {
+         setData(data, offset);
+         fInaccessible = false;
+         fNeedsUpdate  = false;
+      }
+
+      /**
+       * Called by MemoryReadScheduler when block could not be read from target
+       */
+      synchronized void readFailed() {
+         fInaccessible = true;
+         fNeedsUpdate  = false;
+         System.err.println(String.format("MemoryBlockCache[0x%X..0x%X].readFailed() - Unable to access target", getAddress(), getAddress()+getSize()-1));
+      }
 
          /**
-          * Checks if a memory range has changed since changes last reset by setChangeReference()
+          * Checks if a memory range has changed since changes last reset by setChangeReference()<br>
+          * Synchronized as the data buffers and changed bits are updated by {@link #setData(byte[], int)} on another thread
           * 
           * @param address       Start address of range to check
           * @param sizeInBytes   Size in bytes of range
           * @return
           */
-         public boolean isChanged(long address, long sizeInBytes) {
+         public synchronized boolean isChanged(long address, long sizeInBytes) {
             long offset = address-fAddress;
             if ((offset<0) || ((offset+sizeInBytes)>fSizeInBytes)) { 
                System.err.println(String.format("MemoryBlockCache.isChanged() - Invalid address range [0x%X..0x%x]", offset, offset+sizeInBytes-1));
@@ -499,8 +663,15 @@ public class MemoryBlockCache {
             if (fData == null) {
                return false;
             }
-            for (int index=(int)offset; index<(offset+sizeInBytes); index++) {
-               if (fData[index] != fLastData[index]) {
+            int start = (int)offset;
+            int end   = (int)(offset+sizeInBytes);
+            if ((sizeInBytes > 0) && ((start>>6) == ((end-1)>>6))) {
+               // Range lies within a single word of the bitmap
+               long mask = (-1L>>>(64-sizeInBytes))<<(start&63);
+               return (fChangedBits[start>>6] & mask) != 0;
+            }
+            for (int index=start; index<end; index++) {
+               if ((fChangedBits[index>>6] & (1L<<(index&63))) != 0) {
                   return true;
                }
             }
@@ -531,11 +702,17 @@ public class MemoryBlockCache {
          /**
           * Sets the current data value as the reference for determining changed values. 
           */
-         public void setChangeReference() {
-            if (fData != null) {
+         public synchronized void setChangeReference() {
+            if (fData == null) {
+               return;
+            }
+            if (fLastData == null) {
                fLastData = new byte[fData.length];
-               System.arraycopy(fData, 0, fLastData, 0, fData.length);
             }
+            // Buffers are swapped on next read
+            fReferencePending = true;
+            Arrays.fill(fChangedBits, 0L);
+            fChangeCount++;
          }
 
          /**
@@ -544,7 +721,7 @@ public class MemoryBlockCache {
           * @param address Start address of range
           * @param size    Size of range in bytes
           */
-         public void setChangeReference(long address, int size) {
+         public synchronized void setChangeReference(long address, int size) {
             if (fData == null) {
                System.err.println("MemoryBlockCache.setChangeReference() - Attempt to change reference before initial read");
                return;
@@ -559,59 +736,30 @@ public class MemoryBlockCache {
                System.err.println("MemoryBlockCache.setChangeReference() - Invalid address range");
                return;
             }
-            for (int index = (int)offset; index<(offset+size); index++) {
-               fLastData[index] = fData[index];
+            if (!fReferencePending) {
+               System.arraycopy(fData, (int)offset, fLastData, (int)offset, size);
+               updateChangedBits((int)offset, (int)offset+size);
             }
          }
 
          /**
-          * Synchronize cached value and target<br>
-          * This consist of:<br>
-          *  - Writing the range of data values to target<br>
-          *  - Reading the entire block back from target (if readable)<br>
-          * Change listeners will be notified when complete
+          * Get a copy of a range of cached data e.g. to write to the target
           * 
           * @param address       Start address of data range
           * @param sizeInBytes   Size in bytes of data range
+          * 
+          * @return Copy of data or null if no data has been cached
           */
-         public void synchronizeValue(final long address, final int sizeInBytes) {
-//            System.err.println(String.format("MemoryBlockCache.synchronizeValue([0x%X..0x%X])", address, address+sizeInBytes-1));
-            if (!isWriteable()) {
-//               System.err.println(String.format("MemoryBlockCache.synchronizeValue([0x%X..0x%X]) - not writeable", address, address+sizeInBytes-1));
-               return;
-            }
+         synchronized byte[] copyData(long address, int sizeInBytes) {
             long offset = address-fAddress;
             assert (offset>=0) : "Invalid address range";
             assert ((offset+sizeInBytes)<=fSizeInBytes) : "Invalid address";
             if (fData == null) {
-               System.err.println(String.format("MemoryBlockCache[0x%X..0x%X].synchronizeValue() - data null", address, address+sizeInBytes-1));
-               return;
+               return null;
             }
-            final byte[] writeData = new byte[sizeInBytes];
-            System.arraycopy(fData, (int) offset, writeData, 0, sizeInBytes);
-            
-            Job job = new Job("Updating peripheral display") {
-               protected IStatus run(IProgressMonitor monitor) {
-                  monitor.beginTask("Updating peripheral display...", 10);
-                  IStatus rv = Status.OK_STATUS;
-                  try {
-                     try {
-//                        System.err.println(String.format("MemoryBlockCache[0x%X..0x%X].synchronizeValue.run() - writing to target", address, address+sizeInBytes-1));
-                        fGdbInterface.writeMemory(address, writeData, (int)getWidthInBits());
-                     } catch (TimeoutException e1) {
-//                        System.err.println(String.format("MemoryBlockCache[0x%X..0x%X].synchronizeValue.run() - Unable to access target", address, address+sizeInBytes-1));
-                     }
-//                     System.err.println(String.format("MemoryBlockCache[0x%X..0x%X].synchronizeValue.run() - request update", address, address+sizeInBytes-1));
-                     retrieveValue();
-//                     System.err.println(String.format("MemoryBlockCache[0x%X..0x%X].synchronizeValue.run() - complete", address, address+sizeInBytes-1));               
-                  } finally {
-                     monitor.done();
-                  }
-                  return rv;
-               }};
-               job.setPriority(Job.SHORT);
-               job.setUser(false);
-               job.schedule();
+            byte[] data = new byte[sizeInBytes];
+            System.arraycopy(fData, (int) offset, data, 0, sizeInBytes);
+            return data;
          }
 
       }
\ No newline at end of file
@@ -0,0 +1,453 @@
+package net.sourceforge.usbdm.peripherals.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.concurrent.CompletableFuture;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.swt.widgets.Display;
+
+import net.sourceforge.usbdm.peripherals.view.GdbCommonInterface;
+
+/**
+ * Schedules reads of MemoryBlockCaches from the target<br>
+ *
+ * Requests made during a refresh cycle are collected and processed by a single job:
+ * <ul>
+ * <li>Blocks are sorted by address and grouped by target interface and access width
+ * <li>Adjacent or nearby blocks are merged into a single read if the gap between them is within the gap limit
+ * <li>Blocks that contain isolated registers (e.g. registers with read side-effects) or were inaccessible
+ *     on the last read are always read by themselves
+ * <li>Blocks are only merged across a gap if they belong to the same peripheral and the gap does not
+ *     overlap an isolated block of that peripheral
+ * <li>The data read is scattered back into each block and listeners are notified in a single UI update
+ * </ul>
+ * The reads for a refresh are all started before waiting for the results so they are pipelined through the target interface.
+ * If a merged read fails the blocks are read individually so that an inaccessible gap does not
+ * prevent the blocks being read.
+ */
+public class MemoryReadScheduler {
+
+   /**
+    * Statistics for target reads
+    */
+   public static class Statistics {
+      /** Number of refresh cycles (jobs run) */
+      public final long fRefreshes;
+      /** Number of blocks read */
+      public final long fBlocksRead;
+      /** Number of target reads (round trips) */
+      public final long fTargetReads;
+      /** Number of bytes read from target (including gaps) */
+      public final long fBytesRead;
+      /** Total time spent reading target (nanoseconds) */
+      public final long fTotalLatency;
+      /** Time spent reading target on last refresh (nanoseconds) */
+      public final long fLastLatency;
+
+      Statistics(long refreshes, long blocksRead, long targetReads, long bytesRead, long totalLatency, long lastLatency) {
+         fRefreshes    = refreshes;
+         fBlocksRead   = blocksRead;
+         fTargetReads  = targetReads;
+         fBytesRead    = bytesRead;
+         fTotalLatency = totalLatency;
+         fLastLatency  = lastLatency;
+      }
+
+      /**
+       * Get average number of target reads for each refresh
+       *
+       * @return Round trips per refresh
+       */
+      public double getReadsPerRefresh() {
+         return (fRefreshes==0)?0:((double)fTargetReads/fRefreshes);
+      }
+
+      /**
+       * Get average latency of each refresh
+       *
+       * @return Latency in milliseconds
+       */
+      public double getLatencyPerRefresh() {
+         return (fRefreshes==0)?0:(fTotalLatency/(fRefreshes*1000000.0));
+      }
+
+      @Override
+      public String toString() {
+         return String.format("refreshes=%d, blocks=%d, reads=%d, bytes=%d, reads/refresh=%.1f, latency/refresh=%.2f ms, last=%.2f ms",
+               fRefreshes, fBlocksRead, fTargetReads, fBytesRead, getReadsPerRefresh(), getLatencyPerRefresh(), fLastLatency/1000000.0);
+      }
+   }
+
+   /**
+    * A range of memory to read in a single target access
+    */
+   static class ReadRange {
+      final GdbCommonInterface          fGdbInterface;
+      final long                        fWidthInBits;
+      final long                        fAddress;
+      long                              fEnd;
+      final ArrayList<MemoryBlockCache> fBlocks = new ArrayList<MemoryBlockCache>();
+
+      ReadRange(MemoryBlockCache block) {
+         fGdbInterface = block.getGdbInterface();
+         fWidthInBits  = block.getWidthInBits();
+         fAddress      = block.getAddress();
+         fEnd          = block.getAddress()+block.getSize();
+         fBlocks.add(block);
+      }
+
+      /**
+       * Add block to range if possible
+       *
+       * @param block      Block to add
+       * @param gapLimit   Largest gap in bytes allowed between blocks
+       *
+       * @return true if added
+       */
+      boolean merge(MemoryBlockCache block, long gapLimit) {
+         if ((block.getGdbInterface() != fGdbInterface) || (block.getWidthInBits() != fWidthInBits)) {
+            return false;
+         }
+         if (!isMergeable(block) || !isMergeable(fBlocks.get(0))) {
+            return false;
+         }
+         long gap = block.getAddress()-fEnd;
+         if ((gap < 0) || (gap > gapLimit) || ((gap % (fWidthInBits/8)) != 0)) {
+            // Overlapping, too far away or would misalign accesses
+            return false;
+         }
+         if ((gap > 0) && !isGapReadable(fBlocks.get(fBlocks.size()-1), block)) {
+            return false;
+         }
+         fEnd = block.getAddress()+block.getSize();
+         fBlocks.add(block);
+         return true;
+      }
+
+      /**
+       * Indicates the gap between two blocks may be read<br>
+       * The blocks must belong to the same peripheral and the gap must not overlap an isolated block of that
+       * peripheral (whether or not that block is being read).<br>
+       * Blocks of different peripherals are only merged when adjacent as the gap is not described by either.
+       *
+       * @param previous  Block before gap
+       * @param next      Block after gap
+       *
+       * @return true if the gap may be read
+       */
+      static boolean isGapReadable(MemoryBlockCache previous, MemoryBlockCache next) {
+         if (previous.getPeripheral() != next.getPeripheral()) {
+            return false;
+         }
+         return !next.overlapsIsolatedBlock(previous.getAddress()+previous.getSize(), next.getAddress());
+      }
+
+      /**
+       * Indicates a block may be read together with other blocks
+       *
+       * @param block Block to check
+       *
+       * @return true if mergeable
+       */
+      static boolean isMergeable(MemoryBlockCache block) {
+         return !block.isIsolated() && !block.isInaccessible();
+      }
+
+      int getSize() {
+         return (int)(fEnd-fAddress);
+      }
+   }
+
+   /**
+    * Result of reading a set of blocks
+    */
+   static class ReadCount {
+      /** Number of target reads (round trips) */
+      int  fReads        = 0;
+      /** Number of bytes read from target (including gaps) */
+      long fBytesRead    = 0;
+      /** Number of blocks that could not be read */
+      int  fFailedBlocks = 0;
+   }
+
+   /** Default largest gap (in bytes) that will be read to join two blocks */
+   public static final int DEFAULT_GAP_LIMIT = 16;
+
+   /** Default time (ms) to collect requests before reading target */
+   public static final int DEFAULT_COLLECTION_DELAY = 5;
+
+   private static MemoryReadScheduler fScheduler = null;
+
+   /**
+    * Get shared scheduler
+    *
+    * @return Scheduler
+    */
+   public static synchronized MemoryReadScheduler getScheduler() {
+      if (fScheduler == null) {
+         fScheduler = new MemoryReadScheduler();
+      }
+      return fScheduler;
+   }
+
+   /** Blocks waiting to be read */
+   private LinkedHashSet<MemoryBlockCache> fPendingBlocks = new LinkedHashSet<MemoryBlockCache>();
+
+   /** Serialises target reads (jobs for successive refresh cycles may overlap) */
+   private final Object fReadLock = new Object();
+
+   /** Indicates a job has been scheduled to read the pending blocks */
+   private boolean fJobScheduled = false;
+
+   /** Largest gap between blocks that will be read to merge them */
+   private int fGapLimit = DEFAULT_GAP_LIMIT;
+
+   /** Delay before reading target to allow requests to be collected */
+   private int fCollectionDelay = DEFAULT_COLLECTION_DELAY;
+
+   private long fRefreshes    = 0;
+   private long fBlocksRead   = 0;
+   private long fTargetReads  = 0;
+   private long fBytesRead    = 0;
+   private long fTotalLatency = 0;
+   private long fLastLatency  = 0;
+
+   /**
+    * Set largest gap between blocks that will be read to allow them to be merged
+    *
+    * @param gapLimit Gap in bytes (0 => only merge adjacent blocks, -1 => never merge blocks)
+    */
+   public synchronized void setGapLimit(int gapLimit) {
+      fGapLimit = gapLimit;
+   }
+
+   /**
+    * Get largest gap between blocks that will be read to allow them to be merged
+    *
+    * @return Gap in bytes
+    */
+   public synchronized int getGapLimit() {
+      return fGapLimit;
+   }
+
+   /**
+    * Set time to collect requests before reading the target
+    *
+    * @param collectionDelay Delay in milliseconds
+    */
+   public synchronized void setCollectionDelay(int collectionDelay) {
+      fCollectionDelay = collectionDelay;
+   }
+
+   /**
+    * Get statistics for target reads
+    *
+    * @return Snapshot of statistics
+    */
+   public synchronized Statistics getStatistics() {
+      return new Statistics(fRefreshes, fBlocksRead, fTargetReads, fBytesRead, fTotalLatency, fLastLatency);
+   }
+
+   /**
+    * Reset statistics
+    */
+   public synchronized void resetStatistics() {
+      fRefreshes    = 0;
+      fBlocksRead   = 0;
+      fTargetReads  = 0;
+      fBytesRead    = 0;
+      fTotalLatency = 0;
+      fLastLatency  = 0;
+   }
+
+   /**
+    * Request block is read from target<br>
+    * The read is done on a worker thread together with any other requests made in the same refresh cycle.
+    *
+    * @param block Block to read
+    */
+   public void requestRead(MemoryBlockCache block) {
+      int delay;
+      synchronized (this) {
+         fPendingBlocks.add(block);
+         if (fJobScheduled) {
+            return;
+         }
+         fJobScheduled = true;
+         delay = fCollectionDelay;
+      }
+      Job job = new Job("Updating peripheral display") {
+         protected IStatus run(IProgressMonitor monitor) {
+            monitor.beginTask("Updating peripheral display...", 10);
+            try {
+               readPendingBlocks();
+            } finally {
+               monitor.done();
+            }
+            return Status.OK_STATUS;
+         }};
+      job.setUser(false);
+      job.schedule(delay);
+   }
+
+   /**
+    * Create list of target reads needed for blocks
+    *
+    * @param blocks     Blocks to read
+    * @param gapLimit   Largest gap in bytes allowed between blocks
+    *
+    * @return List of reads
+    */
+   static ArrayList<ReadRange> createReadRanges(ArrayList<MemoryBlockCache> blocks, int gapLimit) {
+      Collections.sort(blocks, new Comparator<MemoryBlockCache>() {
+         @Override
+         public int compare(MemoryBlockCache block1, MemoryBlockCache block2) {
+            return Long.compare(block1.getAddress(), block2.getAddress());
+         }
+      });
+      ArrayList<ReadRange> ranges = new ArrayList<ReadRange>();
+      ReadRange range = null;
+      for (MemoryBlockCache block:blocks) {
+         if ((range == null) || (gapLimit < 0) || !range.merge(block, gapLimit)) {
+            range = new ReadRange(block);
+            ranges.add(range);
+         }
+      }
+      return ranges;
+   }
+
+   /**
+    * Start read of range from target
+    *
+    * @param range Range to read
+    *
+    * @return Future completed with data read
+    */
+   private static CompletableFuture<byte[]> startRead(ReadRange range) {
+      if (range.fGdbInterface == null) {
+         CompletableFuture<byte[]> future = new CompletableFuture<byte[]>();
+         future.completeExceptionally(new Exception("No target interface"));
+         return future;
+      }
+      return range.fGdbInterface.readMemoryAsync(range.fAddress, range.getSize(), (int)range.fWidthInBits);
+   }
+
+   /**
+    * Read ranges from target and copy data to blocks<br>
+    * All reads are started before waiting for any to complete so several may be in progress at once
+    * (limited by the in-flight window of the target interface).
+    *
+    * @param ranges Ranges to read
+    * @param count  Updated with reads done
+    *
+    * @return Ranges of single blocks to retry because a merged read failed
+    *
+    * @note Called with fReadLock held
+    */
+   private ArrayList<ReadRange> readRanges(ArrayList<ReadRange> ranges, ReadCount count) {
+      ArrayList<CompletableFuture<byte[]>> futures = new ArrayList<CompletableFuture<byte[]>>(ranges.size());
+      for (ReadRange range:ranges) {
+         futures.add(startRead(range));
+         count.fReads++;
+      }
+      ArrayList<ReadRange> retries = new ArrayList<ReadRange>();
+      for (int index=0; index<ranges.size(); index++) {
+         ReadRange range = ranges.get(index);
+         byte[]    data  = GdbCommonInterface.getData(futures.get(index));
+         if ((data == null) || (data.length < range.getSize())) {
+            if (range.fBlocks.size() == 1) {
+               range.fBlocks.get(0).readFailed();
+               count.fFailedBlocks++;
+               continue;
+            }
+            // Gap may be inaccessible - read blocks individually
+            for (MemoryBlockCache block:range.fBlocks) {
+               retries.add(new ReadRange(block));
+            }
+            continue;
+         }
+         count.fBytesRead += data.length;
+         for (MemoryBlockCache block:range.fBlocks) {
+            block.readCompleted(data, (int)(block.getAddress()-range.fAddress));
+         }
+      }
+      return retries;
+   }
+
+   /**
+    * Read blocks from target merging reads where possible<br>
+    * Listeners are not notified.<br>
+    * Any pending register writes are started first so that the read does not overwrite the edited values.
+    * The read serves to verify writes to the blocks being read. Other blocks written are read later.
+    *
+    * @param blocks Blocks to read (re-ordered)
+    *
+    * @return Count of reads done
+    */
+   ReadCount readBlocks(ArrayList<MemoryBlockCache> blocks) {
+      int gapLimit;
+      synchronized (this) {
+         gapLimit = fGapLimit;
+      }
+      ReadCount count = new ReadCount();
+      ArrayList<MemoryBlockCache> writtenBlocks;
+      synchronized (fReadLock) {
+         writtenBlocks = RegisterWriteQueue.getQueue().startPendingWrites();
+         ArrayList<ReadRange> retries = readRanges(createReadRanges(blocks, gapLimit), count);
+         if (!retries.isEmpty()) {
+            readRanges(retries, count);
+         }
+      }
+      writtenBlocks.removeAll(blocks);
+      for (MemoryBlockCache block:writtenBlocks) {
+         block.retrieveValue();
+      }
+      return count;
+   }
+
+   /**
+    * Read all pending blocks from target and notify listeners
+    */
+   void readPendingBlocks() {
+      ArrayList<MemoryBlockCache> blocks = new ArrayList<MemoryBlockCache>();
+      synchronized (this) {
+         for (MemoryBlockCache block:fPendingBlocks) {
+            if (block.startRead()) {
+               blocks.add(block);
+            }
+         }
+         fPendingBlocks.clear();
+         fJobScheduled = false;
+      }
+      if (blocks.isEmpty()) {
+         // May have been updated since original request
+         return;
+      }
+      long startTime = System.nanoTime();
+      ReadCount count = readBlocks(blocks);
+      long latency = System.nanoTime()-startTime;
+      synchronized (this) {
+         fLastLatency   = latency;
+         fTotalLatency += latency;
+         fTargetReads  += count.fReads;
+         fBytesRead    += count.fBytesRead;
+         fBlocksRead   += blocks.size();
+         fRefreshes++;
+      }
+      final ArrayList<MemoryBlockCache> updatedBlocks = blocks;
+      Display.getDefault().syncExec(new Runnable() {
+         @Override
+         public void run() {
+            for (MemoryBlockCache block:updatedBlocks) {
+               block.notifyAllChangeListeners();
+            }
+         }
+      });
+   }
+}
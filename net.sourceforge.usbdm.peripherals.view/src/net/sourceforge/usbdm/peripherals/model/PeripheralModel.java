@@ -4,6 +4,7 @@ import java.util.ArrayList;
 
 import net.sourceforge.usbdm.peripheralDatabase.AddressBlock;
 import net.sourceforge.usbdm.peripheralDatabase.Peripheral;
+import net.sourceforge.usbdm.peripheralDatabase.RegisterException;
 import net.sourceforge.usbdm.peripherals.view.GdbCommonInterface;
 
    /**
@@ -19,8 +20,19 @@ import net.sourceforge.usbdm.peripherals.view.GdbCommonInterface;
       private ArrayList<MemoryBlockCache> fMemoryBlockCaches = new ArrayList<MemoryBlockCache>();
       private boolean                     fRefreshAll;  
       
+      /** Underlying peripheral - used to create registers etc. when loaded */
+      private final Peripheral            fPeripheral;
+      
+      /** GDB interface used by memory caches */
+      private final GdbCommonInterface    fGdbInterface;
+      
+      /** Indicates the register models and memory caches have been created */
+      private boolean                     fLoaded = false;
+      
       /**
-       * Constructor
+       * Constructor<br>
+       * Creates a peripheral model without registers or memory caches.<br>
+       * These are created by {@link #load()} or when the children are first requested.
        * 
        * @param parent      Parent of this element in tree
        * @param peripheral  Underlying peripheral
@@ -31,16 +43,80 @@ import net.sourceforge.usbdm.peripherals.view.GdbCommonInterface;
 
          assert(parent != null) : "parent can't be null";
          
-         fRefreshAll  = peripheral.isRefreshAll();
-         fAddress     = peripheral.getBaseAddress();
-         
+         fRefreshAll   = peripheral.isRefreshAll();
+         fAddress      = peripheral.getBaseAddress();
+         fPeripheral   = peripheral;
+         fGdbInterface = gdbInterface;
+      }
+
+      /**
+       * Creates the memory caches, registers and fields for this peripheral if not already done
+       * 
+       * @throws RegisterException 
+       */
+      public synchronized void load() throws RegisterException {
+         if (fLoaded) {
+            return;
+         }
+         fLoaded = true;
+
          // Use address blocks to create target memory cache
          // The Model is registered as a change listener
-         for (AddressBlock memoryAddressBlock : peripheral.getAddressBlocks()) {
-            MemoryBlockCache memoryBlockCache = new MemoryBlockCache(peripheral, memoryAddressBlock, gdbInterface);
+         for (AddressBlock memoryAddressBlock : fPeripheral.getAddressBlocks()) {
+            MemoryBlockCache memoryBlockCache = new MemoryBlockCache(fPeripheral, memoryAddressBlock, fGdbInterface);
             fMemoryBlockCaches.add(memoryBlockCache);
+            memoryBlockCache.setPeripheralBlocks(fMemoryBlockCaches);
             memoryBlockCache.addChangeListener(this);
          }
+         UsbdmDevicePeripheralsModel.createRegisterModels(this, fPeripheral);
+      }
+
+      /**
+       * Indicates if the registers etc. for this peripheral have been created
+       * 
+       * @return true if loaded
+       */
+      public synchronized boolean isLoaded() {
+         return fLoaded;
+      }
+
+      /**
+       * Get memory caches for this peripheral<br>
+       * The peripheral is loaded if necessary
+       * 
+       * @return Caches
+       * 
+       * @throws RegisterException 
+       */
+      ArrayList<MemoryBlockCache> getMemoryBlockCaches() throws RegisterException {
+         load();
+         return fMemoryBlockCaches;
+      }
+
+      /**
+       * {@inheritDoc}<br>
+       * The peripheral is loaded if necessary
+       */
+      @Override
+      public ArrayList<Object> getChildren() {
+         try {
+            load();
+         } catch (RegisterException e) {
+            e.printStackTrace();
+         }
+         return super.getChildren();
+      }
+
+      /* (non-Javadoc)
+       * @see net.sourceforge.usbdm.peripherals.model.BaseModel#hasChildren()
+       */
+      @Override
+      public boolean hasChildren() {
+         if (!isLoaded()) {
+            // Avoid loading peripheral just to decide if it can be expanded
+            return !fPeripheral.getRegisters().isEmpty();
+         }
+         return super.hasChildren();
       }
 
       /* (non-Javadoc)
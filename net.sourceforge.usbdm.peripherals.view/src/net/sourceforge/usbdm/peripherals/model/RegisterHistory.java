@@ -0,0 +1,160 @@
+package net.sourceforge.usbdm.peripherals.model;
+
+/**
+ * Bounded history of register values<br>
+ *
+ * Samples are held in a ring buffer of primitive arrays so recording a sample does not allocate.
+ * When the buffer is full the oldest sample is overwritten.
+ */
+public class RegisterHistory {
+
+   /** Bytes of storage used by each sample (timestamp + value) */
+   public static final int BYTES_PER_SAMPLE = 8+4;
+
+   private final RegisterModel fRegister;
+
+   /** Sample times (nanoseconds since recording started) */
+   private long[] fTimes;
+
+   /** Sample values */
+   private int[]  fValues;
+
+   /** Index of oldest sample */
+   private int    fStart = 0;
+
+   /** Number of samples held */
+   private int    fCount = 0;
+
+   /** Number of samples overwritten since cleared */
+   private long   fOverwritten = 0;
+
+   /**
+    * Create history
+    *
+    * @param register Register being recorded
+    * @param capacity Maximum number of samples held
+    */
+   RegisterHistory(RegisterModel register, int capacity) {
+      fRegister = register;
+      fTimes    = new long[capacity];
+      fValues   = new int[capacity];
+   }
+
+   /**
+    * Get register being recorded
+    *
+    * @return Register
+    */
+   public RegisterModel getRegister() {
+      return fRegister;
+   }
+
+   /**
+    * Add sample - oldest sample is discarded if full
+    *
+    * @param time    Time of sample
+    * @param value   Register value
+    */
+   synchronized void add(long time, long value) {
+      int index = fStart+fCount;
+      if (fCount == fTimes.length) {
+         fStart = (fStart+1)%fTimes.length;
+         fOverwritten++;
+      }
+      else {
+         fCount++;
+      }
+      index %= fTimes.length;
+      fTimes[index]  = time;
+      fValues[index] = (int)value;
+   }
+
+   /**
+    * Change capacity of history<br>
+    * The newest samples are retained
+    *
+    * @param capacity New maximum number of samples
+    */
+   synchronized void setCapacity(int capacity) {
+      if (capacity == fTimes.length) {
+         return;
+      }
+      long[] times  = new long[capacity];
+      int[]  values = new int[capacity];
+      int count = Math.min(fCount, capacity);
+      for (int index=0; index<count; index++) {
+         int from = (fStart+fCount-count+index)%fTimes.length;
+         times[index]  = fTimes[from];
+         values[index] = fValues[from];
+      }
+      fOverwritten += fCount-count;
+      fTimes  = times;
+      fValues = values;
+      fStart  = 0;
+      fCount  = count;
+   }
+
+   /**
+    * Get maximum number of samples held
+    *
+    * @return Capacity
+    */
+   public synchronized int getCapacity() {
+      return fTimes.length;
+   }
+
+   /**
+    * Get number of samples held
+    *
+    * @return Number of samples
+    */
+   public synchronized int size() {
+      return fCount;
+   }
+
+   /**
+    * Get number of samples discarded due to the buffer being full
+    *
+    * @return Number of samples
+    */
+   public synchronized long getOverwritten() {
+      return fOverwritten;
+   }
+
+   /**
+    * Get time of sample
+    *
+    * @param index Index of sample (0 = oldest)
+    *
+    * @return Time in nanoseconds since recording started
+    */
+   public synchronized long getTime(int index) {
+      if ((index<0) || (index>=fCount)) {
+         throw new IndexOutOfBoundsException("Sample #"+index+" not in history");
+      }
+      return fTimes[(fStart+index)%fTimes.length];
+   }
+
+   /**
+    * Get value of sample
+    *
+    * @param index Index of sample (0 = oldest)
+    *
+    * @return Register value
+    */
+   public synchronized long getValue(int index) {
+      if ((index<0) || (index>=fCount)) {
+         throw new IndexOutOfBoundsException("Sample #"+index+" not in history");
+      }
+      return fValues[(fStart+index)%fTimes.length]&0xFFFFFFFFL;
+   }
+
+   /**
+    * Discard all samples
+    */
+   synchronized void clear() {
+      fStart       = 0;
+      fCount       = 0;
+      fOverwritten = 0;
+   }
+}
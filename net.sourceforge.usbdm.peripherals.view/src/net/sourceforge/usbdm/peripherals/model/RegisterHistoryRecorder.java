@@ -0,0 +1,447 @@
+package net.sourceforge.usbdm.peripherals.model;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Records the history of selected registers<br>
+ *
+ * <ul>
+ * <li>A sample is recorded each time the memory block holding a register is read from the target
+ *     i.e. on each suspend refresh or live watch update. No additional target reads are done.
+ * <li>Each register has a {@link RegisterHistory} ring buffer. The capacity of the buffers is chosen so the total
+ *     storage does not exceed the memory limit. The capacity is recalculated once for each group of registers added
+ *     so the buffers are not repeatedly re-allocated.
+ * <li>Registers are not recorded if this would reduce the capacity below {@link #MINIMUM_CAPACITY}, so the
+ *     memory limit is never exceeded.
+ * <li>Histories may be exported as CSV or as VCD (Value Change Dump) for viewing in a waveform viewer.
+ * </ul>
+ */
+public class RegisterHistoryRecorder implements MemoryBlockChangeListener {
+
+   /** Default limit on memory used by all histories (bytes) */
+   public static final long DEFAULT_MEMORY_LIMIT = 8*1024*1024;
+
+   /** Minimum number of samples held for each register - limits the number of registers recorded */
+   public static final int MINIMUM_CAPACITY = 16;
+
+   private static RegisterHistoryRecorder fRecorder = null;
+
+   /**
+    * Get shared recorder
+    *
+    * @return Recorder
+    */
+   public static synchronized RegisterHistoryRecorder getRecorder() {
+      if (fRecorder == null) {
+         fRecorder = new RegisterHistoryRecorder();
+      }
+      return fRecorder;
+   }
+
+   /** Histories in order added */
+   private final LinkedHashMap<RegisterModel, RegisterHistory> fHistories = new LinkedHashMap<RegisterModel, RegisterHistory>();
+
+   /** Histories for registers in each memory block */
+   private final HashMap<MemoryBlockCache, ArrayList<RegisterHistory>> fBlockHistories = new HashMap<MemoryBlockCache, ArrayList<RegisterHistory>>();
+
+   /** Limit on memory used by all histories (bytes) */
+   private long fMemoryLimit = DEFAULT_MEMORY_LIMIT;
+
+   /** Time recording started (nanoseconds) */
+   private long fStartTime = System.nanoTime();
+
+   private RegisterHistoryRecorder() {
+   }
+
+   /**
+    * Get largest number of registers that may be recorded with at least {@link #MINIMUM_CAPACITY} samples
+    * each within the memory limit
+    *
+    * @return Number of registers
+    */
+   private int getMaximumRegisters() {
+      return (int)Math.min(Integer.MAX_VALUE, fMemoryLimit/(MINIMUM_CAPACITY*(long)RegisterHistory.BYTES_PER_SAMPLE));
+   }
+
+   /**
+    * Get capacity of each history so that total memory is within limit
+    *
+    * @param registers Number of registers recorded (not more than {@link #getMaximumRegisters()})
+    *
+    * @return Capacity in samples
+    */
+   private int getCapacity(int registers) {
+      long capacity = fMemoryLimit/(Math.max(1, registers)*(long)RegisterHistory.BYTES_PER_SAMPLE);
+      return (int)Math.max(MINIMUM_CAPACITY, Math.min(Integer.MAX_VALUE/2, capacity));
+   }
+
+   /**
+    * Adjust capacity of all histories to suit memory limit
+    */
+   private void updateCapacities() {
+      int capacity = getCapacity(fHistories.size());
+      for (RegisterHistory history:fHistories.values()) {
+         history.setCapacity(capacity);
+      }
+   }
+
+   /**
+    * Add register to recording
+    *
+    * @param register Register to add
+    *
+    * @return true if added, false if register is not readable, already recorded or the memory limit has been reached
+    */
+   public boolean addRegister(RegisterModel register) {
+      ArrayList<RegisterModel> registers = new ArrayList<RegisterModel>();
+      registers.add(register);
+      return addRegisters(registers) != 0;
+   }
+
+   /**
+    * Add registers to recording<br>
+    * The capacity of the histories is adjusted once for all the registers added.
+    * Registers that are not readable or already recorded are ignored.
+    * Registers are not added once the memory limit has been reached.
+    *
+    * @param registers Registers to add
+    *
+    * @return Number of registers added
+    */
+   public synchronized int addRegisters(List<RegisterModel> registers) {
+      LinkedHashSet<RegisterModel> newRegisters = new LinkedHashSet<RegisterModel>();
+      int maximumRegisters = getMaximumRegisters();
+      for (RegisterModel register:registers) {
+         if ((register.getMemoryBlockCache() == null) || !register.isReadable() || fHistories.containsKey(register)) {
+            continue;
+         }
+         if (fHistories.size()+newRegisters.size() >= maximumRegisters) {
+            // Memory limit reached
+            break;
+         }
+         newRegisters.add(register);
+      }
+      if (newRegisters.isEmpty()) {
+         return 0;
+      }
+      int capacity = getCapacity(fHistories.size()+newRegisters.size());
+      for (RegisterHistory history:fHistories.values()) {
+         history.setCapacity(capacity);
+      }
+      for (RegisterModel register:newRegisters) {
+         MemoryBlockCache block   = register.getMemoryBlockCache();
+         RegisterHistory  history = new RegisterHistory(register, capacity);
+         fHistories.put(register, history);
+         ArrayList<RegisterHistory> blockHistories = fBlockHistories.get(block);
+         if (blockHistories == null) {
+            blockHistories = new ArrayList<RegisterHistory>();
+            fBlockHistories.put(block, blockHistories);
+            block.addChangeListener(this);
+         }
+         blockHistories.add(history);
+      }
+      return newRegisters.size();
+   }
+
+   /**
+    * Collect all registers of peripheral (or cluster)
+    *
+    * @param model      Peripheral or cluster to search
+    * @param registers  Registers found are added to this list
+    */
+   public static void collectRegisters(BaseModel model, List<RegisterModel> registers) {
+      for (Object child:model.getChildren()) {
+         if (child instanceof RegisterModel) {
+            registers.add((RegisterModel) child);
+         }
+         else if (child instanceof BaseModel) {
+            collectRegisters((BaseModel) child, registers);
+         }
+      }
+   }
+
+   /**
+    * Remove register from recording
+    *
+    * @param register Register to remove
+    */
+   public synchronized void removeRegister(RegisterModel register) {
+      if (removeHistory(register)) {
+         updateCapacities();
+      }
+   }
+
+   /**
+    * Remove history of register without adjusting the capacity of the remaining histories
+    *
+    * @param register Register to remove
+    *
+    * @return true if removed, false if not recorded
+    */
+   private boolean removeHistory(RegisterModel register) {
+      RegisterHistory history = fHistories.remove(register);
+      if (history == null) {
+         return false;
+      }
+      MemoryBlockCache block = register.getMemoryBlockCache();
+      ArrayList<RegisterHistory> blockHistories = fBlockHistories.get(block);
+      blockHistories.remove(history);
+      if (blockHistories.isEmpty()) {
+         fBlockHistories.remove(block);
+         block.removeChangeListener(this);
+      }
+      return true;
+   }
+
+   /**
+    * Stop recording all registers and discard histories
+    */
+   public synchronized void removeAll() {
+      for (MemoryBlockCache block:fBlockHistories.keySet()) {
+         block.removeChangeListener(this);
+      }
+      fBlockHistories.clear();
+      fHistories.clear();
+      fStartTime = System.nanoTime();
+   }
+
+   /**
+    * Discard recorded samples but continue recording the same registers
+    */
+   public synchronized void clearSamples() {
+      for (RegisterHistory history:fHistories.values()) {
+         history.clear();
+      }
+      fStartTime = System.nanoTime();
+   }
+
+   /**
+    * Set limit on memory used by all histories<br>
+    * Histories are truncated (oldest samples discarded) if necessary.
+    * The most recently added registers are no longer recorded if the limit does not allow
+    * {@link #MINIMUM_CAPACITY} samples for each register.
+    *
+    * @param memoryLimit Limit in bytes
+    */
+   public synchronized void setMemoryLimit(long memoryLimit) {
+      fMemoryLimit = memoryLimit;
+      ArrayList<RegisterModel> registers = new ArrayList<RegisterModel>(fHistories.keySet());
+      for (int index=registers.size()-1; index>=getMaximumRegisters(); index--) {
+         removeHistory(registers.get(index));
+      }
+      updateCapacities();
+   }
+
+   /**
+    * Get limit on memory used by all histories
+    *
+    * @return Limit in bytes
+    */
+   public synchronized long getMemoryLimit() {
+      return fMemoryLimit;
+   }
+
+   /**
+    * Get memory used by sample storage
+    *
+    * @return Size in bytes
+    */
+   public synchronized long getMemoryUsed() {
+      long size = 0;
+      for (RegisterHistory history:fHistories.values()) {
+         size += history.getCapacity()*(long)RegisterHistory.BYTES_PER_SAMPLE;
+      }
+      return size;
+   }
+
+   /**
+    * Get history of register
+    *
+    * @param register Register
+    *
+    * @return History or null if not recorded
+    */
+   public synchronized RegisterHistory getHistory(RegisterModel register) {
+      return fHistories.get(register);
+   }
+
+   /**
+    * Get all histories
+    *
+    * @return List of histories in order added
+    */
+   public synchronized ArrayList<RegisterHistory> getHistories() {
+      return new ArrayList<RegisterHistory>(fHistories.values());
+   }
+
+   /**
+    * Records the registers within the block when it is updated from the target
+    */
+   @Override
+   public void notifyMemoryChanged(MemoryBlockCache memoryBlockCache) {
+      if (memoryBlockCache.isNeedsUpdate() || memoryBlockCache.isInaccessible()) {
+         return;
+      }
+      synchronized (this) {
+         ArrayList<RegisterHistory> blockHistories = fBlockHistories.get(memoryBlockCache);
+         if (blockHistories == null) {
+            return;
+         }
+         long time = System.nanoTime()-fStartTime;
+         for (RegisterHistory history:blockHistories) {
+            try {
+               history.add(time, history.getRegister().getValue());
+            } catch (MemoryException e) {
+               // Quietly ignore
+            }
+         }
+      }
+   }
+
+   /**
+    * Get full name of register including peripheral and clusters e.g. PORTA_PCR0
+    *
+    * @param register Register
+    *
+    * @return Name suitable for use as an identifier
+    */
+   public static String getFullName(RegisterModel register) {
+      StringBuilder sb = new StringBuilder(register.getName());
+      for (BaseModel parent=register.getParent(); (parent != null) && !(parent instanceof DeviceModel); parent=parent.getParent()) {
+         sb.insert(0, '_');
+         sb.insert(0, parent.getName());
+      }
+      return sb.toString().replace("]", "").replaceAll("[^A-Za-z0-9_]", "_");
+   }
+
+   /**
+    * Get order in which to output samples from all histories so that they are in time order
+    *
+    * @param histories Histories to merge
+    *
+    * @return Index of history for each sample in time order
+    */
+   private static int[] mergeSamples(ArrayList<RegisterHistory> histories) {
+      int   total     = 0;
+      int[] sizes     = new int[histories.size()];
+      int[] positions = new int[histories.size()];
+      for (int index=0; index<histories.size(); index++) {
+         sizes[index] = histories.get(index).size();
+         total += sizes[index];
+      }
+      int[] order = new int[total];
+      for (int sample=0; sample<total; sample++) {
+         int  earliest     = -1;
+         long earliestTime = Long.MAX_VALUE;
+         for (int index=0; index<histories.size(); index++) {
+            if (positions[index] < sizes[index]) {
+               long time = histories.get(index).getTime(positions[index]);
+               if (time < earliestTime) {
+                  earliest     = index;
+                  earliestTime = time;
+               }
+            }
+         }
+         order[sample] = earliest;
+         positions[earliest]++;
+      }
+      return order;
+   }
+
+   /**
+    * Export histories as comma separated values<br>
+    * One line for each sample in time order: time (us), register, address, value
+    *
+    * @param writer Where to write
+    *
+    * @throws IOException
+    */
+   public synchronized void exportCsv(Writer writer) throws IOException {
+      ArrayList<RegisterHistory> histories = getHistories();
+      int[] order     = mergeSamples(histories);
+      int[] positions = new int[histories.size()];
+      writer.write("Time (us),Register,Address,Value\n");
+      for (int index:order) {
+         RegisterHistory history = histories.get(index);
+         int position = positions[index]++;
+         writer.write(String.format("%d,%s,0x%08X,0x%08X\n",
+               history.getTime(position)/1000,
+               getFullName(history.getRegister()),
+               history.getRegister().getAddress(),
+               history.getValue(position)));
+      }
+      writer.flush();
+   }
+
+   /**
+    * Get VCD identifier code for a variable
+    *
+    * @param index Index of variable
+    *
+    * @return Identifier using printable ASCII characters
+    */
+   private static String getVcdIdentifier(int index) {
+      StringBuilder sb = new StringBuilder();
+      do {
+         sb.append((char)('!'+(index%94)));
+         index /= 94;
+      } while (index > 0);
+      return sb.toString();
+   }
+
+   /**
+    * Export histories as a Value Change Dump (IEEE 1364) for viewing in a waveform viewer<br>
+    * Each register is a variable of the register width. Time units are microseconds.
+    *
+    * @param writer     Where to write
+    * @param deviceName Name of device used as scope name
+    *
+    * @throws IOException
+    */
+   public synchronized void exportVcd(Writer writer, String deviceName) throws IOException {
+      ArrayList<RegisterHistory> histories = getHistories();
+      int[] order     = mergeSamples(histories);
+      int[] positions = new int[histories.size()];
+
+      writer.write("$date " + new Date() + " $end\n");
+      writer.write("$version USBDM peripheral register history $end\n");
+      writer.write("$timescale 1us $end\n");
+      writer.write("$scope module " + deviceName.replaceAll("[^A-Za-z0-9_]", "_") + " $end\n");
+      for (int index=0; index<histories.size(); index++) {
+         RegisterModel register = histories.get(index).getRegister();
+         writer.write(String.format("$var wire %d %s %s $end\n",
+               register.getWidth(), getVcdIdentifier(index), getFullName(register)));
+      }
+      writer.write("$upscope $end\n");
+      writer.write("$enddefinitions $end\n");
+
+      long[]    lastValues = new long[histories.size()];
+      boolean[] written    = new boolean[histories.size()];
+      long      lastTime   = -1;
+      for (int index:order) {
+         RegisterHistory history = histories.get(index);
+         int  position = positions[index]++;
+         long value    = history.getValue(position);
+         if (written[index] && (value == lastValues[index])) {
+            // VCD only records changes
+            continue;
+         }
+         long time = history.getTime(position)/1000;
+         if (time != lastTime) {
+            writer.write("#" + time + "\n");
+            lastTime = time;
+         }
+         writer.write("b" + Long.toBinaryString(value) + " " + getVcdIdentifier(index) + "\n");
+         lastValues[index] = value;
+         written[index]    = true;
+      }
+      writer.flush();
+   }
+}
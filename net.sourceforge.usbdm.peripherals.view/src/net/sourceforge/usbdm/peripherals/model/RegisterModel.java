@@ -15,6 +15,12 @@ import net.sourceforge.usbdm.peripheralDatabase.RegisterException;
       private   MemoryBlockCache   fMemoryBlockCache;
 //      private   boolean            fHaveReportedChanged = false;
       private   AccessType         fAccessType;
+      // Register has read side-effects
+      private   boolean            fIsolated;
+      // Bits of register that differ from the change reference
+      private   long               fChangedMask      = 0;
+      // Memory block change count when fChangedMask was calculated
+      private   int                fChangedMaskCount = -1;
       
       private void initCommon(RegisterHolder peripheral, Register register) throws RegisterException {
          if (register.isHidden()) {
@@ -36,6 +42,10 @@ import net.sourceforge.usbdm.peripheralDatabase.RegisterException;
          if (fAccessType.isReadable()) {
             fMemoryBlockCache.setReadable(true);
          }
+         fIsolated = register.isIsolated();
+         if (fIsolated) {
+            fMemoryBlockCache.setIsolated(true);
+         }
       }
 
       /**
@@ -55,6 +65,42 @@ import net.sourceforge.usbdm.peripheralDatabase.RegisterException;
       public boolean isWritable() {
          return (fMemoryBlockCache != null) && (fMemoryBlockCache.isWriteable()); 
       }
+
+      /**
+       * Get width of register
+       * 
+       * @return Width in bits
+       */
+      public int getWidth() {
+         return fSizeInBits;
+      }
+
+      /**
+       * Get reset value of register
+       * 
+       * @return Reset value from device description
+       */
+      public long getResetValue() {
+         return fResetValue;
+      }
+
+      /**
+       * Indicates if the register has read side-effects (e.g. status flags cleared by reading)
+       * 
+       * @return true/false
+       */
+      public boolean isIsolated() {
+         return fIsolated;
+      }
+
+      /**
+       * Get memory cache holding this register
+       * 
+       * @return Cache (may be null)
+       */
+      MemoryBlockCache getMemoryBlockCache() {
+         return fMemoryBlockCache;
+      }
       
       /**
        * Constructor - applicable to simple register (which may be part of register array)
@@ -134,7 +180,7 @@ import net.sourceforge.usbdm.peripheralDatabase.RegisterException;
 
       /**
        * Set the value of the register.<br>
-       * Synchronizes value with target.<br>
+       * Value is queued to be written to the target (see {@link RegisterWriteQueue}).<br>
        * Triggers view update.
        * 
        * @param value - Value to set
@@ -148,7 +194,8 @@ import net.sourceforge.usbdm.peripheralDatabase.RegisterException;
          try {
 //            System.err.println(String.format("RegisterModel.setValue() n=%s, a=0x%X, v=%d, s=%d ", getName(), fAddress, value, (fSizeInBits+7)/8));
             fMemoryBlockCache.setValue(fAddress, (fSizeInBits+7)/8, value);
-            fMemoryBlockCache.synchronizeValue(fAddress, (fSizeInBits+7)/8);
+            // Written to target together with other edits made at about the same time
+            RegisterWriteQueue.getQueue().queueWrite(fMemoryBlockCache, fAddress, (fSizeInBits+7)/8);
 //            BaseModel parent = getParent();
 //            if (parent instanceof ClusterModel) {
 //               parent = parent.getParent();
@@ -178,6 +225,31 @@ import net.sourceforge.usbdm.peripheralDatabase.RegisterException;
          return fMemoryBlockCache.isChanged(fAddress, (fSizeInBits+7)/8);
       }
 
+      /**
+       * Gets the bits of the register that have changed compared to the reference value.<br>
+       * This is only re-calculated when the memory block data or reference changes.
+       * 
+       * @return Mask of changed bits
+       */
+      public synchronized long getChangedMask() {
+         if (fMemoryBlockCache == null) {
+            return 0;
+         }
+         int changeCount = fMemoryBlockCache.getChangeCount();
+         if (changeCount != fChangedMaskCount) {
+            fChangedMaskCount = changeCount;
+            fChangedMask      = 0;
+            if (isChanged()) {
+               try {
+                  fChangedMask = getValue()^getLastValue();
+               } catch (MemoryException e) {
+                  // Quietly ignore
+               }
+            }
+         }
+         return fChangedMask;
+      }
+
       /**
        * Gets status string indicating busy invalid etc.
        * 
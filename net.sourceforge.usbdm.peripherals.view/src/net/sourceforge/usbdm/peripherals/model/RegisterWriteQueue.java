@@ -0,0 +1,439 @@
+package net.sourceforge.usbdm.peripherals.model;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+
+import net.sourceforge.usbdm.peripherals.view.GdbCommonInterface;
+
+/**
+ * Queues register writes made by editing registers or fields so they can be combined<br>
+ *
+ * <ul>
+ * <li>The value of each register is captured when it is edited. Further edits to the same register (e.g. to
+ *     several of its fields) replace the pending value so only the final value is written
+ * <li>Writes are held until no edits have been made for the idle delay or the queue is flushed
+ * <li>Pending registers that are contiguous and have the same size as the access width of the memory block
+ *     are written with a single target access. Registers in blocks with side-effects (isolated registers) or
+ *     with an access width other than 32 bits are written individually so that the access width is unchanged
+ * <li>Registers that have not been edited are never written
+ * <li>Each memory block written is read back once when all its writes have completed
+ * </ul>
+ * Pending writes are flushed before the target is read by the {@link MemoryReadScheduler} so
+ * a refresh never overwrites an edit that has not yet been written.
+ */
+public class RegisterWriteQueue {
+
+   /**
+    * Statistics for register writes
+    */
+   public static class Statistics {
+      /** Number of register edits queued */
+      public final long fEdits;
+      /** Number of edits that replaced a pending value of the same register */
+      public final long fMergedEdits;
+      /** Number of register values written */
+      public final long fRegistersWritten;
+      /** Number of target writes (round trips) */
+      public final long fTargetWrites;
+      /** Number of bytes written to target */
+      public final long fBytesWritten;
+      /** Number of blocks read back after writing */
+      public final long fVerifyReads;
+      /** Number of target writes that failed */
+      public final long fFailedWrites;
+
+      Statistics(long edits, long mergedEdits, long registersWritten, long targetWrites, long bytesWritten, long verifyReads, long failedWrites) {
+         fEdits            = edits;
+         fMergedEdits      = mergedEdits;
+         fRegistersWritten = registersWritten;
+         fTargetWrites     = targetWrites;
+         fBytesWritten     = bytesWritten;
+         fVerifyReads      = verifyReads;
+         fFailedWrites     = failedWrites;
+      }
+
+      @Override
+      public String toString() {
+         return String.format("edits=%d (%d merged), registers=%d, writes=%d, bytes=%d, verify reads=%d, failed=%d",
+               fEdits, fMergedEdits, fRegistersWritten, fTargetWrites, fBytesWritten, fVerifyReads, fFailedWrites);
+      }
+   }
+
+   /**
+    * A range of registers to write in a single target access
+    */
+   static class WriteRange {
+      final long fAddress;
+      final int  fRegisterSize;
+      long       fEnd;
+      int        fRegisters = 1;
+
+      WriteRange(long address, int registerSize) {
+         fAddress      = address;
+         fRegisterSize = registerSize;
+         fEnd          = address+registerSize;
+      }
+
+      /**
+       * Add register to range if possible
+       *
+       * @param address       Address of register
+       * @param registerSize  Size of register in bytes
+       * @param sizeLimit     Largest range allowed
+       *
+       * @return true if added
+       */
+      boolean merge(long address, int registerSize, int sizeLimit) {
+         if ((address != fEnd) || (registerSize != fRegisterSize) || ((getSize()+registerSize) > sizeLimit)) {
+            return false;
+         }
+         fEnd = address+registerSize;
+         fRegisters++;
+         return true;
+      }
+
+      int getSize() {
+         return (int)(fEnd-fAddress);
+      }
+   }
+
+   /** Default time (ms) without edits before pending writes are done */
+   public static final int DEFAULT_IDLE_DELAY = 100;
+
+   /** Largest combined write (bytes) */
+   public static final int MAXIMUM_WRITE_SIZE = 256;
+
+   private static RegisterWriteQueue fQueue = null;
+
+   /**
+    * Get shared queue
+    *
+    * @return Queue
+    */
+   public static synchronized RegisterWriteQueue getQueue() {
+      if (fQueue == null) {
+         fQueue = new RegisterWriteQueue();
+      }
+      return fQueue;
+   }
+
+   /** Pending register values for each block (register address => value) in order edited */
+   private LinkedHashMap<MemoryBlockCache, TreeMap<Long, byte[]>> fPendingWrites = new LinkedHashMap<MemoryBlockCache, TreeMap<Long, byte[]>>();
+
+   /** Indicates a job has been scheduled to write the pending values */
+   private boolean fJobScheduled = false;
+
+   /** Time of last edit (ms) */
+   private long fLastEditTime = 0;
+
+   /** Time without edits before pending writes are done */
+   private int fIdleDelay = DEFAULT_IDLE_DELAY;
+
+   /** Whether contiguous registers are combined into a single write */
+   private boolean fCombineWrites = true;
+
+   private long fEdits            = 0;
+   private long fMergedEdits      = 0;
+   private long fRegistersWritten = 0;
+   private long fTargetWrites     = 0;
+   private long fBytesWritten     = 0;
+   private long fVerifyReads      = 0;
+   private long fFailedWrites     = 0;
+
+   private RegisterWriteQueue() {
+   }
+
+   /**
+    * Set time without edits before pending writes are done
+    *
+    * @param idleDelay Delay in milliseconds (0 => write as soon as possible)
+    */
+   public synchronized void setIdleDelay(int idleDelay) {
+      fIdleDelay = idleDelay;
+   }
+
+   /**
+    * Get time without edits before pending writes are done
+    *
+    * @return Delay in milliseconds
+    */
+   public synchronized int getIdleDelay() {
+      return fIdleDelay;
+   }
+
+   /**
+    * Set whether contiguous registers are combined into a single write
+    *
+    * @param combineWrites true to combine writes
+    */
+   public synchronized void setCombineWrites(boolean combineWrites) {
+      fCombineWrites = combineWrites;
+   }
+
+   /**
+    * Get statistics for register writes
+    *
+    * @return Snapshot of statistics
+    */
+   public synchronized Statistics getStatistics() {
+      return new Statistics(fEdits, fMergedEdits, fRegistersWritten, fTargetWrites, fBytesWritten, fVerifyReads, fFailedWrites);
+   }
+
+   /**
+    * Reset statistics
+    */
+   public synchronized void resetStatistics() {
+      fEdits            = 0;
+      fMergedEdits      = 0;
+      fRegistersWritten = 0;
+      fTargetWrites     = 0;
+      fBytesWritten     = 0;
+      fVerifyReads      = 0;
+      fFailedWrites     = 0;
+   }
+
+   /**
+    * Indicates there are writes waiting to be done
+    *
+    * @return true if writes are pending
+    */
+   public synchronized boolean isPending() {
+      return !fPendingWrites.isEmpty();
+   }
+
+   /**
+    * Queue write of a register<br>
+    * The current cached value of the register is captured and written to the target
+    * after the idle delay (or when the queue is flushed).
+    *
+    * @param block         Memory block containing register
+    * @param address       Address of register
+    * @param sizeInBytes   Size of register in bytes
+    */
+   public void queueWrite(MemoryBlockCache block, long address, int sizeInBytes) {
+      if (!block.isWriteable()) {
+         return;
+      }
+      byte[] value = block.copyData(address, sizeInBytes);
+      if (value == null) {
+         System.err.println(String.format("RegisterWriteQueue.queueWrite([0x%X..0x%X]) - data null", address, address+sizeInBytes-1));
+         return;
+      }
+      int delay;
+      synchronized (this) {
+         TreeMap<Long, byte[]> blockWrites = fPendingWrites.get(block);
+         if (blockWrites == null) {
+            blockWrites = new TreeMap<Long, byte[]>();
+            fPendingWrites.put(block, blockWrites);
+         }
+         if (blockWrites.put(address, value) != null) {
+            fMergedEdits++;
+         }
+         fEdits++;
+         fLastEditTime = System.currentTimeMillis();
+         if (fJobScheduled) {
+            return;
+         }
+         fJobScheduled = true;
+         delay = fIdleDelay;
+      }
+      scheduleJob(delay);
+   }
+
+   /**
+    * Schedule job to write pending values once edits have stopped
+    *
+    * @param delay Delay before job runs
+    */
+   private void scheduleJob(int delay) {
+      Job job = new Job("Updating peripheral registers") {
+         protected IStatus run(IProgressMonitor monitor) {
+            monitor.beginTask("Updating peripheral registers...", 10);
+            try {
+               int remaining;
+               synchronized (RegisterWriteQueue.this) {
+                  remaining = (int)(fLastEditTime+fIdleDelay-System.currentTimeMillis());
+                  if (fPendingWrites.isEmpty()) {
+                     // Already flushed
+                     fJobScheduled = false;
+                     return Status.OK_STATUS;
+                  }
+                  if (remaining <= 0) {
+                     fJobScheduled = false;
+                  }
+               }
+               if (remaining > 0) {
+                  // Edited since job scheduled
+                  scheduleJob(remaining);
+               }
+               else {
+                  writePending();
+               }
+            } finally {
+               monitor.done();
+            }
+            return Status.OK_STATUS;
+         }};
+      job.setPriority(Job.SHORT);
+      job.setUser(false);
+      job.schedule(delay);
+   }
+
+   /**
+    * Discard pending writes e.g. when the target is no longer accessible<br>
+    * The cached values of the registers are not restored.
+    */
+   public synchronized void clear() {
+      fPendingWrites.clear();
+   }
+
+   /**
+    * Write all pending values to target without waiting for the idle delay<br>
+    * The writes are started by a job so the caller is never blocked waiting for the target
+    * e.g. on the display thread or a DSF executor.
+    */
+   public void flush() {
+      synchronized (this) {
+         if (fPendingWrites.isEmpty()) {
+            return;
+         }
+         // Treat as idle
+         fLastEditTime = System.currentTimeMillis()-fIdleDelay;
+         fJobScheduled = true;
+      }
+      scheduleJob(0);
+   }
+
+   /**
+    * Write all pending values to target<br>
+    * Each block written is read back when all its writes have completed (or failed).
+    * Change listeners will be notified when the read is complete.
+    * 
+    * @note May wait for a free slot in the in-flight window of the target interface
+    */
+   private void writePending() {
+      LinkedHashMap<MemoryBlockCache, CompletableFuture<Void>> blockFutures = startWrites();
+      synchronized (this) {
+         fVerifyReads += blockFutures.size();
+      }
+      for (Entry<MemoryBlockCache, CompletableFuture<Void>> entry:blockFutures.entrySet()) {
+         final MemoryBlockCache block = entry.getKey();
+         entry.getValue().whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void result, Throwable throwable) {
+               block.retrieveValue();
+            }
+         });
+      }
+   }
+
+   /**
+    * Create list of target writes needed for pending registers of a block
+    *
+    * @param block         Block being written
+    * @param blockWrites   Pending values (register address => value)
+    * @param combine       Whether contiguous registers may be combined
+    *
+    * @return List of writes
+    */
+   static ArrayList<WriteRange> createWriteRanges(MemoryBlockCache block, TreeMap<Long, byte[]> blockWrites, boolean combine) {
+      int accessSize = (int)(block.getWidthInBits()/8);
+      combine = combine && !block.isIsolated() && (accessSize == 4);
+      ArrayList<WriteRange> ranges = new ArrayList<WriteRange>();
+      WriteRange range = null;
+      for (Entry<Long, byte[]> entry:blockWrites.entrySet()) {
+         int registerSize = entry.getValue().length;
+         if ((range == null) || !combine || (registerSize != accessSize) ||
+               !range.merge(entry.getKey(), registerSize, MAXIMUM_WRITE_SIZE)) {
+            range = new WriteRange(entry.getKey(), registerSize);
+            ranges.add(range);
+         }
+      }
+      return ranges;
+   }
+
+   /**
+    * Start writes of all pending values to target
+    *
+    * @return Futures completed when all writes to each block are complete
+    */
+   private LinkedHashMap<MemoryBlockCache, CompletableFuture<Void>> startWrites() {
+      LinkedHashMap<MemoryBlockCache, TreeMap<Long, byte[]>> pendingWrites;
+      boolean combine;
+      synchronized (this) {
+         if (fPendingWrites.isEmpty()) {
+            return new LinkedHashMap<MemoryBlockCache, CompletableFuture<Void>>();
+         }
+         pendingWrites  = fPendingWrites;
+         fPendingWrites = new LinkedHashMap<MemoryBlockCache, TreeMap<Long, byte[]>>();
+         combine        = fCombineWrites;
+      }
+      LinkedHashMap<MemoryBlockCache, CompletableFuture<Void>> blockFutures = new LinkedHashMap<MemoryBlockCache, CompletableFuture<Void>>();
+      int registersWritten = 0;
+      int targetWrites     = 0;
+      int bytesWritten     = 0;
+      for (Entry<MemoryBlockCache, TreeMap<Long, byte[]>> blockEntry:pendingWrites.entrySet()) {
+         MemoryBlockCache      block        = blockEntry.getKey();
+         TreeMap<Long, byte[]> blockWrites  = blockEntry.getValue();
+         GdbCommonInterface    gdbInterface = block.getGdbInterface();
+         if (gdbInterface == null) {
+            continue;
+         }
+         ArrayList<WriteRange> ranges = createWriteRanges(block, blockWrites, combine);
+         CompletableFuture<?>[] futures = new CompletableFuture<?>[ranges.size()];
+         for (int index=0; index<ranges.size(); index++) {
+            WriteRange range = ranges.get(index);
+            byte[] data = new byte[range.getSize()];
+            for (Entry<Long, byte[]> entry:blockWrites.subMap(range.fAddress, range.fEnd).entrySet()) {
+               byte[] value = entry.getValue();
+               System.arraycopy(value, 0, data, (int)(entry.getKey()-range.fAddress), value.length);
+            }
+            futures[index] = gdbInterface.writeMemoryAsync(range.fAddress, data, (int)block.getWidthInBits()).whenComplete(new BiConsumer<Void, Throwable>() {
+               @Override
+               public void accept(Void result, Throwable throwable) {
+                  if (throwable != null) {
+                     synchronized (RegisterWriteQueue.this) {
+                        fFailedWrites++;
+                     }
+                  }
+               }
+            });
+            registersWritten += range.fRegisters;
+            bytesWritten     += data.length;
+            targetWrites++;
+         }
+         blockFutures.put(block, CompletableFuture.allOf(futures));
+      }
+      synchronized (this) {
+         fRegistersWritten += registersWritten;
+         fTargetWrites     += targetWrites;
+         fBytesWritten     += bytesWritten;
+      }
+      return blockFutures;
+   }
+
+   /**
+    * Start writes of all pending values to target<br>
+    * Blocks are not read back. The caller is expected to read them as part of a refresh.
+    *
+    * @return Blocks being written
+    *
+    * @note Writes are started before any later reads of the target so are done first
+    */
+   ArrayList<MemoryBlockCache> startPendingWrites() {
+      ArrayList<MemoryBlockCache> blocks = new ArrayList<MemoryBlockCache>(startWrites().keySet());
+      synchronized (this) {
+         fVerifyReads += blocks.size();
+      }
+      return blocks;
+   }
+}
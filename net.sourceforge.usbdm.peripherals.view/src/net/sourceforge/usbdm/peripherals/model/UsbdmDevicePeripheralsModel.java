@@ -174,16 +174,14 @@ public class UsbdmDevicePeripheralsModel {
    }
    
    /**
-    * Creates the tree entries for a peripheral
+    * Creates the tree entries for the registers of a peripheral
+    * 
+    * @param peripheralModel  The model that represents the peripheral and owns the registers
+    * @param peripheral       The peripheral to obtain register information from
     * 
-    * @param device      The model that represents the device (entire tree) that owns the peripherals
-    * @param peripheral  The peripheral to obtain register information from
     * @throws RegisterException
-    * @throws Exception
     */
-   private static void createPeripheralModel(DeviceModel device, Peripheral peripheral, GdbCommonInterface gdbInterface) throws RegisterException {
-      // Create peripheral mode
-      PeripheralModel   peripheralModel = new PeripheralModel(device, peripheral, gdbInterface);
+   static void createRegisterModels(PeripheralModel peripheralModel, Peripheral peripheral) throws RegisterException {
       ModelInformation  information     = new ModelInformation(peripheral);
       
       // Add registers
@@ -196,6 +194,47 @@ public class UsbdmDevicePeripheralsModel {
          }
       }
    }
+   
+   /**
+    * Creates the tree entries for a peripheral<br>
+    * When lazy loading is enabled only the peripheral entry is created. 
+    * Registers etc. are created when the peripheral is first expanded.
+    * 
+    * @param device      The model that represents the device (entire tree) that owns the peripherals
+    * @param peripheral  The peripheral to obtain register information from
+    * @throws RegisterException
+    * @throws Exception
+    */
+   private static void createPeripheralModel(DeviceModel device, Peripheral peripheral, GdbCommonInterface gdbInterface) throws RegisterException {
+      // Create peripheral mode
+      PeripheralModel   peripheralModel = new PeripheralModel(device, peripheral, gdbInterface);
+      
+      if (!isLazyLoading()) {
+         peripheralModel.load();
+      }
+   }
+
+   /** Create peripheral registers etc. only when needed */
+   private static boolean fLazyLoading = true;
+
+   /**
+    * Controls if peripheral registers etc. are created when the model is loaded or
+    * when the peripheral is first expanded
+    * 
+    * @param lazyLoading True to create registers when first needed
+    */
+   public static synchronized void setLazyLoading(boolean lazyLoading) {
+      fLazyLoading = lazyLoading;
+   }
+
+   /**
+    * Indicates if peripheral registers etc. are created when first needed
+    * 
+    * @return True if lazy loading
+    */
+   public static synchronized boolean isLazyLoading() {
+      return fLazyLoading;
+   }
 
    private static HashSet<String> excludedPeripherals = null;
    
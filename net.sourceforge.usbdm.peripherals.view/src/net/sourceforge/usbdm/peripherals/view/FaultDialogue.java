@@ -7,7 +7,9 @@
 */
 package net.sourceforge.usbdm.peripherals.view;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.regex.Pattern;
 
 import org.eclipse.cdt.dsf.datamodel.DMContexts;
@@ -186,13 +188,19 @@ public class FaultDialogue extends TitleAreaDialog {
       
       
       try {
-         // Get hardware registers
-         cfsr  = gdbInterface.getValue32bit(gdbInterface.readMemory(CFSR_ADDRESS,  4, 32));
-         hfsr  = gdbInterface.getValue32bit(gdbInterface.readMemory(HFSR_ADDRESS,  4, 32));
-         dfsr  = gdbInterface.getValue32bit(gdbInterface.readMemory(DFSR_ADDRESS,  4, 32));
-         mmfar = gdbInterface.getValue32bit(gdbInterface.readMemory(MMFAR_ADDRESS, 4, 32));
-         bfar  = gdbInterface.getValue32bit(gdbInterface.readMemory(BFAR_ADDRESS,  4, 32));
-         icsr  = gdbInterface.getValue32bit(gdbInterface.readMemory(ICSR_ADDRESS,  4, 32));
+         // Get hardware registers - reads are all started before waiting for results
+         CompletableFuture<byte[]> cfsrData  = gdbInterface.readMemoryAsync(CFSR_ADDRESS,  4, 32);
+         CompletableFuture<byte[]> hfsrData  = gdbInterface.readMemoryAsync(HFSR_ADDRESS,  4, 32);
+         CompletableFuture<byte[]> dfsrData  = gdbInterface.readMemoryAsync(DFSR_ADDRESS,  4, 32);
+         CompletableFuture<byte[]> mmfarData = gdbInterface.readMemoryAsync(MMFAR_ADDRESS, 4, 32);
+         CompletableFuture<byte[]> bfarData  = gdbInterface.readMemoryAsync(BFAR_ADDRESS,  4, 32);
+         CompletableFuture<byte[]> icsrData  = gdbInterface.readMemoryAsync(ICSR_ADDRESS,  4, 32);
+         cfsr  = gdbInterface.getValue32bit(GdbCommonInterface.getData(cfsrData));
+         hfsr  = gdbInterface.getValue32bit(GdbCommonInterface.getData(hfsrData));
+         dfsr  = gdbInterface.getValue32bit(GdbCommonInterface.getData(dfsrData));
+         mmfar = gdbInterface.getValue32bit(GdbCommonInterface.getData(mmfarData));
+         bfar  = gdbInterface.getValue32bit(GdbCommonInterface.getData(bfarData));
+         icsr  = gdbInterface.getValue32bit(GdbCommonInterface.getData(icsrData));
 
          exceptionFrameValid = false;
          floatingFrameValid  = false;
@@ -241,14 +249,18 @@ public class FaultDialogue extends TitleAreaDialog {
                }
                System.err.println(String.format("exceptionFramePtr = 0x%08X", exceptionFramePtr));
 
-               // Recover register from stack frame
-               stackedR0  = gdbInterface.getValue32bit(gdbInterface.readMemory(exceptionFramePtr+0,  4, 32));
-               stackedR1  = gdbInterface.getValue32bit(gdbInterface.readMemory(exceptionFramePtr+4,  4, 32));
-               stackedR2  = gdbInterface.getValue32bit(gdbInterface.readMemory(exceptionFramePtr+8,  4, 32));
-               stackedR3  = gdbInterface.getValue32bit(gdbInterface.readMemory(exceptionFramePtr+12, 4, 32));
-               stackedR12 = gdbInterface.getValue32bit(gdbInterface.readMemory(exceptionFramePtr+16, 4, 32));
-               stackedLR  = gdbInterface.getValue32bit(gdbInterface.readMemory(exceptionFramePtr+20, 4, 32));
-               stackedPC  = gdbInterface.getValue32bit(gdbInterface.readMemory(exceptionFramePtr+24, 4, 32));
+               // Recover register from stack frame (reads started together)
+               ArrayList<CompletableFuture<byte[]>> stackedData = new ArrayList<CompletableFuture<byte[]>>();
+               for (int index=0; index<7; index++) {
+                  stackedData.add(gdbInterface.readMemoryAsync(exceptionFramePtr+(4*index), 4, 32));
+               }
+               stackedR0  = gdbInterface.getValue32bit(GdbCommonInterface.getData(stackedData.get(0)));
+               stackedR1  = gdbInterface.getValue32bit(GdbCommonInterface.getData(stackedData.get(1)));
+               stackedR2  = gdbInterface.getValue32bit(GdbCommonInterface.getData(stackedData.get(2)));
+               stackedR3  = gdbInterface.getValue32bit(GdbCommonInterface.getData(stackedData.get(3)));
+               stackedR12 = gdbInterface.getValue32bit(GdbCommonInterface.getData(stackedData.get(4)));
+               stackedLR  = gdbInterface.getValue32bit(GdbCommonInterface.getData(stackedData.get(5)));
+               stackedPC  = gdbInterface.getValue32bit(GdbCommonInterface.getData(stackedData.get(6)));
 
                // Get unchanged registers
                R4         = gdbInterface.evaluateExpression(null, exceptionStackFrameContext, "$r4");
@@ -7,6 +7,10 @@
 */
 package net.sourceforge.usbdm.peripherals.view;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import org.eclipse.cdt.dsf.debug.service.IExpressions;
@@ -14,8 +18,23 @@ import org.eclipse.cdt.dsf.debug.service.IStack.IFrameDMContext;
 
 public abstract class GdbCommonInterface {
 
+   /** Default number of memory accesses that may be in progress at once */
+   public static final int DEFAULT_IN_FLIGHT_LIMIT = 8;
+
+   /** Default time to wait for a memory access or a free slot in the in-flight window (ms) */
+   public static final int DEFAULT_MEMORY_WAIT_TIME = 1000;
+
+   /** Time to wait for the result of an asynchronous access - allows for waiting for a slot and then for the access (ms) */
+   protected static final int ACCESS_RESULT_WAIT_TIME = 2*DEFAULT_MEMORY_WAIT_TIME;
+
    private boolean littleEndian;
 
+   /** Limits number of memory accesses in progress (replaced when limit changed) */
+   private Semaphore fInFlightWindow = new Semaphore(DEFAULT_IN_FLIGHT_LIMIT);
+
+   /** Number of memory accesses that may be in progress at once */
+   private int fInFlightLimit = DEFAULT_IN_FLIGHT_LIMIT;
+
    /**
     * Memory reads
     * 
@@ -33,13 +52,132 @@ public abstract class GdbCommonInterface {
     * Memory writes
     * 
     * @param address       Address to write at
-    * @param data          Data to write.  This must be 1, 2, 4 or 8 bytes due to limitations of underlying GDB command used
+    * @param data          Data to write.  Writes of 1, 2, 4 or 8 bytes are done as a single value, 
+    *                      larger writes (e.g. combined register writes) may be split by the target into several accesses
     * @param accessWidth   Access size (8, 16, 32 bits) to use (Ignored)
     * 
     * @throws TimeoutException
     */
    public abstract void writeMemory(long address, byte[] data, int accessWidth) throws TimeoutException;
 
+   /**
+    * Start memory read without waiting for it to complete<br>
+    * The default implementation does a blocking read.
+    * 
+    * @param address       Address to read from
+    * @param byteCount     Number of bytes to read
+    * @param accessWidth   Access size (8, 16, 32 bits) to use
+    * 
+    * @return              Future completed with data read or completed exceptionally on failure
+    */
+   public CompletableFuture<byte[]> readMemoryAsync(long address, int byteCount, int accessWidth) {
+      CompletableFuture<byte[]> future = new CompletableFuture<byte[]>();
+      try {
+         byte[] data = readMemory(address, byteCount, accessWidth);
+         if (data == null) {
+            future.completeExceptionally(new Exception(String.format("Memory read failed @0x%08X", address)));
+         }
+         else {
+            future.complete(data);
+         }
+      } catch (Exception e) {
+         future.completeExceptionally(e);
+      }
+      return future;
+   }
+
+   /**
+    * Start memory write without waiting for it to complete<br>
+    * The default implementation does a blocking write.
+    * 
+    * @param address       Address to write at
+    * @param data          Data to write.  Writes of 1, 2, 4 or 8 bytes are done as a single value, 
+    *                      larger writes (e.g. combined register writes) may be split by the target into several accesses
+    * @param accessWidth   Access size (8, 16, 32 bits) to use (Ignored)
+    * 
+    * @return              Future completed when write is done or completed exceptionally on failure
+    */
+   public CompletableFuture<Void> writeMemoryAsync(long address, byte[] data, int accessWidth) {
+      CompletableFuture<Void> future = new CompletableFuture<Void>();
+      try {
+         writeMemory(address, data, accessWidth);
+         future.complete(null);
+      } catch (Exception e) {
+         future.completeExceptionally(e);
+      }
+      return future;
+   }
+
+   /**
+    * Wait for data from an asynchronous memory read
+    * 
+    * @param future  Future from {@link #readMemoryAsync(long, int, int)}
+    * 
+    * @return Data read or null on failure or if the access does not complete in time
+    */
+   public static byte[] getData(CompletableFuture<byte[]> future) {
+      try {
+         return future.get(ACCESS_RESULT_WAIT_TIME, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      } catch (ExecutionException e) {
+         // Failed access - reported as null
+      } catch (TimeoutException e) {
+         System.err.println("GdbCommonInterface.getData() TimeoutException - waiting time of " + ACCESS_RESULT_WAIT_TIME + " ms exceeded");
+      }
+      return null;
+   }
+
+   /**
+    * Set number of memory accesses that may be in progress at once<br>
+    * Accesses already in progress are not affected.
+    * 
+    * @param limit Number of accesses (at least 1)
+    */
+   public synchronized void setInFlightLimit(int limit) {
+      fInFlightLimit  = Math.max(1, limit);
+      fInFlightWindow = new Semaphore(fInFlightLimit);
+   }
+
+   /**
+    * Get number of memory accesses that may be in progress at once
+    * 
+    * @return Number of accesses
+    */
+   public synchronized int getInFlightLimit() {
+      return fInFlightLimit;
+   }
+
+   /**
+    * Get time to wait for a memory access or a free slot in the in-flight window
+    * 
+    * @return Time in milliseconds
+    */
+   protected int getMemoryWaitTime() {
+      return DEFAULT_MEMORY_WAIT_TIME;
+   }
+
+   /**
+    * Wait for a free slot in the in-flight window before starting a memory access<br>
+    * The slot must be released by calling <b>release()</b> on the returned window when the access completes.
+    * 
+    * @return Window the slot was taken from
+    * 
+    * @throws InterruptedException
+    * @throws TimeoutException if no slot becomes free within the memory wait time
+    */
+   protected Semaphore acquireInFlightSlot() throws InterruptedException, TimeoutException {
+      Semaphore window;
+      synchronized (this) {
+         window = fInFlightWindow;
+      }
+      if (!window.tryAcquire(getMemoryWaitTime(), TimeUnit.MILLISECONDS)) {
+         System.err.println("GdbCommonInterface.acquireInFlightSlot() TimeoutException - waiting time of " + getMemoryWaitTime() + " ms exceeded");
+         throw new TimeoutException("No free slot in in-flight window");
+      }
+      return window;
+   }
+
    /**
     * Sets current stack frame
     * 
@@ -47,7 +185,7 @@ public abstract class GdbCommonInterface {
     * @return
     * @throws Exception
     */
-   abstract long setFrame(int frameNum) throws Exception;
+   protected abstract long setFrame(int frameNum) throws Exception;
 
    /**
     * Get stack frame size
@@ -55,9 +193,9 @@ public abstract class GdbCommonInterface {
     * @return
     * @throws Exception
     */
-   abstract IFrameDMContext getExceptionStackFrameContext() throws Exception;
+   protected abstract IFrameDMContext getExceptionStackFrameContext() throws Exception;
 
-   abstract long evaluateExpression(IExpressions expressionService, IFrameDMContext frame, String expression);
+   protected abstract long evaluateExpression(IExpressions expressionService, IFrameDMContext frame, String expression);
 
    /**
     * Indicates if the target is littleEndian
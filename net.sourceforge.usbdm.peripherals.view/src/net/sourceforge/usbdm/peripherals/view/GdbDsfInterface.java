@@ -7,11 +7,19 @@
 */
 package net.sourceforge.usbdm.peripherals.view;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
 import java.util.regex.Pattern;
 
 import org.eclipse.cdt.dsf.concurrent.DataRequestMonitor;
+import org.eclipse.cdt.dsf.concurrent.DsfRunnable;
 import org.eclipse.cdt.dsf.concurrent.ImmediateExecutor;
 import org.eclipse.cdt.dsf.concurrent.Query;
 import org.eclipse.cdt.dsf.datamodel.DMContexts;
@@ -46,109 +54,220 @@ import org.eclipse.debug.ui.DebugUITools;
 public class GdbDsfInterface extends GdbCommonInterface {
 
    //   private static final int maxResetWaitTimeInMilliseconds      = 10000;  
-   private static final int defaultMemoryWaitTimeInMilliseconds = 1000; // Usual time to wait for memory accesses
-   private static final int reducedMemoryWaitTimeInMilliseconds =  100; // Reduced time to wait after an initial failure
+   private static final int defaultMemoryWaitTimeInMilliseconds = DEFAULT_MEMORY_WAIT_TIME; // Usual time to wait for memory accesses
    private int              memoryWaitTimeInMilliseconds        = defaultMemoryWaitTimeInMilliseconds; // Active memory wait time
 
    private DsfSession          fDsfSession  = null;
 //   private DsfServicesTracker  tracker     = null;
 
-   GdbDsfInterface(DsfSession dsfSession) {
+   /**
+    * Create interface to target through GDB
+    * 
+    * @param dsfSession DSF session of GDB
+    */
+   protected GdbDsfInterface(DsfSession dsfSession) {
       this.fDsfSession  = dsfSession;
 //      if (fDsfSession != null) {
 //         tracker = new DsfServicesTracker(Activator.getBundleContext(), fDsfSession.getId());
 //      }
    }
 
+   @Override
+   protected int getMemoryWaitTime() {
+      return memoryWaitTimeInMilliseconds;
+   }
+
    /*
     * ========================================================
     *  Target access (via GDB)
     * ========================================================
     */
    /**
-    *  Read from target memory
+    * Get GDB control service<br>
+    * May be overridden to supply a different service e.g. for testing
+    * 
+    * @param caller Name of caller for error messages
+    * 
+    * @return Service or null if not available
+    */
+   protected IGDBControl getGdbControl(String caller) {
+      if (fDsfSession == null) {
+         System.err.println(caller+" tracker = null");
+         return null;
+      }
+      DsfServicesTracker tracker = new DsfServicesTracker(Activator.getBundleContext(), fDsfSession.getId());
+      try {
+         IGDBControl gdbControl = tracker.getService(IGDBControl.class);
+         if (gdbControl == null) {
+            System.err.println(caller+" fGdb = null");
+         }
+         return gdbControl;
+      } finally {
+         tracker.dispose();
+      }
+   }
+
+   /**
+    * Create a future that has failed
+    * 
+    * @param message Reason for failure
+    * 
+    * @return Future completed exceptionally
+    */
+   private static <T> CompletableFuture<T> failedFuture(String message) {
+      CompletableFuture<T> future = new CompletableFuture<T>();
+      future.completeExceptionally(new Exception(message));
+      return future;
+   }
+
+   /**
+    * Queue MI command on the DSF executor without waiting for it to complete<br>
+    * The caller waits for a slot in the in-flight window so only a limited number of commands are outstanding.
+    * The future times out if the command does not complete within the memory wait time of being dispatched to GDB.
+    * Time spent waiting for a window slot or on the DSF executor is not included.<br>
+    * The window slot is released when the MI command completes or when the future times out so that a command
+    * GDB never answers does not hold the slot indefinitely.
+    * 
+    * @param fGdb       GDB control service
+    * @param command    Command to queue
+    * @param future     Future to complete - on success this is done by <b>completer</b>
+    * @param completer  Converts the command result to the value of the future (on the DSF executor thread)
+    */
+   private <V, T extends MIInfo> void queueMemoryCommand(
+         final IGDBControl fGdb, final ICommand<T> command, final CompletableFuture<V> future, final Completer<V, T> completer) {
+      final Semaphore window;
+      try {
+         window = acquireInFlightSlot();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         future.completeExceptionally(e);
+         return;
+      } catch (TimeoutException e) {
+         future.completeExceptionally(e);
+         return;
+      }
+      // Slot is released by whichever of completion or timeout happens first
+      final AtomicBoolean slotReleased = new AtomicBoolean(false);
+      final Runnable releaseSlot = new Runnable() {
+         @Override
+         public void run() {
+            if (slotReleased.compareAndSet(false, true)) {
+               window.release();
+            }
+         }
+      };
+      try {
+         fGdb.getExecutor().execute(new DsfRunnable() {
+            @Override
+            public void run() {
+               // Timeout runs from when the command is given to GDB
+               future.orTimeout(memoryWaitTimeInMilliseconds, TimeUnit.MILLISECONDS).whenComplete(new BiConsumer<V, Throwable>() {
+                  @Override
+                  public void accept(V value, Throwable throwable) {
+                     if (throwable instanceof TimeoutException) {
+                        System.err.println("GdbDsfInterface.queueMemoryCommand() TimeoutException - waiting time of " + memoryWaitTimeInMilliseconds + " ms exceeded");
+                        releaseSlot.run();
+                     }
+                  }
+               });
+               fGdb.queueCommand(command, new DataRequestMonitor<T>(fGdb.getExecutor(), null) {
+                  @Override
+                  protected void handleCompleted() {
+                     // Command is no longer outstanding
+                     releaseSlot.run();
+                     T result = getData();
+                     if (!isSuccess() || (result == null) || result.isError()) {
+                        future.completeExceptionally(new Exception("MI command failed, result == null or result.isError()"));
+                        return;
+                     }
+                     future.complete(completer.complete(result));
+                  }
+               });
+            }
+         });
+      } catch (RejectedExecutionException e) {
+         // Session shut down - command was never queued
+         releaseSlot.run();
+         future.completeExceptionally(e);
+      }
+   }
+
+   /**
+    * Converts the result of an MI command to the value of a future
+    */
+   private interface Completer<V, T extends MIInfo> {
+      V complete(T result);
+   }
+
+   /**
+    *  Start read from target memory
     *  
     *  @param address   address in target memory
     *  @param size      number of bytes to read
     *  
-    *  @return byte[size] containing the data read or null on failure
+    *  @return Future completed with byte[size] containing the data read
     */
-   private synchronized byte[] readMemory(long address, int size) throws TimeoutException {
-//      System.err.println(String.format("GdbDsfInterface.readMemory(0x%X, %d)", address, size));
-      
-      DsfServicesTracker  tracker = null;
-      if (fDsfSession != null) {
-         tracker = new DsfServicesTracker(Activator.getBundleContext(), fDsfSession.getId());
-      }
-//      System.err.println("GdbDsfInterface.readMemory()");
-      if (tracker == null) {
-         System.err.println("GdbDsfInterface.readMemory() tracker = null");
-         return null;
-      }
-      byte[] ret = null;
-      final IGDBControl fGdb = (IGDBControl) tracker.getService(IGDBControl.class);
+   private CompletableFuture<byte[]> readMemoryAsync(long address, int size) {
+//      System.err.println(String.format("GdbDsfInterface.readMemoryAsync(0x%X, %d)", address, size));
+      final IGDBControl fGdb = getGdbControl("GdbDsfInterface.readMemoryAsync()");
       if (fGdb == null) {
-         System.err.println("GdbDsfInterface.readMemory() fGdb = null");
-         return null;
+         return failedFuture("GDB not available");
       }
       CommandFactory factory = fGdb.getCommandFactory();
       final ICommand<MIDataReadMemoryInfo> info_rm = factory.createMIDataReadMemory(fGdb.getContext(), 0L, Long.toString(address), 0, 1, 1, size, null);
 
-      Query<MIDataReadMemoryInfo> query = new Query<MIDataReadMemoryInfo>() {
+      CompletableFuture<byte[]> future = new CompletableFuture<byte[]>();
+      queueMemoryCommand(fGdb, info_rm, future, new Completer<byte[], MIDataReadMemoryInfo>() {
          @Override
-         protected void execute(final DataRequestMonitor<MIDataReadMemoryInfo> rm) {
-            DataRequestMonitor<MIDataReadMemoryInfo> dataRequestMonitor = new DataRequestMonitor<MIDataReadMemoryInfo>(fGdb.getExecutor(), null) {
-               protected void handleCompleted() {
-                  rm.setData((MIDataReadMemoryInfo) getData());
-                  rm.done();
-               }
-            };
-            fGdb.queueCommand(info_rm, dataRequestMonitor);
-         }
-      };
-      ImmediateExecutor.getInstance().execute(query);
-      MIDataReadMemoryInfo result = null;
-      try {
-         result = (MIDataReadMemoryInfo) query.get(memoryWaitTimeInMilliseconds, TimeUnit.MILLISECONDS);
-         // Reset wait time
-         memoryWaitTimeInMilliseconds = defaultMemoryWaitTimeInMilliseconds;
-         if ((result != null) && !result.isError()) {
+         public byte[] complete(MIDataReadMemoryInfo result) {
             MemoryByte[] bytes = result.getMIMemoryBlock();
             byte[] arraybytes = new byte[bytes.length];
             for (int i = 0; i < bytes.length; i++) {
                arraybytes[i] = bytes[i].getValue();
             }
-            ret = arraybytes;
+            return arraybytes;
          }
-         else {
-            System.err.println("GdbDsfInterface.readMemory(DSF) - failed, result == null or result.isError()");
+      });
+      return future;
+   }
+
+   /**
+    * Start two reads and join the data when both complete
+    * 
+    * @param address       Address to read from
+    * @param splitSize     Number of bytes in first read
+    * @param byteCount     Total number of bytes to read
+    * @param accessWidth   Access size (8, 16, 32 bits) to use
+    * 
+    * @return Future completed with data read
+    */
+   private CompletableFuture<byte[]> readMemorySplitAsync(long address, final int splitSize, final int byteCount, int accessWidth) {
+      // Both reads are issued before either completes
+      CompletableFuture<byte[]> data1 = readMemoryAsync(address,           splitSize,           accessWidth);
+      CompletableFuture<byte[]> data2 = readMemoryAsync(address+splitSize, byteCount-splitSize, accessWidth);
+      return data1.thenCombine(data2, new BiFunction<byte[], byte[], byte[]>() {
+         @Override
+         public byte[] apply(byte[] data1, byte[] data2) {
+            byte[] data = new byte[byteCount];
+            System.arraycopy(data1, 0, data, 0,         splitSize);
+            System.arraycopy(data2, 0, data, splitSize, byteCount-splitSize);
+            return data;
          }
-      } catch (TimeoutException localTimeoutException) {
-         System.err.println("GdbDsfInterface.readMemory() localTimeoutException - waiting time of " + memoryWaitTimeInMilliseconds + " ms exceeded");
-         // Reduced wait on next failure
-         memoryWaitTimeInMilliseconds = reducedMemoryWaitTimeInMilliseconds;
-      } catch (Exception e) {
-         System.err.println("GdbDsfInterface.readMemory() - failed, ErrorMessage: " + e.getMessage());
-      } finally {
-         tracker.dispose();
-      }
-//      System.err.println(String.format("GdbDsfInterface.readMemory() " + ret[0]));
-      return ret;
+      });
    }
 
    /**
-    * Wrapper that handles DSF or MI memory reads
+    * Wrapper that handles DSF memory reads without blocking<br>
+    * Up to {@link #getInFlightLimit()} reads may be outstanding at once.
     * 
     * @param address       Address to read from
     * @param byteCount     Number of bytes to read
     * @param accessWidth   Access size (8, 16, 32 bits) to use
     * 
-    * @return              Data read
-    * 
-    * @throws Exception 
+    * @return              Future completed with data read
     */
    @Override
-   public byte[] readMemory(long address, int byteCount, int accessWidth) throws Exception {
+   public CompletableFuture<byte[]> readMemoryAsync(long address, int byteCount, int accessWidth) {
       // There doesn't seem to be a mechanism for indicating the width of a write via GDB. Why??
       // TODO This is a horrible hack - damn you GDB!
       switch (accessWidth) {
@@ -157,12 +276,7 @@ public class GdbDsfInterface extends GdbCommonInterface {
          // This will be OK as treated as byte access by USBDM
          if (((address|byteCount)&0x1) == 0) {
             // Must split block otherwise seen as word/half-word size access
-            byte[] data1 = readMemory(address,              1, accessWidth);
-            byte[] data2 = readMemory(address+1, byteCount-1, accessWidth);
-            byte[] data = new byte[byteCount];
-            data[0] = data1[0];
-            System.arraycopy(data2, 0, data, 1, byteCount-1);
-            return data;
+            return readMemorySplitAsync(address, 1, byteCount, accessWidth);
          }
          break;
       case 16:
@@ -170,33 +284,74 @@ public class GdbDsfInterface extends GdbCommonInterface {
          // This will be OK as treated as byte/half-word access by USBDM
          if (((address|byteCount)&0x3) == 0) {
             // Must split block otherwise seen as word size access
-            byte[] data1 = readMemory(address,              2, accessWidth);
-            byte[] data2 = readMemory(address+2, byteCount-2, accessWidth);
-            byte[] data = new byte[byteCount];
-            data[0] = data1[0];
-            data[1] = data1[1];
-            System.arraycopy(data2, 0, data, 2, byteCount-2);
-            return data;
+            return readMemorySplitAsync(address, 2, byteCount, accessWidth);
          }
          break;
       case 32:
          // Always considered OK
          break;
       default: 
-         throw new Exception("Illegal access size"); 
+         return failedFuture("Illegal access size"); 
+      }
+      //      System.err.println(String.format("GdbDsfInterface.readMemoryAsync(0x%08X, %d)", address, iByteCount));
+      return readMemoryAsync(address, byteCount);
+   }
+
+   /**
+    * Wrapper that handles DSF memory reads
+    * 
+    * @param address       Address to read from
+    * @param byteCount     Number of bytes to read
+    * @param accessWidth   Access size (8, 16, 32 bits) to use
+    * 
+    * @return              Data read or null on failure
+    * 
+    * @throws Exception 
+    */
+   @Override
+   public byte[] readMemory(long address, int byteCount, int accessWidth) throws Exception {
+      byte[] data = getData(readMemoryAsync(address, byteCount, accessWidth));
+      if (data == null) {
+         System.err.println("GdbDsfInterface.readMemory(DSF) - failed");
       }
-      //      System.err.println(String.format("GdbDsfInterface.readMemory(0x%08X, %d)", address, iByteCount));
-      return readMemory(address, byteCount);
+      return data;
    }
 
    /**
+    * Start write to target memory<br>
+    * Writes of 1, 2, 4 or 8 bytes are done as a single value so the target may use a single access.
+    * Other sizes (e.g. combined register writes) are written as a block of bytes.
+    * 
     * @param address
     * @param data
     * 
-    * @return Number of bytes written (-1 => error)
+    * @return Future completed when write is done
     */
-   private int writeMemory(long address, byte[] data) {
+   private CompletableFuture<Void> writeMemoryAsync(long address, byte[] data) {
       
+      final IGDBControl fGdb = getGdbControl("GdbDsfInterface.writeMemoryAsync(DSF)");
+      if (fGdb == null) {
+         return failedFuture("GDB not available");
+      }
+      CommandFactory factory = fGdb.getCommandFactory();
+      CompletableFuture<Void> future = new CompletableFuture<Void>();
+      switch (data.length) {
+      case 1:
+      case 2:
+      case 4:
+      case 8:
+         break;
+      default:
+         final ICommand<MIInfo> info_wmb = 
+               factory.createMIDataWriteMemoryBytes(fGdb.getContext(), address, data);
+         queueMemoryCommand(fGdb, info_wmb, future, new Completer<Void, MIInfo>() {
+            @Override
+            public Void complete(MIInfo result) {
+               return null;
+            }
+         });
+         return future;
+      }
       StringBuffer buffer = new StringBuffer(10+(2*data.length));
       buffer.append("0x");
       for (int index = data.length - 1; index >= 0; index--) {
@@ -204,19 +359,6 @@ public class GdbDsfInterface extends GdbCommonInterface {
       }
       String value = buffer.toString();
       
-      DsfServicesTracker  tracker = null;
-      if (fDsfSession != null) {
-         tracker = new DsfServicesTracker(Activator.getBundleContext(), fDsfSession.getId());
-      }
-      if (tracker == null) {
-         System.err.println("GdbDsfInterface.writeMemory(DSF) tracker = null");
-         return 0;
-      }
-      final IGDBControl fGdb = tracker.getService(IGDBControl.class);
-      if (fGdb == null) {
-         return -1;
-      }
-      CommandFactory factory = fGdb.getCommandFactory();
       int format;
       if (value.contains("x")) {
          format = MIFormat.HEXADECIMAL;
@@ -226,46 +368,36 @@ public class GdbDsfInterface extends GdbCommonInterface {
       final ICommand<MIDataWriteMemoryInfo> info_wm = 
             factory.createMIDataWriteMemory(fGdb.getContext(), 0L, Long.toString(address), format, data.length, value);
       
-      Query<MIDataWriteMemoryInfo> query = new Query<MIDataWriteMemoryInfo>() {
-         protected void execute(
-               final DataRequestMonitor<MIDataWriteMemoryInfo> rm) {
-            fGdb.queueCommand( info_wm, new DataRequestMonitor<MIDataWriteMemoryInfo>(fGdb.getExecutor(), null) {
-               protected void handleCompleted() {
-                  rm.setData((MIDataWriteMemoryInfo) getData());
-                  rm.done();
-               }
-            });
-         }
-      };
-      ImmediateExecutor.getInstance().execute(query);
-      int ret = -1;
-      try {
-         MIDataWriteMemoryInfo result = (MIDataWriteMemoryInfo) query.get(memoryWaitTimeInMilliseconds, TimeUnit.MILLISECONDS);
-         // Reset wait time
-         memoryWaitTimeInMilliseconds = defaultMemoryWaitTimeInMilliseconds;
-         if ((result != null) && !result.isError()) {
-            ret = data.length;
-         }
-         else {
-            System.err.println("GdbDsfInterface.writeMemory() - failed, result == null or result.isError()");
+      queueMemoryCommand(fGdb, info_wm, future, new Completer<Void, MIDataWriteMemoryInfo>() {
+         @Override
+         public Void complete(MIDataWriteMemoryInfo result) {
+            return null;
          }
-      } catch (TimeoutException localTimeoutException) {
-//         System.err.println("GdbDsfInterface.readMemory(DSF) localTimeoutException - waiting time of " + memoryWaitTimeInMilliseconds + " ms exceeded");
-         // Reduced wait on next failure
-         memoryWaitTimeInMilliseconds = reducedMemoryWaitTimeInMilliseconds;
-      } catch (Exception e) {
-         System.err.println("GdbDsfInterface.setFrame() - failed, ErrorMessage: " + e.getMessage());
-      } finally {
-         tracker.dispose();
-      }
-      return ret;
+      });
+      return future;
+   }
+
+   /**
+    * Wrapper that handles memory writes without blocking<br>
+    * Writes share the in-flight window with reads and are done in the order issued.
+    * 
+    * @param address      Address to write at
+    * @param data         Data to write
+    * @param accessWidth  Access size (8, 16, 32 bits) to use
+    * 
+    * @return             Future completed when write is done
+    */
+   @Override
+   public CompletableFuture<Void> writeMemoryAsync(long address, byte[] data, int accessWidth) {
+      //      System.err.println(String.format("GdbDsfInterface.writeMemoryAsync(0x%08X, %d)", address, data.length));
+      return writeMemoryAsync(address, data);
    }
 
    /**
     * Wrapper that handles memory writes
     * 
     * @param address      Address to write at
-    * @param data         Data to write.  This must be 1, 2, 4 or 8 bytes due to limitations of underlying GDB command used
+    * @param data         Data to write
     * @param accessWidth  Access size (8, 16, 32 bits) to use
     * 
     * @throws TimeoutException
@@ -273,7 +405,16 @@ public class GdbDsfInterface extends GdbCommonInterface {
    @Override
    public void writeMemory(long address, byte[] data, int accessWidth) throws TimeoutException {
       //      System.err.println(String.format("GdbDsfInterface.writeMemory(0x%08X, %d)", address, data.length));
-      writeMemory(address, data);
+      try {
+         writeMemoryAsync(address, data).get(ACCESS_RESULT_WAIT_TIME, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      } catch (ExecutionException e) {
+         if (e.getCause() instanceof TimeoutException) {
+            throw (TimeoutException) e.getCause();
+         }
+         System.err.println("GdbDsfInterface.writeMemory() - failed, ErrorMessage: " + e.getCause().getMessage());
+      }
    }
 
    //   Pattern stringPattern = Pattern.compile("[\\s]*?((0x)?[0-9]+)[\\s]*");
@@ -0,0 +1,648 @@
+package net.sourceforge.usbdm.peripherals.view;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+
+import org.eclipse.cdt.dsf.debug.service.IExpressions;
+import org.eclipse.cdt.dsf.debug.service.IStack.IFrameDMContext;
+
+import net.sourceforge.usbdm.peripheralDatabase.AddressBlock;
+import net.sourceforge.usbdm.peripheralDatabase.Peripheral;
+import net.sourceforge.usbdm.peripheralDatabase.SVDIdentifier;
+import net.sourceforge.usbdm.peripherals.model.BaseModel;
+import net.sourceforge.usbdm.peripherals.model.DeviceModel;
+import net.sourceforge.usbdm.peripherals.model.RegisterModel;
+import net.sourceforge.usbdm.peripherals.model.UsbdmDevicePeripheralsModel;
+
+/**
+ * Simulated target for use without GDB or a probe (benchmarking and tests)<br>
+ *
+ * <ul>
+ * <li>Target memory is a sparse image built from the reset values of the registers in a device description.
+ *     Only pages within the address blocks of peripherals are mapped - accesses to unmapped memory fail as a bus error would.
+ * <li>Each access has a configurable round trip latency and the data transfer is limited by a configurable bandwidth.
+ *     The latency is split between the two directions of the link and the target services one access at a time,
+ *     so asynchronous accesses are pipelined as they would be through GDB.
+ * <li>Registers may be given read side-effects. Registers marked as isolated in the device description
+ *     are cleared on read by default.
+ * <li>{@link #run(int)} modifies registers to simulate the target executing between stops.
+ * </ul>
+ */
+public class GdbSimulatedInterface extends GdbCommonInterface {
+
+   /**
+    * Side-effect of reading a register
+    */
+   public enum SideEffect {
+      /** Reading has no effect */
+      NONE,
+      /** Register is cleared after being read e.g. status flags */
+      CLEAR_ON_READ,
+      /** Register is incremented after being read e.g. FIFO index */
+      INCREMENT_ON_READ,
+   }
+
+   /**
+    * A register in the simulated target
+    */
+   private static class SimulatedRegister {
+      final long fAddress;
+      final int  fSizeInBytes;
+      SideEffect fSideEffect;
+
+      SimulatedRegister(long address, int sizeInBytes, SideEffect sideEffect) {
+         fAddress     = address;
+         fSizeInBytes = sizeInBytes;
+         fSideEffect  = sideEffect;
+      }
+   }
+
+   /** Size of pages used for sparse memory image */
+   public static final int PAGE_SIZE = 1024;
+
+   /** Sparse memory image - pages indexed by address/PAGE_SIZE */
+   private final HashMap<Long, byte[]> fPages = new HashMap<Long, byte[]>();
+
+   /** All registers */
+   private final ArrayList<SimulatedRegister> fRegisters = new ArrayList<SimulatedRegister>();
+
+   /** Registers with side-effects */
+   private final ArrayList<SimulatedRegister> fSideEffectRegisters = new ArrayList<SimulatedRegister>();
+
+   /** Registers that may change when target runs (non side-effect) */
+   private final ArrayList<SimulatedRegister> fVolatileRegisters = new ArrayList<SimulatedRegister>();
+
+   private final Random fRandom = new Random(1);
+
+   /** Name of device simulated */
+   private final String fDeviceName;
+
+   /** Link to target - delays commands and responses */
+   private ScheduledExecutorService fLink   = null;
+
+   /** Target - services one access at a time */
+   private ExecutorService          fTarget = null;
+
+   private long fLatency   = 0;
+   private long fBandwidth = 0;
+
+   private long fReads            = 0;
+   private long fWrites           = 0;
+   private long fBytesRead        = 0;
+   private long fBytesWritten     = 0;
+   private long fFailedAccesses   = 0;
+   private long fSideEffectReads  = 0;
+
+   /**
+    * Create simulated target from device description<br>
+    * The memory image contains the reset value of every register.
+    *
+    * @param svdId Device description
+    *
+    * @throws Exception if the device description can't be loaded
+    */
+   public GdbSimulatedInterface(SVDIdentifier svdId) throws Exception {
+      DeviceModel deviceModel = new DeviceModel("Simulated");
+      UsbdmDevicePeripheralsModel.loadDeviceModel(deviceModel, svdId, this);
+      fDeviceName = deviceModel.getName();
+      for (Peripheral peripheral:svdId.getDevicePeripherals().getPeripherals()) {
+         for (AddressBlock addressBlock:peripheral.getAddressBlocks()) {
+            long address = peripheral.getBaseAddress()+addressBlock.getOffset();
+            for (long pageAddress=address-(address%PAGE_SIZE); pageAddress<(address+addressBlock.getSizeInBytes()); pageAddress+=PAGE_SIZE) {
+               getPage(pageAddress, true);
+            }
+         }
+      }
+      addRegisters(deviceModel);
+   }
+
+   /**
+    * Add registers of model (recursively) to memory image
+    *
+    * @param model Model to add
+    */
+   private void addRegisters(BaseModel model) {
+      for (Object child:model.getChildren()) {
+         if (child instanceof RegisterModel) {
+            RegisterModel register = (RegisterModel) child;
+            int sizeInBytes = (register.getWidth()+7)/8;
+            SimulatedRegister simulatedRegister = new SimulatedRegister(register.getAddress(), sizeInBytes, SideEffect.NONE);
+            fRegisters.add(simulatedRegister);
+            poke(register.getAddress(), sizeInBytes, register.getResetValue());
+            if (register.isIsolated()) {
+               simulatedRegister.fSideEffect = SideEffect.CLEAR_ON_READ;
+               fSideEffectRegisters.add(simulatedRegister);
+            }
+            else if (register.isReadable() && register.isWritable()) {
+               fVolatileRegisters.add(simulatedRegister);
+            }
+         }
+         else if (child instanceof BaseModel) {
+            addRegisters((BaseModel) child);
+         }
+      }
+   }
+
+   /**
+    * Get name of device simulated
+    *
+    * @return Name from device description
+    */
+   public String getDeviceName() {
+      return fDeviceName;
+   }
+
+   /**
+    * Get number of registers in target
+    *
+    * @return Number of registers
+    */
+   public synchronized int getRegisterCount() {
+      return fRegisters.size();
+   }
+
+   /**
+    * Get number of bytes of memory mapped
+    *
+    * @return Size in bytes
+    */
+   public synchronized long getMappedSize() {
+      return fPages.size()*(long)PAGE_SIZE;
+   }
+
+   /**
+    * Set timing of target accesses<br>
+    * Accesses complete immediately if both are zero.
+    *
+    * @param latency    Round trip time for each access (nanoseconds)
+    * @param bandwidth  Data transfer rate (bytes/second, 0 => unlimited)
+    */
+   public synchronized void setTiming(long latency, long bandwidth) {
+      fLatency   = latency;
+      fBandwidth = bandwidth;
+      if (((latency != 0) || (bandwidth != 0)) && (fLink == null)) {
+         ThreadFactory threadFactory = new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+               Thread thread = new Thread(runnable, "Simulated target");
+               thread.setDaemon(true);
+               return thread;
+            }
+         };
+         fLink   = Executors.newScheduledThreadPool(2, threadFactory);
+         fTarget = Executors.newSingleThreadExecutor(threadFactory);
+      }
+   }
+
+   /**
+    * Release threads used for simulating access timing
+    */
+   public synchronized void dispose() {
+      if (fLink != null) {
+         fLink.shutdown();
+         fTarget.shutdown();
+         fLink   = null;
+         fTarget = null;
+      }
+   }
+
+   /**
+    * Set side-effect of reading a register
+    *
+    * @param address     Address of register
+    * @param sideEffect  Side-effect
+    *
+    * @return true if register found
+    */
+   public synchronized boolean setSideEffect(long address, SideEffect sideEffect) {
+      for (SimulatedRegister register:fRegisters) {
+         if (register.fAddress == address) {
+            fSideEffectRegisters.remove(register);
+            fVolatileRegisters.remove(register);
+            register.fSideEffect = sideEffect;
+            if (sideEffect != SideEffect.NONE) {
+               fSideEffectRegisters.add(register);
+            }
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Simulate target running<br>
+    * Random bits are changed in randomly chosen registers.
+    * Registers with side-effects are set to a non-zero value.
+    *
+    * @param changes Number of registers to change
+    */
+   public synchronized void run(int changes) {
+      if (!fVolatileRegisters.isEmpty()) {
+         for (int change=0; change<changes; change++) {
+            SimulatedRegister register = fVolatileRegisters.get(fRandom.nextInt(fVolatileRegisters.size()));
+            long value = peek(register.fAddress, register.fSizeInBytes);
+            poke(register.fAddress, register.fSizeInBytes, value^(1L<<fRandom.nextInt(8*register.fSizeInBytes)));
+         }
+      }
+      for (SimulatedRegister register:fSideEffectRegisters) {
+         if (register.fSideEffect == SideEffect.CLEAR_ON_READ) {
+            poke(register.fAddress, register.fSizeInBytes, 1L<<fRandom.nextInt(8*register.fSizeInBytes));
+         }
+      }
+   }
+
+   /**
+    * Get page of memory image
+    *
+    * @param address  Address within page
+    * @param create   Create page if not mapped
+    *
+    * @return Page or null if not mapped
+    */
+   private byte[] getPage(long address, boolean create) {
+      Long   pageNumber = address/PAGE_SIZE;
+      byte[] page       = fPages.get(pageNumber);
+      if ((page == null) && create) {
+         page = new byte[PAGE_SIZE];
+         fPages.put(pageNumber, page);
+      }
+      return page;
+   }
+
+   /**
+    * Indicates if a range of memory is mapped
+    *
+    * @param address      Start address
+    * @param sizeInBytes  Size of range
+    *
+    * @return true if all of the range is mapped
+    */
+   private boolean isMapped(long address, int sizeInBytes) {
+      for (long pageAddress=address-(address%PAGE_SIZE); pageAddress<(address+sizeInBytes); pageAddress+=PAGE_SIZE) {
+         if (getPage(pageAddress, false) == null) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Read value directly from memory image (no timing or side-effects)
+    *
+    * @param address      Address of value
+    * @param sizeInBytes  Size of value (1 to 8 bytes)
+    *
+    * @return Value (0 if not mapped)
+    */
+   public synchronized long peek(long address, int sizeInBytes) {
+      long value = 0;
+      for (int index=0; index<sizeInBytes; index++) {
+         byte[] page = getPage(address+index, false);
+         long   data = (page == null)?0:(page[(int)((address+index)%PAGE_SIZE)]&0xFFL);
+         if (isLittleEndian()) {
+            value |= data<<(8*index);
+         }
+         else {
+            value = (value<<8)|data;
+         }
+      }
+      return value;
+   }
+
+   /**
+    * Write value directly to memory image (no timing or side-effects)<br>
+    * Memory is mapped as necessary.
+    *
+    * @param address      Address of value
+    * @param sizeInBytes  Size of value (1 to 8 bytes)
+    * @param value        Value to write
+    */
+   public synchronized void poke(long address, int sizeInBytes, long value) {
+      for (int index=0; index<sizeInBytes; index++) {
+         int shift = isLittleEndian()?(8*index):(8*(sizeInBytes-index-1));
+         getPage(address+index, true)[(int)((address+index)%PAGE_SIZE)] = (byte)(value>>shift);
+      }
+   }
+
+   /**
+    * Do read access on memory image including side-effects
+    *
+    * @param address    Address to read from
+    * @param byteCount  Number of bytes to read
+    *
+    * @return Data read or null if not mapped
+    */
+   private synchronized byte[] doRead(long address, int byteCount) {
+      fReads++;
+      if (!isMapped(address, byteCount)) {
+         fFailedAccesses++;
+         return null;
+      }
+      byte[] data = new byte[byteCount];
+      for (int index=0; index<byteCount; index++) {
+         data[index] = getPage(address+index, false)[(int)((address+index)%PAGE_SIZE)];
+      }
+      fBytesRead += byteCount;
+      for (SimulatedRegister register:fSideEffectRegisters) {
+         if ((register.fAddress >= address) && ((register.fAddress+register.fSizeInBytes) <= (address+byteCount))) {
+            fSideEffectReads++;
+            switch (register.fSideEffect) {
+            case CLEAR_ON_READ:
+               poke(register.fAddress, register.fSizeInBytes, 0);
+               break;
+            case INCREMENT_ON_READ:
+               poke(register.fAddress, register.fSizeInBytes, peek(register.fAddress, register.fSizeInBytes)+1);
+               break;
+            default:
+               break;
+            }
+         }
+      }
+      return data;
+   }
+
+   /**
+    * Do write access on memory image
+    *
+    * @param address  Address to write at
+    * @param data     Data to write
+    *
+    * @return true if successful, false if not mapped
+    */
+   private synchronized boolean doWrite(long address, byte[] data) {
+      fWrites++;
+      if (!isMapped(address, data.length)) {
+         fFailedAccesses++;
+         return false;
+      }
+      for (int index=0; index<data.length; index++) {
+         getPage(address+index, false)[(int)((address+index)%PAGE_SIZE)] = data[index];
+      }
+      fBytesWritten += data.length;
+      return true;
+   }
+
+   /**
+    * Access to be done by target
+    */
+   private interface Access<T> {
+      /**
+       * Do access
+       *
+       * @return Result or null on failure
+       */
+      T access();
+   }
+
+   /**
+    * Start access to target applying latency and bandwidth limits
+    *
+    * @param sizeInBytes  Number of bytes transferred
+    * @param access       Access to do
+    * @param message      Message for failed access
+    *
+    * @return Future completed with result of access
+    */
+   private <T> CompletableFuture<T> startAccess(int sizeInBytes, final Access<T> access, final String message) {
+      final CompletableFuture<T> future = new CompletableFuture<T>();
+      final ScheduledExecutorService link;
+      final ExecutorService          target;
+      final long                     linkDelay;
+      final long                     transferTime;
+      synchronized (this) {
+         link         = fLink;
+         target       = fTarget;
+         linkDelay    = fLatency/2;
+         transferTime = (fBandwidth == 0)?0:((sizeInBytes*1000000000L)/fBandwidth);
+      }
+      if (link == null) {
+         // No timing - complete immediately
+         T result = access.access();
+         if (result == null) {
+            future.completeExceptionally(new Exception(message));
+         }
+         else {
+            future.complete(result);
+         }
+         return future;
+      }
+      final Semaphore window;
+      try {
+         window = acquireInFlightSlot();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         future.completeExceptionally(e);
+         return future;
+      } catch (TimeoutException e) {
+         future.completeExceptionally(e);
+         return future;
+      }
+      // Command crosses link, is serviced by target and the response crosses back
+      try {
+         scheduleAccess(link, target, linkDelay, transferTime, access, window, future, message);
+      } catch (RejectedExecutionException e) {
+         // Disposed
+         window.release();
+         future.completeExceptionally(e);
+      }
+      return future;
+   }
+
+   /**
+    * Schedule access through link and target
+    *
+    * @param link          Link delays
+    * @param target        Target
+    * @param linkDelay     Delay in each direction (ns)
+    * @param transferTime  Time target is busy for access (ns)
+    * @param access        Access to do
+    * @param window        In-flight window to release on completion
+    * @param future        Future to complete
+    * @param message       Message for failed access
+    */
+   private static <T> void scheduleAccess(
+         final ScheduledExecutorService link, final ExecutorService target, final long linkDelay, final long transferTime,
+         final Access<T> access, final Semaphore window, final CompletableFuture<T> future, final String message) {
+      link.schedule(new Runnable() {
+         @Override
+         public void run() {
+            try {
+               target.execute(new Runnable() {
+                  @Override
+                  public void run() {
+                     long end = System.nanoTime()+transferTime;
+                     while (System.nanoTime() < end) {
+                        LockSupport.parkNanos(end-System.nanoTime());
+                     }
+                     final T result = access.access();
+                     Runnable response = new Runnable() {
+                        @Override
+                        public void run() {
+                           window.release();
+                           if (result == null) {
+                              future.completeExceptionally(new Exception(message));
+                           }
+                           else {
+                              future.complete(result);
+                           }
+                        }
+                     };
+                     try {
+                        link.schedule(response, linkDelay, TimeUnit.NANOSECONDS);
+                     } catch (RejectedExecutionException e) {
+                        // Disposed - complete without delay
+                        response.run();
+                     }
+                  }
+               });
+            } catch (RejectedExecutionException e) {
+               // Disposed
+               window.release();
+               future.completeExceptionally(e);
+            }
+         }
+      }, linkDelay, TimeUnit.NANOSECONDS);
+   }
+
+   @Override
+   public CompletableFuture<byte[]> readMemoryAsync(final long address, final int byteCount, int accessWidth) {
+      return startAccess(byteCount, new Access<byte[]>() {
+         @Override
+         public byte[] access() {
+            return doRead(address, byteCount);
+         }
+      }, String.format("Simulated read failed @0x%08X", address));
+   }
+
+   @Override
+   public CompletableFuture<Void> writeMemoryAsync(final long address, final byte[] data, int accessWidth) {
+      final CompletableFuture<Void> future = new CompletableFuture<Void>();
+      startAccess(data.length, new Access<Boolean>() {
+         @Override
+         public Boolean access() {
+            return doWrite(address, data)?Boolean.TRUE:null;
+         }
+      }, String.format("Simulated write failed @0x%08X", address)).whenComplete(new BiConsumer<Boolean, Throwable>() {
+         @Override
+         public void accept(Boolean result, Throwable throwable) {
+            if (throwable != null) {
+               future.completeExceptionally(throwable);
+            }
+            else {
+               future.complete(null);
+            }
+         }
+      });
+      return future;
+   }
+
+   @Override
+   public byte[] readMemory(long address, int byteCount, int accessWidth) throws Exception {
+      return getData(readMemoryAsync(address, byteCount, accessWidth));
+   }
+
+   @Override
+   public void writeMemory(long address, byte[] data, int accessWidth) throws TimeoutException {
+      try {
+         writeMemoryAsync(address, data, accessWidth).get(ACCESS_RESULT_WAIT_TIME, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      } catch (ExecutionException e) {
+         System.err.println("GdbSimulatedInterface.writeMemory() - failed, ErrorMessage: " + e.getCause().getMessage());
+      }
+   }
+
+   /**
+    * Get number of read accesses
+    *
+    * @return Number of reads
+    */
+   public synchronized long getReadCount() {
+      return fReads;
+   }
+
+   /**
+    * Get number of write accesses
+    *
+    * @return Number of writes
+    */
+   public synchronized long getWriteCount() {
+      return fWrites;
+   }
+
+   /**
+    * Get number of bytes read
+    *
+    * @return Number of bytes
+    */
+   public synchronized long getBytesRead() {
+      return fBytesRead;
+   }
+
+   /**
+    * Get number of bytes written
+    *
+    * @return Number of bytes
+    */
+   public synchronized long getBytesWritten() {
+      return fBytesWritten;
+   }
+
+   /**
+    * Get number of accesses to unmapped memory
+    *
+    * @return Number of accesses
+    */
+   public synchronized long getFailedAccessCount() {
+      return fFailedAccesses;
+   }
+
+   /**
+    * Get number of times a register with side-effects was read
+    *
+    * @return Number of reads
+    */
+   public synchronized long getSideEffectReadCount() {
+      return fSideEffectReads;
+   }
+
+   /**
+    * Reset access statistics
+    */
+   public synchronized void resetStatistics() {
+      fReads           = 0;
+      fWrites          = 0;
+      fBytesRead       = 0;
+      fBytesWritten    = 0;
+      fFailedAccesses  = 0;
+      fSideEffectReads = 0;
+   }
+
+   @Override
+   protected long setFrame(int frameNum) throws Exception {
+      return 0;
+   }
+
+   @Override
+   protected IFrameDMContext getExceptionStackFrameContext() throws Exception {
+      return null;
+   }
+
+   @Override
+   protected long evaluateExpression(IExpressions expressionService, IFrameDMContext frame, String expression) {
+      return 0;
+   }
+}
@@ -0,0 +1,269 @@
+package net.sourceforge.usbdm.peripherals.view;
+
+import java.util.ArrayList;
+
+import org.eclipse.swt.graphics.Rectangle;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Tree;
+import org.eclipse.swt.widgets.TreeItem;
+
+import net.sourceforge.usbdm.peripherals.model.PeripheralModel;
+
+/**
+ * Decides which peripherals are read from the target when the target is suspended
+ * or the rows visible in the tree change<br>
+ *
+ * Collapsed peripherals are never read - they are updated when expanded.
+ */
+class PeripheralsRefreshPolicy {
+
+   public enum Policy {
+      /** Read all expanded peripherals (even if scrolled out of view) */
+      AllExpanded("Refresh all expanded peripherals"),
+      /** Read expanded peripherals that are visible in the viewport */
+      VisibleOnly("Refresh visible peripherals only"),
+      /** Read visible peripherals then those just outside the viewport in the background */
+      VisibleAndPrefetch("Refresh visible peripherals and prefetch nearby");
+
+      private final String fDescription;
+
+      Policy(String description) {
+         fDescription = description;
+      }
+
+      public String getDescription() {
+         return fDescription;
+      }
+   };
+
+   /** Number of pages above and below viewport that are prefetched */
+   private static final int PREFETCH_PAGES = 1;
+
+   /** Delay before prefetching so visible peripherals are read first (ms) */
+   private static final int PREFETCH_DELAY = 100;
+
+   private final Tree fTree;
+   private Policy     fPolicy = Policy.VisibleAndPrefetch;
+
+   /** Indicates a deferred check of the viewport has been queued */
+   private boolean    fViewportCheckPending = false;
+
+   /**
+    * Expanded peripheral and the rows it occupies in the tree
+    */
+   private static class PeripheralRows {
+      final PeripheralModel fPeripheral;
+      final int             fStart;
+      final int             fEnd;
+
+      PeripheralRows(PeripheralModel peripheral, int start, int end) {
+         fPeripheral = peripheral;
+         fStart      = start;
+         fEnd        = end;
+      }
+
+      boolean overlaps(int start, int end) {
+         return (fStart<end) && (fEnd>start);
+      }
+   }
+
+   /**
+    * Create refresh policy for tree
+    *
+    * @param tree Tree displaying peripherals
+    */
+   public PeripheralsRefreshPolicy(Tree tree) {
+      fTree = tree;
+   }
+
+   /**
+    * Set policy
+    *
+    * @param policy
+    */
+   public void setPolicy(Policy policy) {
+      fPolicy = policy;
+   }
+
+   /**
+    * Get policy
+    *
+    * @return
+    */
+   public Policy getPolicy() {
+      return fPolicy;
+   }
+
+   /**
+    * Count displayed rows for an item and its expanded descendants
+    *
+    * @param item Item to count
+    *
+    * @return Number of rows
+    */
+   private static int countRows(TreeItem item) {
+      int rows = 1;
+      if (item.getExpanded()) {
+         for (TreeItem child:item.getItems()) {
+            rows += countRows(child);
+         }
+      }
+      return rows;
+   }
+
+   /**
+    * Get the expanded peripherals and the rows they occupy
+    *
+    * @param topItem Item at top of viewport
+    * @param topRow  Set to row number of topItem (topRow[0])
+    *
+    * @return List of peripherals
+    */
+   private ArrayList<PeripheralRows> getExpandedPeripherals(TreeItem topItem, int[] topRow) {
+      ArrayList<PeripheralRows> peripherals = new ArrayList<PeripheralRows>();
+      int row = 0;
+      topRow[0] = 0;
+      for (TreeItem item:fTree.getItems()) {
+         int rows = countRows(item);
+         if ((topItem != null) && isWithin(topItem, item)) {
+            topRow[0] = row+rowWithin(item, topItem);
+         }
+         if (item.getExpanded() && (item.getData() instanceof PeripheralModel)) {
+            peripherals.add(new PeripheralRows((PeripheralModel) item.getData(), row, row+rows));
+         }
+         row += rows;
+      }
+      return peripherals;
+   }
+
+   /**
+    * Check if item is within the subtree of parent
+    */
+   private static boolean isWithin(TreeItem item, TreeItem parent) {
+      for (TreeItem p=item; p!=null; p=p.getParentItem()) {
+         if (p == parent) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Get row of item relative to ancestor
+    *
+    * @param ancestor   Ancestor of item (row 0)
+    * @param item       Item to locate
+    *
+    * @return Row offset or -1 if not found
+    */
+   private static int rowWithin(TreeItem ancestor, TreeItem item) {
+      if (ancestor == item) {
+         return 0;
+      }
+      int row = 1;
+      if (ancestor.getExpanded()) {
+         for (TreeItem child:ancestor.getItems()) {
+            if (isWithin(item, child)) {
+               return row+rowWithin(child, item);
+            }
+            row += countRows(child);
+         }
+      }
+      return -1;
+   }
+
+   /**
+    * Get number of rows in the viewport
+    */
+   private int getVisibleRows() {
+      Rectangle area = fTree.getClientArea();
+      int itemHeight = Math.max(1, fTree.getItemHeight());
+      return Math.max(1, (area.height-fTree.getHeaderHeight()+itemHeight-1)/itemHeight);
+   }
+
+   /**
+    * Refresh peripherals after target suspended.<br>
+    * The peripherals are expected to have been marked as needing update.
+    *
+    * @note Must be called on the display thread
+    */
+   public void targetSuspended() {
+      if (fTree.isDisposed()) {
+         return;
+      }
+      int[] topRow = new int[1];
+      ArrayList<PeripheralRows> peripherals = getExpandedPeripherals(fTree.getTopItem(), topRow);
+      if (fPolicy == Policy.AllExpanded) {
+         for (PeripheralRows peripheral:peripherals) {
+            peripheral.fPeripheral.forceUpdate();
+         }
+         return;
+      }
+      int visibleRows = getVisibleRows();
+      int start = topRow[0];
+      int end   = start+visibleRows;
+      final ArrayList<PeripheralModel> prefetch = new ArrayList<PeripheralModel>();
+      for (PeripheralRows peripheral:peripherals) {
+         if (peripheral.overlaps(start, end)) {
+            peripheral.fPeripheral.forceUpdate();
+         }
+         else if ((fPolicy == Policy.VisibleAndPrefetch) &&
+               peripheral.overlaps(start-PREFETCH_PAGES*visibleRows, end+PREFETCH_PAGES*visibleRows)) {
+            prefetch.add(peripheral.fPeripheral);
+         }
+      }
+      if (!prefetch.isEmpty()) {
+         Display.getCurrent().timerExec(PREFETCH_DELAY, new Runnable() {
+            @Override
+            public void run() {
+               for (PeripheralModel peripheral:prefetch) {
+                  // Only reads if still stale
+                  peripheral.update();
+               }
+            }
+         });
+      }
+   }
+
+   /**
+    * Update any stale peripherals that have become visible e.g. due to scrolling
+    *
+    * @note Must be called on the display thread
+    */
+   public void viewportChanged() {
+      if (fTree.isDisposed() || (fPolicy == Policy.AllExpanded)) {
+         return;
+      }
+      int[] topRow = new int[1];
+      ArrayList<PeripheralRows> peripherals = getExpandedPeripherals(fTree.getTopItem(), topRow);
+      int start = topRow[0];
+      int end   = start+getVisibleRows();
+      for (PeripheralRows peripheral:peripherals) {
+         if (peripheral.overlaps(start, end)) {
+            // Only reads if stale
+            peripheral.fPeripheral.update();
+         }
+      }
+   }
+
+   /**
+    * Update any stale peripherals that become visible once the current event has been processed<br>
+    * Used for events that change the rows visible after the event is delivered e.g. expanding or collapsing items,
+    * the mouse wheel or keyboard navigation. Requests made before the check is done are combined.
+    *
+    * @note Must be called on the display thread
+    */
+   public void viewportMayChange() {
+      if (fViewportCheckPending || fTree.isDisposed()) {
+         return;
+      }
+      fViewportCheckPending = true;
+      fTree.getDisplay().asyncExec(new Runnable() {
+         @Override
+         public void run() {
+            fViewportCheckPending = false;
+            viewportChanged();
+         }
+      });
+   }
+}
@@ -3,6 +3,7 @@ package net.sourceforge.usbdm.peripherals.view;
 
 import net.sourceforge.usbdm.peripherals.model.FieldModel;
 import net.sourceforge.usbdm.peripherals.model.RegisterModel;
+import net.sourceforge.usbdm.peripherals.model.RegisterWriteQueue;
 
 import org.eclipse.jface.viewers.ICellModifier;
 import org.eclipse.swt.widgets.TreeItem;
@@ -62,6 +63,8 @@ public class PeripheralsViewCellModifier implements ICellModifier {
 //               System.err.println("PeripheralsViewCellModifier.modify(FieldModel, ...) - format error");
             }
          }
+         // Edit is complete - don't wait for the idle delay
+         RegisterWriteQueue.getQueue().flush();
       }
    }
 
@@ -38,7 +38,7 @@ class PeripheralsViewContentProvider implements ITreeContentProvider, IModelChan
    }
 
    public boolean hasChildren(Object element) {
-      return ((BaseModel) element).getChildren().size() > 0;
+      return ((BaseModel) element).hasChildren();
    }
 
    public void inputChanged(Viewer viewer, Object oldInput, Object newInput) {
@@ -58,6 +58,11 @@ class PeripheralsViewContentProvider implements ITreeContentProvider, IModelChan
       // System.err.println("PeripheralsViewContentProvider.addListenerTo(), parent listener = "
       // + model.toString());
       model.addListener(this);
+      if (model instanceof PeripheralModel) {
+         // Register and field changes are shown by refreshing the peripheral (see modelElementChanged())
+         // Don't visit children as this would load peripherals that have not been expanded
+         return;
+      }
       for (Object childModel : model.getChildren()) {
          if (childModel instanceof PeripheralModel) {
             addListenerTo(((BaseModel) childModel));
@@ -69,8 +74,14 @@ class PeripheralsViewContentProvider implements ITreeContentProvider, IModelChan
 
    protected void removeListenerFrom(BaseModel model) {
       model.removeListener(this);
+      if (model instanceof PeripheralModel) {
+         // Listeners are only added to peripherals (see addListenerTo())
+         return;
+      }
       for (Object childModel : model.getChildren()) {
-         removeListenerFrom(((BaseModel) childModel));
+         if (childModel instanceof PeripheralModel) {
+            removeListenerFrom(((BaseModel) childModel));
+         }
       }
    }
 
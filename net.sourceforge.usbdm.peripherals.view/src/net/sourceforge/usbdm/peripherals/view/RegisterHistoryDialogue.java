@@ -0,0 +1,102 @@
+package net.sourceforge.usbdm.peripherals.view;
+
+import org.eclipse.jface.dialogs.IDialogConstants;
+import org.eclipse.jface.dialogs.TitleAreaDialog;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.graphics.Point;
+import org.eclipse.swt.layout.FillLayout;
+import org.eclipse.swt.layout.GridData;
+import org.eclipse.swt.widgets.Button;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Control;
+import org.eclipse.swt.widgets.Shell;
+import org.eclipse.swt.widgets.Table;
+import org.eclipse.swt.widgets.TableColumn;
+import org.eclipse.swt.widgets.TableItem;
+
+import net.sourceforge.usbdm.peripherals.model.BaseModel;
+import net.sourceforge.usbdm.peripherals.model.RegisterHistory;
+import net.sourceforge.usbdm.peripherals.model.RegisterHistoryRecorder;
+import net.sourceforge.usbdm.peripherals.model.RegisterModel;
+
+/**
+ * Displays the recorded history of a register
+ */
+public class RegisterHistoryDialogue extends TitleAreaDialog {
+
+   private final RegisterHistory fHistory;
+
+   /**
+    * Create dialogue
+    *
+    * @param parentShell   Parent shell
+    * @param history       History to display
+    */
+   public RegisterHistoryDialogue(Shell parentShell, RegisterHistory history) {
+      super(parentShell);
+      setHelpAvailable(false);
+      fHistory = history;
+   }
+
+   @Override
+   protected Control createDialogArea(Composite parent) {
+      Composite area = (Composite) super.createDialogArea(parent);
+
+      RegisterModel register = fHistory.getRegister();
+      setTitle(RegisterHistoryRecorder.getFullName(register));
+      setMessage(String.format("%d samples (capacity %d, %d discarded)",
+            fHistory.size(), fHistory.getCapacity(), fHistory.getOverwritten()));
+
+      Table table = new Table(area, SWT.BORDER | SWT.FULL_SELECTION | SWT.V_SCROLL);
+      table.setLayoutData(new GridData(SWT.FILL, SWT.FILL, true, true));
+      table.setHeaderVisible(true);
+      table.setLinesVisible(true);
+
+      String[] titles = { "Time (ms)", "Value", "Changed bits" };
+      int[]    widths = { 100, 100, 300 };
+      for (int index=0; index<titles.length; index++) {
+         TableColumn column = new TableColumn(table, SWT.NONE);
+         column.setText(titles[index]);
+         column.setWidth(widths[index]);
+      }
+      // Newest first
+      for (int index=fHistory.size()-1; index>=0; index--) {
+         long value = fHistory.getValue(index);
+         TableItem item = new TableItem(table, SWT.NONE);
+         item.setText(0, String.format("%.3f", fHistory.getTime(index)/1000000.0));
+         item.setText(1, BaseModel.getValueAsHexString(value, register.getWidth()));
+         if (index > 0) {
+            item.setText(2, BaseModel.getValueAsBinaryString(value^fHistory.getValue(index-1), register.getWidth()));
+         }
+      }
+      return area;
+   }
+
+   /* (non-Javadoc)
+    * @see org.eclipse.jface.dialogs.Dialog#createButton(org.eclipse.swt.widgets.Composite, int, java.lang.String, boolean)
+    */
+   @Override
+   protected Button createButton(Composite parent, int id, String label, boolean defaultButton) {
+      if (id == IDialogConstants.CANCEL_ID) {
+         return null;
+      }
+      return super.createButton(parent, id, label, defaultButton);
+   }
+
+   @Override
+   protected void configureShell(Shell newShell) {
+      super.configureShell(newShell);
+      newShell.setText("Register History");
+      newShell.setLayout(new FillLayout());
+   }
+
+   @Override
+   protected Point getInitialSize() {
+      return new Point(560, 600);
+   }
+
+   @Override
+   protected boolean isResizable() {
+      return true;
+   }
+}
@@ -7,6 +7,10 @@
  */
 package net.sourceforge.usbdm.peripherals.view;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashMap;
 
@@ -16,6 +20,7 @@ import org.eclipse.jface.action.IMenuListener;
 import org.eclipse.jface.action.IMenuManager;
 import org.eclipse.jface.action.IToolBarManager;
 import org.eclipse.jface.action.MenuManager;
+import org.eclipse.jface.action.Separator;
 import org.eclipse.jface.dialogs.IDialogSettings;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.jface.resource.ImageDescriptor;
@@ -45,6 +50,9 @@ import org.eclipse.swt.graphics.Image;
 import org.eclipse.swt.layout.FillLayout;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Event;
+import org.eclipse.swt.widgets.FileDialog;
+import org.eclipse.swt.widgets.Listener;
 import org.eclipse.swt.widgets.Menu;
 import org.eclipse.swt.widgets.Tree;
 import org.eclipse.swt.widgets.TreeColumn;
@@ -54,11 +62,17 @@ import org.eclipse.ui.IViewSite;
 import org.eclipse.ui.PartInitException;
 import org.eclipse.ui.part.ViewPart;
 
+import net.sourceforge.usbdm.peripheralDatabase.RegisterException;
 import net.sourceforge.usbdm.peripheralDatabase.SVDIdentifier;
 import net.sourceforge.usbdm.peripherals.model.DeviceModel;
+import net.sourceforge.usbdm.peripherals.model.BaseModel;
 import net.sourceforge.usbdm.peripherals.model.FieldModel;
+import net.sourceforge.usbdm.peripherals.model.LiveWatchScheduler;
 import net.sourceforge.usbdm.peripherals.model.PeripheralModel;
+import net.sourceforge.usbdm.peripherals.model.RegisterHistory;
+import net.sourceforge.usbdm.peripherals.model.RegisterHistoryRecorder;
 import net.sourceforge.usbdm.peripherals.model.RegisterModel;
+import net.sourceforge.usbdm.peripherals.model.RegisterWriteQueue;
 import net.sourceforge.usbdm.peripherals.model.UpdateInterface;
 import net.sourceforge.usbdm.peripherals.model.UsbdmDevicePeripheralsModel;
 
@@ -68,7 +82,19 @@ import net.sourceforge.usbdm.peripherals.model.UsbdmDevicePeripheralsModel;
  */
 public class UsbdmDevicePeripheralsView extends ViewPart implements GdbSessionListener  {
 
-   private static final String SETTINGS_SVD = "usbdmDevicePeripheralView.SVD";
+   private static final String SETTINGS_SVD            = "usbdmDevicePeripheralView.SVD";
+   private static final String SETTINGS_REFRESH_POLICY = "usbdmDevicePeripheralView.refreshPolicy";
+   private static final String SETTINGS_LIVE_WATCH     = "usbdmDevicePeripheralView.liveWatchPeriod";
+   private static final String SETTINGS_HISTORY_LIMIT  = "usbdmDevicePeripheralView.historyMemoryLimit";
+
+   /** Memory limits offered for register history (MiB) */
+   private static final int[] HISTORY_MEMORY_LIMITS = { 1, 8, 32, 128 };
+
+   /** Sample periods offered for live watch (ms) */
+   private static final int[] LIVE_WATCH_PERIODS = { 1000, 500, 200, 100, 50 };
+
+   /** Interval between updates of live watch statistics on status line (ms) */
+   private static final int LIVE_WATCH_STATUS_INTERVAL = 1000;
 
    /**
     * SVDID of manually selected device.<br>
@@ -100,6 +126,15 @@ public class UsbdmDevicePeripheralsView extends ViewPart implements GdbSessionLi
 
    private IDialogSettings fSettings = null;
 
+   /** Policy used to refresh peripherals when target suspends */
+   private PeripheralsRefreshPolicy.Policy fRefreshPolicyType = PeripheralsRefreshPolicy.Policy.VisibleAndPrefetch;
+
+   /** Applies fRefreshPolicyType to the tree (null until tree created) */
+   private PeripheralsRefreshPolicy fRefreshPolicy = null;
+
+   /** Enables/disables live watch */
+   private Action fLiveWatchEnableAction;
+
    @Override
    public void init(IViewSite site, IMemento memento) throws PartInitException {
       //      System.err.println("UsbdmDevicePeripheralsView.init()");
@@ -119,6 +154,30 @@ public class UsbdmDevicePeripheralsView extends ViewPart implements GdbSessionLi
                e.printStackTrace();
             }
          }
+         value = fSettings.get(SETTINGS_REFRESH_POLICY);
+         if (value != null) {
+            try {
+               fRefreshPolicyType = PeripheralsRefreshPolicy.Policy.valueOf(value);
+            } catch (IllegalArgumentException e) {
+               System.err.println("UsbdmDevicePeripheralsView.loadSettings() - invalid refresh policy = " + value);
+            }
+         }
+         value = fSettings.get(SETTINGS_LIVE_WATCH);
+         if (value != null) {
+            try {
+               LiveWatchScheduler.getScheduler().setPeriod(Integer.parseInt(value));
+            } catch (NumberFormatException e) {
+               System.err.println("UsbdmDevicePeripheralsView.loadSettings() - invalid live watch period = " + value);
+            }
+         }
+         value = fSettings.get(SETTINGS_HISTORY_LIMIT);
+         if (value != null) {
+            try {
+               RegisterHistoryRecorder.getRecorder().setMemoryLimit(Long.parseLong(value));
+            } catch (NumberFormatException e) {
+               System.err.println("UsbdmDevicePeripheralsView.loadSettings() - invalid history memory limit = " + value);
+            }
+         }
       }
    }
 
@@ -128,6 +187,11 @@ public class UsbdmDevicePeripheralsView extends ViewPart implements GdbSessionLi
          //         System.err.println("UsbdmDevicePeripheralsView.createPartControl() svdId save = " + svdId);
          fSettings.put(SETTINGS_SVD, fManuallySelectedSvdId.toString());
       }
+      if (fSettings != null) {
+         fSettings.put(SETTINGS_REFRESH_POLICY, fRefreshPolicyType.name());
+         fSettings.put(SETTINGS_LIVE_WATCH, LiveWatchScheduler.getScheduler().getPeriod());
+         fSettings.put(SETTINGS_HISTORY_LIMIT, Long.toString(RegisterHistoryRecorder.getRecorder().getMemoryLimit()));
+      }
    }
 
    class MyAction extends Action {
@@ -220,6 +284,200 @@ public class UsbdmDevicePeripheralsView extends ViewPart implements GdbSessionLi
       }
    }
 
+   class RefreshPolicyAction extends MyAction {
+      final PeripheralsRefreshPolicy.Policy fPolicy;
+
+      /**
+       * @param policy Refresh policy selected by this action
+       */
+      RefreshPolicyAction(PeripheralsRefreshPolicy.Policy policy) {
+         super(policy.getDescription(), IAction.AS_RADIO_BUTTON);
+         fPolicy = policy;
+         setChecked(policy == fRefreshPolicyType);
+      }
+
+      @Override
+      public void run() {
+         if (!isChecked()) {
+            // Ignore de-selection of previous policy
+            return;
+         }
+         fRefreshPolicyType = fPolicy;
+         if (fRefreshPolicy != null) {
+            fRefreshPolicy.setPolicy(fPolicy);
+            fRefreshPolicy.viewportChanged();
+         }
+         saveSettings();
+      }
+   }
+
+   class LiveWatchPeriodAction extends MyAction {
+      final int fPeriod;
+
+      /**
+       * @param period Live watch sample period selected by this action (ms)
+       */
+      LiveWatchPeriodAction(int period) {
+         super(String.format("Sample at %.0f Hz", 1000.0/period), IAction.AS_RADIO_BUTTON);
+         fPeriod = period;
+         setChecked(period == LiveWatchScheduler.getScheduler().getPeriod());
+      }
+
+      @Override
+      public void run() {
+         if (!isChecked()) {
+            // Ignore de-selection of previous period
+            return;
+         }
+         LiveWatchScheduler.getScheduler().setPeriod(fPeriod);
+         saveSettings();
+      }
+   }
+
+   class LiveWatchSelectionAction extends MyAction {
+
+      LiveWatchSelectionAction(String text, String toolTip) {
+         super(text, toolTip, IAction.AS_PUSH_BUTTON, null);
+      }
+
+      @Override
+      public void run() {
+         LiveWatchScheduler scheduler = LiveWatchScheduler.getScheduler();
+         int skipped = 0;
+         for (Object obj : ((IStructuredSelection) fPeripheralsTreeViewer.getSelection()).toList()) {
+            try {
+               if (obj instanceof RegisterModel) {
+                  if (!scheduler.addWatch((RegisterModel) obj)) {
+                     skipped++;
+                  }
+               }
+               else if (obj instanceof PeripheralModel) {
+                  scheduler.addWatch((PeripheralModel) obj);
+               }
+            } catch (RegisterException e) {
+               e.printStackTrace();
+            }
+         }
+         if (skipped > 0) {
+            setStatusMessage(skipped + " register(s) not watched - not readable or reading has side-effects");
+         }
+         if ((scheduler.getWatchCount() > 0) && !scheduler.isRunning()) {
+            startLiveWatch();
+         }
+      }
+   }
+
+   class HistoryMemoryLimitAction extends MyAction {
+      final long fMemoryLimit;
+
+      /**
+       * @param megabytes Memory limit selected by this action (MiB)
+       */
+      HistoryMemoryLimitAction(int megabytes) {
+         super(String.format("Limit storage to %d MB", megabytes), IAction.AS_RADIO_BUTTON);
+         fMemoryLimit = megabytes*1024L*1024L;
+         setChecked(fMemoryLimit == RegisterHistoryRecorder.getRecorder().getMemoryLimit());
+      }
+
+      @Override
+      public void run() {
+         if (!isChecked()) {
+            // Ignore de-selection of previous limit
+            return;
+         }
+         RegisterHistoryRecorder.getRecorder().setMemoryLimit(fMemoryLimit);
+         saveSettings();
+      }
+   }
+
+   class RecordHistoryAction extends MyAction {
+
+      RecordHistoryAction(String text, String toolTip) {
+         super(text, toolTip, IAction.AS_PUSH_BUTTON, null);
+      }
+
+      @Override
+      public void run() {
+         RegisterHistoryRecorder recorder = RegisterHistoryRecorder.getRecorder();
+         // Registers are added together so history storage is only re-allocated once
+         ArrayList<RegisterModel> registers = new ArrayList<RegisterModel>();
+         for (Object obj : ((IStructuredSelection) fPeripheralsTreeViewer.getSelection()).toList()) {
+            if (obj instanceof RegisterModel) {
+               registers.add((RegisterModel) obj);
+            }
+            else if (obj instanceof FieldModel) {
+               registers.add((RegisterModel) ((FieldModel) obj).getParent());
+            }
+            else if (obj instanceof BaseModel) {
+               RegisterHistoryRecorder.collectRegisters((BaseModel) obj, registers);
+            }
+         }
+         int added = recorder.addRegisters(registers);
+         setStatusMessage(String.format("Recording history of %d register(s), %d added, storage %d kB",
+               recorder.getHistories().size(), added, recorder.getMemoryUsed()/1024));
+      }
+   }
+
+   class ShowHistoryAction extends MyAction {
+
+      ShowHistoryAction(String text, String toolTip) {
+         super(text, toolTip, IAction.AS_PUSH_BUTTON, null);
+      }
+
+      @Override
+      public void run() {
+         Object obj = ((IStructuredSelection) fPeripheralsTreeViewer.getSelection()).getFirstElement();
+         if (obj instanceof FieldModel) {
+            obj = ((FieldModel) obj).getParent();
+         }
+         if (!(obj instanceof RegisterModel)) {
+            return;
+         }
+         RegisterHistory history = RegisterHistoryRecorder.getRecorder().getHistory((RegisterModel) obj);
+         if (history == null) {
+            MessageDialog.openInformation(getSite().getShell(), "Register History", "History is not being recorded for this register");
+            return;
+         }
+         new RegisterHistoryDialogue(getSite().getShell(), history).open();
+      }
+   }
+
+   class ExportHistoryAction extends Action {
+      final boolean fVcd;
+
+      /**
+       * @param text Text for action
+       * @param vcd  Export as VCD (true) or CSV (false)
+       */
+      ExportHistoryAction(String text, boolean vcd) {
+         super(text);
+         fVcd = vcd;
+      }
+
+      @Override
+      public void run() {
+         FileDialog dialog = new FileDialog(getSite().getShell(), SWT.SAVE);
+         dialog.setOverwrite(true);
+         dialog.setFilterExtensions(fVcd?new String[] {"*.vcd"}:new String[] {"*.csv"});
+         String filename = dialog.open();
+         if (filename == null) {
+            return;
+         }
+         String deviceName = (peripheralsModel != null)?peripheralsModel.getDeviceName():"device";
+         try (Writer writer = Files.newBufferedWriter(Paths.get(filename))) {
+            if (fVcd) {
+               RegisterHistoryRecorder.getRecorder().exportVcd(writer, deviceName);
+            }
+            else {
+               RegisterHistoryRecorder.getRecorder().exportCsv(writer);
+            }
+         } catch (IOException e) {
+            e.printStackTrace();
+            MessageDialog.openError(getSite().getShell(), "Export failed", "Unable to write " + filename + "\n" + e.getMessage());
+         }
+      }
+   }
+
    class RefreshSelectionAction extends MyAction {
 
       RefreshSelectionAction(String text, String toolTip) {
@@ -273,6 +531,10 @@ public class UsbdmDevicePeripheralsView extends ViewPart implements GdbSessionLi
     */
    @Override
    public void dispose() {
+      // Commit any edits still waiting to be written
+      RegisterWriteQueue.getQueue().flush();
+      LiveWatchScheduler.getScheduler().stop();
+      LiveWatchScheduler.getScheduler().clearWatches();
       super.dispose();
       if (gdbDsfSessionListener != null) {
          gdbDsfSessionListener.removeListener(this);
@@ -344,6 +606,33 @@ public class UsbdmDevicePeripheralsView extends ViewPart implements GdbSessionLi
       tree.setHeaderVisible(true);
       ColumnViewerToolTipSupport.enableFor(fPeripheralsTreeViewer);
 
+      // Read stale peripherals as they are scrolled into view
+      fRefreshPolicy = new PeripheralsRefreshPolicy(tree);
+      fRefreshPolicy.setPolicy(fRefreshPolicyType);
+      tree.getVerticalBar().addSelectionListener(new SelectionAdapter() {
+         @Override
+         public void widgetSelected(SelectionEvent e) {
+            fRefreshPolicy.viewportChanged();
+         }
+      });
+      tree.addListener(SWT.Resize, new Listener() {
+         @Override
+         public void handleEvent(Event event) {
+            fRefreshPolicy.viewportChanged();
+         }
+      });
+      // These change the rows visible after the event is processed
+      Listener viewportListener = new Listener() {
+         @Override
+         public void handleEvent(Event event) {
+            fRefreshPolicy.viewportMayChange();
+         }
+      };
+      tree.addListener(SWT.Expand,     viewportListener);
+      tree.addListener(SWT.Collapse,   viewportListener);
+      tree.addListener(SWT.MouseWheel, viewportListener);
+      tree.addListener(SWT.KeyDown,    viewportListener);
+
 
       //      // Suppress tree expansion on double-click
       //      // see http://www.eclipse.org/forums/index.php/t/257325/
@@ -524,6 +813,45 @@ public class UsbdmDevicePeripheralsView extends ViewPart implements GdbSessionLi
       for (Action action:myActions) {
          manager.add(action);
       }
+      MenuManager liveWatchMenu = new MenuManager("Live watch");
+      liveWatchMenu.add(fLiveWatchEnableAction);
+      liveWatchMenu.add(new Action("Clear live watch") {
+         @Override
+         public void run() {
+            stopLiveWatch();
+            LiveWatchScheduler.getScheduler().clearWatches();
+         }
+      });
+      liveWatchMenu.add(new Separator());
+      for (int period:LIVE_WATCH_PERIODS) {
+         liveWatchMenu.add(new LiveWatchPeriodAction(period));
+      }
+      manager.add(liveWatchMenu);
+      MenuManager historyMenu = new MenuManager("Register history");
+      historyMenu.add(new ExportHistoryAction("Export history as CSV...", false));
+      historyMenu.add(new ExportHistoryAction("Export history as VCD...", true));
+      historyMenu.add(new Action("Clear recorded values") {
+         @Override
+         public void run() {
+            RegisterHistoryRecorder.getRecorder().clearSamples();
+         }
+      });
+      historyMenu.add(new Action("Stop recording all registers") {
+         @Override
+         public void run() {
+            RegisterHistoryRecorder.getRecorder().removeAll();
+         }
+      });
+      historyMenu.add(new Separator());
+      for (int limit:HISTORY_MEMORY_LIMITS) {
+         historyMenu.add(new HistoryMemoryLimitAction(limit));
+      }
+      manager.add(historyMenu);
+      MenuManager refreshMenu = new MenuManager("Refresh on suspend");
+      for (PeripheralsRefreshPolicy.Policy policy:PeripheralsRefreshPolicy.Policy.values()) {
+         refreshMenu.add(new RefreshPolicyAction(policy));
+      }
+      manager.add(refreshMenu);
       // Other plug-ins can contribute there actions here
       // manager.add(new Separator(IWorkbenchActionConstants.MB_ADDITIONS));
    }
@@ -568,6 +896,21 @@ public class UsbdmDevicePeripheralsView extends ViewPart implements GdbSessionLi
       myActions.add(new HideShowColumnAction("Toggle location column",          LOCATION_COL,     fDefaultLocationColumnWidth));
       myActions.add(new HideShowColumnAction("Toggle description column",       DESCRIPTION_COL,  fDefaultDescriptionColumnWidth));
       myActions.add(new RefreshSelectionAction("Refresh selection", "Refreshes currently selected registers/peripheral from target"));
+      myActions.add(new LiveWatchSelectionAction("Live watch selection", "Periodically samples selected registers/peripherals while target runs"));
+      myActions.add(new RecordHistoryAction("Record history of selection", "Records the value of selected registers each time they are read from target"));
+      myActions.add(new ShowHistoryAction("Show register history", "Shows recorded values of selected register"));
+
+      fLiveWatchEnableAction = new Action("Enable live watch", IAction.AS_CHECK_BOX) {
+         @Override
+         public void run() {
+            if (isChecked()) {
+               startLiveWatch();
+            }
+            else {
+               stopLiveWatch();
+            }
+         }
+      };
       fRefreshAllAction = new RefreshAction("Refresh all",    "Refreshes visible registers from target");
 
       /*
@@ -724,6 +1067,10 @@ public class UsbdmDevicePeripheralsView extends ViewPart implements GdbSessionLi
             // Use model from DSF session as current model (may represent unknown device)
             peripheralsModel = model;
 
+            // Histories and unwritten edits belong to previous session
+            RegisterHistoryRecorder.getRecorder().removeAll();
+            RegisterWriteQueue.getQueue().clear();
+
             if (peripheralsModel.getModel() == UsbdmDevicePeripheralsModel.NullDeviceModel) {
                // Model from DSF session does not model a real device
                // Try to create model from user selected item
@@ -773,6 +1120,10 @@ public class UsbdmDevicePeripheralsView extends ViewPart implements GdbSessionLi
                //               System.err.println("UsbdmDevicePeripheralsView.sessionTerminated() - peripheralsModel != aPeripheralsModel");
                return;
             }
+            // Target no longer accessible
+            RegisterWriteQueue.getQueue().clear();
+            stopLiveWatch();
+            LiveWatchScheduler.getScheduler().clearWatches();
             fPeripheralsTreeViewer.setInput(null);
             peripheralsModel = null;
             String buttonText;
@@ -818,16 +1169,64 @@ public class UsbdmDevicePeripheralsView extends ViewPart implements GdbSessionLi
                //               System.err.println("UsbdmDevicePeripheralsView.sessionTerminated() - peripheralsModel != aPeripheralsModel");
                return;
             }
-            Object[] visibleObjects = fPeripheralsTreeViewer.getExpandedElements();
-            for (Object object : visibleObjects) {
-               if (object instanceof PeripheralModel) {
-                  ((PeripheralModel) object).forceUpdate();
-               }
+            // Collapsed peripherals are left stale until expanded
+            fRefreshPolicy.targetSuspended();
+         }
+      });
+   }
+
+   /**
+    * Display message on status line
+    * 
+    * @param message Message to display (null to clear)
+    */
+   private void setStatusMessage(String message) {
+      IViewSite site = getViewSite();
+      if (site == null) {
+         return;
+      }
+      site.getActionBars().getStatusLineManager().setMessage(message);
+   }
+
+   /**
+    * Start live watch and periodically display its statistics on the status line
+    */
+   private void startLiveWatch() {
+      final LiveWatchScheduler scheduler = LiveWatchScheduler.getScheduler();
+      if (scheduler.getWatchCount() == 0) {
+         setStatusMessage("Live watch - nothing selected to watch");
+         fLiveWatchEnableAction.setChecked(false);
+         return;
+      }
+      fLiveWatchEnableAction.setChecked(true);
+      if (scheduler.isRunning()) {
+         return;
+      }
+      scheduler.resetStatistics();
+      scheduler.start();
+      Display.getCurrent().timerExec(LIVE_WATCH_STATUS_INTERVAL, new Runnable() {
+         @Override
+         public void run() {
+            if (!scheduler.isRunning() || (fPeripheralsTreeViewer == null) || fPeripheralsTreeViewer.getControl().isDisposed()) {
+               return;
             }
+            setStatusMessage(scheduler.getStatistics().toString());
+            Display.getCurrent().timerExec(LIVE_WATCH_STATUS_INTERVAL, this);
          }
       });
    }
 
+   /**
+    * Stop live watch
+    */
+   private void stopLiveWatch() {
+      LiveWatchScheduler.getScheduler().stop();
+      if (fLiveWatchEnableAction != null) {
+         fLiveWatchEnableAction.setChecked(false);
+      }
+      setStatusMessage(null);
+   }
+
    public PeripheralsInformationPanel getInformationPanel() {
       return fPeripheralsInformationPanel;
    }
@@ -0,0 +1,205 @@
+package tests.internal;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Random;
+
+import net.sourceforge.usbdm.peripheralDatabase.AddressBlock;
+import net.sourceforge.usbdm.peripheralDatabase.Peripheral;
+import net.sourceforge.usbdm.peripherals.model.MemoryBlockCache;
+
+/**
+ * Benchmark of change detection in MemoryBlockCache
+ * <ul>
+ * <li>A large set of simulated peripherals is created, each with a single memory block of 32-bit registers
+ * <li>Each cycle simulates a target suspend - the change reference is set, the blocks are refreshed with data
+ *     in which a few registers have changed and every register is checked for changes several times
+ *     (as the label provider does when painting)
+ * <li>The same cycle is run using the previous implementation (copy reference, compare bytes on each query)
+ * <li>Results are checked against each other and the time and allocation for both reported
+ * </ul>
+ */
+public class BenchmarkChangeDetection {
+
+   static final int PERIPHERALS        = 500;
+   static final int BLOCK_SIZE         = 256;
+   static final int REGISTER_SIZE      = 4;
+   static final int QUERIES_PER_CYCLE  = 4;
+   static final int CHANGES_PER_CYCLE  = 200;
+   static final int WARMUP_CYCLES      = 200;
+   static final int MEASURE_CYCLES     = 500;
+
+   /**
+    * Change detection as done before double-buffering
+    */
+   static class LegacyBlock {
+      byte[] fData;
+      byte[] fLastData;
+
+      void setChangeReference() {
+         if (fData != null) {
+            fLastData = new byte[fData.length];
+            System.arraycopy(fData, 0, fLastData, 0, fData.length);
+         }
+      }
+
+      void readCompleted(byte[] data, int offset) {
+         // Previously each block was given a new array sliced from the read
+         byte[] blockData = new byte[BLOCK_SIZE];
+         System.arraycopy(data, offset, blockData, 0, blockData.length);
+         fData = blockData;
+      }
+
+      boolean isChanged(int offset, int sizeInBytes) {
+         if (fLastData == null) {
+            return (fData == null)?false:true;
+         }
+         for (int index=offset; index<(offset+sizeInBytes); index++) {
+            if (fData[index] != fLastData[index]) {
+               return true;
+            }
+         }
+         return false;
+      }
+   }
+
+   /**
+    * Get bytes allocated by current thread
+    *
+    * @return Bytes allocated or -1 if not supported
+    */
+   static long getAllocatedBytes() {
+      ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+      if (bean instanceof com.sun.management.ThreadMXBean) {
+         return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+      }
+      return -1;
+   }
+
+   /**
+    * Simulated target memory for all peripherals
+    */
+   static class Target {
+      final byte[] fMemory = new byte[PERIPHERALS*BLOCK_SIZE];
+      final Random fRandom = new Random(1);
+
+      Target() {
+         fRandom.nextBytes(fMemory);
+      }
+
+      /**
+       * Modify some registers
+       */
+      void run() {
+         for (int change=0; change<CHANGES_PER_CYCLE; change++) {
+            fMemory[fRandom.nextInt(fMemory.length)]++;
+         }
+      }
+   }
+
+   /**
+    * Run cycles using MemoryBlockCache
+    *
+    * @param blocks  Blocks to update
+    * @param target  Target to read
+    * @param cycles  Number of cycles
+    *
+    * @return Number of changed registers found in last cycle
+    */
+   static int runCurrent(ArrayList<MemoryBlockCache> blocks, Target target, int cycles) {
+      int changed = 0;
+      for (int cycle=0; cycle<cycles; cycle++) {
+         target.run();
+         changed = 0;
+         for (int index=0; index<blocks.size(); index++) {
+            MemoryBlockCache block = blocks.get(index);
+            block.setChangeReference();
+            block.setData(target.fMemory, index*BLOCK_SIZE);
+         }
+         for (int query=0; query<QUERIES_PER_CYCLE; query++) {
+            changed = 0;
+            for (MemoryBlockCache block:blocks) {
+               for (int offset=0; offset<BLOCK_SIZE; offset+=REGISTER_SIZE) {
+                  if (block.isChanged(block.getAddress()+offset, REGISTER_SIZE)) {
+                     changed++;
+                  }
+               }
+            }
+         }
+      }
+      return changed;
+   }
+
+   /**
+    * Run cycles using previous implementation
+    *
+    * @param blocks  Blocks to update
+    * @param target  Target to read
+    * @param cycles  Number of cycles
+    *
+    * @return Number of changed registers found in last cycle
+    */
+   static int runLegacy(ArrayList<LegacyBlock> blocks, Target target, int cycles) {
+      int changed = 0;
+      for (int cycle=0; cycle<cycles; cycle++) {
+         target.run();
+         for (int index=0; index<blocks.size(); index++) {
+            LegacyBlock block = blocks.get(index);
+            block.setChangeReference();
+            block.readCompleted(target.fMemory, index*BLOCK_SIZE);
+         }
+         for (int query=0; query<QUERIES_PER_CYCLE; query++) {
+            changed = 0;
+            for (LegacyBlock block:blocks) {
+               for (int offset=0; offset<BLOCK_SIZE; offset+=REGISTER_SIZE) {
+                  if (block.isChanged(offset, REGISTER_SIZE)) {
+                     changed++;
+                  }
+               }
+            }
+         }
+      }
+      return changed;
+   }
+
+   public static void main(String[] args) throws Exception {
+      ArrayList<MemoryBlockCache> blocks       = new ArrayList<MemoryBlockCache>();
+      ArrayList<LegacyBlock>      legacyBlocks = new ArrayList<LegacyBlock>();
+      for (int index=0; index<PERIPHERALS; index++) {
+         Peripheral peripheral = new Peripheral(null);
+         peripheral.setBaseAddress(0x40000000L+index*0x1000L);
+         blocks.add(new MemoryBlockCache(peripheral, new AddressBlock(0, BLOCK_SIZE, 8*REGISTER_SIZE, "registers"), null));
+         legacyBlocks.add(new LegacyBlock());
+      }
+      Target currentTarget = new Target();
+      Target legacyTarget  = new Target();
+
+      runCurrent(blocks, currentTarget, WARMUP_CYCLES);
+      runLegacy(legacyBlocks, legacyTarget, WARMUP_CYCLES);
+
+      long startAllocation = getAllocatedBytes();
+      long startTime       = System.nanoTime();
+      int  currentChanged  = runCurrent(blocks, currentTarget, MEASURE_CYCLES);
+      long currentTime     = System.nanoTime()-startTime;
+      long currentAllocation = getAllocatedBytes()-startAllocation;
+
+      startAllocation = getAllocatedBytes();
+      startTime       = System.nanoTime();
+      int  legacyChanged  = runLegacy(legacyBlocks, legacyTarget, MEASURE_CYCLES);
+      long legacyTime     = System.nanoTime()-startTime;
+      long legacyAllocation = getAllocatedBytes()-startAllocation;
+
+      System.err.println(String.format("%d peripherals x %d bytes, %d queries/cycle, %d cycles",
+            PERIPHERALS, BLOCK_SIZE, QUERIES_PER_CYCLE, MEASURE_CYCLES));
+      System.err.println(String.format("Double-buffered : %8.1f us/cycle, %10d bytes/cycle, %d changed registers",
+            currentTime/(MEASURE_CYCLES*1000.0), currentAllocation/MEASURE_CYCLES, currentChanged));
+      System.err.println(String.format("Previous        : %8.1f us/cycle, %10d bytes/cycle, %d changed registers",
+            legacyTime/(MEASURE_CYCLES*1000.0), legacyAllocation/MEASURE_CYCLES, legacyChanged));
+      if (currentChanged != legacyChanged) {
+         System.err.println("FAILED");
+         System.exit(1);
+      }
+      System.err.println("PASSED");
+   }
+}
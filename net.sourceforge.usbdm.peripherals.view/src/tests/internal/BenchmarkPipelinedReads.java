@@ -0,0 +1,277 @@
+package tests.internal;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntBinaryOperator;
+
+import org.eclipse.cdt.dsf.concurrent.DataRequestMonitor;
+import org.eclipse.cdt.dsf.concurrent.DefaultDsfExecutor;
+import org.eclipse.cdt.dsf.concurrent.DsfExecutor;
+import org.eclipse.cdt.dsf.gdb.service.command.IGDBControl;
+import org.eclipse.cdt.dsf.mi.service.command.CommandFactory;
+import org.eclipse.cdt.dsf.mi.service.command.commands.MICommand;
+import org.eclipse.cdt.dsf.mi.service.command.output.MIInfo;
+import org.eclipse.cdt.dsf.mi.service.command.output.MIOutput;
+import org.eclipse.cdt.dsf.mi.service.command.output.MIParser;
+
+import net.sourceforge.usbdm.peripherals.view.GdbCommonInterface;
+import net.sourceforge.usbdm.peripherals.view.GdbDsfInterface;
+
+/**
+ * Benchmark of pipelined (asynchronous) memory reads through GdbDsfInterface
+ * <ul>
+ * <li>The real GdbDsfInterface is used with a simulated GDB control service and a DSF executor.
+ *     MI commands are created by the CDT command factory and the responses are parsed by the CDT MI parser.
+ * <li>Each command takes a fixed time to cross the link to GDB/the probe in each direction and the target
+ *     services commands one at a time.
+ * <li>Reads are done using the blocking interface with a window of 1 (one round trip at a time, as previously done)
+ *     and using the asynchronous interface with several sizes of in-flight window
+ * <li>The data read is checked and the number of MI commands outstanding is checked against the window
+ * </ul>
+ */
+public class BenchmarkPipelinedReads {
+
+   static final int  READS              = 1000;
+   static final int  READ_SIZE          = 4;
+   static final long LINK_DELAY_NS      = 250000;   // Each direction
+   static final long SERVICE_TIME_NS    =  50000;   // Target time for each command
+   static final int  WARMUP_READS       = 200;
+   static final int  WINDOW_SIZES[]     = { 1, 2, 4, 8, 16 };
+
+   /**
+    * Simulated GDB control service<br>
+    * Only the methods used for memory access are implemented.
+    * Memory contents are (byte)address.
+    */
+   static class SimulatedGdbControl implements InvocationHandler {
+
+      final DsfExecutor              fExecutor       = new DefaultDsfExecutor("BenchmarkPipelinedReads");
+      final CommandFactory           fCommandFactory = new CommandFactory();
+      final ScheduledExecutorService fLink           = Executors.newScheduledThreadPool(2);
+      final ExecutorService          fTarget         = Executors.newSingleThreadExecutor();
+      final AtomicInteger            fInFlight       = new AtomicInteger();
+      final AtomicInteger            fMaxInFlight    = new AtomicInteger();
+      final IGDBControl              fControl        = (IGDBControl) Proxy.newProxyInstance(
+            IGDBControl.class.getClassLoader(), new Class<?>[] {IGDBControl.class}, this);
+
+      void shutdown() {
+         fLink.shutdown();
+         fTarget.shutdown();
+         fExecutor.shutdown();
+      }
+
+      @SuppressWarnings("unchecked")
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+         if (method.getDeclaringClass() == Object.class) {
+            return method.invoke(this, args);
+         }
+         String name = method.getName();
+         if (name.equals("getExecutor")) {
+            return fExecutor;
+         }
+         if (name.equals("getCommandFactory")) {
+            return fCommandFactory;
+         }
+         if (name.equals("queueCommand")) {
+            queueCommand((MICommand<MIInfo>) args[0], (DataRequestMonitor<MIInfo>) args[1]);
+            return null;
+         }
+         if (method.getReturnType() == boolean.class) {
+            return false;
+         }
+         // Including getContext()
+         return null;
+      }
+
+      /**
+       * Queue MI read command<br>
+       * Command crosses link, is serviced by target and the response crosses back
+       *
+       * @param command  Command e.g. -data-read-memory address x wordSize rows columns
+       * @param rm       Completed with result of command
+       */
+      void queueCommand(final MICommand<MIInfo> command, final DataRequestMonitor<MIInfo> rm) {
+         fMaxInFlight.accumulateAndGet(fInFlight.incrementAndGet(), new IntBinaryOperator() {
+            @Override
+            public int applyAsInt(int left, int right) {
+               return Math.max(left, right);
+            }
+         });
+         fLink.schedule(new Runnable() {
+            @Override
+            public void run() {
+               fTarget.execute(new Runnable() {
+                  @Override
+                  public void run() {
+                     long end = System.nanoTime()+SERVICE_TIME_NS;
+                     while (System.nanoTime() < end) {
+                        LockSupport.parkNanos(end-System.nanoTime());
+                     }
+                     final MIOutput output = new MIParser().parse(respond(command.constructCommand()));
+                     fLink.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                           fInFlight.decrementAndGet();
+                           rm.setData(command.getResult(output));
+                           rm.done();
+                        }
+                     }, LINK_DELAY_NS, TimeUnit.NANOSECONDS);
+                  }
+               });
+            }
+         }, LINK_DELAY_NS, TimeUnit.NANOSECONDS);
+      }
+
+      /**
+       * Create MI response to read command
+       *
+       * @param command Command text ending in "address wordFormat wordSize rows columns"
+       *
+       * @return MI result record
+       */
+      static String respond(String command) {
+         String[] tokens = command.trim().split("\\s+");
+         int  count    = tokens.length;
+         long address  = Long.decode(tokens[count-5]);
+         int  size     = Integer.parseInt(tokens[count-3])*Integer.parseInt(tokens[count-2])*Integer.parseInt(tokens[count-1]);
+         StringBuilder sb = new StringBuilder();
+         sb.append(String.format("^done,addr=\"0x%X\",nr-bytes=\"%d\",total-bytes=\"%d\",next-row=\"0x%X\",prev-row=\"0x%X\","+
+               "next-page=\"0x%X\",prev-page=\"0x%X\",memory=[{addr=\"0x%X\",data=[",
+               address, size, size, address+size, address-size, address+size, address-size, address));
+         for (int index=0; index<size; index++) {
+            if (index != 0) {
+               sb.append(",");
+            }
+            sb.append(String.format("\"0x%02X\"", (address+index)&0xFF));
+         }
+         sb.append("]}]\n");
+         return sb.toString();
+      }
+   }
+
+   /**
+    * GdbDsfInterface using simulated GDB control service
+    */
+   static class SimulatedGdbDsfInterface extends GdbDsfInterface {
+
+      final SimulatedGdbControl fGdbControl;
+
+      SimulatedGdbDsfInterface(SimulatedGdbControl gdbControl) {
+         super(null);
+         fGdbControl = gdbControl;
+      }
+
+      @Override
+      protected IGDBControl getGdbControl(String caller) {
+         return fGdbControl.fControl;
+      }
+   }
+
+   /**
+    * Check data read
+    *
+    * @param address Address read
+    * @param data    Data read
+    *
+    * @return true if correct
+    */
+   static boolean check(long address, byte[] data) {
+      if ((data == null) || (data.length != READ_SIZE)) {
+         return false;
+      }
+      for (int index=0; index<READ_SIZE; index++) {
+         if (data[index] != (byte)(address+index)) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Read registers using blocking interface
+    *
+    * @param gdb     Interface to use
+    * @param reads   Number of reads
+    *
+    * @return Number of bad reads
+    */
+   static int runBlocking(GdbCommonInterface gdb, int reads) throws Exception {
+      int errors = 0;
+      for (int index=0; index<reads; index++) {
+         long address = 0x40000000L+(READ_SIZE*index);
+         if (!check(address, gdb.readMemory(address, READ_SIZE, 32))) {
+            errors++;
+         }
+      }
+      return errors;
+   }
+
+   /**
+    * Read registers using asynchronous interface - all reads are started before waiting
+    *
+    * @param gdb     Interface to use
+    * @param reads   Number of reads
+    *
+    * @return Number of bad reads
+    */
+   static int runPipelined(GdbCommonInterface gdb, int reads) {
+      ArrayList<CompletableFuture<byte[]>> futures = new ArrayList<CompletableFuture<byte[]>>(reads);
+      for (int index=0; index<reads; index++) {
+         futures.add(gdb.readMemoryAsync(0x40000000L+(READ_SIZE*index), READ_SIZE, 32));
+      }
+      int errors = 0;
+      for (int index=0; index<reads; index++) {
+         if (!check(0x40000000L+(READ_SIZE*index), GdbCommonInterface.getData(futures.get(index)))) {
+            errors++;
+         }
+      }
+      return errors;
+   }
+
+   public static void main(String[] args) throws Exception {
+      SimulatedGdbControl      gdbControl = new SimulatedGdbControl();
+      SimulatedGdbDsfInterface gdb        = new SimulatedGdbDsfInterface(gdbControl);
+      boolean failed = false;
+
+      System.err.println(String.format("%d reads of %d bytes, link delay %d us each way, target service time %d us",
+            READS, READ_SIZE, LINK_DELAY_NS/1000, SERVICE_TIME_NS/1000));
+
+      gdb.setInFlightLimit(1);
+      runBlocking(gdb, WARMUP_READS);
+      long startTime = System.nanoTime();
+      int  errors    = runBlocking(gdb, READS);
+      long blockingTime = System.nanoTime()-startTime;
+      System.err.println(String.format("Blocking       : %8.0f reads/s, errors=%d",
+            READS/(blockingTime/1e9), errors));
+      failed |= (errors != 0);
+
+      for (int windowSize:WINDOW_SIZES) {
+         gdb.setInFlightLimit(windowSize);
+         runPipelined(gdb, WARMUP_READS);
+         gdbControl.fMaxInFlight.set(0);
+         startTime = System.nanoTime();
+         errors    = runPipelined(gdb, READS);
+         long time = System.nanoTime()-startTime;
+         int maxInFlight = gdbControl.fMaxInFlight.get();
+         System.err.println(String.format("Window %2d      : %8.0f reads/s, errors=%d, max in flight=%d, speed-up=%.1f",
+               windowSize, READS/(time/1e9), errors, maxInFlight, (double)blockingTime/time));
+         failed |= (errors != 0) || (maxInFlight > windowSize);
+      }
+      gdbControl.shutdown();
+      if (failed) {
+         System.err.println("FAILED");
+         System.exit(1);
+      }
+      System.err.println("PASSED");
+   }
+}
@@ -0,0 +1,295 @@
+package tests.internal;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+
+import org.eclipse.swt.widgets.Display;
+
+import net.sourceforge.usbdm.peripheralDatabase.SVDIdentifier;
+import net.sourceforge.usbdm.peripherals.model.DeviceModel;
+import net.sourceforge.usbdm.peripherals.model.FieldModel;
+import net.sourceforge.usbdm.peripherals.model.MemoryException;
+import net.sourceforge.usbdm.peripherals.model.PeripheralModel;
+import net.sourceforge.usbdm.peripherals.model.RegisterModel;
+import net.sourceforge.usbdm.peripherals.model.RegisterWriteQueue;
+import net.sourceforge.usbdm.peripherals.model.UsbdmDevicePeripheralsModel;
+import net.sourceforge.usbdm.peripherals.view.GdbSimulatedInterface;
+
+/**
+ * Benchmark of register edits written through the {@link RegisterWriteQueue} against a simulated target
+ * <ul>
+ * <li>Two fields of each of a number of contiguous registers of a peripheral are edited
+ * <li>Individual - each edit is written and read back before the next edit (as when each edit is written immediately)
+ * <li>Queued - all edits are made together and written when the queue becomes idle
+ * <li>The number of target accesses and the time taken are compared and the target is checked against the model
+ * </ul>
+ * Registers of a 32-bit peripheral are expected to be combined into a single write while registers of an 8-bit
+ * peripheral are written individually to preserve the access width.
+ */
+public class BenchmarkRegisterWriteQueue {
+
+   static final String DEFAULT_SVD_FILE = "../net.sourceforge.usbdm.peripherals.freescale/data/MK70F15.svd.xml";
+
+   static final long LATENCY_NS    = 1000000;   // Round trip for each access
+   static final long BANDWIDTH     = 1000000;   // Bytes/second
+   static final int  REGISTERS     = 16;
+   static final int  QUIET_TIME    = 300;       // ms without target accesses to consider writes complete
+   static final int  TIMEOUT       = 10000;     // ms
+
+   /**
+    * Result of a set of edits
+    */
+   static class Result {
+      long   fWrites;
+      long   fReads;
+      double fTime;
+   }
+
+   /**
+    * Process display events
+    *
+    * @param display Display
+    * @param time    Longest time to wait for an event (ms)
+    */
+   static void pump(Display display, int time) {
+      if (display.readAndDispatch()) {
+         return;
+      }
+      display.timerExec(time, new Runnable() {
+         @Override
+         public void run() {
+         }
+      });
+      display.sleep();
+   }
+
+   /** Time spent confirming the target is idle (ms) */
+   static long fQuietTime = 0;
+
+   /**
+    * Wait until edits have been written and read back
+    *
+    * @param display  Display used for notification
+    * @param target   Simulated target
+    *
+    * @return true if completed, false on timeout
+    */
+   static boolean waitIdle(Display display, GdbSimulatedInterface target) {
+      RegisterWriteQueue queue   = RegisterWriteQueue.getQueue();
+      long endTime    = System.currentTimeMillis()+TIMEOUT;
+      long quietStart = System.currentTimeMillis();
+      long accesses   = -1;
+      while (System.currentTimeMillis() < endTime) {
+         pump(display, 10);
+         long currentAccesses = target.getReadCount()+target.getWriteCount();
+         if (queue.isPending() || (currentAccesses != accesses)) {
+            accesses   = currentAccesses;
+            quietStart = System.currentTimeMillis();
+         }
+         else if ((System.currentTimeMillis()-quietStart) > QUIET_TIME) {
+            fQuietTime += System.currentTimeMillis()-quietStart;
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Find contiguous registers of peripheral that may be edited
+    *
+    * @param peripheral Peripheral to search
+    * @param count      Largest number of registers to find
+    *
+    * @return Registers found
+    */
+   static ArrayList<RegisterModel> findRegisters(PeripheralModel peripheral, int count) {
+      ArrayList<RegisterModel> registers = new ArrayList<RegisterModel>();
+      for (Object child:peripheral.getChildren()) {
+         if (!(child instanceof RegisterModel)) {
+            continue;
+         }
+         RegisterModel register = (RegisterModel) child;
+         boolean usable = register.isReadable() && register.isWritable() && !register.isIsolated() && 
+               !register.getAccessMode().equals("RO");
+         if (usable && !registers.isEmpty()) {
+            RegisterModel last = registers.get(registers.size()-1);
+            usable = (register.getWidth() == last.getWidth()) && (register.getAddress() == last.getAddress()+(last.getWidth()/8));
+         }
+         if (!usable) {
+            if (registers.size() >= 2) {
+               break;
+            }
+            registers.clear();
+            continue;
+         }
+         registers.add(register);
+         if (registers.size() >= count) {
+            break;
+         }
+      }
+      return registers;
+   }
+
+   /**
+    * Invert the first two writable fields of each register
+    *
+    * @param display    Display used for notification
+    * @param target     Simulated target
+    * @param registers  Registers to edit
+    * @param wait       Wait for each edit to be written before the next
+    */
+   static void edit(Display display, GdbSimulatedInterface target, ArrayList<RegisterModel> registers, boolean wait) throws MemoryException {
+      for (RegisterModel register:registers) {
+         int edits = 0;
+         for (Object child:register.getChildren()) {
+            if ((edits >= 2) || !(child instanceof FieldModel)) {
+               continue;
+            }
+            FieldModel field = (FieldModel) child;
+            if (!field.isWritable()) {
+               continue;
+            }
+            long mask = (1L<<field.getBitWidth())-1;
+            field.setValue(~field.getValue()&mask);
+            edits++;
+            if (wait) {
+               waitIdle(display, target);
+            }
+         }
+         if (edits == 0) {
+            register.setValue(~register.getValue());
+            if (wait) {
+               waitIdle(display, target);
+            }
+         }
+      }
+   }
+
+   /**
+    * Check model and simulated target agree
+    *
+    * @param target     Simulated target
+    * @param registers  Registers to check
+    * @param expected   Expected values
+    *
+    * @return Number of registers that differ
+    */
+   static int check(GdbSimulatedInterface target, ArrayList<RegisterModel> registers, long[] expected) throws MemoryException {
+      int errors = 0;
+      for (int index=0; index<registers.size(); index++) {
+         RegisterModel register = registers.get(index);
+         long targetValue = target.peek(register.getAddress(), register.getWidth()/8);
+         if ((targetValue != expected[index]) || (register.getValue() != targetValue)) {
+            System.err.println(String.format("  %s: target=0x%X, model=0x%X, expected=0x%X",
+                  register.getName(), targetValue, register.getValue(), expected[index]));
+            errors++;
+         }
+      }
+      return errors;
+   }
+
+   /**
+    * Edit registers and measure target accesses
+    *
+    * @param display    Display used for notification
+    * @param target     Simulated target
+    * @param registers  Registers to edit
+    * @param queued     Use write queue rather than writing each edit individually
+    *
+    * @return Result or null if the target did not match the model
+    */
+   static Result run(Display display, GdbSimulatedInterface target, ArrayList<RegisterModel> registers, boolean queued) throws MemoryException {
+      RegisterWriteQueue queue = RegisterWriteQueue.getQueue();
+      queue.setCombineWrites(queued);
+      queue.setIdleDelay(queued?RegisterWriteQueue.DEFAULT_IDLE_DELAY:0);
+      queue.resetStatistics();
+      target.resetStatistics();
+
+      fQuietTime = 0;
+      long startTime = System.nanoTime();
+      edit(display, target, registers, !queued);
+      // Values written are those in the model after editing
+      long[] expected = new long[registers.size()];
+      for (int index=0; index<registers.size(); index++) {
+         expected[index] = registers.get(index).getValue();
+      }
+      if (!waitIdle(display, target)) {
+         System.err.println("  TIMEOUT");
+         return null;
+      }
+      Result result = new Result();
+      // Exclude time spent confirming the target is idle
+      result.fTime   = (System.nanoTime()-startTime)/1000000.0-fQuietTime;
+      result.fWrites = target.getWriteCount();
+      result.fReads  = target.getReadCount();
+      System.err.println(String.format("  %-10s writes=%3d, reads=%3d, time=%7.1f ms, %s",
+            queued?"Queued":"Individual", result.fWrites, result.fReads, result.fTime, queue.getStatistics()));
+      if (check(target, registers, expected) != 0) {
+         return null;
+      }
+      return result;
+   }
+
+   /**
+    * Run benchmark on a peripheral
+    *
+    * @param display          Display used for notification
+    * @param target           Simulated target
+    * @param device           Device model
+    * @param peripheralName   Peripheral to edit
+    * @param combined         Whether writes are expected to be combined
+    *
+    * @return true if passed
+    */
+   static boolean runPeripheral(Display display, GdbSimulatedInterface target, DeviceModel device, String peripheralName, boolean combined) throws MemoryException {
+      PeripheralModel peripheral = null;
+      for (Object child:device.getChildren()) {
+         if ((child instanceof PeripheralModel) && ((PeripheralModel) child).getName().equals(peripheralName)) {
+            peripheral = (PeripheralModel) child;
+         }
+      }
+      if (peripheral == null) {
+         System.err.println(peripheralName + " not found");
+         return false;
+      }
+      ArrayList<RegisterModel> registers = findRegisters(peripheral, REGISTERS);
+      System.err.println(String.format("%s: %d registers of %d bits from 0x%08X",
+            peripheralName, registers.size(), registers.get(0).getWidth(), registers.get(0).getAddress()));
+
+      // Load current values
+      peripheral.forceUpdate();
+      waitIdle(display, target);
+
+      Result individual = run(display, target, registers, false);
+      Result queued     = run(display, target, registers, true);
+      if ((individual == null) || (queued == null)) {
+         return false;
+      }
+      long expectedWrites = combined?1:RegisterWriteQueue.getQueue().getStatistics().fRegistersWritten;
+      if (queued.fWrites != expectedWrites) {
+         System.err.println(String.format("  Expected %d writes", expectedWrites));
+         return false;
+      }
+      System.err.println(String.format("  Round trips reduced by %.1fx",
+            (double)(individual.fWrites+individual.fReads)/(queued.fWrites+queued.fReads)));
+      return true;
+   }
+
+   public static void main(String[] args) throws Exception {
+      Display display = Display.getDefault();
+      String svdFile = (args.length > 0)?args[0]:DEFAULT_SVD_FILE;
+      SVDIdentifier svdId = new SVDIdentifier(Paths.get(svdFile));
+      GdbSimulatedInterface target = new GdbSimulatedInterface(svdId);
+      target.setTiming(LATENCY_NS, BANDWIDTH);
+      DeviceModel device = new DeviceModel(target.getDeviceName());
+      UsbdmDevicePeripheralsModel.loadDeviceModel(device, svdId, target);
+
+      boolean ok = true;
+      ok = runPeripheral(display, target, device, "PORTA", true)  && ok;
+      ok = runPeripheral(display, target, device, "UART0", false) && ok;
+      target.dispose();
+      System.err.println(ok?"PASSED":"FAILED");
+      display.dispose();
+      System.exit(ok?0:1);
+   }
+}
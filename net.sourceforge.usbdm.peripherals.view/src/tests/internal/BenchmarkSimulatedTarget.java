@@ -0,0 +1,265 @@
+package tests.internal;
+
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.eclipse.swt.widgets.Display;
+
+import net.sourceforge.usbdm.peripheralDatabase.SVDIdentifier;
+import net.sourceforge.usbdm.peripherals.model.BaseModel;
+import net.sourceforge.usbdm.peripherals.model.DeviceModel;
+import net.sourceforge.usbdm.peripherals.model.LiveWatchScheduler;
+import net.sourceforge.usbdm.peripherals.model.MemoryException;
+import net.sourceforge.usbdm.peripherals.model.MemoryReadScheduler;
+import net.sourceforge.usbdm.peripherals.model.PeripheralModel;
+import net.sourceforge.usbdm.peripherals.model.RegisterModel;
+import net.sourceforge.usbdm.peripherals.model.UsbdmDevicePeripheralsModel;
+import net.sourceforge.usbdm.peripherals.view.GdbSimulatedInterface;
+
+/**
+ * Benchmark of the peripheral model against a simulated target for every device in the peripheral database
+ * <ul>
+ * <li>Each device is loaded and run against a {@link GdbSimulatedInterface} built from its reset values
+ * <li>Full refresh - every peripheral is read as when all peripherals are expanded in the view
+ * <li>Step loop - the target is run (some registers changed) and every peripheral refreshed, repeatedly
+ * <li>Live watch - all peripherals are watched for a fixed time while the target runs.
+ *     No register with read side-effects may be read while watching
+ * <li>After each step the model is checked against the simulated target
+ * </ul>
+ * Arguments are SVD files or directories containing them. By default the data directories
+ * of the peripheral database plug-ins are used together with testFiles/IsolatedRegisters.svd.xml which
+ * places isolated registers between blocks that would otherwise be merged.<br>
+ * The model notifies listeners on the display thread so this must be run where a display is available.
+ */
+public class BenchmarkSimulatedTarget {
+
+   static final long LATENCY_NS         = 1000000;   // Round trip for each access
+   static final long BANDWIDTH          = 1000000;   // Bytes/second
+   static final int  STEPS              = 10;
+   static final int  CHANGES_PER_STEP   = 20;
+   static final int  LIVE_WATCH_TIME    = 1000;      // ms
+   static final int  LIVE_WATCH_PERIOD  = 50;        // ms
+   static final int  TIMEOUT            = 60000;     // ms
+
+   static final String DEFAULT_DIRECTORIES[] = {
+         "testFiles",
+         "../net.sourceforge.usbdm.peripherals.freescale/data",
+         "../net.sourceforge.usbdm.peripherals.stmicro/data",
+         "../net.sourceforge.usbdm.peripherals.atmel/data",
+         "../net.sourceforge.usbdm.peripherals.usbdm/data",
+   };
+
+   /**
+    * Get readable registers of model
+    *
+    * @param model      Model to search
+    * @param registers  Registers found
+    */
+   static void getRegisters(BaseModel model, ArrayList<RegisterModel> registers) {
+      for (Object child:model.getChildren()) {
+         if (child instanceof RegisterModel) {
+            RegisterModel register = (RegisterModel) child;
+            if (register.isReadable()) {
+               registers.add(register);
+            }
+         }
+         else if (child instanceof BaseModel) {
+            getRegisters((BaseModel) child, registers);
+         }
+      }
+   }
+
+   /**
+    * Refresh all peripherals and wait for the reads to complete
+    *
+    * @param display    Display used for notification
+    * @param device     Device to refresh
+    * @param registers  Readable registers of device
+    *
+    * @return true if completed, false on timeout
+    */
+   static boolean refresh(Display display, DeviceModel device, ArrayList<RegisterModel> registers) {
+      device.setNeedsUpdate(true);
+      for (Object child:device.getChildren()) {
+         if (child instanceof PeripheralModel) {
+            ((PeripheralModel) child).update();
+         }
+      }
+      long endTime = System.currentTimeMillis()+TIMEOUT;
+      for (RegisterModel register:registers) {
+         while (register.isNeedsUpdate()) {
+            if (System.currentTimeMillis() > endTime) {
+               return false;
+            }
+            pump(display, 10);
+         }
+      }
+      // Process final notification
+      pump(display, 0);
+      return true;
+   }
+
+   /**
+    * Process display events
+    *
+    * @param display Display
+    * @param time    Longest time to wait for an event (ms)
+    */
+   static void pump(Display display, int time) {
+      if (display.readAndDispatch()) {
+         return;
+      }
+      if (time > 0) {
+         // Make sure sleep returns
+         display.timerExec(time, new Runnable() {
+            @Override
+            public void run() {
+            }
+         });
+         display.sleep();
+      }
+   }
+
+   /**
+    * Check model matches simulated target
+    *
+    * @param target     Simulated target
+    * @param registers  Registers to check
+    *
+    * @return Number of registers that differ (excluding registers with side-effects)
+    */
+   static int check(GdbSimulatedInterface target, ArrayList<RegisterModel> registers) {
+      int errors = 0;
+      for (RegisterModel register:registers) {
+         if (register.isIsolated()) {
+            continue;
+         }
+         int  sizeInBytes = (register.getWidth()+7)/8;
+         long mask        = (sizeInBytes>=8)?-1L:((1L<<(8*sizeInBytes))-1);
+         try {
+            if ((register.getValue()&mask) != target.peek(register.getAddress(), sizeInBytes)) {
+               errors++;
+            }
+         } catch (MemoryException e) {
+            errors++;
+         }
+      }
+      return errors;
+   }
+
+   /**
+    * Run benchmark on a device
+    *
+    * @param display  Display used for notification
+    * @param svdFile  Device description
+    *
+    * @return true if passed
+    */
+   static boolean runDevice(Display display, File svdFile) throws Exception {
+      SVDIdentifier svdId = new SVDIdentifier(Paths.get(svdFile.getPath()));
+      GdbSimulatedInterface target;
+      try {
+         target = new GdbSimulatedInterface(svdId);
+      } catch (Exception e) {
+         System.err.println(String.format("%-24s skipped - %s", svdFile.getName(), e.getMessage()));
+         return true;
+      }
+      target.setTiming(LATENCY_NS, BANDWIDTH);
+
+      long startTime = System.nanoTime();
+      DeviceModel device = new DeviceModel(svdFile.getName());
+      UsbdmDevicePeripheralsModel.loadDeviceModel(device, svdId, target);
+      ArrayList<RegisterModel> registers = new ArrayList<RegisterModel>();
+      getRegisters(device, registers);
+      double loadTime = (System.nanoTime()-startTime)/1000000.0;
+
+      // Full refresh
+      MemoryReadScheduler scheduler = MemoryReadScheduler.getScheduler();
+      scheduler.resetStatistics();
+      target.resetStatistics();
+      startTime = System.nanoTime();
+      boolean ok = refresh(display, device, registers);
+      double refreshTime = (System.nanoTime()-startTime)/1000000.0;
+      long   refreshReads = target.getReadCount();
+      long   refreshBytes = target.getBytesRead();
+
+      // Step loop
+      int errors = 0;
+      startTime = System.nanoTime();
+      for (int step=0; ok && (step<STEPS); step++) {
+         target.run(CHANGES_PER_STEP);
+         device.setChangeReference();
+         ok = refresh(display, device, registers);
+         errors += check(target, registers);
+      }
+      double stepTime = (System.nanoTime()-startTime)/(STEPS*1000000.0);
+
+      // Live watch
+      LiveWatchScheduler liveWatch = LiveWatchScheduler.getScheduler();
+      liveWatch.clearWatches();
+      liveWatch.resetStatistics();
+      for (Object child:device.getChildren()) {
+         if (child instanceof PeripheralModel) {
+            liveWatch.addWatch((PeripheralModel) child);
+         }
+      }
+      liveWatch.setPeriod(LIVE_WATCH_PERIOD);
+      target.resetStatistics();
+      liveWatch.start();
+      long endTime = System.currentTimeMillis()+LIVE_WATCH_TIME;
+      while (System.currentTimeMillis() < endTime) {
+         target.run(1);
+         pump(display, 10);
+      }
+      // Rate is cleared when stopped
+      LiveWatchScheduler.Statistics liveWatchStatistics = liveWatch.getStatistics();
+      liveWatch.stop();
+      long sideEffectReads = target.getSideEffectReadCount();
+      liveWatch.clearWatches();
+      target.dispose();
+
+      System.err.println(String.format(
+            "%-24s regs=%5d, mapped=%6d, load=%7.1f ms, refresh=%7.1f ms (%4d reads, %6d bytes), step=%7.1f ms, live watch=%5.1f Hz (%d samples, %d dropped, %d side-effect reads), %s",
+            target.getDeviceName(), registers.size(), target.getMappedSize(), loadTime,
+            refreshTime, refreshReads, refreshBytes, stepTime,
+            liveWatchStatistics.fSampleRate, liveWatchStatistics.fSamples, liveWatchStatistics.fDroppedSamples, sideEffectReads,
+            !ok?"TIMEOUT":(errors != 0)?(errors+" MISMATCHES"):(sideEffectReads != 0)?"SIDE-EFFECT READS":"OK"));
+      return ok && (errors == 0) && (sideEffectReads == 0);
+   }
+
+   public static void main(String[] args) throws Exception {
+      Display display = Display.getDefault();
+      if (args.length == 0) {
+         args = DEFAULT_DIRECTORIES;
+      }
+      ArrayList<File> svdFiles = new ArrayList<File>();
+      for (String arg:args) {
+         File file = new File(arg);
+         if (file.isDirectory()) {
+            File[] files = file.listFiles();
+            Arrays.sort(files);
+            for (File svdFile:files) {
+               if (svdFile.getName().endsWith(".svd.xml")) {
+                  svdFiles.add(svdFile);
+               }
+            }
+         }
+         else if (file.isFile()) {
+            svdFiles.add(file);
+         }
+      }
+      System.err.println(String.format("%d devices, latency %d us, bandwidth %d bytes/s, in-flight limit %d",
+            svdFiles.size(), LATENCY_NS/1000, BANDWIDTH, GdbSimulatedInterface.DEFAULT_IN_FLIGHT_LIMIT));
+      int failures = 0;
+      for (File svdFile:svdFiles) {
+         if (!runDevice(display, svdFile)) {
+            failures++;
+         }
+      }
+      System.err.println(failures==0?"PASSED":("FAILED "+failures+" devices"));
+      display.dispose();
+      System.exit((failures==0)?0:1);
+   }
+}